@@ -1,43 +1,72 @@
 package com.codeshelf.api.pickscript;
 
-import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codeshelf.ws.protocol.message.ScriptMessage;
+import com.google.common.util.concurrent.SettableFuture;
 
+/**
+ * Hands the site controller's response to a script call back to the server thread that sent it. The caller registers
+ * with expectSiteResponse() before sending, and waitForSiteResponse() returns as soon as the response arrives.
+ */
 public class ScriptSiteCallPool {
-	private static final int DEF_TIMEOUT_MIN = 5;
-	private static HashMap<UUID, ScriptMessage> responses = new HashMap<>();
-	private static Object lock = new Object();
-	
-	public static ScriptMessage waitForSiteResponse(UUID id) throws InterruptedException{
+	private static final Logger											LOGGER			= LoggerFactory.getLogger(ScriptSiteCallPool.class);
+	private static final int											DEF_TIMEOUT_MIN	= 5;
+	private static final ConcurrentMap<UUID, SettableFuture<ScriptMessage>>	responses		= new ConcurrentHashMap<>();
+
+	/**
+	 * Call before sending the script message, so a fast response is not missed.
+	 */
+	public static void expectSiteResponse(UUID id) {
+		responses.putIfAbsent(id, SettableFuture.<ScriptMessage> create());
+	}
+
+	public static ScriptMessage waitForSiteResponse(UUID id) throws InterruptedException {
 		return waitForSiteResponse(id, DEF_TIMEOUT_MIN);
 	}
-	
-	public static ScriptMessage waitForSiteResponse(UUID id, Integer timeoutMin) throws InterruptedException{
+
+	public static ScriptMessage waitForSiteResponse(UUID id, Integer timeoutMin) throws InterruptedException {
 		if (timeoutMin == null) {
 			timeoutMin = DEF_TIMEOUT_MIN;
 		}
-		long start = System.currentTimeMillis();
-		long now = System.currentTimeMillis();
-		ScriptMessage responseMessage = null;
-		while ((now - start) / 1000 / 60 < timeoutMin){
-			Thread.sleep(2000);
-			now = System.currentTimeMillis();
-			synchronized (lock) {
-				responseMessage = responses.remove(id);
-			}
-			if (responseMessage != null) {
-				return responseMessage; 
-			}
-			
+		expectSiteResponse(id);
+		try {
+			return responses.get(id).get(timeoutMin, TimeUnit.MINUTES);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (ExecutionException e) {
+			// never set with an exception
+			LOGGER.error("unexpected failure waiting for site response {}", id, e);
+			return null;
+		} finally {
+			responses.remove(id);
 		}
-		return null;
 	}
-	
+
+	/**
+	 * Call if the script message could not be sent after expectSiteResponse(), so the expected response is not kept.
+	 */
+	public static void cancel(UUID id) {
+		SettableFuture<ScriptMessage> response = responses.remove(id);
+		if (response != null) {
+			response.cancel(false);
+		}
+	}
+
 	public static void registerSiteResponse(ScriptMessage message) {
-		synchronized (lock) {
-			responses.put(message.getId(), message);
+		SettableFuture<ScriptMessage> response = responses.get(message.getId());
+		if (response == null) {
+			LOGGER.warn("Site script response {} arrived after its call timed out or was never expected", message.getId());
+			return;
 		}
-	}	
-}
\ No newline at end of file
+		response.set(message);
+	}
+}
@@ -700,6 +700,7 @@ public class FacilityResource {
 	private ScriptMessage runSiteScript(StepPart part, int timeoutMin) throws Exception {
 		ScriptMessage errorMesage = new ScriptMessage();
 		TenantPersistenceService persistence = TenantPersistenceService.getInstance();
+		UUID id = null;
 		
 		persistence.beginTransaction();
 		try {
@@ -729,8 +730,9 @@ public class FacilityResource {
 	    	}
 
 			//Execute script
-			UUID id = UUID.randomUUID();
+			id = UUID.randomUUID();
 			ScriptMessage scriptMessage = new ScriptMessage(id, part.getScriptLines());
+			ScriptSiteCallPool.expectSiteResponse(id);
 			Set<User> users = new HashSet<>();
 			users.add(siteController.getUser());
 			webSocketManagerService.sendMessage(users, scriptMessage);
@@ -742,6 +744,10 @@ public class FacilityResource {
 			}
 			return siteResponseMessage;
 		} catch (Exception e) {
+			if (id != null) {
+				// no response will be waited for
+				ScriptSiteCallPool.cancel(id);
+			}
 			persistence.rollbackTransaction();
 			errorMesage.setMessageError("Site request failed: " + e.getMessage());
 			return errorMesage;
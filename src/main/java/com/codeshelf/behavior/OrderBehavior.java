@@ -14,7 +14,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
-import org.apache.commons.beanutils.PropertyUtilsBean;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.Session;
@@ -40,6 +39,7 @@ import com.codeshelf.model.domain.OrderHeader;
 import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.security.CodeshelfSecurityManager;
 import com.codeshelf.util.CompareNullChecker;
+import com.codeshelf.util.PropertyAccessorCache;
 import com.codeshelf.util.UomNormalizer;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
@@ -207,17 +207,18 @@ public class OrderBehavior implements IApiBehavior {
 	}
 
 	private List<Map<String, Object>> toOrderPropertiesView(Collection<OrderHeader> results, String[] propertyNames) {
-		PropertyUtilsBean propertyUtils = new PropertyUtilsBean();
 		ArrayList<Map<String, Object>> viewResults = new ArrayList<Map<String, Object>>();
 		for (OrderHeader orderHeader: results) {
 			Map<String, Object> propertiesMap = new HashMap<>();
 			for (String propertyName : propertyNames) {
 				try {
-					Object resultObject = propertyUtils.getProperty(orderHeader, propertyName);
-					propertiesMap.put(propertyName, resultObject);
-				} catch (NoSuchMethodException e) {
-					// Minor problem. UI hierarchical view asks for same data field name for all object types in the view. Not really an error in most cases
-					LOGGER.debug("no property " + propertyName + " on object: " + orderHeader);
+					Object resultObject = PropertyAccessorCache.getProperty(orderHeader, propertyName);
+					if (resultObject != PropertyAccessorCache.NO_SUCH_PROPERTY) {
+						propertiesMap.put(propertyName, resultObject);
+					} else {
+						// Minor problem. UI hierarchical view asks for same data field name for all object types in the view. Not really an error in most cases
+						LOGGER.debug("no property {} on object: {}", propertyName, orderHeader);
+					}
 				} catch (Exception e) {
 					LOGGER.warn("unexpected exception for property " + propertyName + " object: " + orderHeader, e);
 				}
@@ -0,0 +1,127 @@
+package com.codeshelf.behavior;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.model.OrderTypeEnum;
+import com.codeshelf.model.domain.DomainObjectABC;
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.OrderDetail;
+import com.codeshelf.model.domain.OrderHeader;
+import com.codeshelf.util.UomNormalizer;
+import com.google.common.base.Objects;
+
+/**
+ * Active details of the active OUTBOUND orders of one facility, by order group, item master and normalized uom.
+ * This is what a crossbatch detail has to match, so each crossbatch detail costs one lookup instead of a scan of
+ * every order in the facility.
+ *
+ * Built from the database once per computation (a CHE setup, a crossbatch file) and not kept after it. It does not
+ * see outbound orders changed after it was built.
+ */
+public class OutboundOrderDetailIndex {
+
+	private static final Logger					LOGGER	= LoggerFactory.getLogger(OutboundOrderDetailIndex.class);
+
+	private final Map<Key, List<OrderDetail>>	details	= new HashMap<Key, List<OrderDetail>>();
+
+	private OutboundOrderDetailIndex() {
+	}
+
+	public static OutboundOrderDetailIndex build(Facility facility) {
+		List<Criterion> filterParams = new ArrayList<Criterion>();
+		filterParams.add(Restrictions.eq("parent", facility));
+		filterParams.add(Restrictions.eq("orderType", OrderTypeEnum.OUTBOUND));
+		filterParams.add(Restrictions.eq("active", true));
+		List<OrderHeader> outboundOrders = OrderHeader.staticGetDao().findByFilter(filterParams);
+
+		OutboundOrderDetailIndex index = new OutboundOrderDetailIndex();
+		int count = 0;
+		for (OrderHeader outOrder : outboundOrders) {
+			for (OrderDetail outOrderDetail : outOrder.getOrderDetails()) {
+				if (outOrderDetail.getActive()) {
+					Key key = Key.of(outOrder, outOrderDetail);
+					if (key != null) {
+						List<OrderDetail> keyDetails = index.details.get(key);
+						if (keyDetails == null) {
+							keyDetails = new ArrayList<OrderDetail>();
+							index.details.put(key, keyDetails);
+						}
+						keyDetails.add(outOrderDetail);
+						count++;
+					}
+				}
+			}
+		}
+		LOGGER.debug("indexed {} details of {} outbound orders", count, outboundOrders.size());
+		return index;
+	}
+
+	/**
+	 * @return the active outbound details in the same order group as the crossbatch detail's order, for the same item master
+	 * and an equivalent uom. Never null.
+	 */
+	public List<OrderDetail> getMatchingOutboundDetails(OrderDetail crossbatchOrderDetail) {
+		Key key = Key.of(crossbatchOrderDetail.getParent(), crossbatchOrderDetail);
+		if (key == null) {
+			return Collections.emptyList();
+		}
+		List<OrderDetail> matches = details.get(key);
+		if (matches == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(matches);
+	}
+
+	private static final class Key {
+		private final UUID		orderGroupId;
+		private final UUID		itemMasterId;
+		private final String	normalizedUom;
+
+		private Key(UUID orderGroupId, UUID itemMasterId, String normalizedUom) {
+			this.orderGroupId = orderGroupId;
+			this.itemMasterId = itemMasterId;
+			this.normalizedUom = normalizedUom;
+		}
+
+		/**
+		 * @return null if the detail is missing its item master or uom, which can then match nothing
+		 */
+		static Key of(OrderHeader order, OrderDetail detail) {
+			if (detail.getItemMaster() == null || detail.getUomMaster() == null) {
+				return null;
+			}
+			return new Key(idOf(order.getOrderGroup()),
+				detail.getItemMaster().getPersistentId(),
+				UomNormalizer.normalizeString(detail.getUomMasterId()));
+		}
+
+		private static UUID idOf(DomainObjectABC domainObject) {
+			return (domainObject == null) ? null : domainObject.getPersistentId();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return Objects.equal(orderGroupId, other.orderGroupId) && itemMasterId.equals(other.itemMasterId)
+					&& normalizedUom.equals(other.normalizedUom);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(orderGroupId, itemMasterId, normalizedUom);
+		}
+	}
+}
@@ -22,7 +22,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.Getter;
 import lombok.ToString;
 
-import org.apache.commons.beanutils.PropertyUtilsBean;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
@@ -84,7 +83,7 @@ import com.codeshelf.model.domain.Worker;
 import com.codeshelf.model.domain.WorkerEvent;
 import com.codeshelf.model.domain.WorkerEvent.EventType;
 import com.codeshelf.util.CompareNullChecker;
-import com.codeshelf.util.UomNormalizer;
+import com.codeshelf.util.PropertyAccessorCache;
 import com.codeshelf.validation.BatchResult;
 import com.codeshelf.validation.ErrorCode;
 import com.codeshelf.validation.MethodArgumentException;
@@ -92,9 +91,7 @@ import com.codeshelf.ws.protocol.response.GetOrderDetailWorkResponse;
 import com.codeshelf.ws.protocol.response.GetPutWallInstructionResponse;
 import com.codeshelf.ws.protocol.response.ResponseStatus;
 import com.google.common.base.Joiner;
-import com.google.common.base.Objects;
 import com.google.common.base.Optional;
-import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -1051,25 +1048,21 @@ public class WorkBehavior implements IApiBehavior {
 	}
 
 	private String findSkuWallWithItem(Facility facility, ItemMaster itemMaster, UomMaster uomMaster) {
-		List<Criterion> filterParams = new ArrayList<Criterion>();
-		filterParams.add(Restrictions.eq("usage", Location.SKUWALL_USAGE));
-		List<Location> skuWalls = Location.staticGetLocationDao().findByFilter(filterParams);
-		String foundWall = null;
-		for (Location skuWall : skuWalls) {
-			if (skuWall.getFacility().equals(facility)) {
-				Item item = skuWall.findItemInLocationAndChildren(itemMaster, uomMaster);
-				if (item != null) {
-					Location itemLocation = item.getStoredLocation();
-					Location itemWall = itemLocation.getWall(Location.SKUWALL_USAGE);
-					if (foundWall == null) {
-						foundWall = itemWall.getBestUsableLocationName();
-					} else {
-						return "other walls";
-					}
-				}
+		// Start from the master's own items rather than searching the inventory of every sku wall for it.
+		Set<Location> itemWalls = new HashSet<Location>();
+		for (Item item : itemMaster.getItems()) {
+			Location itemLocation = item.getStoredLocation();
+			if (uomMaster.equals(item.getUomMaster()) && itemLocation != null && itemLocation.isSkuWallLocation()
+					&& facility.equals(itemLocation.getFacility())) {
+				itemWalls.add(itemLocation.getWall(Location.SKUWALL_USAGE));
 			}
 		}
-		return foundWall;
+		if (itemWalls.isEmpty()) {
+			return null;
+		} else if (itemWalls.size() > 1) {
+			return "other walls";
+		}
+		return itemWalls.iterator().next().getBestUsableLocationName();
 	}
 
 	private List<WorkInstruction> getOrderWallInstructionsForItem(final Facility facility,
@@ -1092,18 +1085,16 @@ public class WorkBehavior implements IApiBehavior {
 		// 2 putWallLoc is probably a bay, but could be an aisle or in weird cases tier or slot. Could putwall "slots" be tiers or bays? assume not for now.
 		List<Location> putWallSlots = putWallLoc.getActiveChildrenAtLevel(Slot.class);
 
-		// 3 assemble a list of order locations with locations in the put wall. This will perform very badly if there are lots of order locations left about in the system.
-		// It is impossible to do this with a simple filter.
+		// 3 assemble a list of active order locations with locations in the put wall.
 		List<OrderLocation> orderLocationsInWall = new ArrayList<OrderLocation>();
-		List<OrderLocation> orderLocations = OrderLocation.staticGetDao().getAll(); // might filter by active. That is all
-		for (OrderLocation ol : orderLocations) {
-			if (ol.getActive()) {
-				Location oneLoc = ol.getLocation(); // not nullable. Should be good.
-				if (putWallSlots.contains(oneLoc)) {
-					OrderHeader oh = ol.getParent();
-					if (oh.getActive() && oh.getStatus() != OrderStatusEnum.COMPLETE) {
-						orderLocationsInWall.add(ol);
-					}
+		if (!putWallSlots.isEmpty()) {
+			List<Criterion> filterParams = new ArrayList<Criterion>();
+			filterParams.add(Restrictions.in("location", putWallSlots)); // empty .in() guard present
+			filterParams.add(Restrictions.eq("active", true));
+			for (OrderLocation ol : OrderLocation.staticGetDao().findByFilter(filterParams)) {
+				OrderHeader oh = ol.getParent();
+				if (oh.getActive() && oh.getStatus() != OrderStatusEnum.COMPLETE) {
+					orderLocationsInWall.add(ol);
 				}
 			}
 		}
@@ -1451,48 +1442,17 @@ public class WorkBehavior implements IApiBehavior {
 		return locations;
 	}
 
-	private List<OrderDetail> toAllMatchingOutboundOrderDetails(List<OrderHeader> allFacilityOrderHeaders,
+	private List<OrderDetail> toAllMatchingOutboundOrderDetails(OutboundOrderDetailIndex outboundDetails,
 		OrderHeader crossbatchOrder) {
 		List<OrderDetail> allMatchingOrderDetails = Lists.newArrayList();
 		for (OrderDetail crossOrderDetail : crossbatchOrder.getOrderDetails()) {
 			if (crossOrderDetail.getActive()) {
-				List<OrderDetail> matchingOrderDetails = toMatchingOutboundOrderDetail(allFacilityOrderHeaders, crossOrderDetail);
-				allMatchingOrderDetails.addAll(matchingOrderDetails);
+				allMatchingOrderDetails.addAll(outboundDetails.getMatchingOutboundDetails(crossOrderDetail));
 			}
 		}
 		return allMatchingOrderDetails;
 	}
 
-	private List<OrderDetail> toMatchingOutboundOrderDetail(List<OrderHeader> allFacilityOrderHeaders,
-		OrderDetail crossbatchOrderDetail) {
-		Preconditions.checkNotNull(crossbatchOrderDetail);
-		Preconditions.checkArgument(crossbatchOrderDetail.getActive());
-		Preconditions.checkArgument(crossbatchOrderDetail.getParent().getOrderType().equals(OrderTypeEnum.CROSS));
-
-		List<OrderDetail> matchingOutboundOrderDetail = new ArrayList<OrderDetail>();
-		for (OrderHeader outOrder : allFacilityOrderHeaders) {
-			boolean match = true;
-			match &= outOrder.getOrderType().equals(OrderTypeEnum.OUTBOUND);
-			match &= outOrder.getActive();
-			match &= Objects.equal(crossbatchOrderDetail.getParent().getOrderGroup(), outOrder.getOrderGroup());
-			if (match) {
-				for (OrderDetail outOrderDetail : outOrder.getOrderDetails()) {
-					if (outOrderDetail.getActive()) {
-						boolean matchDetail = true;
-						matchDetail &= outOrderDetail.getItemMaster().equals(crossbatchOrderDetail.getItemMaster());
-						matchDetail &= UomNormalizer.normalizedEquals(outOrderDetail.getUomMasterId(),
-							crossbatchOrderDetail.getUomMasterId());
-						if (matchDetail) {
-							matchingOutboundOrderDetail.add(outOrderDetail);
-						}
-					}
-
-				}
-			}
-		}
-		return matchingOutboundOrderDetail;
-	}
-
 	// --------------------------------------------------------------------------
 	/**
 	 * @param inOrder
@@ -1726,8 +1686,12 @@ public class WorkBehavior implements IApiBehavior {
 		final Timestamp inTime) {
 
 		List<WorkInstruction> wiList = Lists.newArrayList();
+		if (inContainerList.isEmpty()) {
+			return wiList;
+		}
+		OutboundOrderDetailIndex outboundDetails = OutboundOrderDetailIndex.build(facility);
 		for (Container container : inContainerList) {
-			BatchResult<Work> result = determineWorkForContainer(facility, container);
+			BatchResult<Work> result = determineWorkForContainer(facility, container, outboundDetails);
 			for (Work work : result.getResult()) {
 				try {
 					WorkInstruction wi = WiFactory.createWorkInstruction(WorkInstructionStatusEnum.NEW,
@@ -1753,15 +1717,24 @@ public class WorkBehavior implements IApiBehavior {
 	}
 
 	public BatchResult<Work> determineWorkForContainer(Facility facility, Container container) {
+		return determineWorkForContainer(facility, container, null);
+	}
+
+	/**
+	 * @param outboundDetails index of the facility's outbound details, shared by every container of one computation.
+	 * If null, one is built for this container alone.
+	 */
+	public BatchResult<Work> determineWorkForContainer(Facility facility, Container container, OutboundOrderDetailIndex outboundDetails) {
 		// Iterate over all active CROSS orders on the path.
 		BatchResult<Work> batchResult = new BatchResult<Work>();
 		OrderHeader crossOrder = container.getCurrentOrderHeader();
 		if ((crossOrder != null) && (crossOrder.getActive()) && (crossOrder.getOrderType().equals(OrderTypeEnum.CROSS))) {
-			// refactor to not load all orders
-			List<OrderHeader> allOrders = OrderHeader.staticGetDao().findByParent(facility);
-			List<OrderDetail> matchingOrderDetails = toAllMatchingOutboundOrderDetails(allOrders, crossOrder);
+			if (outboundDetails == null) {
+				outboundDetails = OutboundOrderDetailIndex.build(facility);
+			}
+			List<OrderDetail> matchingOrderDetails = toAllMatchingOutboundOrderDetails(outboundDetails, crossOrder);
+			List<Path> allPaths = facility.getPaths();
 			for (OrderDetail matchingOutboundOrderDetail : matchingOrderDetails) {
-				List<Path> allPaths = facility.getPaths();
 				List<Location> firstOrderLocationPerPath = toPossibleLocations(matchingOutboundOrderDetail, allPaths);
 				for (Location aLocationOnPath : firstOrderLocationPerPath) {
 					Work work = new Work(container, matchingOutboundOrderDetail, aLocationOnPath);
@@ -2587,7 +2560,6 @@ public class WorkBehavior implements IApiBehavior {
 	}
 
 	private List<Map<String, Object>> toPropertiesView(Collection<?> results, String[] propertyNames) {
-		PropertyUtilsBean propertyUtils = new PropertyUtilsBean();
 		ArrayList<Map<String, Object>> viewResults = new ArrayList<Map<String, Object>>();
 		//long start = System.currentTimeMillis();
 
@@ -2595,11 +2567,13 @@ public class WorkBehavior implements IApiBehavior {
 			Map<String, Object> propertiesMap = new HashMap<>();
 			for (String propertyName : propertyNames) {
 				try {
-					Object resultObject = propertyUtils.getProperty(object, propertyName);
-					propertiesMap.put(propertyName, resultObject);
-				} catch (NoSuchMethodException e) {
-					// Minor problem. UI hierarchical view asks for same data field name for all object types in the view. Not really an error in most cases
-					LOGGER.debug("no property " + propertyName + " on object: " + object);
+					Object resultObject = PropertyAccessorCache.getProperty(object, propertyName);
+					if (resultObject != PropertyAccessorCache.NO_SUCH_PROPERTY) {
+						propertiesMap.put(propertyName, resultObject);
+					} else {
+						// Minor problem. UI hierarchical view asks for same data field name for all object types in the view. Not really an error in most cases
+						LOGGER.debug("no property {} on object: {}", propertyName, object);
+					}
 				} catch (Exception e) {
 					LOGGER.warn("unexpected exception for property " + propertyName + " object: " + object, e);
 				}
@@ -206,8 +206,11 @@ public class CheDeviceLogic extends PosConDeviceABC {
 	protected boolean								connectedToServer						= true;
 	@Accessors(prefix = "m")
 	@Getter
-	@Setter
-	protected int									mSetStateStackCount						= 0;
+	protected volatile int							mSetStateStackCount						= 0;
+
+	// Simulators and tests wait on this for state changes. Notified each time the outermost setState() finishes.
+	private final Object							mStateChangeLock						= new Object();
+	private long									mStateChangeCount						= 0;
 
 	//private ScanNeededToVerifyPick					mScanNeededToVerifyPick;
 
@@ -420,6 +423,71 @@ public class CheDeviceLogic extends PosConDeviceABC {
 		return mSetStateStackCount > 0;
 	}
 
+	public void setSetStateStackCount(int inSetStateStackCount) {
+		mSetStateStackCount = inSetStateStackCount;
+		if (inSetStateStackCount == 0) {
+			notifyCheStateWaiters();
+		}
+	}
+
+	/**
+	 * Wakes whoever waits in awaitCheStates() or awaitStateChange(). Call after changing mCheStateEnum outside of setState().
+	 */
+	protected void notifyCheStateWaiters() {
+		synchronized (mStateChangeLock) {
+			mStateChangeCount++;
+			mStateChangeLock.notifyAll();
+		}
+	}
+
+	/**
+	 * For awaitStateChange(): take this before the action, then wait for a change after it.
+	 */
+	public long getStateChangeCount() {
+		synchronized (mStateChangeLock) {
+			return mStateChangeCount;
+		}
+	}
+
+	/**
+	 * Blocks until the state is one of these and setState() is done, or the time is up. Returns the state at that time.
+	 * Only simulation and test code should call this.
+	 */
+	public CheStateEnum awaitCheStates(List<CheStateEnum> inStates, long inTimeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + inTimeoutMillis;
+		synchronized (mStateChangeLock) {
+			while (true) {
+				CheStateEnum currentState = mCheStateEnum;
+				if (inStates.contains(currentState) && !inSetState()) {
+					return currentState;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return currentState;
+				}
+				mStateChangeLock.wait(remaining);
+			}
+		}
+	}
+
+	/**
+	 * Blocks until a setState() finishes after the given count was taken, or the time is up. Returns true on a change.
+	 * Only simulation and test code should call this.
+	 */
+	public boolean awaitStateChange(long inStateChangeCount, long inTimeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + inTimeoutMillis;
+		synchronized (mStateChangeLock) {
+			while (mStateChangeCount == inStateChangeCount) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				mStateChangeLock.wait(remaining);
+			}
+			return true;
+		}
+	}
+
 	public String getDeviceType() {
 		LOGGER.error("getDeviceType(): Should have specific instance of this abstract type");
 		return CsDeviceManager.DEVICETYPE_CHE;
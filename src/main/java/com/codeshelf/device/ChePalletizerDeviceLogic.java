@@ -64,6 +64,7 @@ public class ChePalletizerDeviceLogic extends CheDeviceLogic{
 	@Override
 	protected void invalidScanMsg(final CheStateEnum inCheState) {
 		mCheStateEnum = inCheState;
+		notifyCheStateWaiters();
 
 		switch (inCheState) {
 			case IDLE:
@@ -5,6 +5,7 @@
  *******************************************************************************/
 package com.codeshelf.device;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import lombok.Getter;
@@ -77,6 +78,21 @@ public class LedCmdGroup {
 		mLedSampleList = inLedSamples;
 	}
 
+	/**
+	 * A copy that shares nothing changeable with the original.
+	 */
+	public LedCmdGroup(final LedCmdGroup inLedCmdGroup) {
+		mControllerId = inLedCmdGroup.mControllerId;
+		mChannelNum = inLedCmdGroup.mChannelNum;
+		mPosNum = inLedCmdGroup.mPosNum;
+		if (inLedCmdGroup.mLedSampleList != null) {
+			mLedSampleList = new ArrayList<LedSample>(inLedCmdGroup.mLedSampleList.size());
+			for (LedSample ledSample : inLedCmdGroup.mLedSampleList) {
+				mLedSampleList.add(ledSample == null ? null : new LedSample(ledSample));
+			}
+		}
+	}
+
 	public int compareTo(LedCmdGroup anotherLedCmdGroup) {
 		// this could do a compare by controller, then channel, then posNum.
 		// but as of V4/v5, only posNum is relevant.
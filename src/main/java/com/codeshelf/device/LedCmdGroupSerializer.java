@@ -15,6 +15,10 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
@@ -29,6 +33,12 @@ import com.google.gson.reflect.TypeToken;
  * 
  * The encoding is JSON.
  * 
+ * The strings are stored with each work instruction and read by site controllers of other versions, so the
+ * format stays exactly what Gson has always produced for these classes. Both directions use one shared Gson
+ * instead of building one per call. Serialized strings are interned, since the same location lights the same
+ * LEDs for thousands of work instructions, and the groups of recent strings are remembered; callers get their
+ * own copy, since they change what they get.
+ * 
  * The format of the stream is:
  * 
  * [
@@ -52,8 +62,22 @@ import com.google.gson.reflect.TypeToken;
  */
 public final class LedCmdGroupSerializer {
 
-	private static final Logger	LOGGER	= LoggerFactory.getLogger(LedCmdGroupSerializer.class);
-	
+	private static final Logger								LOGGER				= LoggerFactory.getLogger(LedCmdGroupSerializer.class);
+
+	private static final int								PARSED_CACHE_SIZE	= 2000;
+
+	// Gson is thread safe once built.
+	private static final Gson								GSON				= new GsonBuilder().excludeFieldsWithoutExposeAnnotation()
+																					.create();
+	private static final Type								COLLECTION_TYPE		= new TypeToken<Collection<LedCmdGroup>>() {
+																				}.getType();
+
+	private static final Interner<String>					CMD_STRINGS			= Interners.newWeakInterner();
+	// Never handed out; deserializeLedCmdString() returns copies.
+	private static final Cache<String, List<LedCmdGroup>>	PARSED_GROUPS		= CacheBuilder.newBuilder()
+																					.maximumSize(PARSED_CACHE_SIZE)
+																					.build();
+
 	// Don't expose a constructor.
 	private LedCmdGroupSerializer() {
 		
@@ -64,12 +88,7 @@ public final class LedCmdGroupSerializer {
 	 * @return
 	 */
 	public static String serializeLedCmdString(final List<LedCmdGroup> inLedCmdGroupList) {
-		String result = "";
-
-		Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
-		result = gson.toJson(inLedCmdGroupList);
-
-		return result;
+		return CMD_STRINGS.intern(GSON.toJson(inLedCmdGroupList));
 	}
 
 	// --------------------------------------------------------------------------
@@ -79,16 +98,23 @@ public final class LedCmdGroupSerializer {
 	 */
 	public static List<LedCmdGroup> deserializeLedCmdString(final String inCmdString) {
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(inCmdString), "ledCmdString cannot be null");
-		List<LedCmdGroup> result = new ArrayList<LedCmdGroup>();
 
-		Gson mGson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
-		Type collectionType = new TypeToken<Collection<LedCmdGroup>>() {
-		}.getType();
-		result = mGson.fromJson(inCmdString, collectionType);
+		List<LedCmdGroup> parsed = PARSED_GROUPS.getIfPresent(inCmdString);
+		if (parsed == null) {
+			parsed = GSON.fromJson(inCmdString, COLLECTION_TYPE);
+			if (parsed == null) {
+				return null;
+			}
+			PARSED_GROUPS.put(inCmdString, parsed);
+		}
 
+		List<LedCmdGroup> result = new ArrayList<LedCmdGroup>(parsed.size());
+		for (LedCmdGroup ledCmdGroup : parsed) {
+			result.add(ledCmdGroup == null ? null : new LedCmdGroup(ledCmdGroup));
+		}
 		return result;
 	}
-	
+
 	// Just a utility checker.
 	public static boolean verifyLedCmdGroupList(final List<LedCmdGroup> inLedCmdGroupList){
 		boolean allOk = true;
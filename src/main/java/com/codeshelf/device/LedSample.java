@@ -72,6 +72,13 @@ public class LedSample {
 		mBlue = rgb[2];
 	}
 
+	public LedSample(final LedSample inLedSample) {
+		mPosition = inLedSample.mPosition;
+		mRed = inLedSample.mRed;
+		mGreen = inLedSample.mGreen;
+		mBlue = inLedSample.mBlue;
+	}
+
 	// --------------------------------------------------------------------------
 	/**
 	 * @param inColor
@@ -698,6 +698,7 @@ public class LineScanDeviceLogic extends CheDeviceLogic {
 	@Override
 	protected void invalidScanMsg(final CheStateEnum inCheState) {
 		mCheStateEnum = inCheState;
+		notifyCheStateWaiters();
 
 		switch (inCheState) {
 			case IDLE:
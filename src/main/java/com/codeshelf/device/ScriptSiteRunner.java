@@ -46,6 +46,8 @@ public class ScriptSiteRunner {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ScriptSiteRunner.class);
 	private static final int WAIT_TIMEOUT = 4000;
 	private static final int COMPUTE_WORK_TIMEOUT = 35000;
+	// devices are looked up in memory, so checking often is cheap
+	private static final int DEVICE_CHECK_INTERVAL_MS = 100;
 	private int pickPauseMs = 0, staggerMs = 0;
 	private double chanceSkipUpc = 0, chanceShort = 0;
 	private LinkedHashMap<String, PickSimulator> ches = new LinkedHashMap<>();	//LinkedHashMap allows iteration in order of insertion
@@ -200,7 +202,7 @@ public class ScriptSiteRunner {
 				if (deviceManager.getDeviceByGuid(cheGuid) != null){
 					break;
 				}
-				Thread.sleep(1000);
+				Thread.sleep(DEVICE_CHECK_INTERVAL_MS);
 				now = System.currentTimeMillis();
 			}
 			
@@ -508,7 +510,7 @@ public class ScriptSiteRunner {
 			if (allFound) {
 				break;
 			}
-			Thread.sleep(1000);
+			Thread.sleep(DEVICE_CHECK_INTERVAL_MS);
 			now = System.currentTimeMillis();
 		}
 		if (!allFound) {
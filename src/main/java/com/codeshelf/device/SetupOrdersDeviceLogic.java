@@ -967,6 +967,7 @@ public class SetupOrdersDeviceLogic extends CheDeviceLogic {
 	@Override
 	protected void invalidScanMsg(final CheStateEnum inCheState) {
 		mCheStateEnum = inCheState;
+		notifyCheStateWaiters();
 
 		switch (inCheState) {
 			case IDLE:
@@ -4,22 +4,31 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
 /**
- * 
- * 
+ *
+ *
  * @author huffa
  */
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,13 +44,21 @@ import com.codeshelf.metrics.MetricsGroup;
 import com.codeshelf.metrics.MetricsService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Sends queued packets to the radio, net mgmt packets first, then command packets to the devices whose turn it is.
+ *
+ * The time each device with pending packets may be sent to next is held on a timer wheel owned by the scheduler thread.
+ * A device goes on the ready list when its time comes, and the scheduler sends to one ready device every
+ * NETWORK_PACKET_SPACING_MILLIS. After a send the device goes back on the wheel for its spacing, or for the resend delay of a
+ * packet that waits on an ack. The thread sleeps until the next network slot or the next deadline on the wheel, and other
+ * threads wake it when they queue packets, acks arrive or devices go away. Only the scheduler thread touches the wheel and
+ * the ready list; the other threads just name the device that needs a look in mSignaledDevices.
+ */
 public class RadioControllerPacketSchedulerService {
 	private static final Logger													LOGGER							= LoggerFactory.getLogger(RadioControllerPacketSchedulerService.class);
 
 	public static final int														MAX_QUEUED_PACKETS_PER_DEVICE	= 50;
 	public static final int														MAX_QUEUED_NET_MGMT_PACKETS		= 50;
-	public static final int														MAX_NUM_QUEUED_DEVICES			= 150;
-	public static final int														MAX_NUM_BLOCKING_PEEKS			= 2;
 
 	public static final int														MAP_INIT_SIZE					= 50;
 	public static final float													MAP_LOAD_FACTOR					= (float) 0.75;														// Default Java load factor
@@ -55,40 +72,53 @@ public class RadioControllerPacketSchedulerService {
 	private static final long													MAX_PACKET_AGE_MILLIS			= 8000;
 	private static final int													MAX_RESENDS_WITOUT_ACK			= 10;
 
-	// DEV-1240 These yield log info messages when hit 
+	// One millisecond per slot, so one turn of the wheel covers the longest resend delay
+	private static final int													TIMER_WHEEL_SLOTS				= 1024;
+	// Longest sleep with nothing to send, only a safety net since every change wakes the thread
+	private static final long													IDLE_SLEEP_MILLIS				= 1000;
+
+	// DEV-1240 These yield log info messages when hit
 	private static final int													ACK_LOG_MANY_RETRY_1			= 8;
 	private static final int													ACK_LOG_MANY_RETRY_2			= 15;
 
 	private final RadioControllerPacketIOService								packetIOService;
 
-	// FIXME - Huffa - It might be interesting to test this with a blocking queues rather than linked ones.
 	// Scheduling Queues
 	private final BlockingQueue<IPacket>										mPendingNetMgmtPacketsQueue		= new ArrayBlockingQueue<IPacket>(MAX_QUEUED_NET_MGMT_PACKETS);
-	private final ConcurrentLinkedQueue<INetworkDevice>							mDeviceQueue					= new ConcurrentLinkedQueue<INetworkDevice>();
-	//private final ConcurrentLinkedQueue<INetworkDevice>							mSecondDeviceQueue				= new ConcurrentLinkedQueue<INetworkDevice>();
-	private final ConcurrentLinkedDeque<INetworkDevice>							mSecondDeviceQueue				= new ConcurrentLinkedDeque<INetworkDevice>();
+	// Devices other threads changed, waiting for the scheduler thread to look at them
+	private final ConcurrentLinkedQueue<INetworkDevice>							mSignaledDevices				= new ConcurrentLinkedQueue<INetworkDevice>();
+	private final ConcurrentHashMap<NetAddress, Boolean>						mSignaledAddresses				= new ConcurrentHashMap<NetAddress, Boolean>(MAP_INIT_SIZE,
+																														MAP_LOAD_FACTOR,
+																														MAP_CONCURRENCY_LEVEL);
 
 	// Scheduling data structures
 	private final ConcurrentHashMap<NetAddress, ConcurrentLinkedDeque<IPacket>>	mPendingPacketsMap				= new ConcurrentHashMap<NetAddress, ConcurrentLinkedDeque<IPacket>>(MAP_INIT_SIZE,
-																													MAP_LOAD_FACTOR,
-																													MAP_CONCURRENCY_LEVEL);
+																														MAP_LOAD_FACTOR,
+																														MAP_CONCURRENCY_LEVEL);
 	private final ConcurrentHashMap<NetAddress, Byte>							mLastDeviceAckId				= new ConcurrentHashMap<NetAddress, Byte>(MAP_INIT_SIZE,
-																													MAP_LOAD_FACTOR,
-																													MAP_CONCURRENCY_LEVEL);
-	private final ConcurrentHashMap<NetAddress, Integer>						mDeviceBlockingPeekCount		= new ConcurrentHashMap<NetAddress, Integer>(MAP_INIT_SIZE,
-																													MAP_LOAD_FACTOR,
-																													MAP_CONCURRENCY_LEVEL);
+																														MAP_LOAD_FACTOR,
+																														MAP_CONCURRENCY_LEVEL);
 	private final ConcurrentHashMap<NetAddress, Integer>						mDeviceSendWithoutAckCount		= new ConcurrentHashMap<NetAddress, Integer>(MAP_INIT_SIZE,
-																													MAP_LOAD_FACTOR,
-																													MAP_CONCURRENCY_LEVEL);
+																														MAP_LOAD_FACTOR,
+																														MAP_CONCURRENCY_LEVEL);
+
+	// Only used by the scheduler thread
+	private final TimerWheel<INetworkDevice>									mDeviceTimers					= new TimerWheel<INetworkDevice>(TIMER_WHEEL_SLOTS,
+																														monotonicMillis());
+	private final Map<NetAddress, TimerWheel.Timeout<INetworkDevice>>			mDeviceTimeouts					= new HashMap<NetAddress, TimerWheel.Timeout<INetworkDevice>>();
+	private final Queue<INetworkDevice>											mReadyDevices					= new ArrayDeque<INetworkDevice>();
+	private final Set<NetAddress>												mReadyAddresses					= new HashSet<NetAddress>();
+	private final List<INetworkDevice>											mExpiredDevices					= new ArrayList<INetworkDevice>();
 
 	private AtomicLong															mLastPacketSentTime				= new AtomicLong(System.currentTimeMillis());
 	private long																mLastNetCheckSentTime			= System.currentTimeMillis();
 
 	// Scheduling threads
-	private final ScheduledExecutorService										packetSendService				= Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("pckt-schd")
-																													.setPriority(Thread.MAX_PRIORITY)
-																													.build());
+	private final ExecutorService												packetSendService				= Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("pckt-schd")
+																														.setPriority(Thread.MAX_PRIORITY)
+																														.build());
+	private volatile Thread														mSchedulerThread;
+	private volatile boolean													mRunning						= false;
 
 	// Statistics collection
 	private static final int													REPORT_INTERVAL_SECS			= 60 * 5;
@@ -106,12 +136,13 @@ public class RadioControllerPacketSchedulerService {
 	public void start() {
 
 		// Start the packet sending service
-		packetSendService.scheduleWithFixedDelay(new Runnable() {
+		mRunning = true;
+		packetSendService.submit(new Runnable() {
 			@Override
 			public void run() {
-				deliverPackets();
+				runScheduler();
 			}
-		}, 0, NETWORK_PACKET_SPACING_MILLIS, TimeUnit.MILLISECONDS);
+		});
 
 		schedulerReportService.scheduleAtFixedRate(statsCollector, REPORT_INTERVAL_SECS, REPORT_INTERVAL_SECS, TimeUnit.SECONDS);
 	}
@@ -119,13 +150,15 @@ public class RadioControllerPacketSchedulerService {
 	// --------------------------------------------------------------------------
 	public void stop() {
 		LOGGER.info("RadioControllerPacketSchedulerSerivce shutting down.");
+		mRunning = false;
+		wakeScheduler();
 		packetSendService.shutdown();
 	}
 
 	// --------------------------------------------------------------------------
 	/**
 	 * Adds a device packet to a queue of out going packets for that device
-	 * 
+	 *
 	 * @param inPacket
 	 * 			Is the network management packet
 	 *  @param inPacket
@@ -140,28 +173,20 @@ public class RadioControllerPacketSchedulerService {
 		}
 
 		// Add the packet to the queue of packets to be sent
-		ConcurrentLinkedDeque<IPacket> deque = mPendingPacketsMap.get(deviceAddr);
-		if (deque == null) {
-			deque = new ConcurrentLinkedDeque<IPacket>();
-			mPendingPacketsMap.put(deviceAddr, deque);
-		}
-		
-		if (!mDeviceSendWithoutAckCount.contains(deviceAddr)) {
-			mDeviceSendWithoutAckCount.put(deviceAddr, 0);
-		}
+		ConcurrentLinkedDeque<IPacket> deque = getPendingPackets(deviceAddr);
+		mDeviceSendWithoutAckCount.putIfAbsent(deviceAddr, 0);
 
 		// Add new packet to the end of the queue
 		deque.addLast(inPacket);
-		addDeviceToQueue(mDeviceQueue, inDevice);
+		signalDevice(inDevice);
 		statsCollector.updateQueueStats(deque.size());
-		//LOGGER.warn("Device queue: {}", mDeviceQueue.toString());
 	}
 
 	// --------------------------------------------------------------------------
 	/**
 	 * Adds an ack packet to the schedule. Puts the ack packet at the front of the
 	 * queue so that it is sent before any other commands.
-	 * 
+	 *
 	 * @param inPacket
 	 * 			Is the ack packet
 	 * @param inDevice
@@ -174,24 +199,16 @@ public class RadioControllerPacketSchedulerService {
 			return;
 		}
 
-		// Add the packet to the queue of packets to be sent
-		ConcurrentLinkedDeque<IPacket> deque = mPendingPacketsMap.get(deviceAddr);
-		if (deque == null) {
-			deque = new ConcurrentLinkedDeque<IPacket>();
-			mPendingPacketsMap.put(deviceAddr, deque);
-		}
-
 		// Need to send ACKs before other packets so add to the front of queue
-		deque.addFirst(inPacket);
-		addDeviceToQueue(mDeviceQueue, inDevice);
-		//LOGGER.warn("Device queue: {}", mDeviceQueue.toString());
+		getPendingPackets(deviceAddr).addFirst(inPacket);
+		signalDevice(inDevice);
 	}
 
 	// --------------------------------------------------------------------------
 	/**
 	 * Adds a network management packet to the queue of out going
 	 * network management packets.
-	 * 
+	 *
 	 * @param inPacket
 	 * 			Is the network management packet
 	 */
@@ -212,7 +229,7 @@ public class RadioControllerPacketSchedulerService {
 				return;
 			}
 		}
-
+		wakeScheduler();
 	}
 
 	// --------------------------------------------------------------------------
@@ -232,6 +249,8 @@ public class RadioControllerPacketSchedulerService {
 
 		mLastDeviceAckId.put(deviceAddr, inAckNum);
 		mDeviceSendWithoutAckCount.put(deviceAddr, 0);
+		// lets the scheduler drop the acked packet and cancel its resend
+		signalDevice(inDevice);
 	}
 
 	// --------------------------------------------------------------------------
@@ -243,42 +262,75 @@ public class RadioControllerPacketSchedulerService {
 	 */
 	public void markPacketAsAcked(INetworkDevice inDevice, byte inAckNum) {
 		NetAddress deviceAddr = inDevice.getAddress();
-		
+
 		mLastDeviceAckId.put(deviceAddr, inAckNum);
 		mDeviceSendWithoutAckCount.put(deviceAddr, 0);
+		signalDevice(inDevice);
 	}
 
 	// --------------------------------------------------------------------------
 	/**
-	 * Try to send packets to the network. Send management packets first if there are any queued.
-	 * 
+	 * The scheduler thread. Sends at most one packet per network slot and sleeps in between, or until the next device is due.
 	 */
-	private void deliverPackets() {
+	private void runScheduler() {
+		mSchedulerThread = Thread.currentThread();
+		long nextSendMillis = monotonicMillis();
+
+		while (mRunning) {
+			try {
+				long now = monotonicMillis();
+				reviewSignaledDevices(now);
+				collectDueDevices(now);
+
+				if (now >= nextSendMillis && deliverPackets(now)) {
+					nextSendMillis = now + NETWORK_PACKET_SPACING_MILLIS;
+				}
 
-		try {
-			if (!mPendingNetMgmtPacketsQueue.isEmpty()) {
-				deliverNetMgmtPacket();
-			} else if (!mDeviceQueue.isEmpty() || !mSecondDeviceQueue.isEmpty()) {
-				deliverNextCommandPacket();
+				long wakeMillis;
+				if (!mPendingNetMgmtPacketsQueue.isEmpty() || !mReadyDevices.isEmpty()) {
+					wakeMillis = nextSendMillis;
+				} else {
+					wakeMillis = Math.min(mDeviceTimers.nextDeadline(), now + IDLE_SLEEP_MILLIS);
+				}
+				long sleepMillis = wakeMillis - monotonicMillis();
+				if (sleepMillis > 0 && mSignaledDevices.isEmpty()) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleepMillis));
+				}
+			} catch (Exception e) {
+				LOGGER.error("deliverPackets() {}", e.toString());
 			}
-		} catch (Exception e) {
-			LOGGER.error("deliverPackets() {}", e.toString());
 		}
+		LOGGER.info("Packet scheduler stopped");
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Try to send packets to the network. Send management packets first if there are any queued.
+	 *
+	 * @return true if a packet was sent
+	 */
+	private boolean deliverPackets(long inNowMillis) {
+		if (!mPendingNetMgmtPacketsQueue.isEmpty()) {
+			return deliverNetMgmtPacket();
+		} else if (!mReadyDevices.isEmpty()) {
+			return deliverNextCommandPacket(inNowMillis);
+		}
+		return false;
 	}
 
 	// --------------------------------------------------------------------------
 	/**
 	 *	Deliver the next packet to next eligible device.
 	 */
-	private void deliverNextCommandPacket() {
+	private boolean deliverNextCommandPacket(long inNowMillis) {
 		INetworkDevice device = null;
 		IPacket packet = null;
 
 		// Get next eligible device to send to
-		device = getNextDevice();
+		device = getNextDevice(inNowMillis);
 		if (device == null) {
 			LOGGER.debug("No eligible devices to send to");
-			return;
+			return false;
 		}
 
 		// Get next packet to send and send
@@ -300,15 +352,15 @@ public class RadioControllerPacketSchedulerService {
 			LOGGER.debug("No packet to send");
 		}
 
-		// If device still has pending packets add back to the queue
-		if (deviceHasPendingPackets(device)) {
-			addDeviceToQueue(mDeviceQueue, device);
-		}
-		
+		// If device still has pending packets put it back on the wheel. A packet left at the head waits for its ack,
+		// so this is also the resend timeout, cancelled when the ack comes in.
+		scheduleDevice(device, inNowMillis);
+
 		int remainingPackets = countRemainingPackets();
 		mOutboundRadioQueueHistogram.update(remainingPackets);
+		return packet != null;
 	}
-	
+
 	private int countRemainingPackets(){
 		int size = 0;
 		for (ConcurrentLinkedDeque<IPacket> devicePackets : mPendingPacketsMap.values()){
@@ -335,7 +387,7 @@ public class RadioControllerPacketSchedulerService {
 		while (!devicePacketdeque.isEmpty()) {
 
 			packet = devicePacketdeque.peek();
-			
+
 			if (clearToSendCommandPacket(packet, inDevice)) {
 
 				// Remove packet from queue if it does not require an ack
@@ -356,97 +408,185 @@ public class RadioControllerPacketSchedulerService {
 
 	// --------------------------------------------------------------------------
 	/**
-	 *	Check if device has more pending packets
+	 *	Drop the packets at the head of the device's queue that will not be sent anymore: acked, too old or resent too often.
 	 *
 	 *	@param inDevice
 	 *		Device to check if it has packets
+	 *	@return true if packets remain
 	 */
-	private boolean deviceHasPendingPackets(INetworkDevice inDevice) {
+	private boolean dropStalePackets(INetworkDevice inDevice) {
 
 		ConcurrentLinkedDeque<IPacket> devicePacketQueue = mPendingPacketsMap.get(inDevice.getAddress());
-
-		if (devicePacketQueue != null && !devicePacketQueue.isEmpty()) {
-			return true;
-		} else {
+		if (devicePacketQueue == null) {
 			return false;
 		}
+
+		IPacket packet = devicePacketQueue.peek();
+		while (packet != null && !clearToSendCommandPacket(packet, inDevice)) {
+			LOGGER.debug("Removing packet from pending queue: {}", packet.toString());
+			devicePacketQueue.remove(packet);
+			packet = devicePacketQueue.peek();
+		}
+		return packet != null;
 	}
 
 	// --------------------------------------------------------------------------
 	/**
-	 *	Get the next eligible device in queue.
+	 *	Get the next eligible device in queue. Devices that became due but were pushed back since, by a net mgmt packet,
+	 *	go back on the wheel.
 	 */
-	private INetworkDevice getNextDevice() {
-		INetworkDevice device = null;
-		int peekCount = 0;
-
-		// Check if the overflow queue has packets to send
-		// Check how many times the head of this list has been checked.
-		if (!mSecondDeviceQueue.isEmpty()) {
-			device = mSecondDeviceQueue.peek();
-			//device = mSecondDeviceQueue.poll();
-			if (mDeviceBlockingPeekCount.containsKey(device.getAddress())) {
-				peekCount = mDeviceBlockingPeekCount.get(device.getAddress());
-			}
+	private INetworkDevice getNextDevice(long inNowMillis) {
+		INetworkDevice device = mReadyDevices.poll();
 
+		while (device != null) {
+			mReadyAddresses.remove(device.getAddress());
 			if (clearToSendToDevice(device)) {
-				device = mSecondDeviceQueue.poll();
-				mDeviceBlockingPeekCount.put(device.getAddress(), 0);
-				//LOGGER.warn("Returning device");
 				return device;
-			} else {
-				mDeviceBlockingPeekCount.put(device.getAddress(), peekCount = peekCount + 1);
 			}
+			scheduleDevice(device, inNowMillis);
+			device = mReadyDevices.poll();
+		}
 
-			if (peekCount > 3) {
-				device = mSecondDeviceQueue.poll();
-				mSecondDeviceQueue.offer(device);
-				//mDeviceBlockingPeekCount.put(device.getAddress(), 0);
-				//device = mSecondDeviceQueue.poll();
-				//INetworkDevice currHead = mSecondDeviceQueue.poll();
-				//mSecondDeviceQueue.offerFirst(device);
-				//mSecondDeviceQueue.offerFirst(currHead);
+		return null;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *	Look at the devices other threads queued packets for, got acks from, cleared or removed.
+	 */
+	private void reviewSignaledDevices(long inNowMillis) {
+		INetworkDevice device = mSignaledDevices.poll();
+		while (device != null) {
+			NetAddress deviceAddr = device.getAddress();
+			if (deviceAddr != null) {
+				// before looking, so that a change made while we look signals the device again
+				mSignaledAddresses.remove(deviceAddr);
+				scheduleDevice(device, inNowMillis);
 			}
+			device = mSignaledDevices.poll();
 		}
+	}
 
-		while (!mDeviceQueue.isEmpty()) {
-			device = mDeviceQueue.poll();
+	// --------------------------------------------------------------------------
+	/**
+	 *	Move the devices whose time came from the wheel to the ready list.
+	 */
+	private void collectDueDevices(long inNowMillis) {
+		mDeviceTimers.expire(inNowMillis, mExpiredDevices);
+		for (INetworkDevice device : mExpiredDevices) {
+			addReadyDevice(device);
+		}
+		mExpiredDevices.clear();
+	}
 
-			if (!clearToSendToDevice(device)) {
-				mDeviceBlockingPeekCount.put(device.getAddress(), 0);
-				mSecondDeviceQueue.offer(device);
-			} else {
-				//LOGGER.warn("Returning device");
-				return device;
+	// --------------------------------------------------------------------------
+	/**
+	 *	Put the device on the ready list if it can be sent to now, else on the wheel at the time it can. A device without
+	 *	pending packets leaves the wheel.
+	 *
+	 *	@param inDevice
+	 *		Device to schedule
+	 *	@param inNowMillis
+	 *		Now on the wheel's clock
+	 */
+	private void scheduleDevice(INetworkDevice inDevice, long inNowMillis) {
+		NetAddress deviceAddr = inDevice.getAddress();
+		TimerWheel.Timeout<INetworkDevice> timeout = mDeviceTimeouts.get(deviceAddr);
+
+		if (!dropStalePackets(inDevice)) {
+			if (timeout != null) {
+				mDeviceTimers.cancel(timeout);
+				mDeviceTimeouts.remove(deviceAddr);
+			}
+			if (mReadyAddresses.remove(deviceAddr)) {
+				mReadyDevices.remove(inDevice);
 			}
+			return;
 		}
 
-		return null;
+		if (mReadyAddresses.contains(deviceAddr)) {
+			return;
+		}
+
+		if (timeout == null || timeout.getValue() != inDevice) {
+			// first packet, or a new device object took over the address
+			if (timeout != null) {
+				mDeviceTimers.cancel(timeout);
+			}
+			timeout = new TimerWheel.Timeout<INetworkDevice>(inDevice);
+			mDeviceTimeouts.put(deviceAddr, timeout);
+		}
+
+		long waitMillis = getSendDelayMillis(inDevice, System.currentTimeMillis());
+		if (waitMillis <= 0) {
+			mDeviceTimers.cancel(timeout);
+			addReadyDevice(inDevice);
+		} else {
+			long deadline = inNowMillis + waitMillis;
+			// an earlier deadline stays, the device is looked at again then
+			if (!timeout.isScheduled() || timeout.getDeadline() > deadline) {
+				mDeviceTimers.schedule(timeout, deadline);
+			}
+		}
+	}
+
+	private void addReadyDevice(INetworkDevice inDevice) {
+		if (mReadyAddresses.add(inDevice.getAddress())) {
+			mReadyDevices.offer(inDevice);
+		}
 	}
 
 	// --------------------------------------------------------------------------
 	/**
-	 *	Deliver the next netMgmtPacket.
+	 *	Have the scheduler thread look at the device. Called by any thread after changing the device's packets or acks.
 	 */
-	private void deliverNetMgmtPacket() {
-		IPacket packet = null;
+	private void signalDevice(INetworkDevice inDevice) {
+		if (mSignaledAddresses.putIfAbsent(inDevice.getAddress(), Boolean.TRUE) == null) {
+			mSignaledDevices.offer(inDevice);
+		}
+		wakeScheduler();
+	}
 
-		try {
-			packet = mPendingNetMgmtPacketsQueue.poll(1, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException e) {
-			LOGGER.error("", e);
+	private void wakeScheduler() {
+		Thread schedulerThread = mSchedulerThread;
+		if (schedulerThread != null) {
+			LockSupport.unpark(schedulerThread);
 		}
+	}
+
+	private ConcurrentLinkedDeque<IPacket> getPendingPackets(NetAddress inDeviceAddr) {
+		ConcurrentLinkedDeque<IPacket> deque = mPendingPacketsMap.get(inDeviceAddr);
+		if (deque == null) {
+			mPendingPacketsMap.putIfAbsent(inDeviceAddr, new ConcurrentLinkedDeque<IPacket>());
+			deque = mPendingPacketsMap.get(inDeviceAddr);
+		}
+		return deque;
+	}
+
+	private static long monotonicMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *	Deliver the next netMgmtPacket.
+	 */
+	private boolean deliverNetMgmtPacket() {
+		IPacket packet = mPendingNetMgmtPacketsQueue.poll();
 
 		if (packet != null) {
 			sendPacket(packet);
 			updateLastSendTimeOfPendingDevices(System.currentTimeMillis());
+			return true;
 		}
+		return false;
 	}
 
 	// --------------------------------------------------------------------------
 	/**
 	 *	Update the 'last send time' of all the devices. Indicated the last time a packet
 	 *	was sent to the devices. Typical usage after sending net mgmt commands.
+	 *	Devices already due are pushed back when their turn comes, see getNextDevice().
 	 *
 	 *	@param inTime
 	 *		The time to set
@@ -480,40 +620,51 @@ public class RadioControllerPacketSchedulerService {
 	 */
 
 	private boolean clearToSendToDevice(INetworkDevice inDevice) {
+		if (inDevice == null) {
+			return false;
+		}
+		return getSendDelayMillis(inDevice, System.currentTimeMillis()) <= 0;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *	How long until the device may receive its next packet
+	 *
+	 *	@param inDevice
+	 *		Device to check
+	 *	@param inCurrTime
+	 *		Now, in System.currentTimeMillis() terms
+	 *	@return milliseconds to wait, 0 or less if clear to send
+	 */
+	private long getSendDelayMillis(INetworkDevice inDevice, long inCurrTime) {
 
-		long lastReceivedTime = 0;
 		long lastSentTime = 0;
-		long minDifference = 0;
-		long currTime = System.currentTimeMillis();
+		long elapsed = 0;
 		int packetDelayRequirement = 0;
 		IPacket packet = null;
 		ConcurrentLinkedDeque<IPacket> devicePacketdeque;
-		
-		if (inDevice == null) {
-			return false;
-		}
-		
+
 		devicePacketdeque = mPendingPacketsMap.get(inDevice.getAddress());
 		if (devicePacketdeque != null) {
 			packet = devicePacketdeque.peek();
 		}
-		
+
 		// It's always ok to send ack messages
 		if (packet != null && packet.getCommand().getCommandTypeEnum() == CommandGroupEnum.CONTROL) {
 			CommandControlABC command = (CommandControlABC) packet.getCommand();
 
 			if (command.getExtendedCommandID().getValue() == CommandControlABC.ACK) {
-				return true;
+				return 0;
 			}
 		}
-		
+
 		// If we have sent more than MAX_RESENDS_WITHOUT_ACK without an ack from device do not send to device
-		int resendCount = mDeviceSendWithoutAckCount.get(inDevice.getAddress());
-		if (resendCount >= MAX_RESENDS_WITOUT_ACK) {
+		Integer resendCount = mDeviceSendWithoutAckCount.get(inDevice.getAddress());
+		if (resendCount != null && resendCount >= MAX_RESENDS_WITOUT_ACK) {
 			LOGGER.warn("Skipping device. Sent {} packets without ACK", resendCount);
-			return false;
+			return DEVICE_PACKET_SPACING_MILLIS;
 		}
-		
+
 		// Check sending timings
 		IPacket lastPacketSent = inDevice.getLastSentPacket();
 		if(lastPacketSent != null) {
@@ -521,22 +672,13 @@ public class RadioControllerPacketSchedulerService {
 			packetDelayRequirement = lastPacketSent.getCommand().getResendDelay();
 		}
 
-		lastReceivedTime = 0; //inDevice.getLastPacketReceivedTime();
 		lastSentTime = Math.max(inDevice.getLastPacketSentTime(), mLastNetCheckSentTime);
-		minDifference = Math.min(currTime - lastReceivedTime, currTime - lastSentTime);
-		
+		elapsed = inCurrTime - lastSentTime;
+
 		if (isNextPacketAssocCmd(inDevice)) {
-			if (minDifference < DEVICE_ASSOC_SPACING_MILLIS) {
-				return false;
-			} else {
-				return true;
-			}
+			return DEVICE_ASSOC_SPACING_MILLIS - elapsed;
 		} else {
-			if (minDifference < DEVICE_PACKET_SPACING_MILLIS || minDifference < packetDelayRequirement) {
-				return false;
-			} else {
-				return true;
-			}
+			return Math.max(DEVICE_PACKET_SPACING_MILLIS, packetDelayRequirement) - elapsed;
 		}
 	}
 
@@ -706,29 +848,6 @@ public class RadioControllerPacketSchedulerService {
 		return success;
 	}
 
-	// --------------------------------------------------------------------------
-	/**
-	 * Add a device to a queue.
-	 * 
-	 * 	@param queue
-	 * 		Queue to add device to
-	 * 	@param inDevice
-	 * 		Device to add to queue
-	 */
-	private boolean addDeviceToQueue(Queue<INetworkDevice> queue, INetworkDevice inDevice) {
-		boolean success = false;
-
-		try {
-			success = queue.add(inDevice);
-		} catch (IllegalStateException e) {
-			LOGGER.warn("Adding to queue error. Clearing Queue. Exception: {}", e);
-		} catch (Exception e) {
-			LOGGER.error("Exception {}", e);
-		}
-
-		return success;
-	}
-
 	// --------------------------------------------------------------------------
 	/**
 	 * Remove all pending packets from a devices queue. Typical usage is when a device
@@ -761,6 +880,7 @@ public class RadioControllerPacketSchedulerService {
 		if (deviceQueue != null) {
 			deviceQueue.clear();
 		}
+		signalDevice(inDevice);
 	}
 
 	// --------------------------------------------------------------------------
@@ -785,10 +905,10 @@ public class RadioControllerPacketSchedulerService {
 		}
 
 		LOGGER.debug("Removing device from packet scheduling service {}", inDevice.toString());
-		mDeviceQueue.remove(inDevice);
-		mSecondDeviceQueue.remove(inDevice);
 		mPendingPacketsMap.remove(inDevice.getAddress());
 		mLastDeviceAckId.remove(inDevice.getAddress());
+		// takes it off the wheel
+		signalDevice(inDevice);
 	}
 
 	public void updateSendingStats() {
@@ -0,0 +1,155 @@
+package com.codeshelf.device.radio;
+
+import java.util.Collection;
+
+/**
+ * Hashed timing wheel with one millisecond ticks, used by the packet scheduler to hold the time each device may be sent to next.
+ *
+ * The wheel is a ring of slots, each a doubly linked list of timeouts, and a timeout goes to the slot of its deadline tick.
+ * Scheduling, rescheduling and cancelling are O(1). Expiring visits the slots of the ticks that went by, and only returns the
+ * timeouts of a slot that are due, so deadlines more than one turn of the ring ahead simply stay in their slot for the turns
+ * to pass.
+ *
+ * Times are in milliseconds from a monotonic clock chosen by the caller. Not thread safe: the wheel belongs to one thread.
+ */
+final class TimerWheel<T> {
+
+	static final class Timeout<T> {
+		private final T		value;
+		private long		deadline;
+		private int			slot	= -1;	// -1 when not on the wheel
+		private Timeout<T>	prev;
+		private Timeout<T>	next;
+
+		Timeout(T inValue) {
+			this.value = inValue;
+		}
+
+		T getValue() {
+			return value;
+		}
+
+		long getDeadline() {
+			return deadline;
+		}
+
+		boolean isScheduled() {
+			return slot >= 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Timeout " + value + (isScheduled() ? " at " + deadline : " (not scheduled)");
+		}
+	}
+
+	private final Timeout<T>[]	slots;
+	private final int			mask;
+	// next tick to expire, everything before it has been looked at
+	private long				currentTick;
+	private int					size	= 0;
+
+	@SuppressWarnings("unchecked")
+	TimerWheel(int inSlotCount, long inStartMillis) {
+		if (inSlotCount <= 0 || Integer.bitCount(inSlotCount) != 1) {
+			throw new IllegalArgumentException("slot count must be a power of two: " + inSlotCount);
+		}
+		this.slots = new Timeout[inSlotCount];
+		this.mask = inSlotCount - 1;
+		this.currentTick = inStartMillis;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Put the timeout on the wheel, moving it if it was already scheduled. A deadline in the past expires on the next call to
+	 * expire().
+	 */
+	void schedule(Timeout<T> inTimeout, long inDeadlineMillis) {
+		if (inTimeout.isScheduled()) {
+			cancel(inTimeout);
+		}
+		long deadline = Math.max(inDeadlineMillis, currentTick);
+		int slot = (int) (deadline & mask);
+		inTimeout.deadline = deadline;
+		inTimeout.slot = slot;
+		inTimeout.prev = null;
+		inTimeout.next = slots[slot];
+		if (inTimeout.next != null) {
+			inTimeout.next.prev = inTimeout;
+		}
+		slots[slot] = inTimeout;
+		size++;
+	}
+
+	/**
+	 * @return false if the timeout was not on the wheel
+	 */
+	boolean cancel(Timeout<T> inTimeout) {
+		if (!inTimeout.isScheduled()) {
+			return false;
+		}
+		if (inTimeout.prev != null) {
+			inTimeout.prev.next = inTimeout.next;
+		} else {
+			slots[inTimeout.slot] = inTimeout.next;
+		}
+		if (inTimeout.next != null) {
+			inTimeout.next.prev = inTimeout.prev;
+		}
+		inTimeout.prev = null;
+		inTimeout.next = null;
+		inTimeout.slot = -1;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Take every timeout due at or before the given time off the wheel and add their values to outExpired.
+	 * @return how many expired
+	 */
+	int expire(long inNowMillis, Collection<? super T> outExpired) {
+		if (inNowMillis < currentTick) {
+			return 0;
+		}
+		int expired = 0;
+		// after a long sleep every slot is visited once, not once per tick
+		long lastTick = Math.min(inNowMillis, currentTick + mask);
+		for (long tick = currentTick; tick <= lastTick && size > 0; tick++) {
+			Timeout<T> timeout = slots[(int) (tick & mask)];
+			while (timeout != null) {
+				Timeout<T> next = timeout.next;
+				if (timeout.deadline <= inNowMillis) {
+					cancel(timeout);
+					outExpired.add(timeout.value);
+					expired++;
+				}
+				timeout = next;
+			}
+		}
+		currentTick = inNowMillis + 1;
+		return expired;
+	}
+
+	/**
+	 * @return the earliest deadline on the wheel if it is within one turn from now, else the time one turn from now, when
+	 * the caller should look again. Long.MAX_VALUE if the wheel is empty.
+	 */
+	long nextDeadline() {
+		if (size == 0) {
+			return Long.MAX_VALUE;
+		}
+		long horizon = currentTick + mask;
+		for (long tick = currentTick; tick <= horizon; tick++) {
+			for (Timeout<T> timeout = slots[(int) (tick & mask)]; timeout != null; timeout = timeout.next) {
+				// a deadline before the horizon in this slot can only be this tick
+				if (timeout.deadline <= tick) {
+					return timeout.deadline;
+				}
+			}
+		}
+		return horizon + 1;
+	}
+}
@@ -36,7 +36,6 @@ import com.codeshelf.model.domain.CodeshelfNetwork;
 import com.codeshelf.model.domain.Facility;
 import com.codeshelf.model.domain.LedController;
 import com.codeshelf.model.domain.Location;
-import com.codeshelf.model.domain.Path;
 import com.codeshelf.model.domain.PathSegment;
 import com.codeshelf.model.domain.Point;
 import com.codeshelf.model.domain.Slot;
@@ -692,10 +691,10 @@ public class AislesFileCsvImporter extends CsvImporter<AislesFileCsvBean> implem
 		clearLastControllerLed();
 
 		// Finally, if the paths already exist, let's update distances instead of waiting for app server restart.
+		// Only this aisle's locations can have moved; the rest of its path is unchanged.
 		PathSegment pathseg = inAisle.getAssociatedPathSegment();
 		if (pathseg != null) {
-			Path path = pathseg.getParent();
-			mFacility.recomputeLocationPathDistances(path);
+			inAisle.computePosAlongPath(pathseg);
 		}
 
 	}
@@ -17,6 +17,7 @@ import javax.persistence.PersistenceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codeshelf.behavior.OutboundOrderDetailIndex;
 import com.codeshelf.behavior.WorkBehavior;
 import com.codeshelf.behavior.WorkBehavior.Work;
 import com.codeshelf.event.EventProducer;
@@ -71,12 +72,17 @@ public class CrossBatchCsvImporter extends CsvImporter<CrossBatchCsvBean> implem
 
 		int importedRecords = 0;
 		Set<String> importedContainerIds = new HashSet<String>();
+		// the file only brings CROSS orders, so the outbound side can be indexed once for all of its containers
+		OutboundOrderDetailIndex outboundDetails = null;
 		// Iterate over the put batch import beans.
 		for (CrossBatchCsvBean crossBatchBean : crossBatchBeanList) {
 			try {
 				Container container = crossBatchCsvBeanImport(crossBatchBean, inFacility, inProcessTime);
 				importedContainerIds.add(container.getContainerId());
-				BatchResult<Work> workResults = mWorkService.determineWorkForContainer(inFacility, container);
+				if (outboundDetails == null) {
+					outboundDetails = OutboundOrderDetailIndex.build(inFacility);
+				}
+				BatchResult<Work> workResults = mWorkService.determineWorkForContainer(inFacility, container, outboundDetails);
 				//				produceRecordSuccessEvent(crossBatchBean);
 				importedContainerIds.add(container.getContainerId());
 				importedRecords++;
@@ -2,9 +2,11 @@ package com.codeshelf.edi;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import com.codeshelf.event.EventProducer;
 import com.codeshelf.event.EventSeverity;
@@ -15,6 +17,7 @@ import com.codeshelf.validation.InputValidationException;
 import com.opencsv.CSVReader;
 import com.opencsv.bean.CsvToBean;
 import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.bean.MappingStrategy;
 
 public abstract class CsvImporter<T> {
 
@@ -24,26 +27,49 @@ public abstract class CsvImporter<T> {
 		mEventProducer = inProducer;
 	}
 
-	@SuppressWarnings("deprecation")
 	protected List<T> toCsvBean(Reader inCsvReader, Class<T> inClass) {
-		List<T> crossBatchBeanList = Collections.emptyList();
+		List<T> crossBatchBeanList = new ArrayList<T>();
+		forEachCsvBean(inCsvReader, inClass, crossBatchBeanList::add);
+		return crossBatchBeanList;
+	}
+
+	/**
+	 * Parse the csv one line at a time and hand each bean to the consumer as soon as it is read,
+	 * so the whole file never has to be held in memory. Returns the number of beans read.
+	 */
+	@SuppressWarnings("deprecation")
+	protected int forEachCsvBean(Reader inCsvReader, Class<T> inClass, Consumer<T> inConsumer) {
+		int lineNumber = 2;
 		try (CSVReader csvReader = new CSVReader(inCsvReader)) {
 			HeaderColumnNameMappingStrategy<T> strategy = new HeaderColumnNameMappingStrategy<T>();
 			strategy.setType(inClass);
-
-			CsvToBean<T> csv = new CsvToBean<T>();
-			crossBatchBeanList = csv.parse(strategy, csvReader);
+			strategy.captureHeader(csvReader);
+
+			LineCsvToBean<T> csv = new LineCsvToBean<T>();
+			String[] line;
+			while ((line = csvReader.readNext()) != null) {
+				T bean = csv.toBean(strategy, line, lineNumber);
+				if (bean instanceof ImportCsvBeanABC){
+					((ImportCsvBeanABC) bean).setLineNumber(lineNumber);
+				}
+				lineNumber++;
+				inConsumer.accept(bean);
+			}
 		} catch (IOException e) {
 			throw new EdiFileReadException("unable to import csv with bean class: " + inClass, e);
 		}
-		
-		int lineNumber = 2;
-		for (T bean : crossBatchBeanList) {
-			if (bean instanceof ImportCsvBeanABC){
-				((ImportCsvBeanABC) bean).setLineNumber(lineNumber++);
+		return lineNumber - 2;
+	}
+
+	// exposes the single line conversion that CsvToBean.parse() does for the whole file
+	private static class LineCsvToBean<T> extends CsvToBean<T> {
+		T toBean(MappingStrategy<T> strategy, String[] line, int lineNumber) {
+			try {
+				return processLine(strategy, line);
+			} catch (Exception e) {
+				throw new RuntimeException("Error parsing CSV line: " + lineNumber + " values: " + Arrays.toString(line), e);
 			}
 		}
-		return crossBatchBeanList;
 	}
 
 	protected void produceRecordSuccessEvent(Object inRelatedObject) {
@@ -10,23 +10,68 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codeshelf.manager.Tenant;
 import com.codeshelf.model.domain.WorkInstruction;
+import com.codeshelf.persistence.SideTransaction;
+import com.codeshelf.persistence.TenantPersistenceService;
+import com.codeshelf.security.CodeshelfSecurityManager;
 import com.codeshelf.util.CompareNullChecker;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Built first for PFSWeb, this accumulates complete work instruction beans for sending later as small files organized by order.
- * Currently only a memory list, lost upon server restart.
- * Later, change to a persistent list of the serialized bean to survive server restart.
+ * The beans are indexed by order. They are saved, and marked inactive once taken for sending, in batches on a saver
+ * thread so that completing a work instruction does not wait on the bean's insert. A bean added inside a transaction is
+ * indexed at once, so that the same transaction can send its order, but only saved once that transaction commits; if it
+ * rolls back the bean is dropped. Unsent beans are restored from the database by FacilityAccumulatingExporter upon
+ * server restart.
  */
 public class EdiExportQueue {
-	private ArrayList<WorkInstructionCsvBean>	wiBeanList	= new ArrayList<WorkInstructionCsvBean>();
+	private static final Logger										LOGGER				= LoggerFactory.getLogger(EdiExportQueue.class);
+
+	// One saver for all facilities. A batch is one side transaction however many beans it has.
+	private static final ScheduledExecutorService					SAVER				= Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+		.setNameFormat("wi-bean-saver")
+		.setDaemon(true)
+		.build());
+
+	private static final int										DEACTIVATE_BATCH_SIZE	= 500;
+
+	// after a failed batch the next try waits this long, doubling with every further failure up to the max
+	private static final long										RETRY_DELAY_MS		= 1000;
+	private static final long										MAX_RETRY_DELAY_MS	= 60000;
 
-	private static final Logger					LOGGER		= LoggerFactory.getLogger(EdiExportQueue.class);
+	// Guarded by this
+	private final ListMultimap<String, WorkInstructionCsvBean>	wiBeansByOrder		= ArrayListMultimap.create();
+	private final Set<WorkInstructionCsvBean>						uncommittedBeans	= new HashSet<WorkInstructionCsvBean>();
+	private final Set<WorkInstructionCsvBean>						unsavedBeans		= new LinkedHashSet<WorkInstructionCsvBean>();
+	private final Set<WorkInstructionCsvBean>						savingBeans			= new HashSet<WorkInstructionCsvBean>();
+	private final Set<WorkInstructionCsvBean>						removedWhileSaving	= new HashSet<WorkInstructionCsvBean>();
+	private final Set<UUID>											beansToDeactivate	= new LinkedHashSet<UUID>();
+	private boolean													saveScheduled		= false;
+	private int														failedSaves			= 0;
+	private Tenant													tenant;
 
 	public EdiExportQueue() {
 	}
@@ -34,30 +79,83 @@ public class EdiExportQueue {
 	/**
 	 * A means to reset and get rid of leftover garbage.
 	 */
-	public void clearAll() {
-		for (WorkInstructionCsvBean bean : wiBeanList) {
+	public synchronized void clearAll() {
+		for (WorkInstructionCsvBean bean : wiBeansByOrder.values()) {
 			removeWI(bean);
 		}
+		wiBeansByOrder.clear();
+		scheduleSave();
 	}
 
 	/**
 	 * A simple diagnostic to help identify leftover garbage.
 	 */
-	public void reportSize() {
-		LOGGER.info("{} work instructions in list", wiBeanList.size());
-		// Would be nice to name "in {} orders, on {} che"
+	public synchronized void reportSize() {
+		LOGGER.info("{} work instructions in {} orders, {} not yet saved",
+			wiBeansByOrder.size(),
+			wiBeansByOrder.keySet().size(),
+			unsavedBeans.size());
 	}
 
+	/**
+	 * Housekeeping work instructions have no order, so they can never be sent and are not kept.
+	 */
 	public void addWorkInstruction(WorkInstruction inWi) {
+		if (inWi.isHousekeeping()) {
+			return;
+		}
 		WorkInstructionCsvBean wiBean = new WorkInstructionCsvBean(inWi);
-		if (!inWi.isHousekeeping()) {
-			WorkInstructionCsvBean.staticGetDao().store(wiBean);
+		Transaction transaction = activeTransaction();
+		synchronized (this) {
+			wiBeansByOrder.put(wiBean.getOrderId(), wiBean);
+			if (transaction == null) {
+				unsavedBeans.add(wiBean);
+				scheduleSave();
+				return;
+			}
+			uncommittedBeans.add(wiBean);
 		}
-		wiBeanList.add(wiBean);
+		transaction.registerSynchronization(new CommitSynchronization(wiBean));
 	}
 
-	public void restoreWorkInstructionBeanFromDB(WorkInstructionCsvBean savedBean) {
-		wiBeanList.add(savedBean);
+	/**
+	 * Saves the bean once the work instruction's transaction commits, or drops it if that transaction does not.
+	 */
+	private class CommitSynchronization implements Synchronization {
+		private final WorkInstructionCsvBean	wiBean;
+
+		private CommitSynchronization(WorkInstructionCsvBean wiBean) {
+			this.wiBean = wiBean;
+		}
+
+		@Override
+		public void beforeCompletion() {
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			synchronized (EdiExportQueue.this) {
+				uncommittedBeans.remove(wiBean);
+				if (status == Status.STATUS_COMMITTED) {
+					// saved inactive if it was taken for sending meanwhile
+					unsavedBeans.add(wiBean);
+					scheduleSave();
+				} else {
+					LOGGER.info("work instruction for order {} was not committed, dropping its bean", wiBean.getOrderId());
+					wiBeansByOrder.remove(wiBean.getOrderId(), wiBean);
+				}
+			}
+		}
+	}
+
+	private static Transaction activeTransaction() {
+		Session session = TenantPersistenceService.getInstance().getSession();
+		Transaction transaction = (session == null) ? null : session.getTransaction();
+		return (transaction != null && transaction.isActive()) ? transaction : null;
+	}
+
+	public synchronized void restoreWorkInstructionBeanFromDB(WorkInstructionCsvBean savedBean) {
+		wiBeansByOrder.put(savedBean.getOrderId(), savedBean);
 	}
 
 	/**
@@ -95,7 +193,7 @@ public class EdiExportQueue {
 	}
 
 	/**
-	 * In the same order as the main list, return a sublist of beans for this orderId
+	 * Return the beans for this orderId
 	 * Sort it, so that our tests are not intermittent
 	 */
 	public ArrayList<WorkInstructionCsvBean> getAndRemoveWiBeansFor(String inOrderId) {
@@ -104,20 +202,19 @@ public class EdiExportQueue {
 			LOGGER.error("Bad call to getAndRemoveWiBeansFor orderId");
 			return returnList;
 		}
-		for (WorkInstructionCsvBean bean : wiBeanList) {
-			if (inOrderId.equals(bean.getOrderId())) {
-				returnList.add(bean);
+		synchronized (this) {
+			returnList.addAll(wiBeansByOrder.removeAll(inOrderId));
+			for (WorkInstructionCsvBean bean : returnList) {
+				removeWI(bean);
 			}
-		}
-		for (WorkInstructionCsvBean bean : returnList) {
-			removeWI(bean);
+			scheduleSave();
 		}
 		Collections.sort(returnList, new WiBeanComparator());
 		return returnList;
 	}
 
 	/**
-	 * In the same order as the main list, return a sublist of beans for this orderId and Che
+	 * Return the beans for this orderId and Che
 	 * Sort it, so that our tests are not intermittent
 	 */
 	public ArrayList<WorkInstructionCsvBean> getAndRemoveWiBeansFor(String inOrderId, String inCheId) {
@@ -126,26 +223,132 @@ public class EdiExportQueue {
 			LOGGER.error("Bad call to getAndRemoveWiBeansFor orderId and cheId");
 			return returnList;
 		}
-		for (WorkInstructionCsvBean bean : wiBeanList) {
-			if (inOrderId.equals(bean.getOrderId()) && inCheId.equals(bean.getCheId())) {
-				returnList.add(bean);
+		synchronized (this) {
+			Iterator<WorkInstructionCsvBean> orderBeans = wiBeansByOrder.get(inOrderId).iterator();
+			while (orderBeans.hasNext()) {
+				WorkInstructionCsvBean bean = orderBeans.next();
+				if (inCheId.equals(bean.getCheId())) {
+					orderBeans.remove();
+					removeWI(bean);
+					returnList.add(bean);
+				}
 			}
-		}
-		for (WorkInstructionCsvBean bean : returnList) {
-			removeWI(bean);
+			scheduleSave();
 		}
 		Collections.sort(returnList, new WiBeanComparator());
 		return returnList;
 	}
 
+	/**
+	 * The caller has taken the bean out of the index. A bean not saved yet is saved inactive; a saved one is marked
+	 * inactive with the next batch.
+	 */
 	private void removeWI(WorkInstructionCsvBean bean) {
-		UUID savedPersistentId = bean.getPersistentId();
-		if (savedPersistentId != null) {
-			bean.setActive(false);
-			bean.setUpdated(new Timestamp(System.currentTimeMillis()));
-			WorkInstructionCsvBean.staticGetDao().store(bean);
+		bean.setActive(false);
+		bean.setUpdated(new Timestamp(System.currentTimeMillis()));
+		if (unsavedBeans.contains(bean) || uncommittedBeans.contains(bean)) {
+			return;
+		}
+		if (savingBeans.contains(bean)) {
+			removedWhileSaving.add(bean);
+		} else {
+			beansToDeactivate.add(bean.getPersistentId());
+		}
+	}
+
+	private void scheduleSave() {
+		scheduleSave(0);
+	}
+
+	private void scheduleSave(long delayMs) {
+		Tenant currentTenant = CodeshelfSecurityManager.getCurrentTenant();
+		if (currentTenant != null) {
+			tenant = currentTenant;
+		}
+		if (saveScheduled || (unsavedBeans.isEmpty() && beansToDeactivate.isEmpty())) {
+			return;
+		}
+		saveScheduled = true;
+		SAVER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				saveQueued();
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs on the saver thread. Everything queued since the last batch goes in one side transaction.
+	 */
+	private void saveQueued() {
+		final List<WorkInstructionCsvBean> saveBatch;
+		final List<UUID> deactivateBatch;
+		final Tenant batchTenant;
+		synchronized (this) {
+			saveScheduled = false;
+			saveBatch = new ArrayList<WorkInstructionCsvBean>(unsavedBeans);
+			deactivateBatch = new ArrayList<UUID>(beansToDeactivate);
+			unsavedBeans.clear();
+			beansToDeactivate.clear();
+			savingBeans.addAll(saveBatch);
+			batchTenant = tenant;
+		}
+		if (batchTenant != null) {
+			CodeshelfSecurityManager.removeContextIfPresent();
+			CodeshelfSecurityManager.setContext(CodeshelfSecurityManager.getUserContextSYSTEM(), batchTenant);
+		}
+		boolean saved = false;
+		try {
+			new SideTransaction<Void>() {
+				@Override
+				public Void task(Session session) {
+					for (WorkInstructionCsvBean bean : saveBatch) {
+						session.save(bean);
+					}
+					Timestamp updated = new Timestamp(System.currentTimeMillis());
+					for (List<UUID> ids : Lists.partition(deactivateBatch, DEACTIVATE_BATCH_SIZE)) {
+						session.createQuery("update WorkInstructionCsvBean set active = false, updated = :updated where persistentId in (:ids)")
+							.setParameter("updated", updated)
+							.setParameterList("ids", ids)
+							.executeUpdate();
+					}
+					return null;
+				}
+			}.run();
+			saved = true;
+			LOGGER.debug("Saved {} and deactivated {} work instruction beans", saveBatch.size(), deactivateBatch.size());
+		} catch (Exception e) {
+			LOGGER.warn("Unable to save {} and deactivate {} work instruction beans; will retry", saveBatch.size(), deactivateBatch.size(), e);
+		} finally {
+			if (batchTenant != null) {
+				CodeshelfSecurityManager.removeContext();
+			}
+		}
+
+		synchronized (this) {
+			savingBeans.removeAll(saveBatch);
+			if (saved) {
+				// removed after the insert was flushed as active
+				for (WorkInstructionCsvBean bean : removedWhileSaving) {
+					beansToDeactivate.add(bean.getPersistentId());
+				}
+			} else {
+				// the session was rolled back, so the beans go in again, as they are now
+				unsavedBeans.addAll(saveBatch);
+				beansToDeactivate.addAll(deactivateBatch);
+			}
+			removedWhileSaving.clear();
+			if (saved) {
+				failedSaves = 0;
+				scheduleSave();
+			} else {
+				// beans queued meanwhile wait for the retry too
+				failedSaves++;
+				long delayMs = Math.min(MAX_RETRY_DELAY_MS, RETRY_DELAY_MS << Math.min(failedSaves - 1, 16));
+				LOGGER.info("Retrying work instruction bean save in {} ms, failed {} times", delayMs, failedSaves);
+				scheduleSave(delayMs);
+			}
 		}
-		wiBeanList.remove(bean);
 	}
 
 }
@@ -5,12 +5,27 @@
  *******************************************************************************/
 package com.codeshelf.edi;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Timer;
 import com.codeshelf.manager.Tenant;
 import com.codeshelf.manager.service.TenantManagerService;
@@ -21,6 +36,7 @@ import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.security.CodeshelfSecurityManager;
 import com.codeshelf.security.UserContext;
 import com.codeshelf.service.AbstractCodeshelfScheduledService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
@@ -46,10 +62,45 @@ public final class EdiImportService extends AbstractCodeshelfScheduledService {
 
 	private Timer								ediProcessingTimer;
 
+	// bounded pool shared by all tenants, and how many facilities of one tenant may be importing at once
+	private final int							maxThreads				= Integer.getInteger("service.edi.threads", 4);
+	private final int							maxThreadsPerTenant		= Integer.getInteger("service.edi.tenant.threads", 2);
+
+	private ExecutorService						importExecutor;
+
+	private final ConcurrentMap<String, TenantImportState>	tenantStates	= new ConcurrentHashMap<String, TenantImportState>();
+
 	Integer										lastNumTenants			= 0;
 	int											lastSuccessfulTenants	= 0;
 	Long										lastSuccessTime			= 0L;
 
+	/*
+	 * Import progress of one tenant. Facilities are imported independently, each in its own transaction.
+	 */
+	private static class TenantImportState {
+		final Set<UUID>							inFlight			= Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+		final Set<UUID>							failed				= Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+		final ConcurrentMap<UUID, Long>			lastCompleted		= new ConcurrentHashMap<UUID, Long>();
+		final long								createdTime			= System.currentTimeMillis();
+		int										nextFacility		= 0;	// rotates so no facility waits behind the same others every time
+
+		boolean isSuccessful() {
+			return failed.isEmpty();
+		}
+
+		// ms since the least recently imported facility of this tenant was checked
+		long getLagMillis() {
+			long oldest = Long.MAX_VALUE;
+			for (Long completed : lastCompleted.values()) {
+				oldest = Math.min(oldest, completed);
+			}
+			if (oldest == Long.MAX_VALUE) {
+				oldest = createdTime;
+			}
+			return System.currentTimeMillis() - oldest;
+		}
+	}
+
 	@Inject
 	public EdiImportService(final Provider<ICsvOrderImporter> inCsvOrdersImporter,
 		final Provider<ICsvInventoryImporter> inCsvInventoryImporter,
@@ -73,10 +124,17 @@ public final class EdiImportService extends AbstractCodeshelfScheduledService {
 	@Override
 	protected void startUp() throws Exception {
 		ediProcessingTimer = MetricsService.getInstance().createTimer(MetricsGroup.EDI, "processing-time");
+		importExecutor = Executors.newFixedThreadPool(maxThreads,
+			new ThreadFactoryBuilder().setNameFormat("edi-import-%d").setDaemon(true).build());
 
-		LOGGER.info("starting EDI import check");
+		LOGGER.info("starting EDI import check with {} threads, at most {} per tenant", maxThreads, maxThreadsPerTenant);
 	}
 
+	/**
+	 * Queue an import for every facility of every tenant that is not already importing, then return without waiting.
+	 * Facilities are queued round robin across tenants, so a tenant with a large backlog or many facilities
+	 * does not delay the others; each tenant has at most maxThreadsPerTenant facilities importing at once.
+	 */
 	@Override
 	protected void runOneIteration() throws Exception {
 		try {
@@ -85,17 +143,38 @@ public final class EdiImportService extends AbstractCodeshelfScheduledService {
 	
 			int numTenants = 0;
 			int successfulTenants = 0;
-	
+			Map<Tenant, Deque<UUID>> pendingByTenant = new LinkedHashMap<Tenant, Deque<UUID>>();
+			Set<String> currentTenants = new HashSet<String>();
+
 			for (Tenant tenant : TenantManagerService.getInstance().getTenants()) {
 				try {
 					numTenants++;
-					if(doEdiForTenant(tenant)) {
+					currentTenants.add(tenant.getTenantIdentifier());
+					TenantImportState state = getTenantState(tenant);
+					pendingByTenant.put(tenant, facilitiesToImport(tenant, state));
+					// a tenant is working if the last import of each of its facilities succeeded
+					if (state.isSuccessful()) {
 						successfulTenants++;
 					}
 				} catch(Exception e) {
 					LOGGER.warn("Unable to do EDI import check for tenant {}", tenant, e);
 				}
 			}
+			tenantStates.keySet().retainAll(currentTenants);
+
+			// round robin: one facility of each tenant at a time
+			boolean queuedAny = true;
+			while (queuedAny) {
+				queuedAny = false;
+				for (Map.Entry<Tenant, Deque<UUID>> pending : pendingByTenant.entrySet()) {
+					UUID facilityId = pending.getValue().pollFirst();
+					if (facilityId != null) {
+						submitFacilityImport(pending.getKey(), facilityId);
+						queuedAny = true;
+					}
+				}
+			}
+
 			if(numTenants == successfulTenants) {
 				synchronized(this.lastSuccessTime) {
 					this.lastSuccessTime = System.currentTimeMillis();
@@ -123,7 +202,91 @@ public final class EdiImportService extends AbstractCodeshelfScheduledService {
 		return String.format("%d/%d EDI working", this.lastSuccessfulTenants, this.lastNumTenants);
 	}
 
-	private boolean doEdiForTenant(Tenant tenant) {
+	private TenantImportState getTenantState(final Tenant tenant) {
+		final String tenantIdentifier = tenant.getTenantIdentifier();
+		TenantImportState state = tenantStates.get(tenantIdentifier);
+		if (state == null) {
+			state = new TenantImportState();
+			TenantImportState existing = tenantStates.putIfAbsent(tenantIdentifier, state);
+			if (existing != null) {
+				state = existing;
+			} else {
+				MetricsService.getInstance().registerMetric(MetricsGroup.EDI, "lag-" + tenantIdentifier, new Gauge<Long>() {
+					@Override
+					public Long getValue() {
+						TenantImportState current = tenantStates.get(tenantIdentifier);
+						return (current == null) ? 0L : current.getLagMillis();
+					}
+				});
+			}
+		}
+		return state;
+	}
+
+	// facilities of the tenant that are not importing, up to the tenant's free share of threads
+	private Deque<UUID> facilitiesToImport(Tenant tenant, TenantImportState state) {
+		List<UUID> facilityIds = new ArrayList<UUID>();
+		boolean completed = false;
+		try {
+			CodeshelfSecurityManager.setContext(CodeshelfSecurityManager.getUserContextSYSTEM(), tenant);
+			TenantPersistenceService.getInstance().beginTransaction();
+			for (Facility facility : this.getFacilities()) {
+				facilityIds.add(facility.getPersistentId());
+			}
+			TenantPersistenceService.getInstance().commitTransaction();
+			completed = true;
+		} finally {
+			if (!completed) {
+				TenantPersistenceService.getInstance().rollbackTransaction();
+			}
+			CodeshelfSecurityManager.removeContext();
+		}
+		state.lastCompleted.keySet().retainAll(facilityIds);
+		state.failed.retainAll(facilityIds);
+
+		Deque<UUID> toImport = new ArrayDeque<UUID>();
+		int free = maxThreadsPerTenant - state.inFlight.size();
+		int numFacilities = facilityIds.size();
+		for (int i = 0; i < numFacilities && toImport.size() < free; i++) {
+			UUID facilityId = facilityIds.get((state.nextFacility + i) % numFacilities);
+			if (!state.inFlight.contains(facilityId)) {
+				toImport.add(facilityId);
+			}
+		}
+		if (numFacilities > 0) {
+			state.nextFacility = (state.nextFacility + toImport.size()) % numFacilities;
+		}
+		return toImport;
+	}
+
+	private void submitFacilityImport(final Tenant tenant, final UUID facilityId) {
+		final TenantImportState state = getTenantState(tenant);
+		if (!state.inFlight.add(facilityId)) {
+			return;
+		}
+		try {
+			importExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (doEdiForTenantFacility(tenant, facilityId)) {
+							state.failed.remove(facilityId);
+						} else {
+							state.failed.add(facilityId);
+						}
+						state.lastCompleted.put(facilityId, System.currentTimeMillis());
+					} finally {
+						state.inFlight.remove(facilityId);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			state.inFlight.remove(facilityId);
+			LOGGER.warn("EDI import for tenant {} rejected, service is stopping", tenant.getName());
+		}
+	}
+
+	private boolean doEdiForTenantFacility(Tenant tenant, UUID facilityId) {
 		boolean completed = false;
 		int numChecked = 0;
 		final Timer.Context timerContext = ediProcessingTimer.time();
@@ -132,32 +295,34 @@ public final class EdiImportService extends AbstractCodeshelfScheduledService {
 		try {
 			UserContext systemUser = CodeshelfSecurityManager.getUserContextSYSTEM();
 			CodeshelfSecurityManager.setContext(systemUser, tenant);
-			LOGGER.trace("Begin EDI process for tenant {}", tenant.getName());
+			LOGGER.trace("Begin EDI process for tenant {} facility {}", tenant.getName(), facilityId);
 			TenantPersistenceService.getInstance().beginTransaction();
 
-			// Loop through each facility to make sure that it's EDI service processes any queued EDI.
-			for (Facility facility : this.getFacilities()) {
+			// make sure that the facility's EDI services process any queued EDI.
+			Facility facility = Facility.staticGetDao().findByPersistentId(facilityId);
+			if (facility != null) {
 				numChecked += doEdiForFacility(facility);
 			}
 			TenantPersistenceService.getInstance().commitTransaction();
 			completed = true;
 		} catch (RuntimeException e) {
-			LOGGER.error("Unable to process edi for tenant " + tenant.getId(), e);
+			LOGGER.error("Unable to process edi for tenant " + tenant.getId() + " facility " + facilityId, e);
 		} finally {
 			long endTime = System.currentTimeMillis();
 			if (timerContext != null) {
 				timerContext.stop();
 			}
-			LOGGER.info("Checked for updates from {} EDI services for tenant {} in {}s",
+			LOGGER.info("Checked for updates from {} EDI services for tenant {} facility {} in {}s",
 					numChecked,
 					tenant.getName(),
+					facilityId,
 					(endTime - startTime) / 1000);
-			CodeshelfSecurityManager.removeContext();
 
 			if (!completed) {
-				LOGGER.warn("EDI process did not complete successfully for tenant {}", tenant.getName());
+				LOGGER.warn("EDI process did not complete successfully for tenant {} facility {}", tenant.getName(), facilityId);
 				TenantPersistenceService.getInstance().rollbackTransaction();
 			}
+			CodeshelfSecurityManager.removeContext();
 		}
 		return completed;
 	}
@@ -188,6 +353,13 @@ public final class EdiImportService extends AbstractCodeshelfScheduledService {
 	@Override
 	protected void shutDown() throws Exception {
 		LOGGER.info("{} is being shutdown", this);
+		if (importExecutor != null) {
+			importExecutor.shutdown();
+			if (!importExecutor.awaitTermination(getShutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+				LOGGER.warn("EDI imports still running at shutdown, interrupting");
+				importExecutor.shutdownNow();
+			}
+		}
 	}
 
 	@Override
@@ -0,0 +1,126 @@
+package com.codeshelf.edi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Presents a header line followed by the (optionally transformed) lines of another reader as one csv stream.
+ * Lines are read and transformed only as the csv parser asks for them, so the file is never staged in memory.
+ * Use {@link #transformLines} instead when every line must be transformed before the first one is used.
+ */
+class LineTransformReader extends Reader {
+
+	private static final String	LINE_SEPARATOR	= "\r\n";
+
+	interface LineTransformation {
+		String transform(String line) throws Exception;
+	}
+
+	/**
+	 * Thrown through the csv parser when the line transformation fails, to tell it apart from a read failure.
+	 */
+	static class LineTransformException extends IOException {
+		private static final long	serialVersionUID	= 3580641870153117307L;
+
+		LineTransformException(Throwable cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+
+	private final BufferedReader		source;
+	private final LineTransformation	lineTransformation;
+
+	private String						current;
+	private int							position;
+	private boolean						separatorPending	= false;
+	private boolean						eof					= false;
+
+	/**
+	 * @param header the first line to return; the source must already be positioned after any header it had
+	 * @param lineTransformation applied to every line after the header, or null to pass lines through
+	 */
+	LineTransformReader(String header, BufferedReader source, LineTransformation lineTransformation) {
+		this.source = source;
+		this.lineTransformation = lineTransformation;
+		this.current = header;
+		this.position = 0;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int copied = 0;
+		while (copied < len) {
+			if (separatorPending) {
+				cbuf[off + copied++] = LINE_SEPARATOR.charAt(position++);
+				if (position == LINE_SEPARATOR.length()) {
+					separatorPending = false;
+					position = 0;
+				}
+				continue;
+			}
+			if (current != null && position < current.length()) {
+				int count = Math.min(len - copied, current.length() - position);
+				current.getChars(position, position + count, cbuf, off + copied);
+				position += count;
+				copied += count;
+				continue;
+			}
+			if (!nextLine()) {
+				break;
+			}
+		}
+		return (copied == 0 && eof) ? -1 : copied;
+	}
+
+	private boolean nextLine() throws IOException {
+		if (eof) {
+			return false;
+		}
+		String line = source.readLine();
+		if (line == null) {
+			eof = true;
+			current = null;
+			return false;
+		}
+		if (lineTransformation != null) {
+			try {
+				line = lineTransformation.transform(line);
+			} catch (Exception e) {
+				throw new LineTransformException(e);
+			}
+		}
+		current = line;
+		position = 0;
+		separatorPending = true;
+		return true;
+	}
+
+	/**
+	 * Writes the transformed lines of the source to out, one per line, stopping at the first line that fails.
+	 */
+	static void transformLines(BufferedReader source, Writer out, LineTransformation lineTransformation) throws IOException {
+		String line;
+		while ((line = source.readLine()) != null) {
+			String transformedLine;
+			try {
+				transformedLine = lineTransformation.transform(line);
+			} catch (Exception e) {
+				throw new LineTransformException(e);
+			}
+			if (transformedLine != null) {
+				out.write(transformedLine);
+			}
+			out.write(LINE_SEPARATOR);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+}
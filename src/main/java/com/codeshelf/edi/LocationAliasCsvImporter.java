@@ -18,6 +18,7 @@ import com.codeshelf.event.EventProducer;
 import com.codeshelf.event.EventSeverity;
 import com.codeshelf.event.EventTag;
 import com.codeshelf.model.dao.DaoException;
+import com.codeshelf.model.dao.LocationAliasIndex;
 import com.codeshelf.model.domain.Facility;
 import com.codeshelf.model.domain.Location;
 import com.codeshelf.model.domain.LocationAlias;
@@ -143,7 +144,7 @@ public class LocationAliasCsvImporter extends CsvImporter<LocationAliasCsvBean>
 
 		// Get or create the item at the specified location.
 		String locationAliasId = inCsvBean.getLocationAlias();
-		LocationAlias result = LocationAlias.staticGetDao().findByDomainId(inFacility, locationAliasId);
+		LocationAlias result = LocationAliasIndex.findByDomainId(inFacility, locationAliasId);
 		String mappedLocationId = inCsvBean.getMappedLocationId();
 		Location mappedLocation = inFacility.findSubLocationById(mappedLocationId);
 
@@ -163,6 +164,7 @@ public class LocationAliasCsvImporter extends CsvImporter<LocationAliasCsvBean>
 			result = new LocationAlias();
 			result.setDomainId(locationAliasId);
 			result.setParent(inFacility);
+			LocationAliasIndex.noteAliasChange(inFacility);
 			isNewAlias = true;
 		}
 
@@ -0,0 +1,178 @@
+package com.codeshelf.edi;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.model.dao.DomainObjectCache;
+import com.codeshelf.model.dao.SharedDomainIdCache;
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.ItemMaster;
+import com.codeshelf.model.domain.UomMaster;
+import com.codeshelf.persistence.TenantPersistenceService;
+import com.codeshelf.util.UomNormalizer;
+import com.google.common.base.Strings;
+
+/**
+ * UOM and item masters resolved so far by one order import, shared by all of its batch workers.
+ *
+ * Only persistent ids are shared, since entities belong to the session of the worker that loaded them.
+ * Masters that do not exist yet are created by createMissingMasters(), one batch at a time and before the batch
+ * is queued, so that workers running in parallel never race each other to create the same master.
+ * Item masters are only created ahead for items that have no gtin anywhere in the file so far. Those with gtins
+ * are left to the workers, which may have to adopt an item master made for the gtin during inventory onboarding.
+ * Two workers may then create the same new item master or gtin. The one that commits second fails on the unique
+ * domain id and retries its batch, which then finds the committed rows.
+ * Committed UOM and item master ids are also kept in SharedDomainIdCache, for the imports that follow.
+ */
+class OrderImportMasterCache {
+
+	private static final Logger					LOGGER			= LoggerFactory.getLogger(OrderImportMasterCache.class);
+
+	private final UUID							facilityId;
+	private final Timestamp						processTime;
+
+	// by normalized uom
+	private final ConcurrentMap<String, UUID>	uomMasterIds	= new ConcurrentHashMap<String, UUID>();
+	// by item id
+	private final ConcurrentMap<String, UUID>	itemMasterIds	= new ConcurrentHashMap<String, UUID>();
+	// items that came with a gtin on some line, only touched by the thread reading the file
+	private final Set<String>					itemIdsWithGtin	= new HashSet<String>();
+
+	OrderImportMasterCache(UUID facilityId, Timestamp processTime) {
+		this.facilityId = facilityId;
+		this.processTime = processTime;
+	}
+
+	/**
+	 * Called for every line as it is read, before its batch is handed to createMissingMasters().
+	 */
+	void noteLine(OutboundOrderCsvBean line) {
+		if (!Strings.isNullOrEmpty(line.getGtin())) {
+			itemIdsWithGtin.add(line.getItemId());
+		}
+	}
+
+	/**
+	 * @return the id of the committed UOM master for this uom, or null if not resolved by this import yet
+	 */
+	UUID getUomMasterId(String uom) {
+		if (uom == null) {
+			return null;
+		}
+		return uomMasterIds.get(UomNormalizer.normalizeString(uom));
+	}
+
+	/**
+	 * Find or create the masters the batch needs, in a transaction of its own on the calling thread.
+	 * Failures are only logged, the workers then find or create the masters themselves as before.
+	 */
+	void createMissingMasters(OutboundOrderBatch batch) {
+		Map<String, UUID> resolvedUoms = new HashMap<String, UUID>();
+		Map<String, UUID> resolvedItems = new HashMap<String, UUID>();
+		TenantPersistenceService persistence = TenantPersistenceService.getInstance();
+		String tenantIdentifier;
+		try {
+			persistence.beginTransaction();
+			Facility facility = Facility.staticGetDao().findByPersistentId(facilityId);
+
+			Map<String, UomMaster> uomMasters = new HashMap<String, UomMaster>();
+			Map<String, OutboundOrderCsvBean> newItemLines = new HashMap<String, OutboundOrderCsvBean>();
+			for (OutboundOrderCsvBean line : batch.getLines()) {
+				String uom = line.getUom();
+				if (Strings.isNullOrEmpty(uom) || line.validateBean() != null) {
+					// the worker reports invalid lines
+					continue;
+				}
+				String uomKey = UomNormalizer.normalizeString(uom);
+				if (!uomMasterIds.containsKey(uomKey) && !uomMasters.containsKey(uomKey)) {
+					UomMaster uomMaster = findSharedUomMaster(facility, uom);
+					if (uomMaster == null) {
+						uomMaster = facility.getNormalizedUomMaster(uom);
+					}
+					if (uomMaster == null) {
+						uomMaster = new UomMaster();
+						uomMaster.setUomMasterId(uom);
+						facility.addUomMaster(uomMaster);
+						UomMaster.staticGetDao().store(uomMaster);
+					}
+					uomMasters.put(uomKey, uomMaster);
+				}
+				String itemId = line.getItemId();
+				if (!itemMasterIds.containsKey(itemId) && !itemIdsWithGtin.contains(itemId) && !newItemLines.containsKey(itemId)) {
+					newItemLines.put(itemId, line);
+				}
+			}
+
+			if (!newItemLines.isEmpty()) {
+				DomainObjectCache<ItemMaster> itemMasterCache = new DomainObjectCache<ItemMaster>(ItemMaster.staticGetDao(),
+					"ItemMaster",
+					facility);
+				itemMasterCache.setFetchOnMiss(false);
+				itemMasterCache.setMaxPrefetchSize(Integer.MAX_VALUE);
+				itemMasterCache.setSharedIds(SharedDomainIdCache.ITEM_MASTERS);
+				itemMasterCache.load(facility, newItemLines.keySet());
+				for (ItemMaster itemMaster : itemMasterCache.getAll()) {
+					resolvedItems.put(itemMaster.getItemId(), itemMaster.getPersistentId());
+					newItemLines.remove(itemMaster.getItemId());
+				}
+				for (OutboundOrderCsvBean line : newItemLines.values()) {
+					String uomKey = UomNormalizer.normalizeString(line.getUom());
+					UomMaster uomMaster = uomMasters.get(uomKey);
+					if (uomMaster == null) {
+						uomMaster = UomMaster.staticGetDao().findByPersistentId(uomMasterIds.get(uomKey));
+					}
+					// same values as the worker would give a new master for this line
+					ItemMaster itemMaster = new ItemMaster(facility, line.getItemId(), uomMaster);
+					itemMaster.setDescription(line.getDescription());
+					itemMaster.setUpdated(processTime);
+					ItemMaster.staticGetDao().store(itemMaster);
+					resolvedItems.put(itemMaster.getItemId(), itemMaster.getPersistentId());
+				}
+			}
+			for (Map.Entry<String, UomMaster> entry : uomMasters.entrySet()) {
+				resolvedUoms.put(entry.getKey(), entry.getValue().getPersistentId());
+			}
+			tenantIdentifier = persistence.getCurrentTenantIdentifier();
+			persistence.commitTransaction();
+		} catch (RuntimeException e) {
+			LOGGER.warn("Unable to create masters ahead of " + batch + ", leaving it to the worker", e);
+			persistence.rollbackTransaction();
+			return;
+		}
+		// only publish what is committed
+		uomMasterIds.putAll(resolvedUoms);
+		SharedDomainIdCache.UOM_MASTERS.putAll(tenantIdentifier, facilityId, resolvedUoms);
+		itemMasterIds.putAll(resolvedItems);
+		LOGGER.debug("{}: {} uom and {} item masters resolved ahead", batch, resolvedUoms.size(), resolvedItems.size());
+	}
+
+	/**
+	 * The UOM master an earlier import resolved this uom to, if it still has this uom.
+	 */
+	static UomMaster findSharedUomMaster(Facility facility, String uom) {
+		if (uom == null) {
+			return null;
+		}
+		String uomKey = UomNormalizer.normalizeString(uom);
+		UUID uomMasterId = SharedDomainIdCache.UOM_MASTERS.get(facility, uomKey);
+		if (uomMasterId == null) {
+			return null;
+		}
+		UomMaster uomMaster = UomMaster.staticGetDao().findByPersistentId(uomMasterId);
+		if (uomMaster == null || !facility.equals(uomMaster.getFacility())
+				|| !UomNormalizer.normalizedEquals(uom, uomMaster.getUomMasterId())) {
+			SharedDomainIdCache.UOM_MASTERS.invalidate(facility, uomKey);
+			return null;
+		}
+		return uomMaster;
+	}
+}
@@ -9,6 +9,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -17,6 +20,7 @@ import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.StaleObjectStateException;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +30,8 @@ import com.codeshelf.model.OrderTypeEnum;
 import com.codeshelf.model.PickStrategyEnum;
 import com.codeshelf.model.dao.DaoException;
 import com.codeshelf.model.dao.DomainObjectCache;
+import com.codeshelf.model.dao.GtinIndex;
+import com.codeshelf.model.dao.SharedDomainIdCache;
 import com.codeshelf.model.domain.Container;
 import com.codeshelf.model.domain.ContainerKind;
 import com.codeshelf.model.domain.ContainerUse;
@@ -45,10 +51,11 @@ import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.util.DateTimeParser;
 import com.codeshelf.util.UomNormalizer;
 import com.codeshelf.validation.BatchResult;
+import com.codeshelf.validation.FieldError;
 import com.codeshelf.validation.InputValidationException;
 import com.google.common.base.Strings;
 
-public class OutboundOrderBatchProcessor implements Runnable {
+public class OutboundOrderBatchProcessor implements Callable<List<FieldError>> {
 
 	private static final Logger							LOGGER					= LoggerFactory.getLogger(OutboundOrderBatchProcessor.class);
 
@@ -70,6 +77,10 @@ public class OutboundOrderBatchProcessor implements Runnable {
 
 	private int											processorId;
 
+	private OutboundOrderBatch							batch;
+
+	private OrderImportMasterCache						masterCache;
+
 	Map<String, OrderHeader>							orderMap;
 
 	DomainObjectCache<ItemMaster>						itemMasterCache			= null;
@@ -95,9 +106,13 @@ public class OutboundOrderBatchProcessor implements Runnable {
 	private HashMap<String, UomMaster>					uomMasterHash			= new HashMap<>();
 
 	public OutboundOrderBatchProcessor(int procId,
+		OutboundOrderBatch batch,
+		OrderImportMasterCache masterCache,
 		OutboundOrderPrefetchCsvImporter importer,
 		Timestamp processTime,
 		Facility facility) {
+		this.batch = batch;
+		this.masterCache = masterCache;
 		this.importer = importer;
 		this.processTime = processTime;
 		this.facility = facility;
@@ -130,11 +145,10 @@ public class OutboundOrderBatchProcessor implements Runnable {
 		orderHeaderCache = new DomainObjectCache<OrderHeader>(OrderHeader.staticGetDao(), "OrderHeader", facility);
 		locationAliasCache = new DomainObjectCache<LocationAlias>(LocationAlias.staticGetDao(), "LocationAlias", facility);
 		gtinCache = new DomainObjectCache<Gtin>(Gtin.staticGetDao(), "Gtin", facility);
-		if (isAccuThereforeHasTrunctatedGtins())
-			gtinCache.setRequiresEntireDBInCache(true);
 		// cache item master
 		itemMasterCache.reset();
 		itemMasterCache.setFetchOnMiss(false);
+		itemMasterCache.setSharedIds(SharedDomainIdCache.ITEM_MASTERS);
 		itemMasterCache.load(facility, batch.getItemIds());
 		LOGGER.debug("ItemMaster cache populated with {} entries", this.itemMasterCache.size());
 
@@ -153,7 +167,12 @@ public class OutboundOrderBatchProcessor implements Runnable {
 		// cache gtin
 		gtinCache.reset();
 		gtinCache.setFetchOnMiss(true); // critical for Accu's truncated gtin situation
+		gtinCache.setSharedIds(SharedDomainIdCache.GTINS);
 		gtinCache.load(facility, batch.getGtinIds());
+		if (isAccuThereforeHasTrunctatedGtins()) {
+			// DEV-979: add every gtin that one of the file's truncated gtins could stand for. This used to load all gtins.
+			gtinCache.loadByPersistentIds(GtinIndex.findStartingOrEndingWith(facility, getSloppyMatchableGtinIds(batch)));
+		}
 		LOGGER.debug("Gtin cache populated with {} entries", this.gtinCache.size());
 
 		// prefetch order details already associated with orders
@@ -227,143 +246,162 @@ public class OutboundOrderBatchProcessor implements Runnable {
 		containerMap = null;
 	}
 
+	/**
+	 * Import the batch in its own transaction, retrying on stale data or a conflicting insert, and return the line violations.
+	 */
 	@Override
-	public void run() {
-		int batchCount = 0, numBatches = importer.getBatchQueue().size();
-		OutboundOrderBatch batch = importer.getBatchQueue().poll();
-		while (batch != null) {
-			batchCount++;
-			// process batch
-			batch.setProcessingAttempts(batch.getProcessingAttempts() + 1);
+	public List<FieldError> call() {
+		boolean done;
+		do {
+			done = processBatchAttempt();
+			releaseCachesCurrentBatch();
+		} while (!done);
+		return batchResult.getViolations();
+	}
 
-			LOGGER.info("Worker #" + processorId + " is processing " + batch + " in " + batch.getProcessingAttempts() + ". attempt");
+	/**
+	 * Batches running in parallel may both create the same new item master or gtin. The one that commits second fails
+	 * on the unique domain id, and on the next attempt finds the row the other batch made.
+	 */
+	static boolean isRetryableFailure(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof StaleObjectStateException || cause instanceof ConstraintViolationException) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-			try {
+	/**
+	 * @return false if the attempt failed on stale data or a conflicting insert and should be retried
+	 */
+	private boolean processBatchAttempt() {
+		batch.setProcessingAttempts(batch.getProcessingAttempts() + 1);
 
-				TenantPersistenceService.getInstance().beginTransaction();
+		LOGGER.info("Worker #" + processorId + " is processing " + batch + " in " + batch.getProcessingAttempts() + ". attempt");
 
-				// attach facility to new session
-				Facility facility = Facility.staticGetDao().reload(this.facility);
+		try {
 
-				ArrayList<OrderHeader> orderSet = new ArrayList<OrderHeader>();
+			TenantPersistenceService.getInstance().beginTransaction();
 
-				LOGGER.debug("Begin order import.");
+			// attach facility to new session
+			Facility facility = Facility.staticGetDao().reload(this.facility);
 
-				this.startTime = System.currentTimeMillis();
-				LOGGER.info(batch.getItemIds().size() + " distinct items found in batch");
-				preFetchCachesForOrderBatch(facility, batch);
+			ArrayList<OrderHeader> orderSet = new ArrayList<OrderHeader>();
 
-				// process order file
-				List<OutboundOrderCsvBean> lines = batch.getLines();
-				//Check if destinationId, shipperId, or customerId values vary within individual orders
-				checkForChangingFields(lines);
-				int lineCount = 1;
-				int count = 1, size = lines.size();
-				for (OutboundOrderCsvBean orderBean : lines) {
-					// process order bean
-					try {
-						OrderHeader order = orderCsvBeanImport(orderBean, facility, processTime, batchCount + "/" + numBatches
-								+ " " + count++ + "/" + size);
-						if ((order != null) && (!orderSet.contains(order))) {
-							orderSet.add(order);
-						}
-						batchResult.add(orderBean);
-						importer.produceRecordSuccessEvent(orderBean);
-					} catch (Exception e) {
-						String errorMessage = String.format("Unable to import order line %d: %s",
-							orderBean.getLineNumber(),
-							e.toString());
-						LOGGER.error(errorMessage);
-						batchResult.addLineViolation(lineCount, orderBean, errorMessage);
+			LOGGER.debug("Begin order import.");
+
+			this.startTime = System.currentTimeMillis();
+			LOGGER.info(batch.getItemIds().size() + " distinct items found in batch");
+			preFetchCachesForOrderBatch(facility, batch);
+
+			// process order file
+			List<OutboundOrderCsvBean> lines = batch.getLines();
+			//Check if destinationId, shipperId, or customerId values vary within individual orders
+			checkForChangingFields(lines);
+			int lineCount = 1;
+			int count = 1, size = lines.size();
+			for (OutboundOrderCsvBean orderBean : lines) {
+				// process order bean
+				try {
+					OrderHeader order = orderCsvBeanImport(orderBean, facility, processTime, "batch " + batch.getBatchId() + " "
+							+ count++ + "/" + size);
+					if ((order != null) && (!orderSet.contains(order))) {
+						orderSet.add(order);
+					}
+					batchResult.add(orderBean);
+					importer.produceRecordSuccessEvent(orderBean);
+				} catch (Exception e) {
+					if (isRetryableFailure(e)) {
+						// the session is unusable after a failed flush, so the whole batch has to go again
+						throw e;
 					}
+					String errorMessage = String.format("Unable to import order line %d: %s",
+						orderBean.getLineNumber(),
+						e.toString());
+					LOGGER.error(errorMessage);
+					batchResult.addLineViolation(lineCount, orderBean, errorMessage);
 				}
+			}
 
-				// init empty order map
-				Map<String, Boolean> isEmptyOrder = new HashMap<String, Boolean>();
-				for (OrderHeader order : this.orderHeaderCache.getAll()) {
-					isEmptyOrder.put(order.getOrderId(), true);
-				}
+			// init empty order map
+			Map<String, Boolean> isEmptyOrder = new HashMap<String, Boolean>();
+			for (OrderHeader order : this.orderHeaderCache.getAll()) {
+				isEmptyOrder.put(order.getOrderId(), true);
+			}
 
-				// loop through order items and deactivate items that have not been touched by this batch
-				// also set empty order flag to false, if order has non-zero item quantities
-				Collection<Map<String, OrderDetail>> allOrderLines = orderlineMap.values();
-				for (Map<String, OrderDetail> orderlines : allOrderLines) {
-					for (OrderDetail line : orderlines.values()) {
-						// deactivate out-dated items
-						if (line.getActive() == true && !line.getUpdated().equals(processTime)
-								&& line.getParentOrderType() != OrderTypeEnum.REPLENISH) {
-							line.setActive(false);
-							OrderDetail.staticGetDao().store(line);
-							LOGGER.warn("Deactivating order line that is not in this import " + line);
-							this.orderChangeMap.put(line.getOrderId(), true);
-						}
-						// reset empty order flag
-						if (line.getActive() && line.getQuantity() != null && line.getQuantity() > 0) {
-							isEmptyOrder.put(line.getOrderId(), false);
-						}
+			// loop through order items and deactivate items that have not been touched by this batch
+			// also set empty order flag to false, if order has non-zero item quantities
+			Collection<Map<String, OrderDetail>> allOrderLines = orderlineMap.values();
+			for (Map<String, OrderDetail> orderlines : allOrderLines) {
+				for (OrderDetail line : orderlines.values()) {
+					// deactivate out-dated items
+					if (line.getActive() == true && !line.getUpdated().equals(processTime)
+							&& line.getParentOrderType() != OrderTypeEnum.REPLENISH) {
+						line.setActive(false);
+						OrderDetail.staticGetDao().store(line);
+						LOGGER.warn("Deactivating order line that is not in this import " + line);
+						this.orderChangeMap.put(line.getOrderId(), true);
+					}
+					// reset empty order flag
+					if (line.getActive() && line.getQuantity() != null && line.getQuantity() > 0) {
+						isEmptyOrder.put(line.getOrderId(), false);
 					}
 				}
+			}
 
-				// reactivate changed orders
-				for (Entry<String, Boolean> e : this.orderChangeMap.entrySet()) {
-					if (e.getValue()) {
-						OrderHeader order = this.orderHeaderCache.get(e.getKey());
-						if (!isEmptyOrder.get(order.getOrderId())) {
-							// The intent was to log if anything about the order changed from one import to another.
-							// However, it seemed to log a change on the second line for one order in the same file.  DEV-1261
-							// LOGGER.info("Order " + order + " changed during import");
-							if (!order.getActive() || order.getStatus() != OrderStatusEnum.RELEASED) {
-								LOGGER.info("Order " + order + " reactivated. Status set to 'released'.");
-								order.setActive(true);
-								OrderHeader.staticGetDao().store(order);
-								// TODO: check if order was on cart or (partially) picked and create event
-							}
+			// reactivate changed orders
+			for (Entry<String, Boolean> e : this.orderChangeMap.entrySet()) {
+				if (e.getValue()) {
+					OrderHeader order = this.orderHeaderCache.get(e.getKey());
+					if (!isEmptyOrder.get(order.getOrderId())) {
+						// The intent was to log if anything about the order changed from one import to another.
+						// However, it seemed to log a change on the second line for one order in the same file.  DEV-1261
+						// LOGGER.info("Order " + order + " changed during import");
+						if (!order.getActive() || order.getStatus() != OrderStatusEnum.RELEASED) {
+							LOGGER.info("Order " + order + " reactivated. Status set to 'released'.");
+							order.setActive(true);
+							OrderHeader.staticGetDao().store(order);
+							// TODO: check if order was on cart or (partially) picked and create event
 						}
 					}
 				}
+			}
 
-				// deactivate empty orders
-				for (OrderHeader order : this.orderHeaderCache.getAll()) {
-					if (isEmptyOrder.get(order.getOrderId()) == true) {
-						LOGGER.info("Deactivating empty order " + order);
-						order.setActive(false);
-						OrderHeader.staticGetDao().store(order);
-					}
+			// deactivate empty orders
+			for (OrderHeader order : this.orderHeaderCache.getAll()) {
+				if (isEmptyOrder.get(order.getOrderId()) == true) {
+					LOGGER.info("Deactivating empty order " + order);
+					order.setActive(false);
+					OrderHeader.staticGetDao().store(order);
 				}
+			}
 
-				// loop through container uses and deactivate uses that have not been touched by this batch
-				Collection<ContainerUse> allUses = this.containerUseMap.values();
-				for (ContainerUse use : allUses) {
-					if (use.getActive() == true && !use.getUpdated().equals(processTime)) {
-						// use is out-dated -> deactivate
-						use.setActive(false);
-						ContainerUse.staticGetDao().store(use);
-						LOGGER.info("Deactivating container use " + use);
-					}
-				}
-				this.numOrders = allOrderLines.size();
-				TenantPersistenceService.getInstance().commitTransaction();
-				LOGGER.info("Completed processing " + batch);
-
-				//TODO switch to callable and wait for the futures
-			} catch (StaleObjectStateException e) {
-				LOGGER.warn("Failed to process order batch " + batch + " due to stale data.", e);
-				if (batch.getProcessingAttempts() > this.maxProcessingAttempts) {
-					LOGGER.error("Giving up on processing order batch " + batch + ".  Retry import at a later time.");
-				} else {
-					// returning batch to the queue to give it another chance
-					LOGGER.warn("Returning batch " + batch + " to import queue to retry.");
-					importer.getBatchQueue().add(batch);
+			// loop through container uses and deactivate uses that have not been touched by this batch
+			Collection<ContainerUse> allUses = this.containerUseMap.values();
+			for (ContainerUse use : allUses) {
+				if (use.getActive() == true && !use.getUpdated().equals(processTime)) {
+					// use is out-dated -> deactivate
+					use.setActive(false);
+					ContainerUse.staticGetDao().store(use);
+					LOGGER.info("Deactivating container use " + use);
 				}
-				TenantPersistenceService.getInstance().rollbackTransaction();
-			} catch (Exception e) {
-				LOGGER.info("Failed to process " + batch, e);
-				TenantPersistenceService.getInstance().rollbackTransaction();
 			}
-			releaseCachesCurrentBatch();
-			// pull next batch off queue
-			batch = importer.getBatchQueue().poll();
+			this.numOrders = allOrderLines.size();
+			TenantPersistenceService.getInstance().commitTransaction();
+			LOGGER.info("Completed processing " + batch);
+		} catch (Exception e) {
+			TenantPersistenceService.getInstance().rollbackTransaction();
+			// line results from the failed attempt are discarded with it
+			batchResult = new BatchResult<Object>();
+			if (isRetryableFailure(e) && batch.getProcessingAttempts() <= this.maxProcessingAttempts) {
+				LOGGER.warn("Retrying batch " + batch + " after " + e);
+				return false;
+			}
+			LOGGER.error("Giving up on processing order batch " + batch + ".  Retry import at a later time.", e);
+			batchResult.addViolation("batch " + batch.getBatchId(), null, "Orders " + batch.getOrderIds() + " not imported: " + e);
 		}
+		return true;
 	}
 
 	private OrderHeader orderCsvBeanImport(final OutboundOrderCsvBean inCsvBean,
@@ -799,6 +837,21 @@ public class OutboundOrderBatchProcessor implements Runnable {
 	private UomMaster updateUomMaster(final String inUomId, final Facility inFacility) {
 		String hashKey = facility.getPersistentId() + "-" + inUomId;
 		UomMaster result = uomMasterHash.get(hashKey);
+		if (result == null && masterCache != null) {
+			// resolved by the import before this batch was queued
+			UUID uomMasterId = masterCache.getUomMasterId(inUomId);
+			if (uomMasterId != null) {
+				result = UomMaster.staticGetDao().findByPersistentId(uomMasterId);
+				uomMasterHash.put(hashKey, result);
+			}
+		}
+		if (result == null) {
+			// resolved by an earlier import
+			result = OrderImportMasterCache.findSharedUomMaster(inFacility, inUomId);
+			if (result != null) {
+				uomMasterHash.put(hashKey, result);
+			}
+		}
 		if (result == null){
 			result = inFacility.getNormalizedUomMaster(inUomId);
 			uomMasterHash.put(hashKey, result);
@@ -1040,6 +1093,21 @@ public class OutboundOrderBatchProcessor implements Runnable {
 		return inItemMaster.getGtinForUom(uomMaster);
 	}
 
+	/**
+	 * The gtin ids of the batch that are long enough to be sloppy matched, but may be truncated.
+	 */
+	private Set<String> getSloppyMatchableGtinIds(OutboundOrderBatch batch) {
+		Set<String> result = new HashSet<String>();
+		for (String gtinId : batch.getGtinIds()) {
+			if (gtinId != null && gtinId.length() >= lkMinimalSloppyGtinMatchLength
+					&& gtinId.length() <= lkMaximumSloppyGtinMatchLength) {
+				result.add(gtinId);
+			}
+		}
+		return result;
+	}
+
+	// --------------------------------------------------------------------------
 	/**
 	 * This is a fairly expensive check within the gtin cache.
 	 * We may have longer gtins in the database.
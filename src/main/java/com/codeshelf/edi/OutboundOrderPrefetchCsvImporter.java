@@ -1,31 +1,46 @@
 package com.codeshelf.edi;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import lombok.Getter;
 import lombok.Setter;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.behavior.PropertyBehavior;
+import com.codeshelf.edi.LineTransformReader.LineTransformException;
+import com.codeshelf.edi.LineTransformReader.LineTransformation;
 import com.codeshelf.event.EventProducer;
 import com.codeshelf.event.EventTag;
 import com.codeshelf.model.domain.ImportReceipt;
@@ -42,8 +57,8 @@ import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.service.ExtensionPointType;
 import com.codeshelf.service.ExtensionPointEngine;
 import com.codeshelf.util.DateTimeParser;
-import com.codeshelf.util.ThreadUtils;
 import com.codeshelf.validation.BatchResult;
+import com.codeshelf.validation.FieldError;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
 
@@ -73,12 +88,9 @@ public class OutboundOrderPrefetchCsvImporter extends CsvImporter<OutboundOrderC
 	@Setter
 	int													maxOrderLines			= 500;
 
-	@Getter
-	private ConcurrentLinkedQueue<OutboundOrderBatch>	batchQueue				= new ConcurrentLinkedQueue<OutboundOrderBatch>();
-
 	@Getter
 	@Setter
-	int													numWorkerThreads		= 1;
+	int													numWorkerThreads		= Integer.getInteger("service.edi.order.threads", 3);
 
 	@Getter
 	ExtensionPointEngine								extensionPointService	= null;
@@ -179,24 +191,23 @@ public class OutboundOrderPrefetchCsvImporter extends CsvImporter<OutboundOrderC
 		}
 
 		// transform order lines/header, if extension point is defined
+		File transformedFile = null;
 		if (extensionPointService.hasActiveExtensionPoint(ExtensionPointType.OrderImportLineTransformation)
 				|| extensionPointService.hasActiveExtensionPoint(ExtensionPointType.OrderImportHeaderTransformation)
 				|| extensionPointService.hasActiveExtensionPoint(ExtensionPointType.OrderImportCreateHeader)) {
 			BufferedReader br = new BufferedReader(inCsvReader);
-			StringBuffer buffer = new StringBuffer();
+			String header;
 			// process file header
 			if (getExtensionPointService().hasActiveExtensionPoint(ExtensionPointType.OrderImportHeaderTransformation)) {
 				LOGGER.info("Order import header transformation is enabled");
 				try {
-					String header = br.readLine();
+					header = br.readLine();
 					long timeBeforeExtension = System.currentTimeMillis();
 
 					Object[] params = { header };
-					String transformedHeader = (String) getExtensionPointService().eval(ExtensionPointType.OrderImportHeaderTransformation,
+					header = (String) getExtensionPointService().eval(ExtensionPointType.OrderImportHeaderTransformation,
 						params);
 					addToExtensionMsFromTimeBefore(timeBeforeExtension);
-
-					buffer.append(transformedHeader);
 				} catch (Exception e) {
 					LOGGER.error("Failed to transform order file header", e);
 					batchResultErrors.addViolation("OrderImportHeaderTransformation Script", null, e.getMessage());
@@ -205,23 +216,22 @@ public class OutboundOrderPrefetchCsvImporter extends CsvImporter<OutboundOrderC
 			} else {
 				try {
 					// use header as-is
-					String header;
 					if (!extensionSuppliedHeader.isEmpty()) {
 						header = extensionSuppliedHeader;
 					} else {
 						header = br.readLine();
 					}
-					buffer.append(header);
 				} catch (Exception e) {
 					LOGGER.error("Failed to read order file header", e);
 					return batchResultErrors;
 				}
 			}
-			// process file body
+			// the file body is transformed in a first pass, so a line the script fails on stops the import before
+			// any batch is imported or any old order deleted. The transformed body is staged in a temporary file.
 			if (getExtensionPointService().hasActiveExtensionPoint(ExtensionPointType.OrderImportLineTransformation)) {
-				try {
-					String line = null;
-					while ((line = br.readLine()) != null) {
+				LineTransformation lineTransformation = new LineTransformation() {
+					@Override
+					public String transform(String line) throws Exception {
 						long timeBeforeExtension = System.currentTimeMillis();
 
 						Object[] params = { line };
@@ -229,210 +239,333 @@ public class OutboundOrderPrefetchCsvImporter extends CsvImporter<OutboundOrderC
 							params);
 
 						addToExtensionMsFromTimeBefore(timeBeforeExtension);
-						buffer.append("\r\n" + transformedLine);
+						return transformedLine;
 					}
-				} catch (Exception e) {
-					LOGGER.error("Exception during OrderImportLineTransformation", e);
-					batchResultErrors.addViolation("OrderImportLineTransformation Script", null, e.getMessage());
-					return batchResultErrors;
-				}
-			} else {
-				// use order lines as-is
+				};
 				try {
-					String line = null;
-					while ((line = br.readLine()) != null) {
-						buffer.append("\r\n" + line);
+					transformedFile = File.createTempFile("orders", ".csv");
+					try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(transformedFile), StandardCharsets.UTF_8))) {
+						LineTransformReader.transformLines(br, out, lineTransformation);
 					}
-				} catch (Exception e) {
-					LOGGER.error("Failed to read order file line", e);
+					br = new BufferedReader(new InputStreamReader(new FileInputStream(transformedFile), StandardCharsets.UTF_8));
+				} catch (LineTransformException e) {
+					LOGGER.error("Exception during OrderImportLineTransformation", e.getCause());
+					batchResultErrors.addViolation("OrderImportLineTransformation Script", null, e.getMessage());
+					deleteTransformedFile(transformedFile);
 					return batchResultErrors;
+				} catch (IOException e) {
+					deleteTransformedFile(transformedFile);
+					throw new EdiFileReadException("Failed to stage transformed order file", e);
 				}
 			}
-			try {
-				br.close();
-			} catch (IOException e) {
-				LOGGER.warn("Failed to close order input stream", e);
-			}
 			// swap out reader
-			inCsvReader = new StringReader(buffer.toString());
+			inCsvReader = new LineTransformReader(header, br, null);
 		}
 
-		List<OutboundOrderCsvBean> originalBeanList = toCsvBean(inCsvReader, OutboundOrderCsvBean.class);
-		BatchResult<Object> batchResult = importOrdersFromBeanList(originalBeanList, facility, inProcessTime, deleteOldOrders, true);
-		return batchResult;
+		// order lines are batched and handed to the workers while the file is still being read
+		OrderBatcher batcher = new OrderBatcher(facility, inProcessTime, deleteOldOrders, new BatchResult<Object>());
+		try {
+			forEachCsvBean(inCsvReader, OutboundOrderCsvBean.class, batcher::add);
+			return batcher.finish();
+		} finally {
+			batcher.close();
+			if (transformedFile != null) {
+				IOUtils.closeQuietly(inCsvReader);
+				deleteTransformedFile(transformedFile);
+			}
+		}
 	}
-	
-	public final BatchResult<Object> importOrdersFromBeanList(List<OutboundOrderCsvBean> originalBeanList, Facility facility, Timestamp inProcessTime, boolean deleteOldOrders){
-		return importOrdersFromBeanList(originalBeanList, facility, inProcessTime, deleteOldOrders, false);
+
+	private void deleteTransformedFile(File transformedFile) {
+		if (transformedFile != null && !transformedFile.delete()) {
+			LOGGER.warn("Could not delete transformed order file {}", transformedFile);
+		}
 	}
 	
-	private final BatchResult<Object> importOrdersFromBeanList(List<OutboundOrderCsvBean> originalBeanList, Facility facility, Timestamp inProcessTime, boolean deleteOldOrders, boolean alreadyInitialized){
+	public final BatchResult<Object> importOrdersFromBeanList(List<OutboundOrderCsvBean> originalBeanList, Facility facility, Timestamp inProcessTime, boolean deleteOldOrders){
 		this.startTime = System.currentTimeMillis();
-		BatchResult<Object> batchResult = new BatchResult<Object>();
-		batchResult.setReceived(new Date(startTime));
-		batchResult.setCompleted(new Date(startTime));
-
-		int numOrders = 0;
-		int numLineItems = 0;
-		
 		if (originalBeanList.size() == 0) {
 			LOGGER.info("Nothing to process.  Order file is empty.");
 			return null;
 		}
-		
-		if (!alreadyInitialized){
-			initImporter(facility, batchResult);
-		}
+		BatchResult<Object> batchResult = new BatchResult<Object>();
+		initImporter(facility, batchResult);
 
-		// From v20 DEV-1075
-		// We need to run the order bean transforms before doing any caching or even assembling orderIds, gtins, etc.
-		if (getExtensionPointService().hasActiveExtensionPoint(ExtensionPointType.OrderImportBeanTransformation)) {
-			HashMap<String, String> orderImportBeanTransformationViolations = new HashMap<>();
-			long timeBeforeExtension = System.currentTimeMillis();
+		OrderBatcher batcher = new OrderBatcher(facility, inProcessTime, deleteOldOrders, batchResult);
+		try {
 			for (OutboundOrderCsvBean orderBean : originalBeanList) {
-				// transform order bean with groovy script, if enabled
-				if (getExtensionPointService().hasActiveExtensionPoint(ExtensionPointType.OrderImportBeanTransformation)) {
-					Object[] params = { orderBean };
-					try {
-						orderBean = (OutboundOrderCsvBean) getExtensionPointService().eval(ExtensionPointType.OrderImportBeanTransformation,
-							params);
-					} catch (Exception e) {
-						String lineNum = orderBean.getLineNumber().toString();
-						String errorMessage = "Failed to evaluate OrderImportBeanTransformation extension point on line(s) %s: " + e.toString();
-						String errorMessageLog = String.format(errorMessage, lineNum);
-						LOGGER.error(errorMessageLog);
-						String lineNumList = orderImportBeanTransformationViolations.get(errorMessage);
-						if (lineNumList == null) {
-							lineNumList = lineNum;
-						} else {
-							lineNumList += ", " + lineNum;
-						}
-						orderImportBeanTransformationViolations.put(errorMessage, lineNumList);
-					}
-				}
+				batcher.add(orderBean);
 			}
-			for (String errorMsg : orderImportBeanTransformationViolations.keySet()){
-				String lineNumList = orderImportBeanTransformationViolations.get(errorMsg);
-				String errorWithLines = String.format(errorMsg, lineNumList);
-				batchResult.addViolation("OrderImportBeanTransformation", null, errorWithLines);
-			}
-			addToExtensionMsFromTimeBefore(timeBeforeExtension);
+			return batcher.finish();
+		} finally {
+			batcher.close();
 		}
+	}
 
-		// instead of processing all order line items in one transaction,
-		// chunk it up into small batches and write it to a queue.
-		// orders from one file are always be contained by one batch.
-
-		// create list of order batches
-		Set<String> orderIds = new HashSet<String>();
-		Set<String> itemIds = new HashSet<String>();
-		Set<String> gtins = new HashSet<String>();
-		Set<String> orderGroupIds = new HashSet<String>();
-		Map<String, OutboundOrderBatch> orderBatches = new HashMap<String, OutboundOrderBatch>();
-		//For readability, the first non-header line is indexed "2"
-		for (OutboundOrderCsvBean orderBean : originalBeanList) {
-			String orderId = orderBean.orderId;
-			orderIds.add(orderId);
+	/**
+	 * Instead of processing all order line items in one transaction, chunk them up into batches of whole orders
+	 * and hand each batch to a worker as soon as it is full. Lines of one order are expected to be contiguous in the file.
+	 * An order that shows up again after its batch was handed off is collected separately and imported after all
+	 * other batches, so no order is ever split across batches that run at the same time.
+	 * At most two batches per worker are queued, which bounds memory use for large files.
+	 * Batches never share an order, and most masters they do share are created before each batch is queued,
+	 * so the workers can import them in parallel, each in its own session and transaction. A batch that collides
+	 * with another on a new gtin is retried by its worker.
+	 */
+	private class OrderBatcher {
+		private final Facility							facility;
+		private final Timestamp							processTime;
+		private final boolean							deleteOldOrders;
+		private final boolean							transformBeans;
+
+		private final BatchResult<Object>				batchResult;
+		private final Map<String, String>				beanTransformationViolations	= new HashMap<String, String>();
+
+		private final Set<String>						orderIds						= new HashSet<String>();
+		private final Set<String>						itemIds							= new HashSet<String>();
+		private final Set<String>						gtins							= new HashSet<String>();
+		private final Set<String>						orderGroupIds					= new HashSet<String>();
+		private final Set<String>						deletedOrderIds					= new HashSet<String>();
+
+		private final OrderImportMasterCache			masterCache;
+		private final ExecutorService					masterExecutor;
+		private final ExecutorService					executor;
+		private final Semaphore							backlog;
+		private final List<Future<List<FieldError>>>	dispatched						= new ArrayList<Future<List<FieldError>>>();
+
+		private final Map<String, OutboundOrderBatch>	stragglers						= new LinkedHashMap<String, OutboundOrderBatch>();
+		private OutboundOrderBatch						combinedBatch;
+		private String									currentOrderId					= null;
+		private int										numBatches						= 0;
+		private int										numLineItems					= 0;
+
+		OrderBatcher(Facility facility, Timestamp processTime, boolean deleteOldOrders, BatchResult<Object> batchResult) {
+			this.facility = facility;
+			this.processTime = processTime;
+			this.deleteOldOrders = deleteOldOrders;
+			this.batchResult = batchResult;
+			// From v20 DEV-1075
+			// We need to run the order bean transforms before doing any caching or even assembling orderIds, gtins, etc.
+			this.transformBeans = getExtensionPointService().hasActiveExtensionPoint(ExtensionPointType.OrderImportBeanTransformation);
+			this.masterCache = new OrderImportMasterCache(facility.getPersistentId(), processTime);
+			// masters are created on a thread of their own, since the importing thread is inside a transaction already
+			this.masterExecutor = Executors.newSingleThreadExecutor();
+			this.executor = Executors.newFixedThreadPool(numWorkerThreads);
+			this.backlog = new Semaphore(2 * numWorkerThreads);
+			this.combinedBatch = new OutboundOrderBatch(++numBatches);
+			batchResult.setReceived(new Date(startTime));
+			batchResult.setCompleted(new Date(startTime));
+		}
+
+		void add(OutboundOrderCsvBean orderBean) {
+			if (transformBeans) {
+				orderBean = transformBean(orderBean);
+			}
+			String orderId = orderBean.getOrderId();
+			masterCache.noteLine(orderBean);
 			itemIds.add(orderBean.getItemId());
 			gtins.add(orderBean.getGtin());
 			String orderGroupId = orderBean.getOrderGroupId();
 			if (orderGroupId != null) {
 				orderGroupIds.add(orderGroupId);
 			}
-			OutboundOrderBatch batch = orderBatches.get(orderId);
-			if (batch == null) {
-				batch = new OutboundOrderBatch(0);
-				orderBatches.put(orderId, batch);
-			}
-			batch.add(orderBean);
 			numLineItems++;
-		}
-		numOrders = orderBatches.size();
-
-		// add all existing orders from specified order groups, so they can be retired if needed
-
-		if (orderGroupIds.size() > 0) {
-			LOGGER.info("Adding orders for " + orderGroupIds.size() + " order groups");
-			for (String orderGroupId : orderGroupIds) {
-				OrderGroup og = facility.getOrderGroup(orderGroupId);
-				if (og != null) {
-					// add order headers to batch
-					for (OrderHeader order : og.getOrderHeaders()) {
-						String orderId = order.getOrderId();
-						if (!orderIds.contains(orderId)) {
-							// deactivate order and line items, since not included in order group
-							LOGGER.info("Deactivating order not included in group: " + order);
-							order.setActive(false);
-							OrderHeader.staticGetDao().store(order);
-							List<OrderDetail> details = order.getOrderDetails();
-							for (OrderDetail detail : details) {
-								detail.setActive(false);
-								OrderDetail.staticGetDao().store(detail);
-							}
-						}
-					}
+
+			boolean seenBefore = !orderIds.add(orderId);
+			if (seenBefore && !Objects.equals(orderId, currentOrderId)) {
+				// order lines are not contiguous
+				OutboundOrderBatch straggler = stragglers.get(orderId);
+				if (straggler == null && combinedBatch.getOrderIds().contains(orderId)) {
+					combinedBatch.add(orderBean);
+					return;
+				}
+				if (straggler == null) {
+					straggler = new OutboundOrderBatch(0);
+					stragglers.put(orderId, straggler);
+				}
+				straggler.add(orderBean);
+				return;
+			}
+			if (!seenBefore) {
+				// only hand off a batch between orders
+				if (combinedBatch.size() > maxOrderLines) {
+					dispatch(combinedBatch);
+					combinedBatch = new OutboundOrderBatch(++numBatches);
 				}
+				currentOrderId = orderId;
 			}
+			combinedBatch.add(orderBean);
 		}
 
-		if (deleteOldOrders) {
-			deleteOldOrders(facility.getPersistentId(), orderIds);
-		}
-		
-		// load order queue
-		int numBatches = 1;
-		OutboundOrderBatch combinedBatch = new OutboundOrderBatch(numBatches);
-		for (String orderId : orderBatches.keySet()) {
-			OutboundOrderBatch batch = orderBatches.get(orderId);
-			combinedBatch.add(batch);
-			if (combinedBatch.size() > maxOrderLines) {
-				// queue up batch
-				this.batchQueue.add(combinedBatch);
-				// and create a new one
-				numBatches++;
-				combinedBatch = new OutboundOrderBatch(numBatches);
+		private OutboundOrderCsvBean transformBean(OutboundOrderCsvBean orderBean) {
+			// transform order bean with groovy script
+			long timeBeforeExtension = System.currentTimeMillis();
+			Object[] params = { orderBean };
+			try {
+				OutboundOrderCsvBean transformedBean = (OutboundOrderCsvBean) getExtensionPointService().eval(ExtensionPointType.OrderImportBeanTransformation,
+					params);
+				if (transformedBean != null) {
+					orderBean = transformedBean;
+				}
+			} catch (Exception e) {
+				String lineNum = orderBean.getLineNumber().toString();
+				String errorMessage = "Failed to evaluate OrderImportBeanTransformation extension point on line(s) %s: " + e.toString();
+				String errorMessageLog = String.format(errorMessage, lineNum);
+				LOGGER.error(errorMessageLog);
+				String lineNumList = beanTransformationViolations.get(errorMessage);
+				if (lineNumList == null) {
+					lineNumList = lineNum;
+				} else {
+					lineNumList += ", " + lineNum;
+				}
+				beanTransformationViolations.put(errorMessage, lineNumList);
 			}
+			addToExtensionMsFromTimeBefore(timeBeforeExtension);
+			return orderBean;
 		}
-		if (combinedBatch.size() > 0) {
-			// add remaining left-over batch to queue
-			this.batchQueue.add(combinedBatch);
-		} else {
-			// adjust count
-			numBatches--;
-		}
-		LOGGER.info("Order file chunked into " + numBatches + " batches.");
-
-		// spawn workers and process order batch queue
-		ExecutorService executor = Executors.newFixedThreadPool(numWorkerThreads);
-		ArrayList<OutboundOrderBatchProcessor> workers = new ArrayList<>(numWorkerThreads);
-		for (int i = 1; i <= numWorkerThreads; i++) {
-			OutboundOrderBatchProcessor worker = new OutboundOrderBatchProcessor(i, this, inProcessTime, facility);
-			workers.add(worker);
-			executor.execute(worker);
+
+		private void dispatch(final OutboundOrderBatch batch) {
+			if (deleteOldOrders) {
+				Set<String> deleteOrderIds = new HashSet<String>(batch.getOrderIds());
+				deleteOrderIds.removeAll(deletedOrderIds);
+				if (!deleteOrderIds.isEmpty()) {
+					deleteOldOrders(facility.getPersistentId(), deleteOrderIds);
+					deletedOrderIds.addAll(deleteOrderIds);
+				}
+			}
+			// masters shared with other batches must exist before any worker may need them
+			try {
+				masterExecutor.submit(() -> masterCache.createMissingMasters(batch)).get();
+			} catch (ExecutionException e) {
+				LOGGER.warn("Unable to create masters ahead of " + batch, e.getCause());
+			} catch (InterruptedException e) {
+				LOGGER.warn("Interrupted while creating masters ahead of " + batch, e);
+				Thread.currentThread().interrupt();
+			}
+			// wait here while enough batches are queued, rather than reading further ahead
+			backlog.acquireUninterruptibly();
+			LOGGER.info("Queueing " + batch);
+			final OutboundOrderBatchProcessor worker = new OutboundOrderBatchProcessor(batch.getBatchId(),
+				batch,
+				masterCache,
+				OutboundOrderPrefetchCsvImporter.this,
+				processTime,
+				facility);
+			dispatched.add(executor.submit(new Callable<List<FieldError>>() {
+				@Override
+				public List<FieldError> call() {
+					try {
+						return worker.call();
+					} finally {
+						backlog.release();
+					}
+				}
+			}));
 		}
 
-		// wait until all threads are done
-		executor.shutdown();
-		while (!executor.isTerminated()) {
-			ThreadUtils.sleep(100);
+		/**
+		 * Wait for every batch handed off so far, collecting violations in batch order.
+		 */
+		private void awaitDispatched() {
+			for (Future<List<FieldError>> future : dispatched) {
+				try {
+					batchResult.getViolations().addAll(future.get());
+				} catch (ExecutionException e) {
+					LOGGER.error("Order batch worker failed", e.getCause());
+				} catch (InterruptedException e) {
+					LOGGER.warn("Interrupted while waiting for order batch workers", e);
+					Thread.currentThread().interrupt();
+				}
+			}
+			dispatched.clear();
 		}
 
-		for (OutboundOrderBatchProcessor worker : workers) {
-			BatchResult<Object> workerResult = worker.getBatchResult();
-			batchResult.getViolations().addAll(workerResult.getViolations());
-			workerResult.getViolations();
+		/**
+		 * Import what is left and return the combined result, or null if there were no order lines at all.
+		 */
+		BatchResult<Object> finish() {
+			if (numLineItems == 0) {
+				LOGGER.info("Nothing to process.  Order file is empty.");
+				return null;
+			}
+			for (String errorMsg : beanTransformationViolations.keySet()) {
+				String lineNumList = beanTransformationViolations.get(errorMsg);
+				String errorWithLines = String.format(errorMsg, lineNumList);
+				batchResult.addViolation("OrderImportBeanTransformation", null, errorWithLines);
+			}
+
+			if (combinedBatch.size() > 0) {
+				// add remaining left-over batch
+				dispatch(combinedBatch);
+			}
+			awaitDispatched();
+
+			if (!stragglers.isEmpty()) {
+				// orders whose lines were not contiguous, now that nothing else is running
+				LOGGER.info("Importing " + stragglers.size() + " orders with out of sequence lines");
+				combinedBatch = new OutboundOrderBatch(++numBatches);
+				for (OutboundOrderBatch straggler : stragglers.values()) {
+					combinedBatch.add(straggler);
+					if (combinedBatch.size() > maxOrderLines) {
+						dispatch(combinedBatch);
+						combinedBatch = new OutboundOrderBatch(++numBatches);
+					}
+				}
+				if (combinedBatch.size() > 0) {
+					dispatch(combinedBatch);
+				}
+				awaitDispatched();
+			}
+			LOGGER.info("Order file chunked into " + numBatches + " batches.");
+
+			// deactivate existing orders of the file's order groups that were not in the file
+			deactivateOrdersNotInGroups();
+
+			endTime = System.currentTimeMillis();
+			LOGGER.info("spent {} ms doing extensions", spentDoingExtensionsMs);
+
+			batchResult.setCompleted(new Date(endTime));
+			batchResult.setOrdersProcessed(orderIds.size());
+			batchResult.setLinesProcessed(numLineItems);
+			batchResult.setOrderIds(new ArrayList<>(orderIds));
+			batchResult.setItemIds(new ArrayList<>(itemIds));
+			batchResult.setGtins(new ArrayList<>(gtins));
+			return batchResult;
 		}
 
-		this.endTime = System.currentTimeMillis();
-		LOGGER.info("spent {} ms doing extensions", spentDoingExtensionsMs);
+		private void deactivateOrdersNotInGroups() {
+			if (orderGroupIds.size() > 0) {
+				LOGGER.info("Checking orders for " + orderGroupIds.size() + " order groups");
+				for (String orderGroupId : orderGroupIds) {
+					OrderGroup og = facility.getOrderGroup(orderGroupId);
+					if (og != null) {
+						for (OrderHeader order : og.getOrderHeaders()) {
+							String orderId = order.getOrderId();
+							if (!orderIds.contains(orderId)) {
+								// deactivate order and line items, since not included in order group
+								LOGGER.info("Deactivating order not included in group: " + order);
+								order.setActive(false);
+								OrderHeader.staticGetDao().store(order);
+								List<OrderDetail> details = order.getOrderDetails();
+								for (OrderDetail detail : details) {
+									detail.setActive(false);
+									OrderDetail.staticGetDao().store(detail);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
 
-		batchResult.setCompleted(new Date(endTime));
-		batchResult.setOrdersProcessed(numOrders);
-		batchResult.setLinesProcessed(numLineItems);
-		batchResult.setOrderIds(new ArrayList<>(orderIds));
-		batchResult.setItemIds(new ArrayList<>(itemIds));
-		batchResult.setGtins(new ArrayList<>(gtins));
-		return batchResult;
+		/**
+		 * Wait for anything already handed to the workers and release the worker threads.
+		 */
+		void close() {
+			awaitDispatched();
+			executor.shutdown();
+			masterExecutor.shutdown();
+		}
 	}
 
 	@Override
@@ -1,8 +1,10 @@
 package com.codeshelf.filter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,14 +13,16 @@ import java.util.UUID;
 import lombok.Getter;
 import lombok.Setter;
 
-import org.apache.commons.beanutils.PropertyUtilsBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.model.dao.ITypedDao;
+import com.codeshelf.model.dao.ObjectChangeBatch;
 import com.codeshelf.model.domain.IDomainObject;
 import com.codeshelf.model.domain.IDomainObjectTree;
 import com.codeshelf.persistence.TenantPersistenceService;
+import com.codeshelf.util.PropertyAccessorCache;
+import com.codeshelf.ws.protocol.message.MessageABC;
 import com.codeshelf.ws.protocol.response.ObjectChangeResponse;
 import com.codeshelf.ws.protocol.response.ResponseABC;
 import com.google.common.base.Preconditions;
@@ -40,9 +44,9 @@ public class Filter implements ObjectEventListener {
 	@Getter
 	Class<? extends IDomainObject>				persistenceClass;
 
+	// persistent ids currently matching the filter
 	@Getter
-	@Setter
-	List<UUID>									matchList;
+	Set<UUID>									matchSet							= new HashSet<UUID>();
 
 	@Getter
 	@Setter
@@ -64,8 +68,6 @@ public class Filter implements ObjectEventListener {
 
 	final int									limitTooBigToBeEfficient			= 999;
 
-	PropertyUtilsBean							propertyUtils						= new PropertyUtilsBean();
-
 	public Filter(ITypedDao<? extends IDomainObject> dao, Class<? extends IDomainObject> persistenceClass, String id) {
 		this.persistenceClass = persistenceClass;
 		this.id = id;
@@ -74,16 +76,14 @@ public class Filter implements ObjectEventListener {
 
 	@Override
 	public ResponseABC processObjectAdd(Class<? extends IDomainObject> domainClass, final UUID domainPersistentId) {
-		ResponseABC result = null;
 		if (this.getPersistenceClass().isAssignableFrom(domainClass)) {
-			// TODO:???
-			if (!this.matchList.contains(domainPersistentId)) {
-				this.matchList.add(domainPersistentId);
+			checkFilterState(domainClass);
+			if (dao.matchesFilter(criteriaName, params, domainPersistentId)) {
+				this.matchSet.add(domainPersistentId);
+				return this.processEvent(domainClass, domainPersistentId, EventType.Create);
 			}
-			result = this.processEvent(domainClass, domainPersistentId, EventType.Create);
-			refreshMatchList();
 		}
-		return result;
+		return null;
 	}
 
 	@Override
@@ -93,18 +93,16 @@ public class Filter implements ObjectEventListener {
 		//rough rule of thumb to catch soft addition (where active went from false to true)
 		// start by ignoring if this filter is not looking for super class
 		if (this.getPersistenceClass().isAssignableFrom(domainClass)) {
-			// getting NPE from MAT on long line. What is null?
-			Preconditions.checkNotNull(dao, "dao is null for class " + domainClass);
-			Preconditions.checkNotNull(params, "params is null for class " + domainClass); // could null be ok for this?
+			checkFilterState(domainClass);
 
 			boolean matches = dao.matchesFilter(criteriaName, params, domainPersistentId);
 			if (matches) {
-				if (this.matchList.contains(domainPersistentId)) {
-					return this.processEvent(domainClass, domainPersistentId, EventType.Update);
+				if (this.matchSet.add(domainPersistentId)) {
+					return this.processEvent(domainClass, domainPersistentId, EventType.Create);
 				} else {
-					return processObjectAdd(domainClass, domainPersistentId);
+					return this.processEvent(domainClass, domainPersistentId, EventType.Update);
 				}
-			} else if (this.matchList.contains(domainPersistentId)) {
+			} else if (this.matchSet.contains(domainPersistentId)) {
 				return processObjectDelete(domainClass, domainPersistentId, null, null);
 			}
 		}
@@ -121,13 +119,71 @@ public class Filter implements ObjectEventListener {
 		ObjectChangeResponse deleteResponse = new ObjectChangeResponse();
 		deleteResponse.setResults(ImmutableList.of(deletedObjectProperties));
 		deleteResponse.setRequestId(this.id);
-		this.matchList.remove(inDomainPersistentId);
+		this.matchSet.remove(inDomainPersistentId);
 		return deleteResponse;
 	}
 
+	/**
+	 * Evaluate all added and updated objects of the batch with one query, and answer with one response
+	 * holding every create, update and delete the batch caused for this filter.
+	 */
+	@Override
+	public List<MessageABC> processObjectsChanged(ObjectChangeBatch batch) {
+		Class<? extends IDomainObject> domainClass = batch.getDomainClass();
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+
+		if (this.getPersistenceClass().isAssignableFrom(domainClass)) {
+			Set<UUID> candidates = new LinkedHashSet<UUID>(batch.getAdded());
+			candidates.addAll(batch.getUpdated().keySet());
+			if (!candidates.isEmpty()) {
+				checkFilterState(domainClass);
+				Map<UUID, IDomainObject> matches = new HashMap<UUID, IDomainObject>();
+				for (IDomainObject matched : dao.findByFilter(criteriaName, params, candidates)) {
+					matches.put(matched.getPersistentId(), matched);
+				}
+
+				List<IDomainObject> created = new ArrayList<IDomainObject>();
+				List<IDomainObject> updated = new ArrayList<IDomainObject>();
+				for (UUID candidate : candidates) {
+					IDomainObject matched = matches.get(candidate);
+					if (matched != null) {
+						if (this.matchSet.add(candidate)) {
+							created.add(matched);
+						} else {
+							updated.add(matched);
+						}
+					} else if (this.matchSet.remove(candidate)) {
+						results.add(getPropertiesForDeleted(domainClass, candidate));
+					}
+				}
+				results.addAll(getProperties(created, EventType.Create));
+				results.addAll(getProperties(updated, EventType.Update));
+			}
+		}
+
+		for (UUID deleted : batch.getDeleted().keySet()) {
+			results.add(getPropertiesForDeleted(domainClass, deleted));
+			this.matchSet.remove(deleted);
+		}
+
+		if (results.isEmpty()) {
+			return Collections.emptyList();
+		}
+		ObjectChangeResponse response = new ObjectChangeResponse();
+		response.setResults(results);
+		response.setRequestId(this.id);
+		return ImmutableList.<MessageABC> of(response);
+	}
+
+	private void checkFilterState(Class<? extends IDomainObject> domainClass) {
+		// getting NPE from MAT on long line. What is null?
+		Preconditions.checkNotNull(dao, "dao is null for class " + domainClass);
+		Preconditions.checkNotNull(params, "params is null for class " + domainClass); // could null be ok for this?
+	}
+
 	private ResponseABC processEvent(Class<? extends IDomainObject> domainClass, final UUID domainPersistentId, EventType type) {
 		List<IDomainObject> domainObjectList = new ArrayList<IDomainObject>();
-		if (this.matchList.contains(domainPersistentId)) {
+		if (this.matchSet.contains(domainPersistentId)) {
 			IDomainObject domainObject = TenantPersistenceService.getInstance()
 				.getDao(domainClass)
 				.findByPersistentId(domainPersistentId);
@@ -172,11 +228,13 @@ public class Filter implements ObjectEventListener {
 				}
 				for (String propertyName : this.propertyNames) {
 					try {
-						Object resultObject = propertyUtils.getProperty(matchedObject, propertyName);
-						propertiesMap.put(propertyName, resultObject);
-					} catch (NoSuchMethodException e) {
-						// Minor problem. UI hierarchical view asks for same data field name for all object types in the view. Not really an error in most cases
-						LOGGER.debug("no property " + propertyName + " on object: " + matchedObject);
+						Object resultObject = PropertyAccessorCache.getProperty(matchedObject, propertyName);
+						if (resultObject != PropertyAccessorCache.NO_SUCH_PROPERTY) {
+							propertiesMap.put(propertyName, resultObject);
+						} else {
+							// Minor problem. UI hierarchical view asks for same data field name for all object types in the view. Not really an error in most cases
+							LOGGER.debug("no property {} on object: {}", propertyName, matchedObject);
+						}
 					} catch (Exception e) {
 						LOGGER.warn("unexpected exception for property " + propertyName + " object: " + matchedObject, e);
 					}
@@ -198,11 +256,11 @@ public class Filter implements ObjectEventListener {
 		if (listSize > limitTooBigToBeEfficient)
 			this.setFilterYieldsResultTooBigForLister(true);
 
-		List<UUID> objectIds = new LinkedList<UUID>();
+		Set<UUID> objectIds = new HashSet<UUID>(listSize * 2);
 		for (IDomainObject object : objectMatchList) {
 			objectIds.add(object.getPersistentId());
 		}
-		this.setMatchList(objectIds);
+		this.matchSet = objectIds;
 		return objectMatchList;
 	}
 
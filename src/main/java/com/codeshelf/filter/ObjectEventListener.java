@@ -1,8 +1,12 @@
 package com.codeshelf.filter;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import com.codeshelf.model.dao.ObjectChangeBatch;
 import com.codeshelf.model.domain.IDomainObject;
 import com.codeshelf.ws.protocol.message.MessageABC;
 
@@ -15,4 +19,35 @@ public interface ObjectEventListener {
 	MessageABC processObjectUpdate(Class<? extends IDomainObject> domainClass, final UUID domainPersistentId, Set<String> inChangedProperties);
 
 	MessageABC processObjectDelete(Class<? extends IDomainObject> domainClass, final UUID domainPersistentId, Class<? extends IDomainObject> parentClass, final UUID parentId);
+
+	/**
+	 * Process all changes of one transaction. By default each change is processed on its own;
+	 * listeners that can evaluate the whole batch at once should override this.
+	 */
+	default List<MessageABC> processObjectsChanged(ObjectChangeBatch batch) {
+		List<MessageABC> responses = new ArrayList<MessageABC>();
+		Class<? extends IDomainObject> domainClass = batch.getDomainClass();
+		for (UUID added : batch.getAdded()) {
+			MessageABC response = processObjectAdd(domainClass, added);
+			if (response != null) {
+				responses.add(response);
+			}
+		}
+		for (Map.Entry<UUID, Set<String>> updated : batch.getUpdated().entrySet()) {
+			MessageABC response = processObjectUpdate(domainClass, updated.getKey(), updated.getValue());
+			if (response != null) {
+				responses.add(response);
+			}
+		}
+		for (Map.Entry<UUID, ObjectChangeBatch.DeletedObject> deleted : batch.getDeleted().entrySet()) {
+			MessageABC response = processObjectDelete(domainClass,
+				deleted.getKey(),
+				deleted.getValue().getParentClass(),
+				deleted.getValue().getParentId());
+			if (response != null) {
+				responses.add(response);
+			}
+		}
+		return responses;
+	}
 }
@@ -69,6 +69,18 @@ public final class BitFieldOutputStream {
 		mCurrentBit = 0;
 	}
 
+	// --------------------------------------------------------------------------
+	/**
+	 *	Write one whole byte when the stream is on a byte boundary, without building an array for it.
+	 */
+	private void outputAlignedByte(byte inByte) {
+		try {
+			mBaseOutputStream.write(inByte);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
 	// --------------------------------------------------------------------------
 	/**
 	 *  @param inBytes	The bytes to write to the output stream.
@@ -135,6 +147,10 @@ public final class BitFieldOutputStream {
 	 *  @throws IOException
 	 */
 	public void writeByte(byte inByte) throws IOException {
+		if (mCurrentBit == 0) {
+			outputAlignedByte(inByte);
+			return;
+		}
 		byte[] tempByte = new byte[1];
 		tempByte[0] = inByte;
 		localWrite(tempByte);
@@ -147,6 +163,11 @@ public final class BitFieldOutputStream {
 	 *  @throws IOException
 	 */
 	public void writeShort(int inShort) throws IOException {
+		if (mCurrentBit == 0) {
+			outputAlignedByte((byte) (inShort >>> 8));
+			outputAlignedByte((byte) (inShort));
+			return;
+		}
 		byte[] tempBuffer = new byte[2];
 		tempBuffer[0] = (byte) (inShort >>> 8);
 		tempBuffer[1] = (byte) (inShort);
@@ -160,6 +181,13 @@ public final class BitFieldOutputStream {
 	 *  @throws IOException
 	 */
 	public void writeInt(int inInt) throws IOException {
+		if (mCurrentBit == 0) {
+			outputAlignedByte((byte) (inInt >>> 24));
+			outputAlignedByte((byte) (inInt >>> 16));
+			outputAlignedByte((byte) (inInt >>> 8));
+			outputAlignedByte((byte) (inInt));
+			return;
+		}
 		byte[] tempBuffer = new byte[4];
 		tempBuffer[0] = (byte) (inInt >>> 24);
 		tempBuffer[1] = (byte) (inInt >>> 16);
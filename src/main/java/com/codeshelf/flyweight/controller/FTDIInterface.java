@@ -27,7 +27,7 @@ import com.codeshelf.flyweight.command.IPacket;
  * 
  */
 
-public final class FTDIInterface extends SerialInterfaceABC {
+public final class FTDIInterface extends SerialStreamInterfaceABC {
 
 	private static final Logger	LOGGER					= LoggerFactory.getLogger(FTDIInterface.class);
 	
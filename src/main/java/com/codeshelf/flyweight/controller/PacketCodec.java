@@ -0,0 +1,159 @@
+/*******************************************************************************
+ *  FlyWeightController
+ *  Copyright (c) 2015, Codeshelf, All rights reserved
+ *******************************************************************************/
+package com.codeshelf.flyweight.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import com.codeshelf.flyweight.bitfields.BitFieldInputStream;
+import com.codeshelf.flyweight.bitfields.BitFieldOutputStream;
+import com.codeshelf.flyweight.command.IPacket;
+import com.codeshelf.flyweight.command.PacketFactory;
+
+// --------------------------------------------------------------------------
+/**
+ *  Encodes packets into SLIP frames and decodes packets out of received frames, reusing its buffers and bit streams from
+ *  one packet to the next. Used to take a new byte stream, bit stream, frame array and copy of the packet bytes for
+ *  every packet sent or received.
+ *
+ *  The bytes returned are only valid until the next call, and a codec is not thread safe: the serial interface keeps
+ *  one for the sending side and one for the reading thread. Decoded packets are new objects since they are handed to
+ *  other threads and kept until acked, with no point at which they could go back to a pool.
+ */
+public final class PacketCodec {
+
+	private final PacketBytesOutputStream	mPacketBytes	= new PacketBytesOutputStream();
+	private BitFieldOutputStream			mBitFieldOut	= new BitFieldOutputStream(mPacketBytes);
+	private int								mPacketLength	= 0;
+	private final ByteBuffer				mFrame			= ByteBuffer.allocate(IGatewayInterface.MAX_FRAME_BYTES);
+
+	private final FrameInputStream			mFrameIn		= new FrameInputStream();
+	private final BitFieldInputStream		mBitFieldIn		= new BitFieldInputStream(mFrameIn, true);
+	private final PacketFactory				mPacketFactory	= new PacketFactory();
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Serialize the packet, without framing.
+	 *  @return	The number of bytes, which are in getPacketBytes().
+	 */
+	public int encodePacket(IPacket inPacket) {
+		mPacketBytes.reset();
+		try {
+			inPacket.toStream(mBitFieldOut);
+		} catch (RuntimeException e) {
+			// Don't let a half-written byte leak into the next packet.
+			mBitFieldOut = new BitFieldOutputStream(mPacketBytes);
+			throw e;
+		}
+		mPacketLength = mPacketBytes.size();
+		return mPacketLength;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  @return	The buffer holding the bytes of the last packet encoded. Only the first getPacketLength() bytes are valid.
+	 */
+	public byte[] getPacketBytes() {
+		return mPacketBytes.getBuffer();
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  @return	The number of bytes of the last packet encoded, including any that did not fit in its frame.
+	 */
+	public int getPacketLength() {
+		return mPacketLength;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Serialize the packet and frame it for the gateway.
+	 *  @param inPacket	The packet to send.
+	 *  @param inMaxPacketBytes	Packet bytes beyond this are not sent. At most IPacket.MAX_PACKET_BYTES.
+	 *  @param inDoubleEnd	Add a second END, which the KW2 gateway needs.
+	 *  @return	The frame, from position zero to the limit. The array behind it is reused.
+	 */
+	public ByteBuffer encodeFrame(IPacket inPacket, int inMaxPacketBytes, boolean inDoubleEnd) {
+		int packetLength = Math.min(encodePacket(inPacket), inMaxPacketBytes);
+		mFrame.clear();
+		slipEncode(mPacketBytes.getBuffer(), packetLength, mFrame);
+		mFrame.put(IGatewayInterface.END);
+		if (inDoubleEnd) {
+			mFrame.put(IGatewayInterface.END);
+		}
+		mFrame.flip();
+		return mFrame;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Decode a packet from a received frame, already un-escaped.
+	 *  @param inProtocol	The packet version to decode.
+	 *  @param inFrame	The frame bytes.
+	 *  @param inFrameLength	The number of valid bytes in inFrame.
+	 *  @param inPacketLength	The number of frame bytes that belong to the packet (not the trailing LQI).
+	 *  @return	The packet, or null if it is not of the expected version.
+	 */
+	public IPacket decodePacket(byte inProtocol, byte[] inFrame, int inFrameLength, int inPacketLength) {
+		mFrameIn.setFrame(inFrame, inFrameLength);
+		mBitFieldIn.reset();
+		IPacket packet = mPacketFactory.getPacketForProtocol(inProtocol);
+		if (packet == null || !packet.fromStream(mBitFieldIn, inPacketLength)) {
+			return null;
+		}
+		return packet;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  SLIP escape the bytes into the buffer (RFC 1055), copying the runs between bytes that need escaping in bulk.
+	 *  No END is added.
+	 */
+	public static void slipEncode(byte[] inBytes, int inLength, ByteBuffer outFrame) {
+		int runStart = 0;
+		for (int i = 0; i < inLength; i++) {
+			byte nextByte = inBytes[i];
+			if (nextByte == IGatewayInterface.ESC || nextByte == IGatewayInterface.END) {
+				outFrame.put(inBytes, runStart, i - runStart);
+				outFrame.put(IGatewayInterface.ESC);
+				outFrame.put(nextByte == IGatewayInterface.ESC ? IGatewayInterface.ESC_ESC : IGatewayInterface.ESC_END);
+				runStart = i + 1;
+			}
+		}
+		outFrame.put(inBytes, runStart, inLength - runStart);
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  A byte stream whose buffer can be read in place.
+	 */
+	private static final class PacketBytesOutputStream extends ByteArrayOutputStream {
+		private PacketBytesOutputStream() {
+			super(IGatewayInterface.MAX_FRAME_BYTES);
+		}
+
+		private byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  A byte stream over each received frame in turn.
+	 */
+	private static final class FrameInputStream extends ByteArrayInputStream {
+		private FrameInputStream() {
+			super(new byte[0]);
+		}
+
+		private void setFrame(byte[] inFrame, int inLength) {
+			buf = inFrame;
+			pos = 0;
+			mark = 0;
+			count = inLength;
+		}
+	}
+}
@@ -6,8 +6,8 @@
 
 package com.codeshelf.flyweight.controller;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 //import java.text.DecimalFormat;
 //import java.text.NumberFormat;
 //import java.util.concurrent.Executors;
@@ -21,14 +21,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.application.ContextLogging;
-import com.codeshelf.flyweight.bitfields.BitFieldInputStream;
-import com.codeshelf.flyweight.bitfields.BitFieldOutputStream;
 import com.codeshelf.flyweight.command.CommandAssocABC;
 import com.codeshelf.flyweight.command.CommandGroupEnum;
 import com.codeshelf.flyweight.command.ICommand;
 import com.codeshelf.flyweight.command.IPacket;
 import com.codeshelf.flyweight.command.NetworkId;
-import com.codeshelf.flyweight.command.PacketFactory;
 
 /**
  * --------------------------------------------------------------------------
@@ -66,8 +63,10 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 	//private final ScheduledExecutorService				radioReportService = Executors.newScheduledThreadPool(1);
 	//private radioTrafficCollector						mRadioStats;
 	
-	// Factories
-	private PacketFactory			mPacketFactory			= new PacketFactory();
+	// Sending may come from several threads, receiving only from the reader thread.
+	private final PacketCodec		mSendCodec				= new PacketCodec();
+	private final PacketCodec		mReceiveCodec			= new PacketCodec();
+	private final byte[]			mReceiveFrameBuffer		= new byte[MAX_FRAME_BYTES];
 
 	// --------------------------------------------------------------------------
 	/**
@@ -200,9 +199,15 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 
 		// Get the next frame from the serial stream.
 		//LOGGER.debug("Wait for frame.");
-		byte[] nextFrameArray = this.receiveFrame();
+		byte[] nextFrameArray = mReceiveFrameBuffer;
+		int nextFrameLength = this.receiveFrame(nextFrameArray);
 
-		if (nextFrameArray.length == 0) {
+		if (nextFrameLength > 0 && this.packetListener != null) {
+			// The listener keeps what it gets, so it gets a copy that is exactly the right size.
+			this.packetListener.capture(Arrays.copyOf(nextFrameArray, nextFrameLength));
+		}
+
+		if (nextFrameLength == 0) {
 			/*
 			try {
 				Thread.sleep(WAIT_INTERFACE_MILLIS);
@@ -212,31 +217,25 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 			*/
 		} else {
 			
-			ByteArrayInputStream byteArray = new ByteArrayInputStream(nextFrameArray);
-			BitFieldInputStream inputStream = new BitFieldInputStream(byteArray, true);
-
 			// Receive the next packet.
 			// TODO - needs to be based on the incoming packet version
-			packet = mPacketFactory.getPacketForProtocol(mProtocolVersion);
+			// Do not include LQI as packet data
+			packet = mReceiveCodec.decodePacket(mProtocolVersion, nextFrameArray, nextFrameLength, nextFrameLength - LQI_SIZE);
+			successfulRead = (packet != null);
 
-			if (nextFrameArray.length > 0) {
-				// Do not include LQI as packet data
-				successfulRead = packet.fromStream(inputStream, nextFrameArray.length - LQI_SIZE);
+			if(!successfulRead) {
+				LOGGER.debug("Received packet of wrong version. Dropping.");
+				return null;
+			}
 
-				if(!successfulRead) {
-					LOGGER.debug("Received packet of wrong version. Dropping.");
-					return null;
-				}
-				
-				//RadioStats.updateRcvdStats(nextFrameArray.length);
-				// LQI of packet is in the last byte of the frame
-				
-				// TODO - Using this condition to test if we are using a KW2 radio
-				// This is mostly incorrect, but works because KW2 radio only handles proto v1 atm.
-				if (mProtocolVersion == IPacket.PACKET_VERSION_1) {
-					byte lqi = nextFrameArray[nextFrameArray.length - LQI_SIZE];
-					packet.setLQI(lqi);
-				}
+			//RadioStats.updateRcvdStats(nextFrameLength);
+			// LQI of packet is in the last byte of the frame
+
+			// TODO - Using this condition to test if we are using a KW2 radio
+			// This is mostly incorrect, but works because KW2 radio only handles proto v1 atm.
+			if (mProtocolVersion == IPacket.PACKET_VERSION_1) {
+				byte lqi = nextFrameArray[nextFrameLength - LQI_SIZE];
+				packet.setLQI(lqi);
 			}
 
 			if ((packet.getNetworkId().equals(inMyNetworkId))
@@ -266,7 +265,7 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 						LOGGER.trace("Receive packet: " + result.toString());
 					else
 						LOGGER.debug("Receive packet: " + result.toString());
-					hexDumpArray(nextFrameArray);
+					hexDumpArray(Arrays.copyOf(nextFrameArray, nextFrameLength));
 				} catch (Exception e) {
 					LOGGER.error("Failed to receive packet from network id {}", inMyNetworkId, e);
 				} finally {
@@ -295,18 +294,10 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 			}
 		}
 
-		// Reset the byte array in preparation for the generation of a new frame.
-		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-		BitFieldOutputStream bitFieldOutStream = new BitFieldOutputStream(byteArrayStream);
-		byteArrayStream.reset();
-
-		// Spool the packet to the formatted bit stream.
-		inPacket.toStream(bitFieldOutStream);
-		//mBitFieldOutStream.writeEND();
-
-		// Write the bytes to the serial interface.
-		
-		sendFrame(inPacket, byteArrayStream);
+		// Spool the packet to the formatted bit stream and write the frame to the serial interface.
+		synchronized (mSendCodec) {
+			sendFrame(inPacket);
+		}
 		//mRadioStats.updateSentStats(byteArrayStream.size());
 	}
 
@@ -347,20 +338,6 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 	 */
 	protected abstract void doStopInterface();
 
-	// --------------------------------------------------------------------------
-	/**
-	 *  General method for reading in the subclass.
-	 *  @return	The next byte from the stream.
-	 */
-	protected abstract byte readByte();
-
-	// --------------------------------------------------------------------------
-	/**
-	 *  General method for reading in the subclass.
-	 *  @return	All of the bytes that we can read from the stream at the moment.
-	 */
-	protected abstract int readBytes(byte[] inBuffer);
-
 	// --------------------------------------------------------------------------
 	/**
 	 *  General method for writing to the stream.
@@ -388,122 +365,33 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 
 	// --------------------------------------------------------------------------
 	/**
-	 *  @return	The next SLIP frame received from the serial interface.
+	 *  Wait for the next whole frame from the gateway.
+	 *  @param inFrameBuffer	Gets the next SLIP frame received from the serial interface, un-escaped.
+	 *  @return	The number of bytes in the frame, 0 if the interface is stopping.
 	 */
-	private byte[] receiveFrame() {
-		byte[] frameBuffer = new byte[MAX_FRAME_BYTES];
-		byte nextByte;
-		int bytesReceived = 0;
-
-		// Loop reading bytes until we put together  a whole packet.
-		loop: while (shouldRun()) {
-			nextByte = readByte();
-
-			if (shouldRun()) {
-				switch (nextByte) {
-
-				// if it's an END character then we're done with the packet.
-					case END:
-						if (bytesReceived > 0) {
-							break loop;
-							//return result;
-						} else {
-							break;
-						}
-
-						/* 
-						 * If it's the same code as an ESC character, wait
-						 * and get another character and then figure out
-						 * what to store in the packet based on that.
-						 */
-					case ESC:
-						nextByte = readByte();
-
-						/* If "c" is not one of these two, then we
-						 * have a protocol violation.  The best bet
-						 * seems to be to leave the byte alone and
-						 * just stuff it into the packet
-						 */
-						switch (nextByte) {
-							case ESC_END:
-								nextByte = END;
-								break;
-							case ESC_ESC:
-								nextByte = ESC;
-								break;
-							default:
-								break;
-						}
-
-					default:
-						// here we fall into the default handler and let it store the character for us.
-						try {
-							frameBuffer[bytesReceived++] = (byte) nextByte;
-						} catch (ArrayIndexOutOfBoundsException e) {
-							// Note the error and send the full frame up for handling.
-							LOGGER.error("Serial framing error", e);
-							bytesReceived = MAX_FRAME_BYTES;
-							break loop;
-						}
-				}
-			}
-		}
-
-		// Create a byte array that is exactly the right size.
-		byte[] result = new byte[bytesReceived];
-		System.arraycopy(frameBuffer, 0, result, 0, bytesReceived);
-
-		if (this.packetListener != null) {
-			this.packetListener.capture(result);
-		}
-
-		return result;
-	}
+	protected abstract int receiveFrame(byte[] inFrameBuffer);
 
 	// --------------------------------------------------------------------------
 	/**
 	 *  Frame the packet bytes before putting them onto the serial link.
 	 */
 
-	private void sendFrame(IPacket inPacket, ByteArrayOutputStream inByteArrayStream) {
-		byte[] packetBytes = inByteArrayStream.toByteArray();
-		byte[] buffer = new byte[MAX_FRAME_BYTES];
-		int bufPos = 0;
-		int bytesToSend = Math.min(IPacket.MAX_PACKET_BYTES - 1, packetBytes.length);
-
-		if (packetBytes.length > bytesToSend) {
+	private void sendFrame(IPacket inPacket) {
+		// FIXME HUFFA - The protocol version test won't be accurate going forward.
+		// I'm using it to test if we are using a KW2 gateway which currently only supports ver1
+		// The extra END is used for KW2 Gateway buffer issues.
+		ByteBuffer frame = mSendCodec.encodeFrame(inPacket,
+			IPacket.MAX_PACKET_BYTES - 1,
+			mProtocolVersion == IPacket.PACKET_VERSION_1);
+		byte[] buffer = frame.array();
+		int bufPos = frame.limit();
+		byte[] packetBytes = mSendCodec.getPacketBytes();
+		int packetLength = mSendCodec.getPacketLength();
+
+		if (packetLength > IPacket.MAX_PACKET_BYTES - 1) {
 			LOGGER.error("Packet contains more bytes than can fit on radio!");
 		}
 
-		for (int i = 0; i < bytesToSend; i++) {
-			byte nextByte = packetBytes[i];
-
-			if (nextByte == IGatewayInterface.ESC) {
-				//					mSerialOutputStream.write(IGatewayInterface.ESC);
-				//					mSerialOutputStream.write(IGatewayInterface.ESC_ESC);
-				buffer[bufPos++] = IGatewayInterface.ESC;
-				buffer[bufPos++] = IGatewayInterface.ESC_ESC;
-			} else if (nextByte == IGatewayInterface.END) {
-				//					mSerialOutputStream.write(IGatewayInterface.ESC);
-				//					mSerialOutputStream.write(IGatewayInterface.ESC_END);
-				buffer[bufPos++] = IGatewayInterface.ESC;
-				buffer[bufPos++] = IGatewayInterface.ESC_END;
-			} else {
-				//					mSerialOutputStream.write(nextByte);
-				buffer[bufPos++] = nextByte;
-			}
-		}
-		//			mSerialOutputStream.write(IGatewayInterface.END);
-		//			mSerialOutputStream.flush();
-		buffer[bufPos++] = IGatewayInterface.END;
-		
-		if (mProtocolVersion == IPacket.PACKET_VERSION_1) {
-			// FIXME HUFFA - This conditional statement won't be accurate going forward.
-			// I'm using it to test if we are using a KW2 gateway which currently only supports ver1
-			buffer[bufPos++] = IGatewayInterface.END; // XXX HUFFA - used for KW2 Gateway buffer issues.
-		}
-		//		buffer[bufPos+1] = IGatewayInterface.END;
-
 		//clrRTS();
 		writeBytes(buffer, bufPos);
 		//setRTS();
@@ -514,19 +402,19 @@ public abstract class SerialInterfaceABC implements IGatewayInterface {
 
 		// The CommandAssocABC and CommandNetMagmtCheck commands have a mGuid field. Others do not; there is no convenient way to know the GUID.
 		if (isMerelyNetManagementTraffic)
-			LOGGER.trace("Send packet:    " + inPacket.toString());
+			LOGGER.trace("Send packet:    {}", inPacket);
 		else
-			LOGGER.debug("Send packet:    " + inPacket.toString());
+			LOGGER.debug("Send packet:    {}", inPacket);
 		if (LOGGER.isDebugEnabled()) {
 			try {
-				hexDumpArray(packetBytes);
+				hexDumpArray(Arrays.copyOf(packetBytes, packetLength));
 			} catch (Exception e) {
 				LOGGER.error("", e);
 			}
 		}
 
 		if (this.packetListener != null) {
-			this.packetListener.capture(packetBytes);
+			this.packetListener.capture(Arrays.copyOf(packetBytes, packetLength));
 		}
 	}
 
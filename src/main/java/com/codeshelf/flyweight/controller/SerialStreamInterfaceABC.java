@@ -0,0 +1,107 @@
+/*******************************************************************************
+ *  FlyWeightController
+ *  Copyright (c) 2005-2008, Jeffrey B. Williams, All rights reserved
+ *  $Id: SerialInterfaceABC.java,v 1.5 2013/07/12 21:44:38 jeffw Exp $
+ *******************************************************************************/
+
+package com.codeshelf.flyweight.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * --------------------------------------------------------------------------
+ * 
+ * Gateway interfaces that read the serial stream one byte at a time, and put the frames together themselves.
+ * 
+ * @author jeffw
+ * 
+ */
+
+public abstract class SerialStreamInterfaceABC extends SerialInterfaceABC {
+
+	private static final Logger	LOGGER	= LoggerFactory.getLogger(SerialStreamInterfaceABC.class);
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  General method for reading in the subclass.
+	 *  @return	The next byte from the stream.
+	 */
+	protected abstract byte readByte();
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  General method for reading in the subclass.
+	 *  @return	All of the bytes that we can read from the stream at the moment.
+	 */
+	protected abstract int readBytes(byte[] inBuffer);
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Reads one byte at a time with readByte() and un-escapes the frame as it goes.
+	 *  @param inFrameBuffer	Gets the next SLIP frame received from the serial interface, un-escaped.
+	 *  @return	The number of bytes in the frame, 0 if the interface is stopping.
+	 */
+	@Override
+	protected int receiveFrame(byte[] inFrameBuffer) {
+		byte[] frameBuffer = inFrameBuffer;
+		byte nextByte;
+		int bytesReceived = 0;
+
+		// Loop reading bytes until we put together  a whole packet.
+		loop: while (shouldRun()) {
+			nextByte = readByte();
+
+			if (shouldRun()) {
+				switch (nextByte) {
+
+				// if it's an END character then we're done with the packet.
+					case END:
+						if (bytesReceived > 0) {
+							break loop;
+							//return result;
+						} else {
+							break;
+						}
+
+						/* 
+						 * If it's the same code as an ESC character, wait
+						 * and get another character and then figure out
+						 * what to store in the packet based on that.
+						 */
+					case ESC:
+						nextByte = readByte();
+
+						/* If "c" is not one of these two, then we
+						 * have a protocol violation.  The best bet
+						 * seems to be to leave the byte alone and
+						 * just stuff it into the packet
+						 */
+						switch (nextByte) {
+							case ESC_END:
+								nextByte = END;
+								break;
+							case ESC_ESC:
+								nextByte = ESC;
+								break;
+							default:
+								break;
+						}
+
+					default:
+						// here we fall into the default handler and let it store the character for us.
+						try {
+							frameBuffer[bytesReceived++] = (byte) nextByte;
+						} catch (ArrayIndexOutOfBoundsException e) {
+							// Note the error and send the full frame up for handling.
+							LOGGER.error("Serial framing error", e);
+							bytesReceived = MAX_FRAME_BYTES;
+							break loop;
+						}
+				}
+			}
+		}
+
+		return bytesReceived;
+	}
+}
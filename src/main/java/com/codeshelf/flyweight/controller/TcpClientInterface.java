@@ -17,7 +17,7 @@ import org.slf4j.LoggerFactory;
  * @author jeffw
  *
  */
-public class TcpClientInterface extends SerialInterfaceABC {
+public class TcpClientInterface extends SerialStreamInterfaceABC {
 
 	private static final Logger	LOGGER	= LoggerFactory.getLogger(TcpClientInterface.class);
 
@@ -104,7 +104,7 @@ public class TcpClientInterface extends SerialInterfaceABC {
 
 	// --------------------------------------------------------------------------
 	/* (non-Javadoc)
-	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#readByte()
+	 * @see com.codeshelf.flyweight.controller.SerialStreamInterfaceABC#readByte()
 	 */
 	@Override
 	protected final byte readByte() {
@@ -126,7 +126,7 @@ public class TcpClientInterface extends SerialInterfaceABC {
 
 	// --------------------------------------------------------------------------
 	/* (non-Javadoc)
-	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#readBytes(byte[])
+	 * @see com.codeshelf.flyweight.controller.SerialStreamInterfaceABC#readBytes(byte[])
 	 */
 	@Override
 	protected final int readBytes(byte[] inBuffer) {
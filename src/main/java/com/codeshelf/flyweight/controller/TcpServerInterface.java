@@ -6,41 +6,117 @@
 package com.codeshelf.flyweight.controller;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Gateway interface for radios (or stand-ins for them) that connect over TCP.
+ *
+ * One selector thread accepts any number of gateway clients, reads whatever each one sends and un-escapes it into
+ * frames as it arrives, so the reader thread is handed whole frames as soon as they complete instead of polling the
+ * sockets byte by byte. Each client has its own frame buffer, so frames from different clients never mix.
+ *
+ * Frames sent go to every client. They are written straight to the socket from the sending thread; whatever a client
+ * cannot take right away is queued for it and flushed by the selector thread when the socket drains, together with
+ * any frames sent in the meantime. A client that falls too far behind is closed, so a stalled socket cannot hold
+ * memory without limit. A client that fails is dropped without disturbing the others. Only the selector
+ * thread closes clients, so their keys are never cancelled while it is using them.
+ *
  * @author jeffw
  *
  */
 public class TcpServerInterface extends SerialInterfaceABC {
 
-	public static final int				PORT_NUM			= 45000;
-	public static final int				READ_WAIT_MILLIS	= 10;
-	public static final int				OPEN_WAIT_MILLIS	= 25;
+	public static final int						PORT_NUM			= 45000;
+	// How long the reader waits for a frame before checking whether the interface is stopping.
+	public static final int						READ_WAIT_MILLIS	= 10;
+
+	private static final int					READ_BUFFER_BYTES	= 4096;
+	// A client that falls this far behind on its writes is closed rather than buffered for without limit.
+	private static final int					MAX_PENDING_BYTES	= 1024 * 1024;
+
+	private static final Logger					LOGGER				= LoggerFactory.getLogger(TcpServerInterface.class);
 
-	private static final Logger			LOGGER				= LoggerFactory.getLogger(TcpServerInterface.class);
+	private final int							mPort;
+	private volatile Selector					mSelector;
+	private volatile ServerSocketChannel		mServerChannel;
+	private final List<Remote>					mRemotes			= new CopyOnWriteArrayList<Remote>();
+	private final LinkedBlockingQueue<byte[]>	mFrames				= new LinkedBlockingQueue<byte[]>();
+	// Clients with queued writes. Only the selector thread changes interest ops, since that can block during a select.
+	private final Queue<Remote>					mWriteInterest		= new ConcurrentLinkedQueue<Remote>();
+	// Clients a sending thread failed to write to, for the selector thread to close.
+	private final Queue<Remote>					mFailed				= new ConcurrentLinkedQueue<Remote>();
 
-	private ServerSocket				mServerSocket;
-	private LinkedBlockingQueue<Remote>	mRemotes			= new LinkedBlockingQueue<Remote>();
+	private static final class Remote {
+		private final SocketChannel	channel;
+		private SelectionKey		key;
+		private final ByteBuffer	readBuffer	= ByteBuffer.allocate(READ_BUFFER_BYTES);
+		private final byte[]		frame		= new byte[MAX_FRAME_BYTES];
+		private int					frameLength	= 0;
+		private boolean				escaped		= false;
+		// Bytes the socket could not take yet, in write mode. Guarded by the Remote.
+		private ByteBuffer			pending;
 
-	private class Remote {
-		public Socket		clientSocket;
-		public InputStream	inputStream;
-		public OutputStream	outputStream;
+		private Remote(SocketChannel inChannel) {
+			channel = inChannel;
+		}
+
+		@Override
+		public String toString() {
+			return channel.toString();
+		}
 	}
 
 	/**
-	 * 
+	 *
 	 */
 	public TcpServerInterface() {
+		this(PORT_NUM);
+	}
+
+	/**
+	 * @param inPort	The port to listen on; 0 picks a free one (see getLocalPort()).
+	 */
+	public TcpServerInterface(int inPort) {
+		mPort = inPort;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  @return	The port the interface is listening on, or -1 if it is not.
+	 */
+	public final int getLocalPort() {
+		ServerSocketChannel serverChannel = mServerChannel;
+		if (serverChannel == null || !serverChannel.isOpen()) {
+			return -1;
+		}
+		return serverChannel.socket().getLocalPort();
+	}
 
+	// --------------------------------------------------------------------------
+	/**
+	 *  @return	The number of gateway clients connected.
+	 */
+	public final int getClientCount() {
+		return mRemotes.size();
 	}
 
 	// --------------------------------------------------------------------------
@@ -52,12 +128,18 @@ public class TcpServerInterface extends SerialInterfaceABC {
 		boolean result = true;
 
 		try {
-			mServerSocket = new ServerSocket(PORT_NUM);
-		} catch (java.net.BindException e) {
+			mSelector = Selector.open();
+			mServerChannel = ServerSocketChannel.open();
+			mServerChannel.configureBlocking(false);
+			mServerChannel.bind(new InetSocketAddress(mPort));
+			mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+		} catch (BindException e) {
 			LOGGER.error("Address/port number in use during doSetupConnection", e);
+			closeAll();
 			result = false;
 		} catch (IOException e) {
 			LOGGER.error("", e);
+			closeAll();
 			result = false;
 		}
 
@@ -70,37 +152,16 @@ public class TcpServerInterface extends SerialInterfaceABC {
 	 */
 	@Override
 	protected final void doStartInterface() {
-		Thread interfaceStarterThread = new Thread(new Runnable() {
+		final Selector selector = mSelector;
+		if (selector == null) {
+			return;
+		}
+		Thread selectorThread = new Thread(new Runnable() {
 			public void run() {
-				while (mServerSocket != null) { // while running
-
-					Socket clientSocket = null;
-					try {
-						if(mServerSocket.isClosed()) {
-							// do not spin throwing a thousand SocketExceptions per second if the socket is closed
-							Thread.sleep(OPEN_WAIT_MILLIS);
-						} else {
-							clientSocket = mServerSocket.accept();
-							LOGGER.info("Client opened: " + clientSocket.toString());
-							Remote remote = new Remote();
-							remote.clientSocket = clientSocket;
-							remote.inputStream = clientSocket.getInputStream();
-							remote.outputStream = clientSocket.getOutputStream();
-							//						byte[] putInCharMode = { (byte) 255, (byte) 251, (byte) 1, (byte) 255, (byte) 251, (byte) 3, (byte) 255, (byte) 252, (byte) 34 };
-							//						remote.outputStream.write(putInCharMode);
-							mRemotes.add(remote);
-						}
-					} catch (IOException e) {
-						System.err.println("Accept failed.");
-						System.err.println(e);
-						//System.exit(1);
-					} catch (InterruptedException e) {
-						LOGGER.error("OPEN_WAIT interrupted", e);
-					}
-				}
+				runSelector(selector);
 			}
 		}, "SocketListener");
-		interfaceStarterThread.start();
+		selectorThread.start();
 	}
 
 	// --------------------------------------------------------------------------
@@ -109,20 +170,8 @@ public class TcpServerInterface extends SerialInterfaceABC {
 	 */
 	@Override
 	protected final void doResetInterface() {
-		try {
-			mServerSocket.close();
-			doSetupConnection();
-		} catch (IOException e1) {
-			LOGGER.error("", e1);
-		}
-		for (Remote remote : mRemotes) {
-			try {
-				remote.clientSocket.close();
-			} catch (IOException e) {
-				LOGGER.error("", e);
-			}
-		}
-		mRemotes.clear();
+		// startInterface() sets the connection up again.
+		closeAll();
 	}
 
 	// --------------------------------------------------------------------------
@@ -131,24 +180,7 @@ public class TcpServerInterface extends SerialInterfaceABC {
 	 */
 	@Override
 	protected void doStopInterface() {
-		try {
-			// see a NPE here on tearing down integration test. Example IntegrationTest1.java
-			if (mServerSocket != null)
-				mServerSocket.close();
-
-			mServerSocket = null;
-			//doSetupConnection();
-		} catch (IOException e1) {
-			LOGGER.error("", e1);
-		}
-		for (Remote remote : mRemotes) {
-			try {
-				remote.clientSocket.close();
-			} catch (IOException e) {
-				LOGGER.error("", e);
-			}
-		}
-		mRemotes.clear();
+		closeAll();
 	}
 
 	// --------------------------------------------------------------------------
@@ -171,27 +203,22 @@ public class TcpServerInterface extends SerialInterfaceABC {
 	}
 
 	// --------------------------------------------------------------------------
-	/* (non-Javadoc)
-	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#readByte()
+	/**
+	 *  Wait for the next frame the selector thread has put together, from any client.
 	 */
 	@Override
-	protected final byte readByte() {
+	protected final int receiveFrame(byte[] inFrameBuffer) {
 		while (this.shouldRun()) {
-			for (Remote remote : mRemotes) {
-				if (remote.clientSocket.isConnected()) {
-					try {
-						if (remote.inputStream.available() > 0) {
-							return (byte) remote.inputStream.read();
-						}
-					} catch (IOException e) {
-						LOGGER.error("", e);
-					}
-				}
-			}
+			byte[] frame = null;
 			try {
-				Thread.sleep(READ_WAIT_MILLIS);
+				frame = mFrames.poll(READ_WAIT_MILLIS, TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {
-				LOGGER.error("", e);
+				LOGGER.warn("Interrupted waiting for a frame", e);
+				return 0;
+			}
+			if (frame != null) {
+				System.arraycopy(frame, 0, inFrameBuffer, 0, frame.length);
+				return frame.length;
 			}
 		}
 		return 0;
@@ -199,59 +226,270 @@ public class TcpServerInterface extends SerialInterfaceABC {
 
 	// --------------------------------------------------------------------------
 	/* (non-Javadoc)
-	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#readBytes(byte[])
+	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#writeByte(byte)
 	 */
 	@Override
-	protected final int readBytes(byte[] inBuffer) {
+	protected void writeByte(byte inByte) {
+		writeBytes(new byte[] { inByte }, 1);
+	}
+
+	// --------------------------------------------------------------------------
+	/* (non-Javadoc)
+	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#writeBytes(byte[], int)
+	 */
+	@Override
+	protected void writeBytes(byte[] inBytes, int inLength) {
 		for (Remote remote : mRemotes) {
-			if (remote.clientSocket.isConnected()) {
-				try {
-					if (remote.inputStream.available() > 0) {
-						return remote.inputStream.read(inBuffer);
+			try {
+				writeToRemote(remote, inBytes, inLength);
+			} catch (IOException e) {
+				LOGGER.warn("Write to client {} failed, closing it", remote, e);
+				// Stop sending to it now, and leave the close to the selector thread.
+				mRemotes.remove(remote);
+				mFailed.add(remote);
+				Selector selector = mSelector;
+				if (selector != null) {
+					selector.wakeup();
+				}
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Write as much as the socket takes now, and queue the rest for the selector thread.
+	 *  Throws if that would queue more than MAX_PENDING_BYTES, so the caller closes the client.
+	 */
+	private void writeToRemote(Remote inRemote, byte[] inBytes, int inLength) throws IOException {
+		synchronized (inRemote) {
+			if (inRemote.pending == null) {
+				ByteBuffer bytes = ByteBuffer.wrap(inBytes, 0, inLength);
+				inRemote.channel.write(bytes);
+				if (!bytes.hasRemaining()) {
+					return;
+				}
+				inRemote.pending = ByteBuffer.allocate(Math.max(MAX_FRAME_BYTES * 4, bytes.remaining()));
+				inRemote.pending.put(bytes);
+				mWriteInterest.add(inRemote);
+				Selector selector = mSelector;
+				if (selector != null) {
+					selector.wakeup();
+				}
+			} else {
+				// Already waiting on the socket: add to what the selector thread will flush.
+				int needed = inRemote.pending.position() + inLength;
+				if (needed > MAX_PENDING_BYTES) {
+					throw new IOException(inRemote.pending.position() + " bytes already waiting, over the limit of "
+							+ MAX_PENDING_BYTES);
+				}
+				if (inRemote.pending.remaining() < inLength) {
+					ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_PENDING_BYTES,
+						Math.max(inRemote.pending.capacity() * 2, needed)));
+					inRemote.pending.flip();
+					grown.put(inRemote.pending);
+					inRemote.pending = grown;
+				}
+				inRemote.pending.put(inBytes, 0, inLength);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Accept clients, read and frame what they send and flush their queued writes until the selector is closed.
+	 */
+	private void runSelector(Selector inSelector) {
+		while (inSelector.isOpen()) {
+			try {
+				inSelector.select();
+
+				Remote failed;
+				while ((failed = mFailed.poll()) != null) {
+					closeRemote(failed);
+				}
+
+				Remote waiting;
+				while ((waiting = mWriteInterest.poll()) != null) {
+					try {
+						if (waiting.key != null && waiting.key.isValid()) {
+							waiting.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						}
+					} catch (CancelledKeyException e) {
+						// closed since it queued the write
+						closeRemote(waiting);
+					}
+				}
+
+				Iterator<SelectionKey> keys = inSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						acceptRemote(inSelector, (ServerSocketChannel) key.channel());
+						continue;
+					}
+					Remote remote = (Remote) key.attachment();
+					try {
+						if (key.isReadable()) {
+							readRemote(remote);
+						}
+						if (key.isValid() && key.isWritable()) {
+							flushRemote(remote);
+						}
+					} catch (IOException e) {
+						LOGGER.warn("Client {} failed, closing it", remote, e);
+						closeRemote(remote);
+					} catch (CancelledKeyException e) {
+						// the channel was closed under us, e.g. by closeAll()
+						closeRemote(remote);
 					}
-				} catch (IOException e) {
-					LOGGER.error("", e);
-					doResetInterface();
 				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (CancelledKeyException e) {
+				// the listening socket was closed under us; the selector closes right after
+				LOGGER.debug("Key cancelled while selecting", e);
+			} catch (IOException e) {
+				LOGGER.error("", e);
 			}
 		}
-		return 0;
 	}
 
 	// --------------------------------------------------------------------------
-	/* (non-Javadoc)
-	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#writeByte(byte)
+	/**
+	 *
 	 */
-	@Override
-	protected void writeByte(byte inByte) {
-		for (Remote remote : mRemotes) {
-			if (remote.clientSocket.isConnected()) {
-				try {
-					remote.outputStream.write(inByte);
-				} catch (IOException e) {
-					LOGGER.error("", e);
-					doResetInterface();
+	private void acceptRemote(Selector inSelector, ServerSocketChannel inServerChannel) throws IOException {
+		SocketChannel channel = inServerChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Remote remote = new Remote(channel);
+		remote.key = channel.register(inSelector, SelectionKey.OP_READ, remote);
+		mRemotes.add(remote);
+		LOGGER.info("Client opened: {}", channel);
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *  Read what the client has sent and un-escape it into its frame, handing each completed frame to the reader.
+	 */
+	private void readRemote(Remote inRemote) throws IOException {
+		ByteBuffer readBuffer = inRemote.readBuffer;
+		int count = inRemote.channel.read(readBuffer);
+		if (count < 0) {
+			LOGGER.info("Client closed: {}", inRemote);
+			closeRemote(inRemote);
+			return;
+		}
+
+		byte[] bytes = readBuffer.array();
+		int end = readBuffer.position();
+		for (int i = 0; i < end; i++) {
+			byte nextByte = bytes[i];
+			if (inRemote.escaped) {
+				inRemote.escaped = false;
+				// Anything else after an ESC is a protocol violation; keep the byte as it is.
+				if (nextByte == ESC_END) {
+					nextByte = END;
+				} else if (nextByte == ESC_ESC) {
+					nextByte = ESC;
+				}
+			} else if (nextByte == END) {
+				if (inRemote.frameLength > 0) {
+					mFrames.add(Arrays.copyOf(inRemote.frame, inRemote.frameLength));
+					inRemote.frameLength = 0;
 				}
+				continue;
+			} else if (nextByte == ESC) {
+				inRemote.escaped = true;
+				continue;
 			}
+
+			if (inRemote.frameLength == MAX_FRAME_BYTES) {
+				// Note the error and send the full frame up for handling.
+				LOGGER.error("Serial framing error from client {}", inRemote);
+				mFrames.add(Arrays.copyOf(inRemote.frame, inRemote.frameLength));
+				inRemote.frameLength = 0;
+			}
+			inRemote.frame[inRemote.frameLength++] = nextByte;
 		}
+		readBuffer.clear();
 	}
 
 	// --------------------------------------------------------------------------
-	/* (non-Javadoc)
-	 * @see com.codeshelf.flyweight.controller.SerialInterfaceABC#writeBytes(byte[], int)
+	/**
+	 *  Write the client's queued bytes, and stop waiting to write once they are all gone.
 	 */
-	@Override
-	protected void writeBytes(byte[] inBytes, int inLength) {
-		for (Remote remote : mRemotes) {
-			if (remote.clientSocket.isConnected()) {
-				try {
-					remote.outputStream.write(inBytes, 0, inLength);
-				} catch (IOException e) {
-					LOGGER.error("", e);
-					doResetInterface();
+	private void flushRemote(Remote inRemote) throws IOException {
+		synchronized (inRemote) {
+			if (inRemote.pending != null) {
+				inRemote.pending.flip();
+				inRemote.channel.write(inRemote.pending);
+				inRemote.pending.compact();
+				if (inRemote.pending.position() > 0) {
+					return;
 				}
+				inRemote.pending = null;
 			}
+			if (inRemote.key.isValid()) {
+				inRemote.key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 *
+	 */
+	private void closeRemote(Remote inRemote) {
+		mRemotes.remove(inRemote);
+		try {
+			inRemote.channel.close();
+		} catch (IOException e) {
+			LOGGER.error("", e);
 		}
 	}
 
+	// --------------------------------------------------------------------------
+	/**
+	 *  Close the clients, the listening socket and the selector, which ends the selector thread.
+	 */
+	private void closeAll() {
+		for (Remote remote : mRemotes) {
+			closeRemote(remote);
+		}
+		mRemotes.clear();
+		Remote failed;
+		while ((failed = mFailed.poll()) != null) {
+			closeRemote(failed);
+		}
+		mWriteInterest.clear();
+		mFrames.clear();
+
+		// see a NPE here on tearing down integration test. Example IntegrationTest1.java
+		ServerSocketChannel serverChannel = mServerChannel;
+		mServerChannel = null;
+		if (serverChannel != null) {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+		}
+		Selector selector = mSelector;
+		mSelector = null;
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+		}
+	}
 }
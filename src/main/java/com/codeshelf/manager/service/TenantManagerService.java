@@ -236,6 +236,7 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 		} finally {
 			managerPersistenceService.commitTransaction();
 		}
+		tokenSessionService.invalidateTenantTokens(tenant.getId());
 
 		// resetTenant for testing - not necessary to recreate default users here
 		//createDefaultUsers(tenant);
@@ -641,6 +642,8 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 			if (persistentUser == null)
 				managerPersistenceService.rollbackTransaction();
 		}
+		// password, active or roles may have changed
+		tokenSessionService.invalidateUserTokens(persistentUser.getId());
 		return persistentUser;
 	}
 
@@ -657,6 +660,8 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 			if (persistentTenant == null)
 				managerPersistenceService.rollbackTransaction();
 		}
+		// may have been disabled
+		tokenSessionService.invalidateTenantTokens(persistentTenant.getId());
 		return persistentTenant;
 	}
 
@@ -701,6 +706,7 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 
 			this.dropSchema(tenant.getSchemaName(), shard);
 			this.dropSchemaUser(tenant.getUsername(), shard);
+			tokenSessionService.invalidateTenantTokens(tenant.getId());
 			tenant = null;
 		} catch (Exception e) {
 			LOGGER.error("unexpected exception deleting tenant", e);
@@ -829,6 +835,8 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 			if (persistentRole == null)
 				managerPersistenceService.rollbackTransaction();
 		}
+		// any user may have the role
+		tokenSessionService.invalidateAllTokens();
 		return persistentRole;
 	}
 
@@ -939,6 +947,8 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 			if (persistentRole == null)
 				managerPersistenceService.rollbackTransaction();
 		}
+		// any user may have a role with the permission
+		tokenSessionService.invalidateAllTokens();
 		return persistentRole;
 	}
 
@@ -957,6 +967,7 @@ public class TenantManagerService extends AbstractCodeshelfIdleService implement
 			if (!deleted)
 				managerPersistenceService.rollbackTransaction();
 		}
+		tokenSessionService.invalidateAllTokens();
 	}
 
 	@Override
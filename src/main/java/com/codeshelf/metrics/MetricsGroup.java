@@ -7,7 +7,8 @@ public enum MetricsGroup {
 	Database("database"),
 	WSS("wss"),
 	EDI("edi"), 
-	Radio("radio");
+	Radio("radio"),
+	Auth("auth");
 	
 	@Getter
 	String name;
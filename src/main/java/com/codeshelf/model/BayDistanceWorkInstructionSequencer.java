@@ -1,16 +1,12 @@
 package com.codeshelf.model;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.codeshelf.model.domain.Bay;
 import com.codeshelf.model.domain.Facility;
-import com.codeshelf.model.domain.Location;
-import com.codeshelf.model.domain.Path;
 import com.codeshelf.model.domain.WorkInstruction;
 
 /**
@@ -34,39 +30,13 @@ public class BayDistanceWorkInstructionSequencer extends WorkInstructionSequence
 	public List<WorkInstruction> sort(Facility facility, List<WorkInstruction> inWiList) {
 
 		preSortByPosAlongPath(inWiList); // Necessary for non-slotted so that sort within one location is good.
-				
+
 		// Now we need to sort and group the work instructions, so that the CHE can display them by working order.
-		List<Location> bayList = new ArrayList<Location>();
-		for (Path path : facility.getPaths()) {
-			List<Location> baysOnPath = path.<Location> getLocationsByClass(Bay.class);
-			for(Location locBay : baysOnPath) {
-				//String bayStr = locBay.getNominalLocationId();
-				bayList.add(locBay);
-			}
-			// that was for debugging. quick way:
-			// bayList.addAll(path.<Location> getLocationsByClass(Bay.class));
-		}
 		LOGGER.debug("Sequencing work instructions at "+facility.getDomainId());
-		List<WorkInstruction> wiResultList = new ArrayList<WorkInstruction>();
-		// Cycle over all bays on the path.
-		for (Location subLocation : bayList) {
-			//String subLocStr = subLocation.getNominalLocationId();
-			for (Location workLocation : subLocation.getSubLocationsInWorkingOrder()) {
-				//String workLocStr = workLocation.getNominalLocationId();
-				Iterator<WorkInstruction> wiIterator = inWiList.iterator();
-				while (wiIterator.hasNext()) {
-					WorkInstruction wi = wiIterator.next();
-					Location wiLoc = wi.getLocation();
-					//String wiLocStr = wiLoc.getNominalLocationId();
-					if (wiLoc.equals(workLocation)) {
-						LOGGER.debug("Adding WI "+wi+" at "+workLocation);
-						wiResultList.add(wi);
-						// WorkInstructionSequencerABC sets the sort code and persists
-						wiIterator.remove();
-					}
-				}
-			}
-		}
+		List<WorkInstruction> wiResultList = sequenceByBayWorkingOrder(facility, inWiList);
+		// As before, the passed in list keeps only the work instructions that could not be placed.
+		// WorkInstructionSequencerABC sets the sort code and persists
+		inWiList.removeAll(new HashSet<WorkInstruction>(wiResultList));
 		return wiResultList;
 	}
 }
@@ -3,7 +3,6 @@ package com.codeshelf.model;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -12,26 +11,21 @@ import lombok.Getter;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.Session;
-import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.edi.WorkInstructionCsvBean;
-import com.codeshelf.model.dao.DaoException;
 import com.codeshelf.model.dao.ITypedDao;
-import com.codeshelf.model.domain.Che;
 import com.codeshelf.model.domain.Container;
 import com.codeshelf.model.domain.ContainerUse;
-import com.codeshelf.model.domain.DomainObjectABC;
 import com.codeshelf.model.domain.ExportMessage;
 import com.codeshelf.model.domain.Facility;
 import com.codeshelf.model.domain.ImportReceipt;
 import com.codeshelf.model.domain.OrderDetail;
 import com.codeshelf.model.domain.OrderGroup;
 import com.codeshelf.model.domain.OrderHeader;
-import com.codeshelf.model.domain.Resolution;
 import com.codeshelf.model.domain.WorkInstruction;
 import com.codeshelf.model.domain.WorkerEvent;
 import com.codeshelf.persistence.TenantPersistenceService;
@@ -226,11 +220,24 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of OrderHeaders whose dueDate is older than daysOld before now.
 	 */
 	public List<UUID> getOrderUuidsToPurge(int daysOld) {
+		return getOrderUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getOrderUuidsToPurge(int daysOld, int maxCount) {
+		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
+		UUID facilityUUID = getFacility().getPersistentId();
+		Criteria orderCrit = getOrderPurgeCriterion(desiredTime, facilityUUID);
+		return getUuidsToPurge(orderCrit, maxCount, OrderHeader.staticGetDao());
+	}
+
+	public int countOrdersToPurge(int daysOld) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria orderCrit = getOrderPurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = OrderHeader.staticGetDao().getUUIDListByCriteriaQuery(orderCrit);
-		return uuidList;
+		return OrderHeader.staticGetDao().countByCriteriaQuery(orderCrit);
 	}
 
 	/**
@@ -249,11 +256,24 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of OrderDetails from Replenish orders whose 'updated' value is older than daysOld before now.
 	 */
 	public List<UUID> getReplenishDetailsUuidsToPurge(int daysOld) {
+		return getReplenishDetailsUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getReplenishDetailsUuidsToPurge(int daysOld, int maxCount) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria detailsCrit = getReplenishDetailsPurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = OrderDetail.staticGetDao().getUUIDListByCriteriaQuery(detailsCrit);
-		return uuidList;
+		return getUuidsToPurge(detailsCrit, maxCount, OrderDetail.staticGetDao());
+	}
+
+	public int countReplenishDetailsToPurge(int daysOld) {
+		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
+		UUID facilityUUID = getFacility().getPersistentId();
+		Criteria detailsCrit = getReplenishDetailsPurgeCriterion(desiredTime, facilityUUID);
+		return OrderDetail.staticGetDao().countByCriteriaQuery(detailsCrit);
 	}
 
 	/**
@@ -270,11 +290,24 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of WorkerEvents whose event date is older than daysOld before now.
 	 */
 	public List<UUID> getWorkerEventUuidsToPurge(int daysOld) {
+		return getWorkerEventUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getWorkerEventUuidsToPurge(int daysOld, int maxCount) {
+		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
+		UUID facilityUUID = getFacility().getPersistentId();
+		Criteria eventCrit = getWorkerEventPurgeCriterion(desiredTime, facilityUUID);
+		return getUuidsToPurge(eventCrit, maxCount, WorkerEvent.staticGetDao());
+	}
+
+	public int countWorkerEventsToPurge(int daysOld) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria eventCrit = getWorkerEventPurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = WorkerEvent.staticGetDao().getUUIDListByCriteriaQuery(eventCrit);
-		return uuidList;
+		return WorkerEvent.staticGetDao().countByCriteriaQuery(eventCrit);
 	}
 
 	/**
@@ -291,11 +324,24 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of WorkInstructionCsvBean whose update date is older than daysOld before now.
 	 */
 	public List<UUID> getWorkInstructionCsvBeanUuidsToPurge(int daysOld) {
+		return getWorkInstructionCsvBeanUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getWorkInstructionCsvBeanUuidsToPurge(int daysOld, int maxCount) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria eventCrit = getWiBeanPurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = WorkInstructionCsvBean.staticGetDao().getUUIDListByCriteriaQuery(eventCrit);
-		return uuidList;
+		return getUuidsToPurge(eventCrit, maxCount, WorkInstructionCsvBean.staticGetDao());
+	}
+
+	public int countWorkInstructionCsvBeansToPurge(int daysOld) {
+		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
+		UUID facilityUUID = getFacility().getPersistentId();
+		Criteria eventCrit = getWiBeanPurgeCriterion(desiredTime, facilityUUID);
+		return WorkInstructionCsvBean.staticGetDao().countByCriteriaQuery(eventCrit);
 	}
 
 	/**
@@ -330,11 +376,24 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of ExportMessage record whose created date is older than daysOld before now.
 	 */
 	public List<UUID> getExportMessageUuidsToPurge(int daysOld) {
+		return getExportMessageUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getExportMessageUuidsToPurge(int daysOld, int maxCount) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria msgCrit = getExportMessagePurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = ExportMessage.staticGetDao().getUUIDListByCriteriaQuery(msgCrit);
-		return uuidList;
+		return getUuidsToPurge(msgCrit, maxCount, ExportMessage.staticGetDao());
+	}
+
+	public int countExportMessagesToPurge(int daysOld) {
+		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
+		UUID facilityUUID = getFacility().getPersistentId();
+		Criteria msgCrit = getExportMessagePurgeCriterion(desiredTime, facilityUUID);
+		return ExportMessage.staticGetDao().countByCriteriaQuery(msgCrit);
 	}
 
 	/**
@@ -351,11 +410,24 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of ImportReceipt whose receive date is older than daysOld before now.
 	 */
 	public List<UUID> getImportReceiptUuidsToPurge(int daysOld) {
+		return getImportReceiptUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getImportReceiptUuidsToPurge(int daysOld, int maxCount) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria receiptCrit = getImportReceiptPurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = ImportReceipt.staticGetDao().getUUIDListByCriteriaQuery(receiptCrit);
-		return uuidList;
+		return getUuidsToPurge(receiptCrit, maxCount, ImportReceipt.staticGetDao());
+	}
+
+	public int countImportReceiptsToPurge(int daysOld) {
+		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
+		UUID facilityUUID = getFacility().getPersistentId();
+		Criteria receiptCrit = getImportReceiptPurgeCriterion(desiredTime, facilityUUID);
+		return ImportReceipt.staticGetDao().countByCriteriaQuery(receiptCrit);
 	}
 
 	/**
@@ -372,11 +444,17 @@ public class DomainObjectManager {
 	 * This returns the full list of UUIDs of workInstructions whose created date is older than daysOld before now.
 	 */
 	public List<UUID> getWorkInstructionUuidsToPurge(int daysOld) {
+		return getWorkInstructionUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getWorkInstructionUuidsToPurge(int daysOld, int maxCount) {
 		Timestamp desiredTime = getDaysOldTimeStamp(daysOld);
 		UUID facilityUUID = getFacility().getPersistentId();
 		Criteria wiCrit = getWiPurgeCriterion(desiredTime, facilityUUID);
-		List<UUID> uuidList = WorkInstruction.staticGetDao().getUUIDListByCriteriaQuery(wiCrit);
-		return uuidList;
+		return getUuidsToPurge(wiCrit, maxCount, WorkInstruction.staticGetDao());
 	}
 
 	/**
@@ -385,6 +463,13 @@ public class DomainObjectManager {
 	 * Indirect because containerUse and Wis will be deleted first by timestamp. Container only deletes after those that reference it are gone.
 	 */
 	public List<UUID> getCntrUuidsToPurge(int daysOld) {
+		return getCntrUuidsToPurge(daysOld, 0);
+	}
+
+	/**
+	 * The first maxCount of them, or all if maxCount is 0.
+	 */
+	public List<UUID> getCntrUuidsToPurge(int daysOld, int maxCount) {
 		// Time this routine as this might be a bit slow
 		long startMillis = System.currentTimeMillis();
 
@@ -399,6 +484,8 @@ public class DomainObjectManager {
 			"	LEFT JOIN c.workInstructions wi\n" + 
 			"WHERE c.parent = :facility AND cu.persistentId IS NULL AND wi.persistentId IS NULL\n");
 		query.setParameter("facility", getFacility());
+		if (maxCount > 0)
+			query.setMaxResults(maxCount);
 		@SuppressWarnings("unchecked")
 		List<UUID> results = query.list();
 		long endMillis = System.currentTimeMillis();
@@ -410,32 +497,13 @@ public class DomainObjectManager {
 
 	/**
 	 * Purge these containers all in the current transaction.
+	 * This could fail if a ContainerUse or WorkInstruction was made for a container after the uuid list was created.
+	 * Too expensive to check again, and will not happen much. Let the database error catch it.
 	 */
 	public int purgeSomeCntrs(List<UUID> cntrUuids) {
 		final int MAX_CNTR_PURGE = 500;
-		int wantToPurge = cntrUuids.size();
-		int willPurge = Math.min(wantToPurge, MAX_CNTR_PURGE);
-		if (wantToPurge > MAX_CNTR_PURGE) {
-			LOGGER.error("Limiting container delete batch size to {}. Called for {}.", MAX_CNTR_PURGE, wantToPurge);
-		}
-		int deletedCount = 0;
-		List<Container> containers = Container.staticGetDao().findByPersistentIdList(cntrUuids);
-		for (Container cntr : containers) {
-			// just protection against bad call
-			if (deletedCount > willPurge)
-				break;
-			try {
-				if (cntr != null) {
-					Container.staticGetDao().delete(cntr);
-					// This could fail! Make a new ContainerUse or WorkInstruction for a container after the uuid list was created.
-					// Too expensive to check again, and will not happen much. Let the database error catch it.
-					deletedCount++;
-				}
-			} catch (DaoException e) {
-				LOGGER.error("purgeSomeCntrs", e);
-			}
-		}
-		return deletedCount;
+		List<UUID> uuidsToPurge = limitPurgeBatch(cntrUuids, MAX_CNTR_PURGE, "container");
+		return bulkUpdate("DELETE FROM Container WHERE persistentId IN (:ids)", uuidsToPurge);
 	}
 
 	/**
@@ -444,70 +512,28 @@ public class DomainObjectManager {
 	 */
 	public int purgeSomeWorkerEvents(List<UUID> workerEventUuids) {
 		final int MAX_EVENT_PURGE = 500;
-		int wantToPurge = workerEventUuids.size();
-		int willPurge = Math.min(wantToPurge, MAX_EVENT_PURGE);
-		if (wantToPurge > MAX_EVENT_PURGE) {
-			LOGGER.error("Limiting workerEvent delete batch size to {}. Called for {}.", MAX_EVENT_PURGE, wantToPurge);
-		}
-		int deletedCount = 0;
-		for (UUID eventUuid : workerEventUuids) {
-			// just protection against bad call
-			if (deletedCount > willPurge)
-				break;
-			try {
-				WorkerEvent event = WorkerEvent.staticGetDao().findByPersistentId(eventUuid);
-				if (event != null) {
-					// Worker events are a little special. They may or may not have a resolution. If so, delete the resolution, no matter the date on the resolution.
-					Resolution resolution = event.getResolution();
-					if (resolution != null) {
-						event.setResolution(null); // necessary?
-						Resolution.staticGetDao().delete(resolution);
-					}
-					WorkerEvent.staticGetDao().delete(event);
-					deletedCount++;
-				}
-			} catch (DaoException e) {
-				LOGGER.error("purgeSomeWorkerEvents", e);
-			}
-		}
+		List<UUID> uuidsToPurge = limitPurgeBatch(workerEventUuids, MAX_EVENT_PURGE, "workerEvent");
+		if (uuidsToPurge.isEmpty())
+			return 0;
+		// Worker events are a little special. They may or may not have a resolution. If so, delete the resolution, no matter the date on the resolution.
+		@SuppressWarnings("unchecked")
+		List<UUID> resolutionUuids = getSession().createQuery("SELECT e.resolution.persistentId FROM WorkerEvent e WHERE e.persistentId IN (:ids) AND e.resolution IS NOT NULL")
+			.setParameterList("ids", uuidsToPurge)
+			.list();
+		int deletedCount = bulkUpdate("DELETE FROM WorkerEvent WHERE persistentId IN (:ids)", uuidsToPurge);
+		bulkUpdate("DELETE FROM Resolution WHERE persistentId IN (:ids)", resolutionUuids);
 		return deletedCount;
 	}
 
 	/**
 	 * Purge these work instructions all in the current transaction.
-	 * Work instructions must be delinked from owning detail and che as they have lazy loaded lists
+	 * Nothing references a work instruction row, so they go in one statement. The detail and che lists they were in are
+	 * evicted from the second level cache by hibernate.
 	 */
 	public int purgeSomeWorkInstructions(List<UUID> wiUuids) {
 		final int MAX_WI_PURGE = 500;
-		int wantToPurge = wiUuids.size();
-		int willPurge = Math.min(wantToPurge, MAX_WI_PURGE);
-		if (wantToPurge > MAX_WI_PURGE) {
-			LOGGER.error("Limiting work instruction delete batch size to {}. Called for {}.", MAX_WI_PURGE, wantToPurge);
-		}
-		int deletedCount = 0;
-		for (UUID wiUuid : wiUuids) {
-			// just protection against bad call
-			if (deletedCount > willPurge)
-				break;
-			try {
-				WorkInstruction wi = WorkInstruction.staticGetDao().findByPersistentId(wiUuid);
-				if (wi != null) {
-					// Work instructions are in lists for various parents. Make sure they are removed.
-					OrderDetail detail = wi.getOrderDetail();
-					if (detail != null)
-						detail.removeWorkInstruction(wi);
-					Che che = wi.getAssignedChe();
-					if (che != null)
-						che.removeWorkInstruction(wi);
-
-					WorkInstruction.staticGetDao().delete(wi);
-					deletedCount++;
-				}
-			} catch (DaoException e) {
-				LOGGER.error("purgeSomeWorkInstructions", e);
-			}
-		}
-		return deletedCount;
+		List<UUID> uuidsToPurge = limitPurgeBatch(wiUuids, MAX_WI_PURGE, "work instruction");
+		return bulkUpdate("DELETE FROM WorkInstruction WHERE persistentId IN (:ids)", uuidsToPurge);
 	}
 
 	/**
@@ -541,60 +567,15 @@ public class DomainObjectManager {
 	 * Purge objects that have no complex relationships requiring fancier code
 	 */
 	private int simplePurge(List<UUID> objectUuids, int programMaxBatch, ITypedDao<?> theDao) {
-		int wantToPurge = objectUuids.size();
-		int willPurge = Math.min(wantToPurge, programMaxBatch);
-		if (wantToPurge > programMaxBatch) {
-			LOGGER.error("Limiting purge delete batch size to {}. Called for {}.", programMaxBatch, wantToPurge);
-		}
-		int deletedCount = 0;
-		for (UUID objectUuid : objectUuids) {
-			// just protection against bad call
-			if (deletedCount > willPurge)
-				break;
-			try {
-				DomainObjectABC object = (DomainObjectABC) theDao.findByPersistentId(objectUuid);
-				if (object != null) {
-					theDao.delete(object);
-					deletedCount++;
-				}
-			} catch (DaoException e) {
-				LOGGER.error("simplePurge", e);
-			}
-		}
-		return deletedCount;
-	}
-
-	private final List<WorkInstruction> findByDetailPersistentIdList(List<UUID> inIdList) {
-		if (inIdList != null && inIdList.isEmpty()) {
-			return Collections.<WorkInstruction> emptyList(); //empty WHERE X IN () causes syntax issue in postgres
-		} else {
-			Criteria criteria = WorkInstruction.staticGetDao().createCriteria();
-			criteria.add(Restrictions.in("orderDetail.persistentId", inIdList)); // empty .in() guard present
-			@SuppressWarnings("unchecked")
-			List<WorkInstruction> wiResultsList = (List<WorkInstruction>) criteria.list();
-			return wiResultsList;
-		}
+		List<UUID> uuidsToPurge = limitPurgeBatch(objectUuids, programMaxBatch, theDao.getDaoClass().getSimpleName());
+		return bulkUpdate("DELETE FROM " + theDao.getDaoClass().getSimpleName() + " WHERE persistentId IN (:ids)", uuidsToPurge);
 	}
 
 	public int purgeSomeReplenishDetails(List<UUID> detailUuids) {
 		final int MAX_DETAIL_PURGE = 500;
-		int wantToPurge = detailUuids.size();
-		int willPurge = Math.min(wantToPurge, MAX_DETAIL_PURGE);
-		if (wantToPurge > MAX_DETAIL_PURGE) {
-			LOGGER.error("Limiting replenishDetail delete batch size to {}. Called for {}.", MAX_DETAIL_PURGE, wantToPurge);
-		}
-		List<UUID> uuidsToPurge = detailUuids.subList(0, willPurge);
-		LOGGER.debug("Phase 1 of Replenish detail purge: retrieve details and wis to purge.");
-		List<OrderDetail> details = OrderDetail.staticGetDao().findByPersistentIdList(uuidsToPurge);
-		List<WorkInstruction> wis = findByDetailPersistentIdList(uuidsToPurge);
-
-		LOGGER.debug("Phase 2 of Replenish detail purge: delete the assembled work instructions, which delinks from details and che.");
-		safelyDeleteWorkInstructionList(wis);
-
-		LOGGER.debug("Phase 3 of Replenish detail purge: delete the details");
-		int deletedDetailCount = safelyDeleteDetailsList(details);
-
-		return deletedDetailCount;
+		List<UUID> uuidsToPurge = limitPurgeBatch(detailUuids, MAX_DETAIL_PURGE, "replenishDetail");
+		bulkUpdate("DELETE FROM WorkInstruction WHERE orderDetail.persistentId IN (:ids)", uuidsToPurge);
+		return bulkUpdate("DELETE FROM OrderDetail WHERE persistentId IN (:ids)", uuidsToPurge);
 	}
 
 	/**
@@ -603,98 +584,66 @@ public class DomainObjectManager {
 	 */
 	public int purgeSomeOrders(List<UUID> orderUuids) {
 		final int MAX_ORDER_PURGE = 100;
-		int wantToPurge = orderUuids.size();
-		int willPurge = Math.min(wantToPurge, MAX_ORDER_PURGE);
-		if (wantToPurge > MAX_ORDER_PURGE) {
-			LOGGER.error("Limiting order delete batch size to {}. Called for {}.", MAX_ORDER_PURGE, wantToPurge);
-		}
+		List<UUID> uuidsToPurge = limitPurgeBatch(orderUuids, MAX_ORDER_PURGE, "order");
+		if (uuidsToPurge.isEmpty())
+			return 0;
 
-		//  back to simple order.delete() 
-		// Trying to speed up by not relying quite so much on the hibernate delete cascade.
-		// Result: not much improvement in time. But much nicer logging about the process. (changed to debug logging now)
-		LOGGER.debug("Phase 2 of order purge: assemble list of details for these orders");
-		List<OrderDetail> details = OrderDetail.staticGetDao().findByParentPersistentIdList(orderUuids);
+		// Set based, children first, in the order the foreign keys need. What order.delete() did through the hibernate
+		// cascade, without loading the orders, details and work instructions, or firing their delete events.
+		LOGGER.debug("Phase 1 of order purge: find the container uses the orders own");
+		@SuppressWarnings("unchecked")
+		List<UUID> useUuids = getSession().createQuery("SELECT oh.containerUse.persistentId FROM OrderHeader oh WHERE oh.persistentId IN (:ids) AND oh.containerUse IS NOT NULL")
+			.setParameterList("ids", uuidsToPurge)
+			.list();
 
-		LOGGER.debug("Phase 3 of order purge: assemble work instructions from the details");
-		List<Criterion> filterParams = new ArrayList<Criterion>();
-		filterParams.add(Restrictions.in("orderDetail", details));
-		List<WorkInstruction> wis = WorkInstruction.staticGetDao().findByFilter(filterParams);
-		
-		LOGGER.debug("Phase 4 of order purge: delete the assembled work instructions, which delinks from details and che.");
-		safelyDeleteWorkInstructionList(wis);
-
-		LOGGER.debug("Phase 5 of order purge: delete the details");
-		safelyDeleteDetailsList(details);
-
-		LOGGER.debug("Phase 6 of order purge: delete the orders which delinks from container");
-
-		int deletedCount = 0;
-		for (UUID orderUuid : orderUuids) {
-			// just protection against bad call
-			if (deletedCount > willPurge)
-				break;
-			try {
-				OrderHeader order = OrderHeader.staticGetDao().findByPersistentId(orderUuid);
-				if (order != null) {
-					order.delete();
-					deletedCount++;
-				}
-			} catch (DaoException e) {
-				LOGGER.error("purgeOrders", e);
-			}
-		}
-		return deletedCount;
-	}
+		LOGGER.debug("Phase 2 of order purge: delete the work instructions of the details");
+		bulkUpdate("DELETE FROM WorkInstruction WHERE orderDetail.persistentId IN (SELECT od.persistentId FROM OrderDetail od WHERE od.parent.persistentId IN (:ids))",
+			uuidsToPurge);
 
-	private void safelyDeleteWorkInstructionList(List<WorkInstruction> wiList) {
-		int deletedCount = 0;
-		for (WorkInstruction wi : wiList) {
+		LOGGER.debug("Phase 3 of order purge: delete the details and order locations");
+		bulkUpdate("DELETE FROM OrderDetail WHERE parent.persistentId IN (:ids)", uuidsToPurge);
+		bulkUpdate("DELETE FROM OrderLocation WHERE parent.persistentId IN (:ids)", uuidsToPurge);
 
-			OrderDetail detail = wi.getOrderDetail();
-			if (detail != null)
-				detail.removeWorkInstruction(wi);
-			Che che = wi.getAssignedChe();
-			if (che != null)
-				che.removeWorkInstruction(wi);
-			try {
-				WorkInstruction.staticGetDao().delete(wi);
-			} catch (DaoException e) {
-				LOGGER.error("safelyDeleteWorkInstructionList", e);
-			}
-			deletedCount++;
+		LOGGER.debug("Phase 4 of order purge: delink and delete the container uses");
+		bulkUpdate("UPDATE OrderHeader SET containerUse = null WHERE persistentId IN (:ids)", uuidsToPurge);
+		bulkUpdate("UPDATE ContainerUse SET orderHeader = null WHERE orderHeader.persistentId IN (:ids)", uuidsToPurge);
+		bulkUpdate("DELETE FROM ContainerUse WHERE persistentId IN (:ids)", useUuids);
 
-			if (deletedCount % 100 == 0)
-				LOGGER.info("deleted {} WorkInstructions ", deletedCount);
+		LOGGER.debug("Phase 5 of order purge: delete the orders");
+		return bulkUpdate("DELETE FROM OrderHeader WHERE persistentId IN (:ids)", uuidsToPurge);
+	}
 
+	/**
+	 * The first programMaxBatch of the list.
+	 */
+	private List<UUID> limitPurgeBatch(List<UUID> objectUuids, int programMaxBatch, String objectName) {
+		int wantToPurge = objectUuids.size();
+		if (wantToPurge > programMaxBatch) {
+			LOGGER.error("Limiting {} delete batch size to {}. Called for {}.", objectName, programMaxBatch, wantToPurge);
+			return objectUuids.subList(0, programMaxBatch);
 		}
-
-		if (deletedCount % 100 != 0)
-			LOGGER.info("deleted {} WorkInstructions ", deletedCount);
+		return objectUuids;
 	}
 
-	private int safelyDeleteDetailsList(List<OrderDetail> detailsList) {
-		int deletedCount = 0;
-
-		for (OrderDetail detail : detailsList) {
-
-			OrderHeader order = detail.getParent();
-			if (order != null)
-				order.removeOrderDetail(detail);
-
-			try {
-				OrderDetail.staticGetDao().delete(detail);
-			} catch (DaoException e) {
-				LOGGER.error("safelyDeleteDetailsList", e);
-			}
-			deletedCount++;
-
-			if (deletedCount % 100 == 0)
-				LOGGER.info("deleted {} OrderDetails ", deletedCount);
+	private List<UUID> getUuidsToPurge(Criteria criteria, int maxCount, ITypedDao<?> theDao) {
+		if (maxCount > 0)
+			criteria.setMaxResults(maxCount);
+		return theDao.getUUIDListByCriteriaQuery(criteria);
+	}
 
+	/**
+	 * One bulk statement with the uuids bound to :ids. It goes straight to the database: no entities are loaded, and no
+	 * delete events or object change broadcasts are fired for what it removes. Returns the rows affected.
+	 */
+	private int bulkUpdate(String hql, List<UUID> uuids) {
+		if (uuids.isEmpty()) {
+			return 0; //empty WHERE X IN () causes syntax issue in postgres
 		}
-		if (deletedCount % 100 != 0)
-			LOGGER.info("deleted {} OrderDetails ", deletedCount);
-		return deletedCount;
+		return getSession().createQuery(hql).setParameterList("ids", uuids).executeUpdate();
+	}
+
+	private Session getSession() {
+		return TenantPersistenceService.getInstance().getSession();
 	}
 
 	private int floorDays(int daysOldToCount) {
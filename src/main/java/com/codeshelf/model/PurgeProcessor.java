@@ -21,14 +21,8 @@ public class PurgeProcessor implements BatchProcessor {
 
 	private Facility			facility;
 	private DataPurgeParameters	purgeParams						= null;
-	private List<UUID>			orderUuidsToPurge				= null;
-	private List<UUID>			replenishDetailUuidsToPurge	= null;
-	private List<UUID>			containerUuidsToPurge			= null;
-	private List<UUID>			wiUuidsToPurge					= null;
-	private List<UUID>			workerEventUuidsToPurge			= null;											// deletes any resolutions with them
-	private List<UUID>			workInstructionBeanUuidsToPurge	= null;
-	private List<UUID>			importReceiptUuidsToPurge		= null;
-	private List<UUID>			exportMessageUuidsToPurge		= null;
+	private int					sizeOfJob						= 0;
+	private long				phaseStartMillis				= 0;
 
 	enum PurgePhase {
 		PurgePhaseInit("Init"),
@@ -107,20 +101,14 @@ public class PurgeProcessor implements BatchProcessor {
 	 * Only count progress against the things we knew the size of at the start. (Exclude containers, orderGroups. Although we knew WIs at the start we don't count the ones deleted via orders.).
 	 */
 	private int getProgressCount() {
-		return ordersPurged + workerEventsPurged + workInstructionBeansPurged + importReceiptsPurged + exportMessagesPurged;
-	}
-	/**
-	 * Should match getProgressCount(). Assumes the counts are all set from the pre-built lists.
-	 */
-	private int getSizeOfJob() {
-		return orderUuidsToPurge.size() + workerEventUuidsToPurge.size() + workInstructionBeanUuidsToPurge.size() + importReceiptUuidsToPurge.size() + exportMessageUuidsToPurge.size();
+		return ordersPurged + replenishDetailPurged + workerEventsPurged + workInstructionBeansPurged + importReceiptsPurged + exportMessagesPurged;
 	}
 
 	/**
-	 *  This needs to return a count of how many "things" it is going to do.
-	 *  And assemble and remember what doBatch is going to do. This is called in an appropriate transaction
+	 *  This needs to return a count of how many "things" it is going to do. This is called in an appropriate transaction
+	 *  Only counts are taken here. Each batch selects its own chunk of ids, so no uuid lists are held over the whole purge.
 	 *  Unfortunately, we cannot really know how many containers or wis will be purged until after the order purge is done.
-	 *  This returns the sum of orders to purge, and workerEvents to purge
+	 *  This returns the sum of orders, replenish details, workerEvents and EDI records to purge
 	 */
 	@Override
 	public int doSetup() throws Exception {
@@ -136,44 +124,18 @@ public class PurgeProcessor implements BatchProcessor {
 
 		LOGGER.info("Starting data purge with these parameters: {}", purgeParams);
 
-		// preassemble some of the list, but not the ones that need to be computed in later stages.
-		// and, don't fail the entire purge if only one part is bad.
-
-		try {
-			workerEventUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseWorkerEvents);
-		} catch (Exception e) {
-			LOGGER.info("buildWorkerEventList failed", e);
-		}
-		try {
-			orderUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseOrders);
-		} catch (Exception e) {
-			LOGGER.info("buildOrdersList failed", e);
-		}
-		try {
-			replenishDetailUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseReplenishDetails);
-		} catch (Exception e) {
-			LOGGER.info("buildOrdersList failed", e);
-		}
-		try {
-			importReceiptUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseImportReceipts);
-		} catch (Exception e) {
-			LOGGER.info("buildImportReceiptList failed", e);
-		}
-		try {
-			workInstructionBeanUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseWorkInstructionBeans);
-		} catch (Exception e) {
-			LOGGER.info("buildWorkInstructionBeanList failed", e);
-		}
-		try {
-			exportMessageUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseExportMessages); //must be called here instead of in doBatch() so we can return something about the size of the job
-		} catch (Exception e) {
-			LOGGER.info("buildExportMessageList failed", e);
+		// don't fail the entire purge if only one count is bad.
+		for (PurgePhase phase : NEXT_PHASE.values()) {
+			try {
+				sizeOfJob += countToPurge(phase);
+			} catch (Exception e) {
+				LOGGER.info("counting {} to purge failed", phase, e);
+			}
 		}
 
-		// do not do work instructions or containers
-
 		setNextPurgePhase(currentPhase);
-		return getSizeOfJob();
+		phaseStartMillis = System.currentTimeMillis();
+		return sizeOfJob;
 	}
 
 	private int getBatchSize(PurgePhase inWhatToPurge) {
@@ -194,6 +156,9 @@ public class PurgeProcessor implements BatchProcessor {
 			case PurgePhaseOrders:
 				value = purgeParams.getOrderBatchValue();
 				break;
+			case PurgePhaseReplenishDetails:
+				value = purgeParams.getOrderBatchValue();
+				break;
 			case PurgePhaseWorkInstructionBeans:
 				value = purgeParams.getWorkInstructionBatchValue();
 				break;
@@ -207,13 +172,7 @@ public class PurgeProcessor implements BatchProcessor {
 		return value;
 	}
 
-	private int purgeBatch(List<UUID> inList, PurgePhase inWhatToPurge) {
-		if (inList.isEmpty()) {
-			LOGGER.error("unexpected state for purgeBatch() in phase {}", inWhatToPurge);
-			return 0;
-		}
-		int batchSize = getBatchSize(inWhatToPurge);
-		List<UUID> batch = subUuidListAndRemoveFromInList(inList, batchSize);
+	private int purgeBatch(List<UUID> batch, PurgePhase inWhatToPurge) {
 		DomainObjectManager doMananager = new DomainObjectManager(facility);
 		int value = 0;
 		switch (inWhatToPurge) {
@@ -249,28 +208,29 @@ public class PurgeProcessor implements BatchProcessor {
 	}
 
 	/**
-	 * via switch, gets the appropriate list with the side effect of setting the new list in the object
+	 * via switch, gets the next chunk of ids to purge in this phase. As the previous chunks are gone, this is always the
+	 * first maxCount still matching.
 	 */
-	private List<UUID> buildUuidList(PurgePhase inWhatToPurge) {
+	private List<UUID> buildUuidList(PurgePhase inWhatToPurge, int maxCount) {
 		int daysOld = purgeParams.getPurgeAfterDaysValue();
 		DomainObjectManager doMananager = new DomainObjectManager(facility);
 		switch (inWhatToPurge) {
 			case PurgePhaseWis:
-				return doMananager.getWorkInstructionUuidsToPurge(daysOld);
+				return doMananager.getWorkInstructionUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseContainers:
-				return doMananager.getCntrUuidsToPurge(daysOld);
+				return doMananager.getCntrUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseExportMessages:
-				return doMananager.getExportMessageUuidsToPurge(daysOld);
+				return doMananager.getExportMessageUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseImportReceipts:
-				return doMananager.getImportReceiptUuidsToPurge(daysOld);
+				return doMananager.getImportReceiptUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseOrders:
-				return doMananager.getOrderUuidsToPurge(daysOld);
+				return doMananager.getOrderUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseReplenishDetails:
-				return doMananager.getReplenishDetailsUuidsToPurge(daysOld);
+				return doMananager.getReplenishDetailsUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseWorkInstructionBeans:
-				return doMananager.getWorkInstructionCsvBeanUuidsToPurge(daysOld);
+				return doMananager.getWorkInstructionCsvBeanUuidsToPurge(daysOld, maxCount);
 			case PurgePhaseWorkerEvents:
-				return doMananager.getWorkerEventUuidsToPurge(daysOld);
+				return doMananager.getWorkerEventUuidsToPurge(daysOld, maxCount);
 			default:
 				LOGGER.info("Unexpected value or missing implementation for phase {} in buildUuidList()", inWhatToPurge);
 				break;
@@ -279,145 +239,94 @@ public class PurgeProcessor implements BatchProcessor {
 	}
 
 	/**
-	 *  Pass in a list. We want to get back the sublist, and remove items from the passed in list.
-	 *  (Would be ok also to replace the passed in list if we returned a two parameter class.)
+	 * The count for the job size. Work instructions and containers are not known until the orders are gone, so are not counted.
 	 */
-	private List<UUID> subUuidListAndRemoveFromInList(List<UUID> inList, int subCount) {
-		int countNeeded = Math.min(subCount, inList.size());
+	private int countToPurge(PurgePhase inWhatToPurge) {
+		int daysOld = purgeParams.getPurgeAfterDaysValue();
+		DomainObjectManager doMananager = new DomainObjectManager(facility);
+		switch (inWhatToPurge) {
+			case PurgePhaseExportMessages:
+				return doMananager.countExportMessagesToPurge(daysOld);
+			case PurgePhaseImportReceipts:
+				return doMananager.countImportReceiptsToPurge(daysOld);
+			case PurgePhaseOrders:
+				return doMananager.countOrdersToPurge(daysOld);
+			case PurgePhaseReplenishDetails:
+				return doMananager.countReplenishDetailsToPurge(daysOld);
+			case PurgePhaseWorkInstructionBeans:
+				return doMananager.countWorkInstructionCsvBeansToPurge(daysOld);
+			case PurgePhaseWorkerEvents:
+				return doMananager.countWorkerEventsToPurge(daysOld);
+			default:
+				return 0;
+		}
+	}
 
-		List<UUID> returnList = new ArrayList<UUID>(inList.subList(0, countNeeded));
-		inList.removeAll(returnList);
-		return returnList;
+	private int addPurged(PurgePhase inPhase, int inPurged) {
+		switch (inPhase) {
+			case PurgePhaseWis:
+				return wisPurged += inPurged;
+			case PurgePhaseContainers:
+				return cntrsPurged += inPurged;
+			case PurgePhaseExportMessages:
+				return exportMessagesPurged += inPurged;
+			case PurgePhaseImportReceipts:
+				return importReceiptsPurged += inPurged;
+			case PurgePhaseOrders:
+				return ordersPurged += inPurged;
+			case PurgePhaseReplenishDetails:
+				return replenishDetailPurged += inPurged;
+			case PurgePhaseWorkInstructionBeans:
+				return workInstructionBeansPurged += inPurged;
+			case PurgePhaseWorkerEvents:
+				return workerEventsPurged += inPurged;
+			default:
+				return 0;
+		}
 	}
 
 	/**
 	 * Performs one batch of the purge process. What it does depends on the purge phase.
-	 * In each if block, just make sure you have the correct list, purgeXxxBatch(), and xxxPurged counter.
-	 * A couple of the phases do not have pre-built lists, so build their list as the phase is entered the first time.
+	 * Each batch selects the first chunk of ids still matching the phase, and removes them with bulk statements.
 	 */
 	@Override
 	public int doBatch(int batchCount) throws Exception {
 		PurgePhase currentPhase = getPurgePhase();
-		// in almost every case, need to reload facility, so do it centrally
-		facility = facility.reload();
-
-		if (currentPhase == PurgePhase.PurgePhaseOrders) {
-			if (complainNoList(currentPhase, orderUuidsToPurge)) {
-				return getProgressCount();
-			}
-			int startSize = orderUuidsToPurge.size();
-			if (startSize > 0)
-				ordersPurged += purgeBatch(orderUuidsToPurge, PurgePhase.PurgePhaseOrders);
-			int endSize = orderUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, ordersPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseReplenishDetails) {
-			if (complainNoList(currentPhase, replenishDetailUuidsToPurge)) {
-				return getProgressCount();
-			}
-			int startSize = replenishDetailUuidsToPurge.size();
-			if (startSize > 0)
-				replenishDetailPurged += purgeBatch(replenishDetailUuidsToPurge, PurgePhase.PurgePhaseReplenishDetails);
-			int endSize = replenishDetailUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, replenishDetailPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseWis) {
-			// Work instructions does not have a pre-built list
-			if (wiUuidsToPurge == null)
-				wiUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseWis);
-			int startSize = wiUuidsToPurge.size();
-			if (startSize > 0)
-				wisPurged += purgeBatch(wiUuidsToPurge, PurgePhase.PurgePhaseWis);
-			int endSize = wiUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, wisPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseContainers) {
-			// Containers does not have a pre-built list
-			if (containerUuidsToPurge == null)
-				containerUuidsToPurge = buildUuidList(PurgePhase.PurgePhaseContainers);
-			int startSize = containerUuidsToPurge.size();
-			if (startSize > 0)
-				cntrsPurged += purgeBatch(containerUuidsToPurge, PurgePhase.PurgePhaseContainers);
-			int endSize = containerUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, cntrsPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseWorkerEvents) {
-			if (complainNoList(currentPhase, workerEventUuidsToPurge)) {
-				return getProgressCount();
-			}
-			int startSize = workerEventUuidsToPurge.size();
-			if (startSize > 0)
-				workerEventsPurged += purgeBatch(workerEventUuidsToPurge, PurgePhase.PurgePhaseWorkerEvents);
-			int endSize = workerEventUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, workerEventsPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseExportMessages) {
-			if (complainNoList(currentPhase, exportMessageUuidsToPurge)) {
-				return getProgressCount();
-			}
-			int startSize = exportMessageUuidsToPurge.size();
-			if (startSize > 0)
-				exportMessagesPurged += purgeBatch(exportMessageUuidsToPurge, PurgePhase.PurgePhaseExportMessages);
-			int endSize = exportMessageUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, exportMessagesPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseImportReceipts) {
-			if (complainNoList(currentPhase, importReceiptUuidsToPurge)) {
-				return getProgressCount();
-			}
-			int startSize = importReceiptUuidsToPurge.size();
-			if (startSize > 0)
-				importReceiptsPurged += purgeBatch(importReceiptUuidsToPurge, PurgePhase.PurgePhaseImportReceipts);
-			int endSize = importReceiptUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, importReceiptsPurged, batchCount);
-
-		} else if (currentPhase == PurgePhase.PurgePhaseWorkInstructionBeans) {
-			if (complainNoList(currentPhase, workInstructionBeanUuidsToPurge)) {
-				return getProgressCount();
-			}
-			int startSize = workInstructionBeanUuidsToPurge.size();
-			if (startSize > 0)
-				workInstructionBeansPurged += purgeBatch(workInstructionBeanUuidsToPurge, PurgePhase.PurgePhaseWorkInstructionBeans);
-			int endSize = workInstructionBeanUuidsToPurge.size();
-			advanceAndReport(currentPhase, startSize, endSize, workInstructionBeansPurged, batchCount);
-
-		} else {
+		if (currentPhase == PurgePhase.PurgePhaseInit || currentPhase == PurgePhase.PurgePhaseSetup
+				|| currentPhase == PurgePhase.PurgePhaseDone) {
 			LOGGER.error("Unexpected phase in PurgeProcessor doBatch {}", currentPhase);
 			setPurgePhase(PurgePhase.PurgePhaseDone);
+			return getProgressCount();
 		}
+		// in almost every case, need to reload facility, so do it centrally
+		facility = facility.reload();
 
-		return getProgressCount();
-	}
+		int batchSize = getBatchSize(currentPhase);
+		List<UUID> batch = buildUuidList(currentPhase, batchSize);
+		int purged = 0;
+		if (!batch.isEmpty())
+			purged = purgeBatch(batch, currentPhase);
+		int totalThisObjectPurged = addPurged(currentPhase, purged);
+		advanceAndReport(currentPhase, batch.size() < batchSize, purged, totalThisObjectPurged, batchCount);
 
-	/**
-	 * Declone and enforce this common error check pattern. 
-	 * Large side effect: advances to the next phase if this return true.
-	 */
-	private boolean complainNoList(PurgePhase currentPhase, List<UUID> inList) {
-		if (inList == null) {
-			LOGGER.error("Expected list for phase {}. Bailing out.", currentPhase);
-			setNextPurgePhase(currentPhase);
-			return true;
-		} else {
-			return false;
-		}
+		return getProgressCount();
 	}
 
 	/**
 	* Declone and enforce this common pattern. Advances and/or reports only if appropriate
 	* Large side effect: may advance to the next phase
 	*/
-	private void advanceAndReport(PurgePhase currentPhase, int startSize, int endSize, int totalThisObjectPurged, int batchCount) {
-		// we want to know if we are done with the phase. One quite reliable way to know is if the object list size decreased.
-		// If non-zero, but it did not decrease, lets log an error and call it done so we are not stuck forever.
-		if (endSize == startSize || endSize == 0) {
-			LOGGER.info("Total: purged {} {}", totalThisObjectPurged, currentPhase);
-			if (endSize > 0) {
-				LOGGER.error("{} purge did not progress. Bailing out. Leaving {} that should have been purged",
-					currentPhase,
-					endSize);
+	private void advanceAndReport(PurgePhase currentPhase, boolean lastChunk, int purged, int totalThisObjectPurged, int batchCount) {
+		// we want to know if we are done with the phase. A short chunk means nothing more matched.
+		// If a chunk removed nothing, lets log an error and call it done so we are not stuck forever on the same ids.
+		if (lastChunk || purged == 0) {
+			long phaseMillis = System.currentTimeMillis() - phaseStartMillis;
+			LOGGER.info("Total: purged {} {} in {} ms", totalThisObjectPurged, currentPhase, phaseMillis);
+			if (!lastChunk) {
+				LOGGER.error("{} purge did not progress. Bailing out. Leaving some that should have been purged", currentPhase);
 			}
 			setNextPurgePhase(currentPhase);
+			phaseStartMillis = System.currentTimeMillis();
 		} else if (batchCount % 10 == 0) {
 			LOGGER.info("incremental total: purged {} {}", totalThisObjectPurged, currentPhase);
 		}
@@ -5,13 +5,23 @@
  *******************************************************************************/
 package com.codeshelf.model;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codeshelf.model.domain.Bay;
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.Location;
+import com.codeshelf.model.domain.Path;
 import com.codeshelf.model.domain.WorkInstruction;
 import com.codeshelf.util.CompareNullChecker;
 
@@ -21,7 +31,6 @@ import com.codeshelf.util.CompareNullChecker;
  */
 public abstract class WorkInstructionSequencerABC implements IWorkInstructionSequencer {
 
-	@SuppressWarnings("unused")
 	private static final Logger	LOGGER	= LoggerFactory.getLogger(WorkInstructionSequencerABC.class);
 
 	/**
@@ -74,6 +83,55 @@ public abstract class WorkInstructionSequencerABC implements IWorkInstructionSeq
 		return;
 	}
 
+	// --------------------------------------------------------------------------
+	/**
+	 * Put work instructions in working order: bays by distance along each path, then the bay's sublocations in working order.
+	 * The work instructions are grouped by location once, and only bays holding one of their locations are walked,
+	 * so the cost follows the work instructions rather than every location in the facility times every work instruction.
+	 * Work instructions at the same location keep their incoming order. Those not under a bay on a path are left out.
+	 */
+	protected List<WorkInstruction> sequenceByBayWorkingOrder(Facility facility, List<WorkInstruction> inWiList) {
+		Map<UUID, List<WorkInstruction>> wisByLocation = new HashMap<UUID, List<WorkInstruction>>();
+		Set<UUID> ancestorIds = new HashSet<UUID>();
+		for (WorkInstruction wi : inWiList) {
+			Location wiLoc = wi.getLocation();
+			if (wiLoc == null) {
+				continue;
+			}
+			List<WorkInstruction> wisAtLocation = wisByLocation.get(wiLoc.getPersistentId());
+			if (wisAtLocation == null) {
+				wisAtLocation = new ArrayList<WorkInstruction>();
+				wisByLocation.put(wiLoc.getPersistentId(), wisAtLocation);
+				// stop climbing where another location already marked the rest of the way up
+				Location parent = wiLoc.getParent();
+				while (parent != null && ancestorIds.add(parent.getPersistentId())) {
+					parent = parent.getParent();
+				}
+			}
+			wisAtLocation.add(wi);
+		}
+
+		List<WorkInstruction> wiResultList = new ArrayList<WorkInstruction>(inWiList.size());
+		for (Path path : facility.getPaths()) {
+			for (Location bay : path.<Location> getLocationsByClass(Bay.class)) {
+				if (wisByLocation.isEmpty()) {
+					return wiResultList;
+				}
+				if (!ancestorIds.contains(bay.getPersistentId())) {
+					continue;
+				}
+				for (Location workLocation : bay.getSubLocationsInWorkingOrder()) {
+					List<WorkInstruction> wisAtLocation = wisByLocation.remove(workLocation.getPersistentId());
+					if (wisAtLocation != null) {
+						LOGGER.debug("Adding {} WIs at {}", wisAtLocation.size(), workLocation);
+						wiResultList.addAll(wisAtLocation);
+					}
+				}
+			}
+		}
+		return wiResultList;
+	}
+
 	// --------------------------------------------------------------------------
 	/**
 	 * Utility function to set the sort codes. Currently returns the passed in list reference but that could change.
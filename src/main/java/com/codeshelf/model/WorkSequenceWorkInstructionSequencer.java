@@ -3,16 +3,14 @@ package com.codeshelf.model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.codeshelf.model.domain.Bay;
 import com.codeshelf.model.domain.Facility;
-import com.codeshelf.model.domain.Location;
-import com.codeshelf.model.domain.Path;
 import com.codeshelf.model.domain.WorkInstruction;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Ordering;
@@ -41,41 +39,13 @@ public class WorkSequenceWorkInstructionSequencer extends WorkInstructionSequenc
 		preSortByPosAlongPath(workingWiList);
 
 		// Now we need to sort and group the work instructions, so that the CHE can display them by working order.
-		List<Location> bayList = new ArrayList<Location>();
-		for (Path path : facility.getPaths()) {
-			List<Location> baysOnPath = path.<Location> getLocationsByClass(Bay.class);
-			for (Location locBay : baysOnPath) {
-				//String bayStr = locBay.getNominalLocationId();
-				bayList.add(locBay);
-			}
-			// that was for debugging. quick way:
-			// bayList.addAll(path.<Location> getLocationsByClass(Bay.class));
-		}
 		LOGGER.debug("Sequencing work instructions at " + facility.getDomainId());
-		List<WorkInstruction> wiResultList = new ArrayList<WorkInstruction>();
-		// Cycle over all bays on the path.
-		for (Location subLocation : bayList) {
-			//String subLocStr = subLocation.getNominalLocationId();
-			for (Location workLocation : subLocation.getSubLocationsInWorkingOrder()) {
-				//String workLocStr = workLocation.getNominalLocationId();
-				Iterator<WorkInstruction> wiIterator = workingWiList.iterator();
-				while (wiIterator.hasNext()) {
-					WorkInstruction wi = wiIterator.next();
-					Location wiLoc = wi.getLocation();
-					//String wiLocStr = wiLoc.getNominalLocationId();
-					if (workLocation.equals(wiLoc)) {
-						LOGGER.debug("Adding WI " + wi + " at " + workLocation);
-						wiResultList.add(wi);
-						// WorkInstructionSequencerABC sets the sort code and persists
-						wiIterator.remove();
-					}
-				}
-			}
-		}
+		List<WorkInstruction> wiResultList = sequenceByBayWorkingOrder(facility, workingWiList);
 
 		//Add all missed instructions with a preferred sequence
+		Set<WorkInstruction> placedWis = new HashSet<WorkInstruction>(wiResultList);
 		for (WorkInstruction instruction : inWiList) {
-			if (instruction.getWorkSequence() != null && !wiResultList.contains(instruction)) {
+			if (instruction.getWorkSequence() != null && !placedWis.contains(instruction)) {
 				wiResultList.add(instruction);
 			}
 		}
@@ -1,16 +1,23 @@
 package com.codeshelf.model.dao;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import lombok.Getter;
 import lombok.Setter;
 
 import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
@@ -21,11 +28,19 @@ import com.codeshelf.model.domain.Facility;
 import com.codeshelf.model.domain.Gtin;
 import com.codeshelf.model.domain.IDomainObject;
 import com.codeshelf.model.domain.ItemMaster;
+import com.codeshelf.persistence.TenantPersistenceService;
+import com.google.common.collect.Lists;
 
 public class DomainObjectCache<T extends DomainObjectABC> {
 
 	private static final Logger	LOGGER					= LoggerFactory.getLogger(DomainObjectCache.class);
 
+	// ids per IN list when loading
+	private static final int	LOAD_BATCH_SIZE			= 1000;
+
+	/**
+	 * Limits loadAll(). load() always loads every domainId asked for, a chunk at a time.
+	 */
 	@Getter
 	@Setter
 	int							maxPrefetchSize			= 10000;
@@ -51,6 +66,14 @@ public class DomainObjectCache<T extends DomainObjectABC> {
 	@Getter
 	Facility					facility				= null;
 
+	/**
+	 * Ids of this class shared by all sessions, keyed by domainId. See setSharedIds().
+	 */
+	SharedDomainIdCache			sharedIds				= null;
+
+	// the transaction that shares this cache's ids when it commits
+	private Transaction			publishingTransaction	= null;
+
 	public DomainObjectCache(ITypedDao<T> dao, String inCacheName, Facility facility) {
 		this.dao = dao;
 		this.cacheName = inCacheName;
@@ -103,6 +126,14 @@ public class DomainObjectCache<T extends DomainObjectABC> {
 		}
 	}
 
+	/**
+	 * Look domainIds up in the shared ids before querying for them, and share the ids of everything in this cache when the
+	 * transaction that loads it commits. The shared cache must be keyed by domainId, and be for this cache's class.
+	 */
+	public void setSharedIds(SharedDomainIdCache sharedIds) {
+		this.sharedIds = sharedIds;
+	}
+
 	public void load(IDomainObject parent, Set<String> domainIds) {
 		if (domainIds == null || domainIds.size() == 0) {
 			// nothing to load. Nothing will be queried for
@@ -116,25 +147,26 @@ public class DomainObjectCache<T extends DomainObjectABC> {
 		
 		this.parent = parent;
 		UUID persistentId = parent.getPersistentId();
-		Criteria crit = this.dao.createCriteria();
-		if (grandparentIsFacility) {
-			crit.createAlias("parent", "p");
-			crit.add(Restrictions.eq("p.parent.persistentId", persistentId));
-			// crit.add(Restrictions.eq("parent.parent.persistentId", persistentId)); this does not work
-		} else {
-			crit.add(Restrictions.eq("parent.persistentId", persistentId));
-		}
-		crit.add(Restrictions.in("domainId", domainIds)); // empty .in() guard present
-		// little bit of a hack: sort by update time stamp for item
-		// master to implement LRU prefetching.  would be better to have 
-		// update time stamp on all domain objects.
-		if (this.dao.getDaoClass().equals(ItemMaster.class)) {
-			crit.addOrder(Property.forName("updated").desc());
+		Collection<String> toQuery = domainIds;
+		if (sharedIds != null && facility != null) {
+			toQuery = loadShared(domainIds);
+			publishOnCommit();
 		}
-		crit.setMaxResults(maxPrefetchSize);
-		List<T> list = dao.findByCriteriaQuery(crit);
-		for (T item : list) {
-			objectCache.put(item.getDomainId(), item);
+		// Loading only what the caller names, so no limit or ordering: any limit would silently leave ids out.
+		for (List<String> chunk : Lists.partition(new ArrayList<String>(toQuery), LOAD_BATCH_SIZE)) {
+			Criteria crit = this.dao.createCriteria();
+			if (grandparentIsFacility) {
+				crit.createAlias("parent", "p");
+				crit.add(Restrictions.eq("p.parent.persistentId", persistentId));
+				// crit.add(Restrictions.eq("parent.parent.persistentId", persistentId)); this does not work
+			} else {
+				crit.add(Restrictions.eq("parent.persistentId", persistentId));
+			}
+			crit.add(Restrictions.in("domainId", chunk)); // empty .in() guard present
+			List<T> list = dao.findByCriteriaQuery(crit);
+			for (T item : list) {
+				objectCache.put(item.getDomainId(), item);
+			}
 		}
 		// Looking for possible object cache bugs. If absolutely nothing, it might be reasonable--only new domainIds in the file.
 		if (objectCache.size() == 0) {
@@ -142,6 +174,96 @@ public class DomainObjectCache<T extends DomainObjectABC> {
 		}
 	}
 
+	/**
+	 * Load the objects whose ids are shared: from the second level cache where it has them, otherwise by persistent id.
+	 * @return	The domainIds that still have to be queried for.
+	 */
+	private Collection<String> loadShared(Set<String> domainIds) {
+		Map<String, UUID> known = sharedIds.getAll(facility, domainIds);
+		if (known.isEmpty()) {
+			return domainIds;
+		}
+		Session session = TenantPersistenceService.getInstance().getSession();
+		org.hibernate.Cache secondLevelCache = session.getSessionFactory().getCache();
+		List<T> found = new ArrayList<T>();
+		List<UUID> notCached = new ArrayList<UUID>();
+		for (UUID persistentId : known.values()) {
+			if (secondLevelCache.containsEntity(dao.getDaoClass(), persistentId)) {
+				T item = dao.findByPersistentId(persistentId);
+				if (item != null) {
+					found.add(item);
+				}
+			} else {
+				notCached.add(persistentId);
+			}
+		}
+		for (List<UUID> chunk : Lists.partition(notCached, LOAD_BATCH_SIZE)) {
+			found.addAll(dao.findByPersistentIdList(chunk));
+		}
+
+		Set<String> missing = new HashSet<String>(domainIds);
+		for (T item : found) {
+			String domainId = item.getDomainId();
+			// still the object of that domainId in this facility
+			if (item.getPersistentId().equals(known.get(domainId)) && facility.equals(item.getFacility())) {
+				objectCache.put(domainId, item);
+				missing.remove(domainId);
+			}
+		}
+		for (String domainId : known.keySet()) {
+			if (missing.contains(domainId)) {
+				// renamed or deleted since its id was shared
+				sharedIds.invalidate(facility, domainId);
+			}
+		}
+		LOGGER.debug("{} cache: {} of {} found by shared id", this.getCacheName(), domainIds.size() - missing.size(), domainIds.size());
+		return missing;
+	}
+
+	/**
+	 * When the current transaction commits, share the ids of what this cache then holds.
+	 */
+	private void publishOnCommit() {
+		Session session = TenantPersistenceService.getInstance().getSession();
+		Transaction transaction = (session == null) ? null : session.getTransaction();
+		if (transaction == null || !transaction.isActive() || transaction == publishingTransaction) {
+			return;
+		}
+		publishingTransaction = transaction;
+		final String tenantIdentifier = TenantPersistenceService.getInstance().getCurrentTenantIdentifier();
+		final UUID facilityId = facility.getPersistentId();
+		transaction.registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				if (status != Status.STATUS_COMMITTED) {
+					return;
+				}
+				Map<String, UUID> ids = new HashMap<String, UUID>();
+				for (T item : objectCache.values()) {
+					ids.put(item.getDomainId(), item.getPersistentId());
+				}
+				sharedIds.putAll(tenantIdentifier, facilityId, ids);
+			}
+		});
+	}
+
+	/**
+	 * Add these objects by persistent id, a chunk at a time. Objects already cached under their domainId are kept.
+	 */
+	public void loadByPersistentIds(Collection<UUID> persistentIds) {
+		for (List<UUID> chunk : Lists.partition(new ArrayList<UUID>(persistentIds), LOAD_BATCH_SIZE)) {
+			for (T item : dao.findByPersistentIdList(chunk)) {
+				if (!objectCache.containsKey(item.getDomainId())) {
+					objectCache.put(item.getDomainId(), item);
+				}
+			}
+		}
+	}
+
 	public T get(String domainId) {
 		T obj = this.objectCache.get(domainId);
 		if (obj == null && this.fetchOnMiss) {
@@ -6,6 +6,8 @@
 package com.codeshelf.model.dao;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -51,6 +53,9 @@ public abstract class GenericDaoABC<T extends IDomainObject> implements ITypedDa
 
 	//	private static final Integer NO_MAX_RECORDS	= null; // indicates no maximum records
 
+	// keeps IN lists well under database bind parameter limits
+	private static final int	MAX_IN_LIST_SIZE	= 500;
+
 	private ConvertUtilsBean	converter;
 
 	@Inject
@@ -227,6 +232,48 @@ public abstract class GenericDaoABC<T extends IDomainObject> implements ITypedDa
 	protected List<T> findByCriteria(TypedCriteria criteria, Map<String, Object> inArgs, Integer maxRecords) {
 		Session session = getCurrentSession();
 		Query query = session.createQuery(criteria.getQuery());
+		bindParameters(query, criteria, inArgs);
+		if (maxRecords != null) {
+			;
+			List<T> results = query.setMaxResults(maxRecords).list();
+			if (results.size() == maxRecords) {
+				LOGGER.warn("Filter {} for {} reached max filter records: {}", criteria, inArgs, maxRecords);
+			}
+			return results;
+		} else {
+			List<T> results = query.list();
+			return results;
+		}
+	}
+
+	/**
+	 * Evaluate a named filter against many objects at once: one query per MAX_IN_LIST_SIZE ids
+	 * instead of one matchesFilter() query per object. Returns the objects that match.
+	 */
+	@Override
+	public List<T> findByFilter(String inCriteriaName, Map<String, Object> inArgs, Collection<UUID> inPersistentIds) {
+		String parameterName = "persistentIdsToMatch";
+		if (inPersistentIds.isEmpty()) {
+			return Collections.<T> emptyList(); //empty WHERE X IN () causes syntax issue in postgres
+		}
+		TypedCriteria criteria = CriteriaRegistry.getInstance().findByName(inCriteriaName, this.getDaoClass());
+		Preconditions.checkNotNull(criteria, "Unable to find filter criteria with name: %s", inCriteriaName);
+		TypedCriteria idListCriteria = criteria.addInRestriction("persistentId", parameterName);
+
+		Session session = getCurrentSession();
+		List<UUID> ids = new ArrayList<UUID>(inPersistentIds);
+		List<T> results = new ArrayList<T>();
+		for (int start = 0; start < ids.size(); start += MAX_IN_LIST_SIZE) {
+			List<UUID> chunk = ids.subList(start, Math.min(start + MAX_IN_LIST_SIZE, ids.size()));
+			Query query = session.createQuery(idListCriteria.getQuery());
+			bindParameters(query, idListCriteria, inArgs);
+			query.setParameterList(parameterName, chunk);
+			results.addAll(query.list());
+		}
+		return results;
+	}
+
+	private void bindParameters(Query query, TypedCriteria criteria, Map<String, Object> inArgs) {
 		for (Entry<String, Object> argument : inArgs.entrySet()) {
 			String name = argument.getKey();
 			Class<?> paramType = criteria.getParameterTypes().get(name);
@@ -244,17 +291,6 @@ public abstract class GenericDaoABC<T extends IDomainObject> implements ITypedDa
 				throw new QueryParameterException("argument could not be found in query: " + name, criteria.getQuery(), e);
 			}
 		}
-		if (maxRecords != null) {
-			;
-			List<T> results = query.setMaxResults(maxRecords).list();
-			if (results.size() == maxRecords) {
-				LOGGER.warn("Filter {} for {} reached max filter records: {}", criteria, inArgs, maxRecords);
-			}
-			return results;
-		} else {
-			List<T> results = query.list();
-			return results;
-		}
 	}
 
 	// --------------------------------------------------------------------------
@@ -0,0 +1,278 @@
+package com.codeshelf.model.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.Gtin;
+import com.codeshelf.model.domain.IDomainObject;
+import com.codeshelf.persistence.TenantPersistenceService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.TreeMultimap;
+
+/**
+ * Gtin id to Gtin persistent id, per facility, shared by all sessions of the server, and searchable by prefix and suffix.
+ *
+ * Order files that send truncated gtins (DEV-979) need every gtin of the facility that a file's gtin is the start or end
+ * of, and the order importer used to load all the facility's Gtin entities for every batch to find them. An index holds
+ * only ids, sorted forwards and reversed, so those candidates are a range lookup; the importer then loads just the
+ * candidates into its session and checks them there as before.
+ *
+ * An index is built with one projection query on first use and then kept up to date instead of rebuilt: committed Gtin
+ * changes of the tenant, reported by the change broadcaster, mark ids stale, and the next lookup re-reads only those.
+ * That includes changes committed while an index is being built, so a new index is always published. Indexes are held
+ * in a cache bounded by the total number of gtins, least recently used facility out first. Gtins changed by a
+ * transaction that has not committed yet may be missing from the index, so callers keep their own changes (the importer
+ * has them in its DomainObjectCache).
+ */
+public final class GtinIndex {
+
+	private static final Logger										LOGGER				= LoggerFactory.getLogger(GtinIndex.class);
+
+	// how many gtins all indexes together may hold
+	private static final long										MAX_INDEXED_GTINS	= 2000000;
+	// ids per IN list when re-reading stale gtins
+	private static final int										REFRESH_BATCH_SIZE	= 1000;
+
+	private static final Cache<UUID, Snapshot>						snapshots			= CacheBuilder.newBuilder()
+																							.maximumWeight(MAX_INDEXED_GTINS)
+																							.weigher(new SnapshotWeigher())
+																							.build();
+	// indexes being read, which must see changes committed meanwhile
+	private static final Set<Snapshot>								building			= ConcurrentHashMap.<Snapshot> newKeySet();
+	private static final TenantChangeSubscription					subscription		= new TenantChangeSubscription(new ChangeHandler(),
+																							Gtin.class);
+
+	/**
+	 * The gtins of one facility. Lookups and refreshes hold its lock; stale ids are added without it.
+	 */
+	private static final class Snapshot {
+		private final String					tenantIdentifier;
+		private final UUID						facilityId;
+		private final Map<UUID, String>			gtinIds			= new HashMap<UUID, String>();
+		private final TreeMultimap<String, UUID>	byGtinId		= TreeMultimap.create();
+		private final TreeMultimap<String, UUID>	byReversedGtinId	= TreeMultimap.create();
+		private final Set<UUID>					stale			= ConcurrentHashMap.<UUID> newKeySet();
+
+		private Snapshot(String tenantIdentifier, UUID facilityId) {
+			this.tenantIdentifier = tenantIdentifier;
+			this.facilityId = facilityId;
+		}
+
+		private synchronized int size() {
+			return gtinIds.size();
+		}
+
+		private void put(UUID persistentId, String gtinId) {
+			remove(persistentId);
+			gtinIds.put(persistentId, gtinId);
+			byGtinId.put(gtinId, persistentId);
+			byReversedGtinId.put(reverse(gtinId), persistentId);
+		}
+
+		private void remove(UUID persistentId) {
+			String gtinId = gtinIds.remove(persistentId);
+			if (gtinId != null) {
+				byGtinId.remove(gtinId, persistentId);
+				byReversedGtinId.remove(reverse(gtinId), persistentId);
+			}
+		}
+
+		private void addStartingWith(TreeMultimap<String, UUID> index, String prefix, Collection<UUID> outIds) {
+			for (Collection<UUID> ids : index.asMap().subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+				outIds.addAll(ids);
+			}
+		}
+	}
+
+	/**
+	 * Weighs an index by its gtins, as they were when it was cached.
+	 */
+	private static final class SnapshotWeigher implements Weigher<UUID, Snapshot> {
+		@Override
+		public int weigh(UUID facilityId, Snapshot snapshot) {
+			return snapshot.size() + 1;
+		}
+	}
+
+	/**
+	 * Marks every changed gtin of its tenant stale in the tenant's indexes.
+	 */
+	private static final class ChangeHandler implements TenantChangeSubscription.Handler {
+		@Override
+		public void tenantChanged(String tenantIdentifier, ObjectChangeBatch batch) {
+			if (batch == null) {
+				invalidateTenant(tenantIdentifier);
+				return;
+			}
+			Set<UUID> changed = new HashSet<UUID>(batch.getAdded());
+			changed.addAll(batch.getUpdated().keySet());
+			changed.addAll(batch.getDeleted().keySet());
+			markStale(tenantIdentifier, changed);
+		}
+	}
+
+	private GtinIndex() {
+	}
+
+	/**
+	 * Persistent ids of the facility's committed gtins whose id starts or ends with one of the given gtin ids (the gtin
+	 * itself included). Short ids that could never be a truncated gtin should be filtered out by the caller.
+	 * Must be called in a transaction.
+	 */
+	public static Set<UUID> findStartingOrEndingWith(Facility facility, Collection<String> gtinIds) {
+		Set<UUID> result = new HashSet<UUID>();
+		if (gtinIds.isEmpty()) {
+			return result;
+		}
+		Snapshot snapshot = getSnapshot(facility);
+		synchronized (snapshot) {
+			refreshStale(snapshot);
+			for (String gtinId : gtinIds) {
+				if (gtinId == null || gtinId.isEmpty()) {
+					continue;
+				}
+				snapshot.addStartingWith(snapshot.byGtinId, gtinId, result);
+				snapshot.addStartingWith(snapshot.byReversedGtinId, reverse(gtinId), result);
+			}
+		}
+		return result;
+	}
+
+	static void markStale(String tenantIdentifier, Collection<UUID> gtinPersistentIds) {
+		for (Snapshot snapshot : snapshots.asMap().values()) {
+			if (snapshot.tenantIdentifier.equals(tenantIdentifier)) {
+				snapshot.stale.addAll(gtinPersistentIds);
+			}
+		}
+		for (Snapshot snapshot : building) {
+			if (snapshot.tenantIdentifier.equals(tenantIdentifier)) {
+				snapshot.stale.addAll(gtinPersistentIds);
+			}
+		}
+	}
+
+	private static void invalidateTenant(String tenantIdentifier) {
+		for (Snapshot snapshot : snapshots.asMap().values()) {
+			if (snapshot.tenantIdentifier.equals(tenantIdentifier)) {
+				snapshots.invalidate(snapshot.facilityId);
+			}
+		}
+	}
+
+	static void invalidate(UUID facilityId) {
+		snapshots.invalidate(facilityId);
+	}
+
+	private static Snapshot getSnapshot(Facility facility) {
+		UUID facilityId = facility.getPersistentId();
+		Snapshot snapshot = snapshots.getIfPresent(facilityId);
+		if (snapshot != null) {
+			return snapshot;
+		}
+		String tenantIdentifier = subscription.listen();
+		snapshot = new Snapshot(tenantIdentifier, facilityId);
+		// gtins changed while we read are marked stale, and re-read by the first lookup
+		building.add(snapshot);
+		try {
+			Criteria criteria = gtinCriteria(facilityId);
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = criteria.list();
+			for (Object[] row : rows) {
+				snapshot.put((UUID) row[0], (String) row[1]);
+			}
+			dropIfRolledBack(facilityId);
+			if (snapshot.size() < MAX_INDEXED_GTINS) {
+				snapshots.put(facilityId, snapshot);
+			}
+			LOGGER.debug("indexed {} gtins of {}", rows.size(), facility.getDomainId());
+		} finally {
+			building.remove(snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Re-read the stale ids that belong to the facility, and forget those that do not any more.
+	 */
+	private static void refreshStale(Snapshot snapshot) {
+		if (snapshot.stale.isEmpty()) {
+			return;
+		}
+		List<UUID> staleIds = new ArrayList<UUID>(snapshot.stale);
+		snapshot.stale.removeAll(staleIds);
+		for (UUID persistentId : staleIds) {
+			snapshot.remove(persistentId);
+		}
+		for (List<UUID> batch : Lists.partition(staleIds, REFRESH_BATCH_SIZE)) {
+			Criteria criteria = gtinCriteria(snapshot.facilityId);
+			criteria.add(Restrictions.in("persistentId", batch)); // empty .in() guard present
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = criteria.list();
+			for (Object[] row : rows) {
+				snapshot.put((UUID) row[0], (String) row[1]);
+			}
+		}
+		dropIfRolledBack(snapshot.facilityId);
+		LOGGER.debug("refreshed {} stale gtins", staleIds.size());
+	}
+
+	private static Criteria gtinCriteria(UUID facilityId) {
+		Criteria criteria = TenantPersistenceService.getInstance().getSession().createCriteria(Gtin.class);
+		criteria.createAlias("parent", "p");
+		criteria.add(Restrictions.eq("p.parent.persistentId", facilityId));
+		criteria.setProjection(Projections.projectionList()
+			.add(Projections.property("persistentId"))
+			.add(Projections.property(IDomainObject.ID_PROPERTY)));
+		return criteria;
+	}
+
+	/**
+	 * The queries flush the session first, so they see the transaction's own changes. If it does not commit, those must
+	 * not stay in the index.
+	 */
+	private static void dropIfRolledBack(final UUID facilityId) {
+		Session session = TenantPersistenceService.getInstance().getSession();
+		Transaction transaction = (session == null) ? null : session.getTransaction();
+		if (transaction == null || !transaction.isActive()) {
+			return;
+		}
+		transaction.registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				if (status != Status.STATUS_COMMITTED) {
+					invalidate(facilityId);
+				}
+			}
+		});
+	}
+
+	private static String reverse(String gtinId) {
+		return new StringBuilder(gtinId).reverse().toString();
+	}
+}
@@ -5,6 +5,7 @@
  *******************************************************************************/
 package com.codeshelf.model.dao;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -24,4 +25,21 @@ public interface IDaoListener {
 	
 	void objectDeleted(Class<? extends IDomainObject> domainClass, final UUID domainPersistentId, Class<? extends IDomainObject> parentClass, final UUID parentId);
 
+	/**
+	 * All changes to one class from one committed transaction. Listeners that can process a batch at once should override;
+	 * by default each change is delivered individually, adds before updates before deletes.
+	 */
+	default void objectsChanged(ObjectChangeBatch batch) {
+		Class<? extends IDomainObject> domainClass = batch.getDomainClass();
+		for (UUID added : batch.getAdded()) {
+			objectAdded(domainClass, added);
+		}
+		for (Map.Entry<UUID, Set<String>> updated : batch.getUpdated().entrySet()) {
+			objectUpdated(domainClass, updated.getKey(), updated.getValue());
+		}
+		for (Map.Entry<UUID, ObjectChangeBatch.DeletedObject> deleted : batch.getDeleted().entrySet()) {
+			objectDeleted(domainClass, deleted.getKey(), deleted.getValue().getParentClass(), deleted.getValue().getParentId());
+		}
+	}
+
 }
@@ -5,6 +5,7 @@
  *******************************************************************************/
 package com.codeshelf.model.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -42,6 +43,8 @@ public interface ITypedDao<T> {
 	boolean matchesFilter(String criteriaName, Map<String, Object> inFilterArgs,
 		UUID persistentId);
 
+	List<T> findByFilter(String criteriaName, Map<String, Object> inFilterArgs, Collection<UUID> persistentIds);
+
 	
 	// runtime type of object should be checked by implementation:
 	void store(IDomainObject inDomainObject) throws DaoException; 
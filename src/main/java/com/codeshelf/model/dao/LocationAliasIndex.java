@@ -0,0 +1,199 @@
+package com.codeshelf.model.dao;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.transaction.Synchronization;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.IDomainObject;
+import com.codeshelf.model.domain.LocationAlias;
+import com.codeshelf.persistence.TenantPersistenceService;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Alias name to LocationAlias id, per facility, shared by all sessions of the server.
+ *
+ * Resolving a scanned or imported location name starts with an alias lookup at the facility, and that used to be one
+ * query (with its session flush) per lookup. An index is an immutable snapshot of the facility's aliases, built on the
+ * first lookup and replaced after any committed LocationAlias change of its tenant. Only ids are held; the alias itself
+ * always comes from the caller's session and is checked against the name, and a name the index has for another alias is
+ * queried for. A name the index does not have is not an alias while the index is current for its tenant, which saves the
+ * query for the nominal location names that are looked up as aliases first. Aliases created in a transaction that has not
+ * committed yet are not in any index, so until it completes the thread that created them goes to the database
+ * (see noteAliasChange()). Code that creates, renames or remaps an alias must call it.
+ *
+ * Location names below the alias level are resolved by walking the children maps of the location tree, which are
+ * already in memory, so they are not indexed here.
+ */
+public final class LocationAliasIndex {
+
+	private static final Logger										LOGGER				= LoggerFactory.getLogger(LocationAliasIndex.class);
+
+	private static final ConcurrentMap<UUID, Snapshot>				snapshots			= new ConcurrentHashMap<UUID, Snapshot>();
+	// its versions tell whether an alias change committed while a snapshot was read
+	private static final TenantChangeSubscription					subscription		= new TenantChangeSubscription(new InvalidationHandler(),
+																							LocationAlias.class);
+
+	// facilities whose aliases were changed by the transaction running on this thread
+	private static final ThreadLocal<Set<UUID>>						uncommittedChanges	= new ThreadLocal<Set<UUID>>();
+
+	private static final class Snapshot {
+		private final String					tenantIdentifier;
+		private final long						version;
+		private final ImmutableMap<String, UUID>	aliasIds;
+
+		private Snapshot(String tenantIdentifier, long version, ImmutableMap<String, UUID> aliasIds) {
+			this.tenantIdentifier = tenantIdentifier;
+			this.version = version;
+			this.aliasIds = aliasIds;
+		}
+	}
+
+	/**
+	 * Drops every snapshot of its tenant when LocationAlias changes are committed. The changes do not say which facility
+	 * an added or updated alias belongs to, and they are rare, so all of the tenant's facilities are rebuilt on next use.
+	 */
+	private static final class InvalidationHandler implements TenantChangeSubscription.Handler {
+		@Override
+		public void tenantChanged(String tenantIdentifier, ObjectChangeBatch batch) {
+			invalidateTenant(tenantIdentifier);
+		}
+	}
+
+	private LocationAliasIndex() {
+	}
+
+	/**
+	 * Same result as LocationAlias.staticGetDao().findByDomainId(facility, aliasId): the facility's alias of that name, active
+	 * or not, or null.
+	 */
+	public static LocationAlias findByDomainId(Facility facility, String aliasId) {
+		if (aliasId == null || !canUseIndex(facility)) {
+			return LocationAlias.staticGetDao().findByDomainId(facility, aliasId);
+		}
+		Snapshot snapshot = getSnapshot(facility);
+		UUID aliasPersistentId = snapshot.aliasIds.get(aliasId);
+		if (aliasPersistentId == null) {
+			if (subscription.getVersion(snapshot.tenantIdentifier) == snapshot.version) {
+				// no alias of this name committed since the snapshot was read
+				return null;
+			}
+			return LocationAlias.staticGetDao().findByDomainId(facility, aliasId);
+		}
+		LocationAlias alias = LocationAlias.staticGetDao().findByPersistentId(aliasPersistentId);
+		if (alias == null || !aliasId.equals(alias.getDomainId()) || !facility.equals(alias.getParent())) {
+			LOGGER.debug("alias index for {} is behind on {}, querying", facility.getDomainId(), aliasId);
+			return LocationAlias.staticGetDao().findByDomainId(facility, aliasId);
+		}
+		return alias;
+	}
+
+	/**
+	 * Call when an alias of the facility is created or remapped. Until the current transaction completes, this thread
+	 * looks the facility's aliases up in the database, where its own uncommitted changes are visible.
+	 */
+	public static void noteAliasChange(Facility facility) {
+		if (facility == null) {
+			return;
+		}
+		Set<UUID> changed = uncommittedChanges.get();
+		if (changed == null) {
+			Transaction transaction = activeTransaction();
+			if (transaction == null) {
+				return;
+			}
+			changed = new HashSet<UUID>();
+			uncommittedChanges.set(changed);
+			final Set<UUID> registered = changed;
+			transaction.registerSynchronization(new Synchronization() {
+				@Override
+				public void beforeCompletion() {
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					if (uncommittedChanges.get() == registered) {
+						uncommittedChanges.remove();
+					}
+				}
+			});
+		}
+		changed.add(facility.getPersistentId());
+	}
+
+	static void invalidateTenant(String tenantIdentifier) {
+		Iterator<Snapshot> iterator = snapshots.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().tenantIdentifier.equals(tenantIdentifier)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static boolean canUseIndex(Facility facility) {
+		if (facility == null || activeTransaction() == null) {
+			return false;
+		}
+		Set<UUID> changed = uncommittedChanges.get();
+		return changed == null || !changed.contains(facility.getPersistentId());
+	}
+
+	private static Transaction activeTransaction() {
+		Session session = TenantPersistenceService.getInstance().getSession();
+		Transaction transaction = (session == null) ? null : session.getTransaction();
+		return (transaction != null && transaction.isActive()) ? transaction : null;
+	}
+
+	private static Snapshot getSnapshot(Facility facility) {
+		UUID facilityId = facility.getPersistentId();
+		Snapshot snapshot = snapshots.get(facilityId);
+		if (snapshot != null) {
+			return snapshot;
+		}
+		String tenantIdentifier = subscription.listen();
+		long version = subscription.getVersion(tenantIdentifier);
+		Criteria criteria = TenantPersistenceService.getInstance().getSession().createCriteria(LocationAlias.class);
+		criteria.add(Restrictions.eq(IDomainObject.PARENT_PROPERTY, facilityId));
+		criteria.setProjection(Projections.projectionList()
+			.add(Projections.property(IDomainObject.ID_PROPERTY))
+			.add(Projections.property("persistentId")));
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = criteria.list();
+		Map<String, UUID> aliasIds = new HashMap<String, UUID>();
+		Set<String> duplicates = new HashSet<String>();
+		for (Object[] row : rows) {
+			String aliasId = (String) row[0];
+			if (aliasIds.put(aliasId, (UUID) row[1]) != null) {
+				duplicates.add(aliasId);
+			}
+		}
+		for (String aliasId : duplicates) {
+			// findByDomainId() finds nothing for a duplicated name, so neither does the index
+			LOGGER.warn("duplicate alias {} in {}", aliasId, facility.getDomainId());
+			aliasIds.remove(aliasId);
+		}
+		snapshot = new Snapshot(tenantIdentifier, version, ImmutableMap.copyOf(aliasIds));
+		// publish only if no alias change committed while we were reading
+		if (subscription.getVersion(tenantIdentifier) == snapshot.version) {
+			snapshots.put(facilityId, snapshot);
+			LOGGER.debug("indexed {} aliases of {}", rows.size(), facility.getDomainId());
+		}
+		return snapshot;
+	}
+}
@@ -0,0 +1,104 @@
+package com.codeshelf.model.dao;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import lombok.Getter;
+
+import com.codeshelf.model.domain.IDomainObject;
+
+/**
+ * All committed changes to one domain class within one transaction.
+ *
+ * Multiple updates of the same object are merged into one entry with the union of changed properties.
+ * An update of an object added or deleted in the same transaction is dropped, because listeners
+ * re-read added objects and cannot read deleted ones.
+ */
+public class ObjectChangeBatch {
+
+	@Getter
+	private final Class<? extends IDomainObject>	domainClass;
+
+	private final Set<UUID>							added	= new LinkedHashSet<UUID>();
+	private final Map<UUID, Set<String>>			updated	= new LinkedHashMap<UUID, Set<String>>();
+	private final Map<UUID, DeletedObject>			deleted	= new LinkedHashMap<UUID, DeletedObject>();
+
+	public static class DeletedObject {
+		@Getter
+		private final Class<? extends IDomainObject>	parentClass;
+		@Getter
+		private final UUID								parentId;
+
+		DeletedObject(Class<? extends IDomainObject> parentClass, UUID parentId) {
+			this.parentClass = parentClass;
+			this.parentId = parentId;
+		}
+	}
+
+	public ObjectChangeBatch(Class<? extends IDomainObject> domainClass) {
+		this.domainClass = domainClass;
+	}
+
+	void addAdded(UUID persistentId) {
+		added.add(persistentId);
+		updated.remove(persistentId);
+	}
+
+	void addUpdated(UUID persistentId, Set<String> changedProperties) {
+		if (added.contains(persistentId) || deleted.containsKey(persistentId)) {
+			return;
+		}
+		Set<String> properties = updated.get(persistentId);
+		if (properties == null) {
+			properties = new HashSet<String>();
+			updated.put(persistentId, properties);
+		}
+		if (changedProperties != null) {
+			properties.addAll(changedProperties);
+		}
+	}
+
+	void addDeleted(UUID persistentId, Class<? extends IDomainObject> parentClass, UUID parentId) {
+		updated.remove(persistentId);
+		deleted.put(persistentId, new DeletedObject(parentClass, parentId));
+	}
+
+	/**
+	 * @return a batch with only the updates, for listeners registered on a superclass
+	 */
+	ObjectChangeBatch updatesOnly() {
+		ObjectChangeBatch batch = new ObjectChangeBatch(domainClass);
+		batch.updated.putAll(updated);
+		return batch;
+	}
+
+	public Set<UUID> getAdded() {
+		return Collections.unmodifiableSet(added);
+	}
+
+	public Map<UUID, Set<String>> getUpdated() {
+		return Collections.unmodifiableMap(updated);
+	}
+
+	public Map<UUID, DeletedObject> getDeleted() {
+		return Collections.unmodifiableMap(deleted);
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+	}
+
+	public int size() {
+		return added.size() + updated.size() + deleted.size();
+	}
+
+	@Override
+	public String toString() {
+		return domainClass.getSimpleName() + " added:" + added.size() + " updated:" + updated.size() + " deleted:" + deleted.size();
+	}
+}
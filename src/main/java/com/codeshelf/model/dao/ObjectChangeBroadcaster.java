@@ -1,32 +1,113 @@
 package com.codeshelf.model.dao;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.model.domain.IDomainObject;
-import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
+/**
+ * Delivers committed object changes to registered IDaoListeners.
+ *
+ * While a transaction is being committed, changes are buffered per thread (openBatch is called during flush).
+ * When the transaction commits, each listener receives one ObjectChangeBatch per tenant and class; on rollback, or
+ * if the transaction never completes, the buffered changes are dropped.
+ * Changes that arrive with no open batch are delivered immediately. Listener lookups take no lock.
+ */
 public class ObjectChangeBroadcaster {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ObjectChangeBroadcaster.class);
 
 	Map<String,TenantListenerSet> listenerSets = new ConcurrentHashMap<String,TenantListenerSet>();
-	
+
+	private final ThreadLocal<ChangeBuffer> pendingChanges = new ThreadLocal<ChangeBuffer>();
+
+	// changes of one transaction on one thread, by tenant then class
+	private static class ChangeBuffer {
+		final Session											session;
+		final Map<String, Map<Class<? extends IDomainObject>, ObjectChangeBatch>>	tenants	= new LinkedHashMap<String, Map<Class<? extends IDomainObject>, ObjectChangeBatch>>();
+
+		ChangeBuffer(Session session) {
+			this.session = session;
+		}
+
+		ObjectChangeBatch get(String tenantIdentifier, Class<? extends IDomainObject> domainClass) {
+			Map<Class<? extends IDomainObject>, ObjectChangeBatch> classes = tenants.get(tenantIdentifier);
+			if (classes == null) {
+				classes = new LinkedHashMap<Class<? extends IDomainObject>, ObjectChangeBatch>();
+				tenants.put(tenantIdentifier, classes);
+			}
+			ObjectChangeBatch batch = classes.get(domainClass);
+			if (batch == null) {
+				batch = new ObjectChangeBatch(domainClass);
+				classes.put(domainClass, batch);
+			}
+			return batch;
+		}
+	}
+
 	@Inject
 	public ObjectChangeBroadcaster() {
 	}
 	// --------------------------------------------------------------------------
 
+	public boolean hasListeners(String tenantIdentifier) {
+		TenantListenerSet listenerSet = listenerSets.get(tenantIdentifier);
+		return listenerSet != null && !listenerSet.isEmpty();
+	}
+
+	/**
+	 * Start buffering changes for the transaction of this session, if not already buffering.
+	 * The buffer is dispatched (or discarded on rollback) when the transaction completes.
+	 */
+	public void openBatch(Session session) {
+		ChangeBuffer buffer = pendingChanges.get();
+		if (buffer != null) {
+			if (buffer.session == session) {
+				return;
+			}
+			// a previous transaction on this thread never completed, so its changes cannot be known to be committed
+			LOGGER.warn("found unfinished change batch on thread, dropping it");
+			pendingChanges.remove();
+		}
+		final ChangeBuffer newBuffer = new ChangeBuffer(session);
+		session.getTransaction().registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				if (pendingChanges.get() == newBuffer) {
+					pendingChanges.remove();
+				}
+				if (status == Status.STATUS_COMMITTED) {
+					dispatch(newBuffer);
+				}
+			}
+		});
+		pendingChanges.set(newBuffer);
+	}
+
 	/**
 	 * @param inDomainObject
 	 */
-	public synchronized void broadcastAdd(String tenantIdentifier, Class<? extends IDomainObject> domainClass, final UUID domainPersistentId) {
+	public void broadcastAdd(String tenantIdentifier, Class<? extends IDomainObject> domainClass, final UUID domainPersistentId) {
+		ChangeBuffer buffer = pendingChanges.get();
+		if (buffer != null) {
+			buffer.get(tenantIdentifier, domainClass).addAdded(domainPersistentId);
+			return;
+		}
 		TenantListenerSet listenerSet = listenerSets.get(tenantIdentifier);
 		if(listenerSet != null) {
 			Set<IDaoListener> listeners = listenerSet.get(domainClass);
@@ -42,17 +123,22 @@ public class ObjectChangeBroadcaster {
 	/**
 	 * @param inDomainObject
 	 */
-	public synchronized void broadcastUpdate(String tenantIdentifier, Class<? extends IDomainObject> domainClass, final UUID domainPersistentId, final Set<String> inChangedProperties) {
+	public void broadcastUpdate(String tenantIdentifier, Class<? extends IDomainObject> domainClass, final UUID domainPersistentId, final Set<String> inChangedProperties) {
+		ChangeBuffer buffer = pendingChanges.get();
+		if (buffer != null) {
+			buffer.get(tenantIdentifier, domainClass).addUpdated(domainPersistentId, inChangedProperties);
+			return;
+		}
 		TenantListenerSet listenerSet = listenerSets.get(tenantIdentifier);
 		if(listenerSet != null) {
 			Set<Class<? extends IDomainObject>> listenClasses = listenerSet.keySet();
 			for (Class<? extends IDomainObject> keyClass : listenClasses) {
 				if (keyClass.isAssignableFrom(domainClass)) {
-					
+
 					Set<IDaoListener> listenersForClass = listenerSet.get(keyClass);
 					for (final IDaoListener daoListener : listenersForClass) {
 						daoListener.objectUpdated(domainClass, domainPersistentId, inChangedProperties);
-					}			
+					}
 				}
 			}
 		}
@@ -62,8 +148,13 @@ public class ObjectChangeBroadcaster {
 	/**
 	 * @param inDomainObject
 	 */
-	public synchronized void broadcastDelete(String tenantIdentifier, Class<? extends IDomainObject> domainClass, final UUID domainPersistentId,
+	public void broadcastDelete(String tenantIdentifier, Class<? extends IDomainObject> domainClass, final UUID domainPersistentId,
 				Class<? extends IDomainObject> parentClass, final UUID parentId) {
+		ChangeBuffer buffer = pendingChanges.get();
+		if (buffer != null) {
+			buffer.get(tenantIdentifier, domainClass).addDeleted(domainPersistentId, parentClass, parentId);
+			return;
+		}
 		TenantListenerSet listenerSet = listenerSets.get(tenantIdentifier);
 		if(listenerSet != null) {
 			Set<IDaoListener> listeners = listenerSet.get(domainClass);
@@ -75,10 +166,56 @@ public class ObjectChangeBroadcaster {
 		}
 	}
 
+	private void dispatch(ChangeBuffer buffer) {
+		for (Map.Entry<String, Map<Class<? extends IDomainObject>, ObjectChangeBatch>> tenantEntry : buffer.tenants.entrySet()) {
+			TenantListenerSet listenerSet = listenerSets.get(tenantEntry.getKey());
+			if (listenerSet == null) {
+				continue;
+			}
+			for (ObjectChangeBatch batch : tenantEntry.getValue().values()) {
+				dispatch(listenerSet, batch);
+			}
+		}
+	}
+
+	private void dispatch(TenantListenerSet listenerSet, ObjectChangeBatch batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Class<? extends IDomainObject> domainClass = batch.getDomainClass();
+		// exact class listeners get everything; listeners on a superclass only get updates (same as unbatched delivery)
+		Map<IDaoListener, ObjectChangeBatch> deliveries = new LinkedHashMap<IDaoListener, ObjectChangeBatch>();
+		for (IDaoListener daoListener : listenerSet.get(domainClass)) {
+			deliveries.put(daoListener, batch);
+		}
+		ObjectChangeBatch updatesOnly = null;
+		for (Class<? extends IDomainObject> keyClass : listenerSet.keySet()) {
+			if (!keyClass.equals(domainClass) && keyClass.isAssignableFrom(domainClass)) {
+				if (updatesOnly == null) {
+					updatesOnly = batch.updatesOnly();
+				}
+				if (!updatesOnly.isEmpty()) {
+					for (IDaoListener daoListener : listenerSet.get(keyClass)) {
+						if (!deliveries.containsKey(daoListener)) {
+							deliveries.put(daoListener, updatesOnly);
+						}
+					}
+				}
+			}
+		}
+		for (Map.Entry<IDaoListener, ObjectChangeBatch> delivery : deliveries.entrySet()) {
+			try {
+				delivery.getKey().objectsChanged(delivery.getValue());
+			} catch (RuntimeException e) {
+				LOGGER.error("listener failed to process {}", delivery.getValue(), e);
+			}
+		}
+	}
+
 	/*
 	 * --------------------------------------------------------------------------
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.codeshelf.model.dao.ISystemDAO#registerDAOListener(com.codeshelf.model.dao.IDAOListener)
 	 */
 	public synchronized void registerDAOListener(String tenantIdentifier,IDaoListener inListener, Class<? extends IDomainObject> daoClass) {
@@ -93,37 +230,22 @@ public class ObjectChangeBroadcaster {
 	/*
 	 * --------------------------------------------------------------------------
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.codeshelf.model.dao.ISystemDAO#unRegisterDAOListener(com.codeshelf.model.dao.IDAOListener)
 	 */
 	public final synchronized void unregisterDAOListener(String tenantIdentifier,IDaoListener inListener) {
 		TenantListenerSet listenerSet = listenerSets.get(tenantIdentifier);
 		if(listenerSet != null) {
-			TenantListenerSet newMap = new TenantListenerSet();
-			Set<Class<? extends IDomainObject>> listenClasses = listenerSet.keySet();
-			for (Class<? extends IDomainObject> key : listenClasses) {				
-				Set<IDaoListener> newSet = Sets.newHashSet(listenerSet.get(key));
-				newSet.remove(inListener);
-				newMap.putAll(key, newSet);
-			}
-			listenerSets.put(tenantIdentifier,newMap);
+			listenerSet.remove(inListener);
 		} else {
 			LOGGER.warn("tried to unregister listener for tenant {}, but no listener set existed",tenantIdentifier);
 		}
-
-		/*
-		Set<Class<? extends IDomainObject>> listenClasses = mListeners.keySet();
-		for (Class<? extends IDomainObject> key : listenClasses) {				
-			Set<IDaoListener> listeners = mListeners.get(key);
-			listeners.remove(inListener);
-		}
-		*/
 	}
 
 	/*
 	 * --------------------------------------------------------------------------
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.codeshelf.model.dao.ISystemDAO#unRegisterDAOListener(com.codeshelf.model.dao.IDAOListener)
 	 */
 	public final synchronized void removeDAOListeners(String tenantIdentifier) {
@@ -0,0 +1,226 @@
+package com.codeshelf.model.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import lombok.EqualsAndHashCode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.Gtin;
+import com.codeshelf.model.domain.IDomainObject;
+import com.codeshelf.model.domain.ItemMaster;
+import com.codeshelf.model.domain.UomMaster;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Keys to persistent ids of committed objects, per tenant and facility, shared by all sessions of the server.
+ *
+ * Each order batch used to look up its item masters, gtins and UOM masters by domain id again, so a large catalog paid the
+ * same queries in every batch. These caches remember the persistent ids across batches; the entities are then taken from
+ * the second level cache by id, and only ids not seen yet are queried for by key. Entities are never shared, since they
+ * belong to the session that loaded them.
+ *
+ * A cache is bounded by its number of keys, least recently used first out, and tenant scoped. Committed updates and
+ * deletes of its class, reported by the change broadcaster, drop the ids concerned, so a renamed or deleted object is
+ * not found under its old key. The keys of each id are indexed, so a change costs what it changed, not a walk of the
+ * cache. Ids are only added for committed objects. An id read just before a change committed can still be added after
+ * the change dropped it, so callers check that the object they load for a key still has that key and call invalidate()
+ * if not.
+ */
+public final class SharedDomainIdCache {
+
+	private static final Logger				LOGGER			= LoggerFactory.getLogger(SharedDomainIdCache.class);
+
+	private static final long				MAX_SIZE		= Long.getLong("service.domainidcache.maxsize", 300000);
+
+	// by item id
+	public static final SharedDomainIdCache	ITEM_MASTERS	= new SharedDomainIdCache("ItemMaster", MAX_SIZE, ItemMaster.class);
+	// by gtin id
+	public static final SharedDomainIdCache	GTINS			= new SharedDomainIdCache("Gtin", MAX_SIZE, Gtin.class);
+	// by normalized uom, see UomNormalizer
+	public static final SharedDomainIdCache	UOM_MASTERS		= new SharedDomainIdCache("UomMaster", MAX_SIZE, UomMaster.class);
+
+	private final String					name;
+	private final Cache<Key, UUID>			ids;
+	// the keys each id is cached under, kept in step by the removal listener; guarded by itself
+	private final Map<UUID, Set<Key>>		keysById		= new HashMap<UUID, Set<Key>>();
+	private final TenantChangeSubscription	subscription;
+
+	@EqualsAndHashCode
+	private static final class Key {
+		private final String	tenantIdentifier;
+		private final UUID		facilityId;
+		private final String	key;
+
+		private Key(String tenantIdentifier, UUID facilityId, String key) {
+			this.tenantIdentifier = tenantIdentifier;
+			this.facilityId = facilityId;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Drops the ids of updated and deleted objects. New objects cannot be in the cache yet.
+	 */
+	private final class ChangeHandler implements TenantChangeSubscription.Handler {
+		@Override
+		public void tenantChanged(String tenantIdentifier, ObjectChangeBatch batch) {
+			if (batch == null) {
+				invalidateTenant(tenantIdentifier, null);
+				return;
+			}
+			if (batch.getUpdated().isEmpty() && batch.getDeleted().isEmpty()) {
+				return;
+			}
+			Set<UUID> changed = new HashSet<UUID>(batch.getUpdated().keySet());
+			changed.addAll(batch.getDeleted().keySet());
+			invalidateTenant(tenantIdentifier, changed);
+		}
+	}
+
+	/**
+	 * Takes keys out of the index of their id as they leave the cache, whether evicted, replaced or invalidated.
+	 */
+	private final class KeyRemovalListener implements RemovalListener<Key, UUID> {
+		@Override
+		public void onRemoval(RemovalNotification<Key, UUID> notification) {
+			if (notification.getKey() != null && notification.getValue() != null) {
+				unindex(notification.getValue(), notification.getKey());
+			}
+		}
+	}
+
+	SharedDomainIdCache(String name, long maxSize, Class<? extends IDomainObject> domainClass) {
+		this.name = name;
+		this.ids = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().removalListener(new KeyRemovalListener()).build();
+		this.subscription = new TenantChangeSubscription(new ChangeHandler(), domainClass);
+	}
+
+	/**
+	 * The ids known for the keys of the facility, in the current tenant. Must be called with a tenant selected.
+	 */
+	public Map<String, UUID> getAll(Facility facility, Collection<String> keys) {
+		String tenantIdentifier = subscription.listen();
+		UUID facilityId = facility.getPersistentId();
+		Map<String, UUID> result = new HashMap<String, UUID>();
+		for (String key : keys) {
+			if (key == null) {
+				continue;
+			}
+			UUID persistentId = ids.getIfPresent(new Key(tenantIdentifier, facilityId, key));
+			if (persistentId != null) {
+				result.put(key, persistentId);
+			}
+		}
+		return result;
+	}
+
+	public UUID get(Facility facility, String key) {
+		if (key == null) {
+			return null;
+		}
+		String tenantIdentifier = subscription.listen();
+		return ids.getIfPresent(new Key(tenantIdentifier, facility.getPersistentId(), key));
+	}
+
+	/**
+	 * Only for objects that are committed.
+	 */
+	public void putAll(String tenantIdentifier, UUID facilityId, Map<String, UUID> idsByKey) {
+		for (Map.Entry<String, UUID> entry : idsByKey.entrySet()) {
+			if (entry.getKey() != null && entry.getValue() != null) {
+				Key key = new Key(tenantIdentifier, facilityId, entry.getKey());
+				UUID persistentId = entry.getValue();
+				if (persistentId.equals(ids.asMap().get(key))) {
+					// already there, and replacing it would take the key out of the index
+					continue;
+				}
+				// indexed first, so a change committing meanwhile finds the key
+				index(persistentId, key);
+				ids.put(key, persistentId);
+			}
+		}
+	}
+
+	/**
+	 * Forget the key, when the object found for it turned out to have another key or to be gone.
+	 */
+	public void invalidate(Facility facility, String key) {
+		String tenantIdentifier = subscription.listen();
+		ids.invalidate(new Key(tenantIdentifier, facility.getPersistentId(), key));
+	}
+
+	public long size() {
+		return ids.size();
+	}
+
+	public CacheStats stats() {
+		return ids.stats();
+	}
+
+	/**
+	 * @param persistentIds	The ids to drop, or null for all of the tenant's.
+	 */
+	private void invalidateTenant(String tenantIdentifier, Set<UUID> persistentIds) {
+		List<Key> keys = new ArrayList<Key>();
+		if (persistentIds == null) {
+			// only when the tenant's changes may have been missed, so walking the cache is rare
+			for (Key key : ids.asMap().keySet()) {
+				if (key.tenantIdentifier.equals(tenantIdentifier)) {
+					keys.add(key);
+				}
+			}
+		} else {
+			synchronized (keysById) {
+				for (UUID persistentId : persistentIds) {
+					Set<Key> idKeys = keysById.get(persistentId);
+					if (idKeys != null) {
+						for (Key key : idKeys) {
+							if (key.tenantIdentifier.equals(tenantIdentifier)) {
+								keys.add(key);
+							}
+						}
+					}
+				}
+			}
+		}
+		// not under the lock, the removal listener takes it
+		ids.invalidateAll(keys);
+		if (!keys.isEmpty()) {
+			LOGGER.debug("{} ids: dropped {} of tenant {}", name, keys.size(), tenantIdentifier);
+		}
+	}
+
+	private void index(UUID persistentId, Key key) {
+		synchronized (keysById) {
+			Set<Key> idKeys = keysById.get(persistentId);
+			if (idKeys == null) {
+				idKeys = new HashSet<Key>(2);
+				keysById.put(persistentId, idKeys);
+			}
+			idKeys.add(key);
+		}
+	}
+
+	private void unindex(UUID persistentId, Key key) {
+		synchronized (keysById) {
+			Set<Key> idKeys = keysById.get(persistentId);
+			if (idKeys != null && idKeys.remove(key) && idKeys.isEmpty()) {
+				keysById.remove(persistentId);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.codeshelf.model.dao;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codeshelf.model.domain.IDomainObject;
+import com.codeshelf.persistence.TenantPersistenceService;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Keeps a cache that is shared by all sessions of the server told about the committed changes of its tenants.
+ *
+ * The cache calls listen() before it reads the database for a tenant. The first call for a tenant registers one listener
+ * with the change broadcaster for each of the domain classes, and so does the first call after the persistence service
+ * was restarted with a new broadcaster (tests). Changes made before that were not seen, so the handler is then told that
+ * anything of the tenant may have changed. Each tenant also has a version, bumped before the handler is called, for
+ * caches that must not publish what they read while a change committed.
+ */
+public final class TenantChangeSubscription {
+
+	public interface Handler {
+		/**
+		 * @param batch	The committed changes of one class, or null if anything of the tenant may have changed.
+		 */
+		void tenantChanged(String tenantIdentifier, ObjectChangeBatch batch);
+	}
+
+	private final Handler									handler;
+	private final List<Class<? extends IDomainObject>>		domainClasses;
+	private final ConcurrentMap<String, Listener>			tenantListeners	= new ConcurrentHashMap<String, Listener>();
+	private final ConcurrentMap<String, AtomicLong>			versions		= new ConcurrentHashMap<String, AtomicLong>();
+
+	private final class Listener implements IDaoListener {
+		private final String					tenantIdentifier;
+		private final ObjectChangeBroadcaster	broadcaster;
+
+		private Listener(String tenantIdentifier, ObjectChangeBroadcaster broadcaster) {
+			this.tenantIdentifier = tenantIdentifier;
+			this.broadcaster = broadcaster;
+		}
+
+		@Override
+		public void objectsChanged(ObjectChangeBatch batch) {
+			changed(tenantIdentifier, batch);
+		}
+
+		@Override
+		public void objectAdded(Class<? extends IDomainObject> domainClass, UUID domainPersistentId) {
+			ObjectChangeBatch batch = new ObjectChangeBatch(domainClass);
+			batch.addAdded(domainPersistentId);
+			changed(tenantIdentifier, batch);
+		}
+
+		@Override
+		public void objectUpdated(Class<? extends IDomainObject> domainClass, UUID domainPersistentId, Set<String> inChangedProperties) {
+			ObjectChangeBatch batch = new ObjectChangeBatch(domainClass);
+			batch.addUpdated(domainPersistentId, inChangedProperties);
+			changed(tenantIdentifier, batch);
+		}
+
+		@Override
+		public void objectDeleted(Class<? extends IDomainObject> domainClass,
+			UUID domainPersistentId,
+			Class<? extends IDomainObject> parentClass,
+			UUID parentId) {
+			ObjectChangeBatch batch = new ObjectChangeBatch(domainClass);
+			batch.addDeleted(domainPersistentId, parentClass, parentId);
+			changed(tenantIdentifier, batch);
+		}
+	}
+
+	@SafeVarargs
+	public TenantChangeSubscription(Handler handler, Class<? extends IDomainObject>... domainClasses) {
+		this.handler = handler;
+		this.domainClasses = ImmutableList.copyOf(domainClasses);
+	}
+
+	/**
+	 * Make sure the current tenant's changes reach the handler. Must be called with a tenant selected.
+	 * @return	The current tenant identifier.
+	 */
+	public String listen() {
+		TenantPersistenceService persistence = TenantPersistenceService.getInstance();
+		String tenantIdentifier = persistence.getCurrentTenantIdentifier();
+		ObjectChangeBroadcaster broadcaster = persistence.getEventListenerIntegrator().getChangeBroadcaster();
+		Listener listener = tenantListeners.get(tenantIdentifier);
+		if (listener != null && listener.broadcaster == broadcaster) {
+			return tenantIdentifier;
+		}
+		synchronized (tenantListeners) {
+			listener = tenantListeners.get(tenantIdentifier);
+			if (listener == null || listener.broadcaster != broadcaster) {
+				listener = new Listener(tenantIdentifier, broadcaster);
+				for (Class<? extends IDomainObject> domainClass : domainClasses) {
+					broadcaster.registerDAOListener(tenantIdentifier, listener, domainClass);
+				}
+				tenantListeners.put(tenantIdentifier, listener);
+				changed(tenantIdentifier, null);
+			}
+		}
+		return tenantIdentifier;
+	}
+
+	/**
+	 * @return	A number that changes with every change of the tenant reported to the handler.
+	 */
+	public long getVersion(String tenantIdentifier) {
+		return versionOf(tenantIdentifier).get();
+	}
+
+	private void changed(String tenantIdentifier, ObjectChangeBatch batch) {
+		versionOf(tenantIdentifier).incrementAndGet();
+		handler.tenantChanged(tenantIdentifier, batch);
+	}
+
+	private AtomicLong versionOf(String tenantIdentifier) {
+		AtomicLong version = versions.get(tenantIdentifier);
+		if (version == null) {
+			versions.putIfAbsent(tenantIdentifier, new AtomicLong());
+			version = versions.get(tenantIdentifier);
+		}
+		return version;
+	}
+}
@@ -1,16 +1,20 @@
 package com.codeshelf.model.dao;
 
+import java.util.Map;
 import java.util.Set;
 
 import com.codeshelf.model.domain.IDomainObject;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.SetMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
 
+/**
+ * Copy-on-write registry of listeners for one tenant. Reads (every broadcast) take no lock;
+ * writes (listener registration) copy the map and are rare.
+ */
 public class TenantListenerSet {
-	private SetMultimap<Class<? extends IDomainObject>, IDaoListener> listeners;
+	private volatile ImmutableSetMultimap<Class<? extends IDomainObject>, IDaoListener> listeners;
 	
 	public TenantListenerSet() {
-		listeners = HashMultimap.create();
+		listeners = ImmutableSetMultimap.of();
 	}
 	
 	Set<IDaoListener> get(Class<? extends IDomainObject> clazz) {
@@ -21,12 +25,31 @@ public class TenantListenerSet {
 		return listeners.keySet();
 	}
 
-	public void put(Class<? extends IDomainObject> daoClass, IDaoListener listener) {
-		listeners.put(daoClass, listener);		
+	public synchronized void put(Class<? extends IDomainObject> daoClass, IDaoListener listener) {
+		listeners = ImmutableSetMultimap.<Class<? extends IDomainObject>, IDaoListener> builder()
+			.putAll(listeners)
+			.put(daoClass, listener)
+			.build();
 	}
 
-	public void putAll(Class<? extends IDomainObject> key, Set<IDaoListener> set) {
-		listeners.putAll(key,set);
+	public synchronized void putAll(Class<? extends IDomainObject> key, Set<IDaoListener> set) {
+		listeners = ImmutableSetMultimap.<Class<? extends IDomainObject>, IDaoListener> builder()
+			.putAll(listeners)
+			.putAll(key, set)
+			.build();
 	}
 
+	public synchronized void remove(IDaoListener listener) {
+		ImmutableSetMultimap.Builder<Class<? extends IDomainObject>, IDaoListener> builder = ImmutableSetMultimap.builder();
+		for (Map.Entry<Class<? extends IDomainObject>, IDaoListener> entry : listeners.entries()) {
+			if (!entry.getValue().equals(listener)) {
+				builder.put(entry);
+			}
+		}
+		listeners = builder.build();
+	}
+
+	public boolean isEmpty() {
+		return listeners.isEmpty();
+	}
 }
@@ -47,4 +47,12 @@ public class TypedCriteria {
 		return new TypedCriteria(newQuery, newParameterTypes);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * The collection parameter is bound with setParameterList by the caller, so it is not added to the parameter types.
+	 */
+	public TypedCriteria addInRestriction(String fieldName, String parameterName) {
+		String newQuery = this.query + String.format(" and %s in (:%s)", fieldName, parameterName);
+		return new TypedCriteria(newQuery, parameterTypes);
+	}
+
+}
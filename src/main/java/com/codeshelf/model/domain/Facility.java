@@ -20,7 +20,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.UUID;
 
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
@@ -28,6 +27,7 @@ import javax.persistence.MapKey;
 import javax.persistence.OneToMany;
 
 import org.hibernate.Hibernate;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -103,6 +103,10 @@ public class Facility extends Location {
 
 	private static final Logger				LOGGER			= LoggerFactory.getLogger(Facility.class);
 
+	// Work instructions that count as picks in the daily metrics, not housekeeping
+	private static final String				WI_METRICS_PICKS	= " and wi.type not in (:housekeepingTypes)"
+			+ " and (wi.purpose is null or wi.purpose <> :housekeepingPurpose)";
+
 	@OneToMany(mappedBy = "parent")
 	@MapKey(name = "domainId")
 	private Map<String, ContainerKind>		containerKinds	= new HashMap<String, ContainerKind>();
@@ -579,37 +583,33 @@ public class Facility extends Location {
 
 	// --------------------------------------------------------------------------
 	/**
-	 * A sample routine to show the distance of locations along a path.
+	 * Recompute the distance along the path of every location on this one path, and record that they are current.
+	 * Locations whose distance did not change are not stored.
 	 */
 	public void recomputeLocationPathDistances(Path inPath) {
-		// This used to do all paths. Now as advertised only the passed in path
-
-		// Paul: uncomment this block, then run AisleTest.java
-		// Just some debug help. Crash here sometimes as consequence of path = segment.getParent(), then pass the apparently good path to facility.recomputeLocationPathDistances(path)
-		/*
-		SortedSet<PathSegment> theSegments = inPath.getSegments(); // throws within getSegments if inPath reference is not fully hydrated.
-		int howMany = theSegments.size();
-		for (PathSegment segment : theSegments) {
-			segment.computePathDistance();
-			for (LocationABC location : segment.getLocations()) {
-				location.computePosAlongPath(segment);
-			}
+		// A path reached through segment.getParent() has been seen without its segments hydrated, so prefer our own
+		// instance. A path made in this transaction may not be in our map yet.
+		Path path = paths.get(inPath.getDomainId());
+		if (path == null) {
+			path = inPath;
 		}
-		 */
-
-		// Paul: comment this block when you uncomment the block above
-		// getting from paths.values() clearly does not work reliable after just making new path
-		// Original code here
-		// /*
-		for (Path path : paths.values()) {
-			for (PathSegment segment : path.getSegments()) {
-				for (Location location : segment.getLocations()) {
-					location.computePosAlongPath(segment);
-				}
-			}
+		for (PathSegment segment : path.getSegments()) {
+			recomputeLocationPathDistances(segment);
+		}
+		Integer version = path.getDistancesVersion();
+		if (version == null || version != Path.DISTANCES_VERSION) {
+			path.setDistancesVersion(Path.DISTANCES_VERSION);
+			Path.staticGetDao().store(path);
 		}
-		// */
+	}
 
+	/**
+	 * Recompute the distance along the path of the locations under one segment only.
+	 */
+	public void recomputeLocationPathDistances(PathSegment inSegment) {
+		for (Location location : inSegment.getLocations()) {
+			location.computePosAlongPath(inSegment);
+		}
 	}
 
 	// --------------------------------------------------------------------------
@@ -1145,48 +1145,41 @@ public class Facility extends Location {
 	 * @param outHeaderCounts
 	 */
 	private HeaderCounts countOrders(OrderTypeEnum inOrderTypeEnum) {
-		int totalCrossHeaders = 0;
-		int activeHeaders = 0;
-		int activeDetails = 0;
-		int activeCntrUses = 0;
-		int inactiveDetailsOnActiveOrders = 0;
-		int inactiveCntrUsesOnActiveOrders = 0;
-		List<OrderHeader> orderHeaders = OrderHeader.staticGetDao().findByParent(this);
-		if (orderHeaders != null) {
-			for (OrderHeader order : orderHeaders) {
-				if (order.getOrderType().equals(inOrderTypeEnum)) {
-					totalCrossHeaders++;
-					if (order.getActive()) {
-						activeHeaders++;
-
-						ContainerUse cntrUse = order.getContainerUse();
-						if (cntrUse != null)
-							if (cntrUse.getActive())
-								activeCntrUses++;
-							else
-								inactiveCntrUsesOnActiveOrders++;
-
-						for (OrderDetail orderDetail : order.getOrderDetails()) {
-							if (orderDetail.getActive())
-								activeDetails++;
-							else
-								inactiveDetailsOnActiveOrders++;
-							// if we were doing outbound orders, we might count WI here
-						}
-					}
-				}
-			}
-		}
+		// Grouped counts only. Loading the headers and their details to count them pulled whole facilities into the session.
+		Session session = TenantPersistenceService.getInstance().getSession();
 		HeaderCounts outHeaderCounts = new HeaderCounts();
-		outHeaderCounts.mTotalHeaders = totalCrossHeaders;
-		outHeaderCounts.mActiveHeaders = activeHeaders;
-		outHeaderCounts.mActiveDetails = activeDetails;
-		outHeaderCounts.mActiveCntrUses = activeCntrUses;
-		outHeaderCounts.mInactiveDetailsOnActiveOrders = inactiveDetailsOnActiveOrders;
-		outHeaderCounts.mInactiveCntrUsesOnActiveOrders = inactiveCntrUsesOnActiveOrders;
+		for (Object[] row : countOrderRows(session, "select oh.active, count(oh) from OrderHeader oh"
+				+ " where oh.parent = :facility and oh.orderType = :orderType group by oh.active", inOrderTypeEnum)) {
+			int count = ((Long) row[1]).intValue();
+			outHeaderCounts.mTotalHeaders += count;
+			if (Boolean.TRUE.equals(row[0]))
+				outHeaderCounts.mActiveHeaders += count;
+		}
+		for (Object[] row : countOrderRows(session, "select cu.active, count(cu) from OrderHeader oh join oh.containerUse cu"
+				+ " where oh.parent = :facility and oh.orderType = :orderType and oh.active = true group by cu.active", inOrderTypeEnum)) {
+			int count = ((Long) row[1]).intValue();
+			if (Boolean.TRUE.equals(row[0]))
+				outHeaderCounts.mActiveCntrUses += count;
+			else
+				outHeaderCounts.mInactiveCntrUsesOnActiveOrders += count;
+		}
+		// if we were doing outbound orders, we might count WI here
+		for (Object[] row : countOrderRows(session, "select od.active, count(od) from OrderDetail od join od.parent oh"
+				+ " where oh.parent = :facility and oh.orderType = :orderType and oh.active = true group by od.active", inOrderTypeEnum)) {
+			int count = ((Long) row[1]).intValue();
+			if (Boolean.TRUE.equals(row[0]))
+				outHeaderCounts.mActiveDetails += count;
+			else
+				outHeaderCounts.mInactiveDetailsOnActiveOrders += count;
+		}
 		return outHeaderCounts;
 	}
 
+	@SuppressWarnings("unchecked")
+	private List<Object[]> countOrderRows(Session session, String inQuery, OrderTypeEnum inOrderTypeEnum) {
+		return session.createQuery(inQuery).setParameter("facility", this).setParameter("orderType", inOrderTypeEnum).list();
+	}
+
 	public Set<User> getSiteControllerUsers() {
 		Set<User> users = new HashSet<User>();
 		for (CodeshelfNetwork network : networks.values()) {
@@ -1470,67 +1463,58 @@ public class Facility extends Location {
 	}
 
 	private boolean computeWiMetricsSuccess(FacilityMetric metric, Timestamp startUtc, Timestamp endUtc) {
-		List<WorkInstructionTypeEnum> wiTypes = new ArrayList<>();
-		wiTypes.add(WorkInstructionTypeEnum.ACTUAL);
-		wiTypes.add(WorkInstructionTypeEnum.HK_BAYCOMPLETE);
-		wiTypes.add(WorkInstructionTypeEnum.HK_REPEATPOS);
-		List<WorkInstructionStatusEnum> wiStatuses = new ArrayList<>();
-		wiStatuses.add(WorkInstructionStatusEnum.COMPLETE);
-		wiStatuses.add(WorkInstructionStatusEnum.SHORT);
-		wiStatuses.add(WorkInstructionStatusEnum.SUBSTITUTION);
-		List<Criterion> filterParams = new ArrayList<Criterion>();
-		filterParams.add(Restrictions.eq("parent", this));
-		filterParams.add(Restrictions.in("status", wiStatuses)); // empty .in() guard not needed here
-		filterParams.add(Restrictions.in("type", wiTypes)); // empty .in() guard not needed here
-		filterParams.add(Restrictions.ge("completed", startUtc));
-		filterParams.add(Restrictions.le("completed", endUtc));
-		List<WorkInstruction> wis = WorkInstruction.staticGetDao().findByFilter(filterParams);
-		HashSet<UUID> visitedDetails = new HashSet<>();
-		HashSet<UUID> visitedOrders = new HashSet<>();
-		WorkInstructionStatusEnum status = null;
-		OrderDetail detail;
-		UUID orderId;
+		// Aggregate queries instead of loading the day's work instructions. Lines and orders are counted distinct, as a
+		// detail may have several completed work instructions (shorted, then picked again).
+		Session session = TenantPersistenceService.getInstance().getSession();
 		int linesTotal = 0, linesEach = 0, linesCase = 0, linesOther = 0;
 		int countTotal = 0, countEach = 0, countCase = 0, countOther = 0;
-		int actual, linesIncrement = 0, housekeeping = 0, ordersPicked = 0, shorts = 0;
-
-		for (WorkInstruction wi : wis) {
-			String uomId = wi.getUomMasterId();
-			if (wi.isHousekeeping() || WiPurpose.WiPurposeHousekeep.equals(wi.getPurpose())) {
-				housekeeping++;
+		int housekeeping = 0, ordersPicked = 0, shorts = 0;
+
+		for (Object[] row : wiMetricsRows(session, "select wi.type, wi.purpose, wi.status, uom.domainId, count(wi), sum(wi.actualQuantity)",
+			"",
+			" group by wi.type, wi.purpose, wi.status, uom.domainId",
+			startUtc,
+			endUtc)) {
+			WorkInstructionTypeEnum type = (WorkInstructionTypeEnum) row[0];
+			int wiCount = ((Long) row[4]).intValue();
+			if (type.isHousekeeping() || WiPurpose.WiPurposeHousekeep.equals(row[1])) {
+				housekeeping += wiCount;
 			} else {
-				status = wi.getStatus();
-				actual = wi.getActualQuantity();
-				detail = wi.getOrderDetail();
-				
-				if (visitedDetails.contains(detail.getPersistentId())) {
-					linesIncrement = 0;
-				} else {
-					linesIncrement = 1;
-					visitedDetails.add(detail.getPersistentId());
-					orderId = detail.getParent().getPersistentId();
-					if (!visitedOrders.contains(orderId)) {
-						ordersPicked++;
-						visitedOrders.add(orderId);
-					}
-				}
-				linesTotal += linesIncrement;
+				String uomId = Strings.nullToEmpty((String) row[3]);
+				int actual = row[5] == null ? 0 : ((Long) row[5]).intValue();
 				countTotal += actual;
 				if (UomNormalizer.isEach(uomId)) {
-					linesEach += linesIncrement;
 					countEach += actual;
 				} else if (UomNormalizer.isCase(uomId)) {
-					linesCase += linesIncrement;
 					countCase += actual;
 				} else {
-					linesOther += linesIncrement;
 					countOther += actual;
 				}
-				if (status == WorkInstructionStatusEnum.SHORT) {
-					shorts++;
+				if (row[2] == WorkInstructionStatusEnum.SHORT) {
+					shorts += wiCount;
 				}
 			}
 		}
+		for (Object[] row : wiMetricsRows(session, "select uom.domainId, count(distinct od.persistentId)",
+			WI_METRICS_PICKS,
+			" group by uom.domainId",
+			startUtc,
+			endUtc)) {
+			String uomId = Strings.nullToEmpty((String) row[0]);
+			int lines = ((Long) row[1]).intValue();
+			linesTotal += lines;
+			if (UomNormalizer.isEach(uomId)) {
+				linesEach += lines;
+			} else if (UomNormalizer.isCase(uomId)) {
+				linesCase += lines;
+			} else {
+				linesOther += lines;
+			}
+		}
+		Long orders = (Long) wiMetricsQuery(session, "select count(distinct od.parent.persistentId)", WI_METRICS_PICKS, "", startUtc, endUtc)
+			.uniqueResult();
+		ordersPicked = orders.intValue();
+
 		int ordersPickedOld = metric.getOrdersPicked();
 		if (ordersPicked < ordersPickedOld / 2) {
 			LOGGER.warn("Not updating facility daily metric for {}. Probably data was purged so it is better to keep the old value of {} picks rather than update to {}.",
@@ -1554,6 +1538,50 @@ public class Facility extends Location {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private List<Object[]> wiMetricsRows(Session session,
+		String inSelect,
+		String inRestriction,
+		String inGroupBy,
+		Timestamp startUtc,
+		Timestamp endUtc) {
+		return wiMetricsQuery(session, inSelect, inRestriction, inGroupBy, startUtc, endUtc).list();
+	}
+
+	/**
+	 * An aggregate over the facility's completed, shorted or substituted picks and housekeeping work instructions of
+	 * the day. The order detail and its UOM are joined as od and uom.
+	 */
+	private Query wiMetricsQuery(Session session,
+		String inSelect,
+		String inRestriction,
+		String inGroupBy,
+		Timestamp startUtc,
+		Timestamp endUtc) {
+		List<WorkInstructionTypeEnum> wiTypes = new ArrayList<>();
+		wiTypes.add(WorkInstructionTypeEnum.ACTUAL);
+		wiTypes.add(WorkInstructionTypeEnum.HK_BAYCOMPLETE);
+		wiTypes.add(WorkInstructionTypeEnum.HK_REPEATPOS);
+		List<WorkInstructionStatusEnum> wiStatuses = new ArrayList<>();
+		wiStatuses.add(WorkInstructionStatusEnum.COMPLETE);
+		wiStatuses.add(WorkInstructionStatusEnum.SHORT);
+		wiStatuses.add(WorkInstructionStatusEnum.SUBSTITUTION);
+		Query query = session.createQuery(inSelect
+				+ " from WorkInstruction wi left join wi.orderDetail od left join od.uomMaster uom"
+				+ " where wi.parent = :facility and wi.status in (:statuses) and wi.type in (:types)"
+				+ " and wi.completed >= :start and wi.completed <= :end" + inRestriction + inGroupBy);
+		query.setParameter("facility", this);
+		query.setParameterList("statuses", wiStatuses);
+		query.setParameterList("types", wiTypes);
+		query.setParameter("start", startUtc);
+		query.setParameter("end", endUtc);
+		if (inRestriction.contains(":housekeepingTypes")) {
+			query.setParameterList("housekeepingTypes", WorkInstructionTypeEnum.getHousekeepingTypeEnums());
+			query.setParameter("housekeepingPurpose", WiPurpose.WiPurposeHousekeep);
+		}
+		return query;
+	}
+
 	private void computeEventMetrics(FacilityMetric metric, Timestamp startUtc, Timestamp endUtc) {
 		List<Criterion> filterParams = new ArrayList<Criterion>();
 		filterParams.add(Restrictions.eq("parent", this));
@@ -29,6 +29,7 @@ import com.codeshelf.model.LedRange;
 import com.codeshelf.model.dao.DaoException;
 import com.codeshelf.model.dao.GenericDaoABC;
 import com.codeshelf.model.dao.ITypedDao;
+import com.codeshelf.model.dao.LocationAliasIndex;
 import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.util.StringUIConverter;
 import com.codeshelf.util.UomNormalizer;
@@ -176,7 +177,7 @@ public class Item extends DomainObjectTreeABC<ItemMaster> {
 	// For symmetry with getItemLocationName, this must accept alias or nominal name
 	// Careful, this is called by webapp for direct editing of item's location.
 	public void setItemLocationName(String inAliasOrNominal) {
-		LocationAlias alias = LocationAlias.staticGetDao().findByDomainId(getParent().getParent(), inAliasOrNominal);
+		LocationAlias alias = LocationAliasIndex.findByDomainId(getParent().getParent(), inAliasOrNominal);
 		Location loc = null;
 		if (alias != null) {
 			loc = alias.getMappedLocation();
@@ -50,6 +50,7 @@ import com.codeshelf.model.PositionTypeEnum;
 import com.codeshelf.model.dao.DaoException;
 import com.codeshelf.model.dao.GenericDaoABC;
 import com.codeshelf.model.dao.ITypedDao;
+import com.codeshelf.model.dao.LocationAliasIndex;
 import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.util.StringUIConverter;
 import com.codeshelf.validation.ErrorCode;
@@ -589,7 +590,7 @@ public abstract class Location extends DomainObjectTreeABC<Location> {
 	public Location findLocationById(String inLocationId) {
 		if (Hibernate.getClass(this).equals(Facility.class)) {
 			Facility facility = (Facility) this;
-			LocationAlias alias = LocationAlias.staticGetDao().findByDomainId(facility, inLocationId);
+			LocationAlias alias = LocationAliasIndex.findByDomainId(facility, inLocationId);
 			if ((alias != null) && (alias.getActive())) {
 				Location location = alias.getMappedLocation();
 				return TenantPersistenceService.<Location> deproxify(location);
@@ -808,6 +809,7 @@ public abstract class Location extends DomainObjectTreeABC<Location> {
 		if (previousLocation == null) {
 			aliases.add(inAlias);
 			inAlias.setMappedLocation(this);
+			LocationAliasIndex.noteAliasChange(inAlias.getParent());
 		} else if (!previousLocation.equals(this)) {
 			LOGGER.error("cannot map Alias " + inAlias.getDomainId() + " to " + this.getDomainId()
 					+ " because it is still mapped to " + previousLocation.getDomainId(), new Exception());
@@ -818,6 +820,7 @@ public abstract class Location extends DomainObjectTreeABC<Location> {
 		if (this.aliases.contains(inAlias)) {
 			inAlias.setMappedLocation(null);
 			aliases.remove(inAlias);
+			LocationAliasIndex.noteAliasChange(inAlias.getParent());
 		} else {
 			LOGGER.error("cannot unmap Alias " + inAlias.getDomainId() + " from " + this.getDomainId()
 					+ " because it isn't found in aliases", new Exception());
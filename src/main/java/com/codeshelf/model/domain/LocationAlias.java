@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codeshelf.model.dao.GenericDaoABC;
 import com.codeshelf.model.dao.ITypedDao;
+import com.codeshelf.model.dao.LocationAliasIndex;
 import com.codeshelf.persistence.TenantPersistenceService;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -82,6 +83,7 @@ public class LocationAlias extends DomainObjectTreeABC<Facility> {
 		super(domainId);
 		setParent(facility);
 		this.mappedLocation = mappedLocation;
+		LocationAliasIndex.noteAliasChange(facility);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -103,6 +105,7 @@ public class LocationAlias extends DomainObjectTreeABC<Facility> {
 
 	public void setLocationAlias(String inLocationAlias) {
 		setDomainId(inLocationAlias);
+		LocationAliasIndex.noteAliasChange(getParent());
 	}
 
 	public String getAlias() {
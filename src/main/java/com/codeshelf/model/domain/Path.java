@@ -70,6 +70,9 @@ public class Path extends DomainObjectTreeABC<Facility> {
 	public static final String			DEFAULT_FACILITY_PATH_ID	= "DEFAULT";
 	public static final String			DOMAIN_PREFIX				= "P";
 
+	// Bump when the way locations get their posAlongPath changes, so that every path is recomputed once at the next start.
+	public static final int				DISTANCES_VERSION			= 1;
+
 	private static final Logger			LOGGER						= LoggerFactory.getLogger(Path.class);
 
 	// Optional path name
@@ -95,6 +98,12 @@ public class Path extends DomainObjectTreeABC<Facility> {
 	@Setter
 	private Double						length;
 
+	// The DISTANCES_VERSION last applied to all of this path's locations. Null for paths from before it was recorded.
+	@Column(nullable = true, name = "distances_version")
+	@Getter
+	@Setter
+	private Integer						distancesVersion;
+
 	// All of the path segments that belong to this path.95
 	@OneToMany(mappedBy = "parent", orphanRemoval=true)
 	@MapKey(name = "segmentOrder")
@@ -102,6 +111,8 @@ public class Path extends DomainObjectTreeABC<Facility> {
 
 	public Path() {
 		travelDir = TravelDirectionEnum.FORWARD;
+		// a new path has no locations yet; they get their distances as they are associated to its segments
+		distancesVersion = DISTANCES_VERSION;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -0,0 +1,56 @@
+package com.codeshelf.persistence;
+
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+import com.codeshelf.model.dao.ObjectChangeBroadcaster;
+import com.codeshelf.model.domain.DomainObjectABC;
+
+/**
+ * Fires during flush, before commit, so that the post-commit broadcast listeners of this transaction
+ * can buffer their changes and the broadcaster can deliver them as one batch per listener.
+ */
+public class ChangeBatchListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+	private static final long		serialVersionUID	= 5287466093201473922L;
+
+	private ObjectChangeBroadcaster	objectChangeBroadcaster;
+
+	public ChangeBatchListener(ObjectChangeBroadcaster objectChangeBroadcaster) {
+		super();
+		this.objectChangeBroadcaster = objectChangeBroadcaster;
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		openBatch(event.getSession(), event.getEntity());
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		openBatch(event.getSession(), event.getEntity());
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		openBatch(event.getSession(), event.getEntity());
+	}
+
+	private void openBatch(EventSource session, Object entity) {
+		if (entity instanceof DomainObjectABC && objectChangeBroadcaster.hasListeners(session.getTenantIdentifier())) {
+			objectChangeBroadcaster.openBatch(session);
+		}
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false;
+	}
+
+}
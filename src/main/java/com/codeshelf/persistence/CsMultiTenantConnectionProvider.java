@@ -2,6 +2,8 @@ package com.codeshelf.persistence;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.hibernate.engine.jdbc.connections.spi.AbstractMultiTenantConnectionProvider;
 import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
@@ -25,6 +27,8 @@ public class CsMultiTenantConnectionProvider
 	private ServiceRegistryImplementor	serviceRegistry = null; // provided by Hibernate framework
 	
 	SQLSyntax syntax;
+
+	private final ConcurrentMap<String, Boolean> poolBindsSchema = new ConcurrentHashMap<String, Boolean>();
 	
 	public CsMultiTenantConnectionProvider() {
 		this.syntax = DatabaseUtils.getSQLSyntax(TenantManagerService.getInstance().getInitialTenant());
@@ -41,11 +45,19 @@ public class CsMultiTenantConnectionProvider
 
         //nope
         //connection.setSchema(tenantIdentifier);
-        
-        if(syntax.equals(SQLSyntax.POSTGRES)) {
-            connection.createStatement().execute("set search_path to '" + tenantIdentifier + "'");
-        } else if(syntax.equals(SQLSyntax.H2_MEMORY)) {
-        	connection.createStatement().execute("set schema " + tenantIdentifier);
+
+        // pooled connections are normally bound to the tenant schema when acquired (TenantSchemaConnectionCustomizer).
+        // check that once per tenant, and fall back to binding on every checkout if the pool does not do it.
+        Boolean bound = poolBindsSchema.get(tenantIdentifier);
+        if (bound == null) {
+            bound = TenantSchemaConnectionCustomizer.isBoundTo(connection, tenantIdentifier, syntax);
+            poolBindsSchema.put(tenantIdentifier, bound);
+            if (!bound) {
+                LOGGER.warn("connection pool for tenant {} does not bind the schema, setting it on each checkout", tenantIdentifier);
+            }
+        }
+        if (!bound) {
+            TenantSchemaConnectionCustomizer.bindSchema(connection, tenantIdentifier, syntax);
         }
 
         return connection;
@@ -43,6 +43,11 @@ public class EventListenerIntegrator implements Integrator {
         eventListenerRegistry.prependListeners( EventType.POST_COMMIT_UPDATE, new UpdateBroadcastListener(changeBroadcaster));
         eventListenerRegistry.prependListeners( EventType.POST_COMMIT_DELETE, new DeleteBroadcastListener(changeBroadcaster));
         eventListenerRegistry.prependListeners( EventType.POST_COMMIT_INSERT, new InsertBroadcastListener(changeBroadcaster));
+        // open a change batch during flush so the post-commit listeners above are delivered once per transaction
+        ChangeBatchListener batchListener = new ChangeBatchListener(changeBroadcaster);
+        eventListenerRegistry.appendListeners( EventType.POST_INSERT, batchListener);
+        eventListenerRegistry.appendListeners( EventType.POST_UPDATE, batchListener);
+        eventListenerRegistry.appendListeners( EventType.POST_DELETE, batchListener);
         //eventListenerRegistry.prependListeners( EventType.DELETE, EventListener.class);
         //     3) This form adds the specified listener(s) to the end of the listener chain
         //eventListenerRegistry.appendListeners( EventType.AUTO_FLUSH, myListenersToBeCalledLast );
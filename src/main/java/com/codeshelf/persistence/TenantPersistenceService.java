@@ -3,10 +3,19 @@ package com.codeshelf.persistence;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.hibernate.Criteria;
 import org.hibernate.Transaction;
 import org.hibernate.c3p0.internal.C3P0ConnectionProvider;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
 import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
 import org.hibernate.service.spi.ServiceRegistryImplementor;
 import org.slf4j.Logger;
@@ -17,10 +26,10 @@ import com.codeshelf.manager.service.TenantManagerService;
 import com.codeshelf.model.dao.ITypedDao;
 import com.codeshelf.model.dao.ObjectChangeBroadcaster;
 import com.codeshelf.model.domain.DomainObjectABC;
-import com.codeshelf.model.domain.Facility;
 import com.codeshelf.model.domain.IDomainObject;
 import com.codeshelf.model.domain.Path;
 import com.codeshelf.security.CodeshelfSecurityManager;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 
 public class TenantPersistenceService extends AbstractPersistenceService {
@@ -34,7 +43,10 @@ public class TenantPersistenceService extends AbstractPersistenceService {
 	Configuration hibernateConfiguration;
 	private Map<Class<? extends IDomainObject>,ITypedDao<?>> daos;
 
-	private Map<String,ConnectionProvider> connectionProviders = new HashMap<String,ConnectionProvider>();
+	private ConcurrentMap<String,ConnectionProvider> connectionProviders = new ConcurrentHashMap<String,ConnectionProvider>();
+
+	// recomputes path distances after startup, one tenant at a time; stopped with the service
+	private ExecutorService pathDistanceExecutor = null;
 	
 	@Inject
 	protected TenantPersistenceService() {
@@ -83,9 +95,22 @@ public class TenantPersistenceService extends AbstractPersistenceService {
 	@Override
 	protected void startUp() throws Exception {
 		setupDaos();
+		this.pathDistanceExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("path-distances")
+			.setDaemon(true)
+			.build());
 		super.startUp();
 	}
 
+	@Override
+	protected void shutDown() throws Exception {
+		// a path being recomputed finishes its transaction, the rest is left for the next start
+		this.pathDistanceExecutor.shutdownNow();
+		if (!this.pathDistanceExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+			LOGGER.warn("path distance recomputation did not stop");
+		}
+		super.shutDown();
+	}
+
 	private void setupDaos() {
 		this.daos = new HashMap<Class<? extends IDomainObject>, ITypedDao<?>>();
 		this.daos.putAll(DomainObjectABC.getDaos());
@@ -121,20 +146,60 @@ public class TenantPersistenceService extends AbstractPersistenceService {
 
 	@Override
 	public void initializeTenantData() {
+		// Only paths that were not brought up to date by the running server need their distances recomputed,
+		// which after the first start of a new DISTANCES_VERSION is usually none of them.
 		Transaction t = this.beginTransaction();
+		Criteria criteria = getSession().createCriteria(Path.class);
+		criteria.add(Restrictions.or(Restrictions.isNull("distancesVersion"),
+			Restrictions.ne("distancesVersion", Path.DISTANCES_VERSION)));
+		criteria.setProjection(Projections.property("persistentId"));
+		@SuppressWarnings("unchecked")
+		List<UUID> stalePathIds = criteria.list();
+		t.commit();
 
-		List<Facility> facilities = Facility.staticGetDao().getAll();
-		
-		for (Facility facility : facilities) {
-			for (Path path : facility.getPaths()) {
-				// TODO: Remove once we have a tool for linking path segments to locations (aisles usually).
-				facility.recomputeLocationPathDistances(path);
-			}
+		if (!stalePathIds.isEmpty()) {
+			recomputePathDistancesInBackground(CodeshelfSecurityManager.getCurrentTenant(), stalePathIds);
 		}
-        t.commit();
+	}
 
-        t = this.beginTransaction();
-        t.commit();
+	/**
+	 * Recompute on the service's background thread, one path per transaction, so that the tenant is usable meanwhile.
+	 * Until its path is done, a location may sort by the distance it had before.
+	 */
+	private void recomputePathDistancesInBackground(final Tenant tenant, final List<UUID> pathIds) {
+		LOGGER.info("recomputing location distances of {} paths for tenant {}", pathIds.size(), tenant.getName());
+		pathDistanceExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				CodeshelfSecurityManager.setContext(CodeshelfSecurityManager.getUserContextSYSTEM(), tenant);
+				try {
+					for (UUID pathId : pathIds) {
+						if (Thread.currentThread().isInterrupted()) {
+							LOGGER.info("stopped recomputing location distances for tenant {}", tenant.getName());
+							return;
+						}
+						recomputePathDistances(pathId);
+					}
+					LOGGER.info("done recomputing location distances for tenant {}", tenant.getName());
+				} finally {
+					CodeshelfSecurityManager.removeContext();
+				}
+			}
+		});
+	}
+
+	private void recomputePathDistances(UUID pathId) {
+		try {
+			beginTransaction();
+			Path path = Path.staticGetDao().findByPersistentId(pathId);
+			if (path != null) {
+				path.getParent().recomputeLocationPathDistances(path);
+			}
+			commitTransaction();
+		} catch (RuntimeException e) {
+			LOGGER.error("failed to recompute location distances of path " + pathId, e);
+			rollbackTransaction();
+		}
 	}
 
 	@Override
@@ -165,31 +230,45 @@ public class TenantPersistenceService extends AbstractPersistenceService {
 	    properties.put("hibernate.connection.url", cred.getUrl());
 	    properties.put("hibernate.connection.username", cred.getUsername());
 	    properties.put("hibernate.connection.password", cred.getPassword());
+
+	    // bind each pooled connection to the tenant schema once, when it is created
+	    Map<String,String> extensions = new HashMap<String,String>();
+	    extensions.put(TenantSchemaConnectionCustomizer.SCHEMA_EXTENSION, cred.getSchemaName());
+	    properties.put("hibernate.c3p0.extensions", extensions);
+	    properties.put("hibernate.c3p0.connectionCustomizerClassName", TenantSchemaConnectionCustomizer.class.getName());
 	    
 	    cp.configure(properties);
 	    	    
 	    return cp;
 	}
 
-	public synchronized ConnectionProvider getConnectionProvider(String tenantIdentifier, ServiceRegistryImplementor serviceRegistry) {
+	public ConnectionProvider getConnectionProvider(String tenantIdentifier, ServiceRegistryImplementor serviceRegistry) {
+		// called on every connection checkout, so only lock when the tenant's pool has to be created
+		ConnectionProvider cp = connectionProviders.get(tenantIdentifier); 
+		if(cp == null) {
+			cp = createConnectionProviderIfAbsent(tenantIdentifier, serviceRegistry);
+		}		
+		return cp;
+	}
+
+	private synchronized ConnectionProvider createConnectionProviderIfAbsent(String tenantIdentifier, ServiceRegistryImplementor serviceRegistry) {
 		ConnectionProvider cp = connectionProviders.get(tenantIdentifier); 
 		if(cp == null) {
 			LOGGER.info("Creating connection to tenant {}",tenantIdentifier);
 			DatabaseCredentials cred = getDatabaseCredentials(tenantIdentifier);
 			cp = createConnectionProvider(cred,serviceRegistry);
 			connectionProviders.put(tenantIdentifier, cp);
-		}		
+		}
 		return cp;
 	}
 
 	public void forgetConnectionProvider(String tenantIdentifier) {
 		// this is only called from main thread during multi test runs, not much worry about concurrency
-		ConnectionProvider cp = this.connectionProviders.get(tenantIdentifier);
+		ConnectionProvider cp = this.connectionProviders.remove(tenantIdentifier);
 		if(cp != null) {
 			if(cp instanceof C3P0ConnectionProvider) {
 				((C3P0ConnectionProvider)cp).stop();	
 			}
-			this.connectionProviders.remove(tenantIdentifier);
 		}
 	}
 
@@ -0,0 +1,69 @@
+package com.codeshelf.persistence;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.persistence.DatabaseUtils.SQLSyntax;
+
+/**
+ * Binds each pooled connection to its tenant schema once, when c3p0 acquires the physical connection,
+ * instead of running "set search_path" on every checkout.
+ *
+ * The schema comes from the pool's extensions (SCHEMA_EXTENSION), set per tenant pool by TenantPersistenceService.
+ */
+public class TenantSchemaConnectionCustomizer extends CsConnectionCustomizer {
+
+	private static final Logger	LOGGER				= LoggerFactory.getLogger(TenantSchemaConnectionCustomizer.class);
+
+	public static final String	SCHEMA_EXTENSION	= "tenantSchema";
+
+	@Override
+	public void onAcquire(Connection c, String parentDataSourceIdentityToken) throws Exception {
+		super.onAcquire(c, parentDataSourceIdentityToken);
+		@SuppressWarnings("rawtypes")
+		Map extensions = extensionsForToken(parentDataSourceIdentityToken);
+		Object schema = (extensions == null) ? null : extensions.get(SCHEMA_EXTENSION);
+		if (schema != null) {
+			SQLSyntax syntax = DatabaseUtils.getSQLSyntax(c.getMetaData().getURL());
+			bindSchema(c, schema.toString(), syntax);
+			LOGGER.debug("bound new pooled connection to schema {}", schema);
+		}
+	}
+
+	public static void bindSchema(Connection connection, String schema, SQLSyntax syntax) throws SQLException {
+		String sql;
+		if (syntax.equals(SQLSyntax.POSTGRES)) {
+			sql = "set search_path to '" + schema + "'";
+		} else if (syntax.equals(SQLSyntax.H2_MEMORY)) {
+			sql = "set schema " + schema;
+		} else {
+			return;
+		}
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	/**
+	 * @return true if the connection's current schema is already the given schema
+	 */
+	public static boolean isBoundTo(Connection connection, String schema, SQLSyntax syntax) throws SQLException {
+		String sql;
+		if (syntax.equals(SQLSyntax.POSTGRES)) {
+			sql = "select current_schema()";
+		} else if (syntax.equals(SQLSyntax.H2_MEMORY)) {
+			sql = "select schema()";
+		} else {
+			return true;
+		}
+		try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery(sql)) {
+			return result.next() && schema.equalsIgnoreCase(result.getString(1));
+		}
+	}
+}
@@ -4,7 +4,10 @@ import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -13,12 +16,21 @@ import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codeshelf.manager.Shard;
 import com.codeshelf.manager.Tenant;
 import com.codeshelf.manager.User;
+import com.codeshelf.manager.UserRole;
 import com.codeshelf.manager.service.TenantManagerService;
+import com.codeshelf.metrics.MetricsGroup;
+import com.codeshelf.metrics.MetricsService;
 import com.codeshelf.security.SessionFlags.Flag;
 import com.codeshelf.security.TokenSession.Status;
 import com.codeshelf.service.AbstractCodeshelfIdleService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
 
 public abstract class AbstractHmacTokenService extends AbstractCodeshelfIdleService {
 	static final Logger	LOGGER								= LoggerFactory.getLogger(AbstractHmacTokenService.class);
@@ -47,6 +59,84 @@ public abstract class AbstractHmacTokenService extends AbstractCodeshelfIdleServ
 		
 	};
 
+	// tokens that passed checkToken as regular sessions, so that a reused token skips the HMAC check.
+	// null until the subclass calls initializeTokenCache
+	private Cache<String, VerifiedToken>	verifiedTokens	= null;
+
+	/**
+	 * The contents of an accepted token, good until it would time out or be offered a refresh, with a copy of the user and
+	 * tenant fields a session needs. Each hit builds its own detached User and Tenant from these, since callers may change
+	 * the user they are given, so a reused token needs neither the HMAC check nor the manager database.
+	 */
+	private static class VerifiedToken {
+		final long					timestamp;
+		final long					sessionStart;
+		final byte					sessionFlags;
+		final long					validUntil;
+
+		final int					userId;
+		final String				username;
+		final boolean				active;
+		final String				clientVersion;
+		final int					badVersionLoginTries;
+		final Date					lastAuthenticated;
+		final ImmutableSet<UserRole>	roles;
+		final ImmutableSet<String>	permissions;
+
+		final int					tenantId;
+		final String				tenantName;
+		final String				schemaName;
+		final String				dbUsername;
+		final String				dbPassword;
+		final Shard					shard;
+		final boolean				tenantActive;
+
+		VerifiedToken(TokenSession session, long validUntil) {
+			this.timestamp = session.getTokenTimestamp();
+			this.sessionStart = session.getSessionStartTimestamp();
+			this.sessionFlags = session.getSessionFlags().getPacked();
+			this.validUntil = validUntil;
+
+			User user = session.getUser();
+			this.userId = user.getId();
+			this.username = user.getUsername();
+			this.active = user.isActive();
+			this.clientVersion = user.getClientVersion();
+			this.badVersionLoginTries = user.getBadVersionLoginTries();
+			this.lastAuthenticated = (user.getLastAuthenticated() == null) ? null : new Date(user.getLastAuthenticated().getTime());
+			this.roles = ImmutableSet.copyOf(user.getRoles());
+			this.permissions = ImmutableSet.copyOf(user.getPermissionStrings());
+
+			Tenant tenant = session.getTenant();
+			this.tenantId = tenant.getId();
+			this.tenantName = tenant.getName();
+			this.schemaName = tenant.getSchemaName();
+			this.dbUsername = tenant.getUsername();
+			this.dbPassword = tenant.getPassword();
+			this.shard = tenant.getShard();
+			this.tenantActive = tenant.isActive();
+		}
+
+		TokenSession toSession() {
+			Tenant tenant = new Tenant(tenantName, dbUsername, schemaName, dbPassword, shard);
+			tenant.setId(tenantId);
+			tenant.setActive(tenantActive);
+
+			User user = new User();
+			user.setId(userId);
+			user.setUsername(username);
+			user.setTenant(tenant);
+			user.setActive(active);
+			user.setClientVersion(clientVersion);
+			user.setBadVersionLoginTries(badVersionLoginTries);
+			user.setLastAuthenticated((lastAuthenticated == null) ? null : new Date(lastAuthenticated.getTime()));
+			user.setRoles(roles);
+			user.setPermissionsFromDeserialization(permissions);
+
+			return new TokenSession(Status.ACTIVE_SESSION, user, tenant, timestamp, sessionStart, new SessionFlags(sessionFlags), null);
+		}
+	}
+
 	public AbstractHmacTokenService() {
 		super();
 	}
@@ -57,6 +147,48 @@ public abstract class AbstractHmacTokenService extends AbstractCodeshelfIdleServ
 	protected void initializeHmac(String secret) {
 	}
 
+	// subclass may call initializeTokenCache to remember verified tokens for a few seconds
+	protected void initializeTokenCache(int maxSize, int seconds) {
+		if (maxSize <= 0 || seconds <= 0) {
+			LOGGER.info("verified token cache disabled");
+			this.verifiedTokens = null;
+			return;
+		}
+		final Cache<String, VerifiedToken> cache = CacheBuilder.newBuilder()
+			.maximumSize(maxSize)
+			.expireAfterWrite(seconds, TimeUnit.SECONDS)
+			.recordStats()
+			.build();
+		this.verifiedTokens = cache;
+
+		if (MetricsService.exists()) {
+			MetricsService.getInstance().registerMetric(MetricsGroup.Auth, "tokencache.hitrate", new Gauge<Double>() {
+				@Override
+				public Double getValue() {
+					return cache.stats().hitRate();
+				}
+			});
+			MetricsService.getInstance().registerMetric(MetricsGroup.Auth, "tokencache.hits", new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return cache.stats().hitCount();
+				}
+			});
+			MetricsService.getInstance().registerMetric(MetricsGroup.Auth, "tokencache.misses", new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return cache.stats().missCount();
+				}
+			});
+			MetricsService.getInstance().registerMetric(MetricsGroup.Auth, "tokencache.size", new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return cache.size();
+				}
+			});
+		}
+	}
+
 	// subclass should implement method(s) to authenticate and get a token by calling this method
 	protected String createToken(int userId, int tenantId, Long timestamp, Long sessionStart, SessionFlags sessionFlags) {
 		if (timestamp == null)
@@ -72,6 +204,20 @@ public abstract class AbstractHmacTokenService extends AbstractCodeshelfIdleServ
 	}
 
 	public TokenSession checkToken(String value) {
+		if (value != null && verifiedTokens != null) {
+			VerifiedToken verified = verifiedTokens.getIfPresent(value);
+			if (verified != null) {
+				if (System.currentTimeMillis() < verified.validUntil) {
+					// the HMAC and the user were checked, changes to the user or tenant invalidate the entry
+					return verified.toSession();
+				}
+				verifiedTokens.invalidate(value);
+			}
+		}
+		return verifyToken(value);
+	}
+
+	private TokenSession verifyToken(String value) {
 		TokenSession resp = null;
 		if(value != null) {
 			ByteBuffer hmac = ByteBuffer.wrap(decodeToken(value));
@@ -87,6 +233,7 @@ public abstract class AbstractHmacTokenService extends AbstractCodeshelfIdleServ
 					byte[] matchHmac = createHmacBytes(userId, tenantId, timestamp, sessionStart, random, sessionFlags);
 					if (Arrays.equals(hmac.array(), matchHmac)) {
 						resp = respondToValidToken(userId, tenantId, timestamp, sessionStart, sessionFlags);
+						rememberVerifiedToken(value, resp);
 					} else {
 						LOGGER.warn("Invalid HMAC for user ID {} timestamp {}", userId, timestamp);
 						resp = new TokenSession(Status.INVALID_TOKEN);
@@ -177,6 +324,80 @@ public abstract class AbstractHmacTokenService extends AbstractCodeshelfIdleServ
 		return response;
 	}
 
+	/**
+	 * Only regular sessions not due for a refresh are kept. Special sessions and refused tokens always get the full check.
+	 */
+	private void rememberVerifiedToken(String value, TokenSession session) {
+		if (verifiedTokens == null || session.getStatus() != Status.ACTIVE_SESSION || session.getNewToken() != null) {
+			return;
+		}
+		SessionFlags sessionFlags = session.getSessionFlags();
+		int idleMinutes;
+		if (sessionFlags.get(Flag.AUTO_REFRESH_SESSION)) {
+			// past this the full check offers a refresh token
+			idleMinutes = this.getSessionMinIdleMinutes(sessionFlags);
+		} else {
+			idleMinutes = this.getSessionMaxIdleMinutes(sessionFlags);
+		}
+		long validUntil = session.getTokenTimestamp() + idleMinutes * 60 * 1000L;
+		verifiedTokens.put(value, new VerifiedToken(session, validUntil));
+	}
+
+	/**
+	 * Hits and misses of the verified token cache, or null if it is disabled.
+	 */
+	public CacheStats getTokenCacheStats() {
+		if (verifiedTokens == null)
+			return null;
+		return verifiedTokens.stats();
+	}
+
+	/**
+	 * Call at logout so the token is checked in full next time.
+	 */
+	public void invalidateToken(String value) {
+		if (value != null && verifiedTokens != null) {
+			verifiedTokens.invalidate(value);
+		}
+	}
+
+	/**
+	 * Call when the user changes (password, active, roles) so its tokens are checked in full next time.
+	 */
+	public void invalidateUserTokens(int userId) {
+		if (verifiedTokens == null)
+			return;
+		Iterator<VerifiedToken> tokens = verifiedTokens.asMap().values().iterator();
+		while (tokens.hasNext()) {
+			if (tokens.next().userId == userId) {
+				tokens.remove();
+			}
+		}
+	}
+
+	/**
+	 * Call when roles or permissions change, which may concern any user, so all tokens are checked in full next time.
+	 */
+	public void invalidateAllTokens() {
+		if (verifiedTokens != null) {
+			verifiedTokens.invalidateAll();
+		}
+	}
+
+	/**
+	 * Call when the tenant changes or is removed so its users' tokens are checked in full next time.
+	 */
+	public void invalidateTenantTokens(int tenantId) {
+		if (verifiedTokens == null)
+			return;
+		Iterator<VerifiedToken> tokens = verifiedTokens.asMap().values().iterator();
+		while (tokens.hasNext()) {
+			if (tokens.next().tenantId == tenantId) {
+				tokens.remove();
+			}
+		}
+	}
+
 	private String encodeToken(byte[] rawHmac) {
 		xor(rawHmac);
 		return new String(Base64.encodeBase64(rawHmac));
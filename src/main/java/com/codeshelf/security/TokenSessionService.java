@@ -40,6 +40,10 @@ public class TokenSessionService extends AbstractCookieSessionService {
 	int							sessionRecoveryIdleMinutes;
 	int							sessionRecoverySetPwIdleMinutes;
 
+	// verified token cache settings
+	private static final int	TOKEN_CACHE_DEFAULT_SECONDS			= 30;
+	private static final int	TOKEN_CACHE_DEFAULT_MAX_SIZE		= 10000;
+
 	// cookie settings
 	static final public String	COOKIE_NAME							= "CSTOK";
 	private static final int	COOKIE_DEFAULT_MAX_AGE_HOURS		= 24;
@@ -113,6 +117,10 @@ public class TokenSessionService extends AbstractCookieSessionService {
 		this.sessionSetupIdleMinutes = Integer.getInteger("auth.session.setup.idleminutes", SETUP_DEFAULT_IDLE_MINUTES);
 		this.sessionRecoveryIdleMinutes = Integer.getInteger("auth.session.recovery.idleminutes", RECOVERY_DEFAULT_IDLE_MINUTES);
 		this.sessionRecoverySetPwIdleMinutes = Integer.getInteger("auth.session.recoverypw.idleminutes", RECOVERY_SETPW_DEFAULT_IDLE_MINUTES);
+
+		// verified token cache, 0 to disable
+		this.initializeTokenCache(Integer.getInteger("auth.tokencache.maxsize", TOKEN_CACHE_DEFAULT_MAX_SIZE),
+			Integer.getInteger("auth.tokencache.seconds", TOKEN_CACHE_DEFAULT_SECONDS));
 		
 		// cookie settings
 		String cookieDomain = System.getProperty("auth.cookie.domain");
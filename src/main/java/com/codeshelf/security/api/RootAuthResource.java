@@ -88,7 +88,10 @@ public class RootAuthResource {
 
 	@GET
 	@Path("logout")
-	public Response logout() {
+	public Response logout(@CookieParam(TokenSessionService.COOKIE_NAME) Cookie authCookie) {
+		if (authCookie != null) {
+			tokenSessionService.invalidateToken(authCookie.getValue());
+		}
 		return Response.ok().header("Set-Cookie", tokenSessionService.removerCookie()).build();
 	}
 
@@ -109,7 +112,9 @@ public class RootAuthResource {
 		if (tokenSession != null) {
 			NewCookie newCookie = null;
 			boolean allowChange = false;
-			boolean passwordWasSet = (tokenSession.getUser().getHashedPassword() != null);
+			// the stored user, since a session may carry a copy without the password
+			User user = TenantManagerService.getInstance().getUser(tokenSession.getUser().getId());
+			boolean passwordWasSet = (user.getHashedPassword() != null);
 
 			if(tokenSession.getStatus().equals(TokenSession.Status.ACTIVE_SESSION)) {
 				if (!Strings.isNullOrEmpty(oldPassword)) { 
@@ -139,7 +144,6 @@ public class RootAuthResource {
 			}
 			if(allowChange) {
 				// change password
-				User user = tokenSession.getUser();
 				user.setHashedPassword(tokenSessionService.hashPassword(newPassword));
 
 				// these resets happen automatically when security questions are answered successfully
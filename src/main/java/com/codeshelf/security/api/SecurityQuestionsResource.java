@@ -113,7 +113,9 @@ public class SecurityQuestionsResource {
 						|| (tokenSession.getStatus().equals(TokenSession.Status.SPECIAL_SESSION)
 								&& tokenSession.getSessionFlags().get(Flag.ACCOUNT_RECOVERY) 
 								&& !tokenSession.getSessionFlags().get(Flag.ACCOUNT_SETUP)))) {
-			return Response.ok(tokenSession.getUser().getSecurityAnswers().keySet()).build();
+			// the stored user, since a session may carry a copy without the answers
+			User user = TenantManagerService.getInstance().getUser(tokenSession.getUser().getId());
+			return Response.ok(user.getSecurityAnswers().keySet()).build();
 		} 
 		LOGGER.warn("Invalid set security questions request");
 		return Response.status(Status.FORBIDDEN.getStatusCode()).build();
@@ -130,7 +132,7 @@ public class SecurityQuestionsResource {
 
 		// accept token from query param (recovery)
 		TokenSession currentSession = tokenSessionService.checkToken(authToken);
-		User user = currentSession.getUser();
+		User user = TenantManagerService.getInstance().getUser(currentSession.getUser().getId());
 		if(user.getRecoveryTriesRemain() > 0) {
 			user.setRecoveryTriesRemain(user.getRecoveryTriesRemain() - 1); // decrement
 			TenantManagerService.getInstance().updateUser(user);
@@ -1,92 +1,127 @@
 package com.codeshelf.service;
 
 import groovy.lang.GroovyRuntimeException;
+import groovy.lang.GroovyShell;
+import groovy.lang.MissingMethodException;
+import groovy.lang.Script;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import javax.transaction.Synchronization;
 
 import lombok.Getter;
 
-import org.hibernate.criterion.Restrictions;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.metrics.DataQuantityHealthCheckParameters;
 import com.codeshelf.metrics.EdiFreeSpaceHealthCheckParamaters;
 import com.codeshelf.model.DataPurgeParameters;
+import com.codeshelf.model.dao.ObjectChangeBatch;
+import com.codeshelf.model.dao.TenantChangeSubscription;
 import com.codeshelf.model.domain.ExtensionPoint;
 import com.codeshelf.model.domain.Facility;
+import com.codeshelf.persistence.TenantPersistenceService;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
+/**
+ * The extension points of one facility. Each active script is compiled once into its own Groovy script class, and its
+ * function is then invoked on that instance without any lock, so the importers can call it for every line. The compiled
+ * scripts are kept until the script text changes. Committed changes to any ExtensionPoint of the tenant mark the
+ * tenant's engines stale, and the next getInstance reloads them, recompiling only the scripts that changed.
+ */
 public class ExtensionPointEngine {
 
-	private static final Logger									LOGGER				= LoggerFactory.getLogger(ExtensionPointEngine.class);
-	private static final HashMap<UUID, ExtensionPointEngine>	facilityEngines		= new HashMap<>();
+	private static final Logger										LOGGER				= LoggerFactory.getLogger(ExtensionPointEngine.class);
+	private static final ConcurrentMap<UUID, ExtensionPointEngine>	facilityEngines		= new ConcurrentHashMap<>();
+	private static final TenantChangeSubscription					subscription		= new TenantChangeSubscription(new ChangeHandler(),
+																							ExtensionPoint.class);
 
-	ScriptEngine												engine;
+	// one class loader for all the facility's scripts
+	private final GroovyShell										shell;
 
-	HashSet<ExtensionPointType>									activeExtensions	= new HashSet<ExtensionPointType>();
+	private final String											tenantIdentifier;
 
-	@Getter
-	private ArrayList<String>									failedExtensions	= Lists.newArrayList();
+	// replaced as a whole, never changed in place
+	private volatile Map<ExtensionPointType, LoadedExtension>		extensions			= ImmutableMap.of();
+
+	private volatile boolean										stale				= false;
 
 	@Getter
-	private Facility											facility;
+	private volatile ArrayList<String>								failedExtensions	= Lists.newArrayList();
 
-	public ExtensionPointEngine(Facility facility) throws ScriptException {
-		initEngine();
-		loadAllExtensionPoints(facility);
-		this.facility = facility;
-	}
+	@Getter
+	private Facility												facility;
 
-	private void initEngine() throws ScriptException {
-		ScriptEngineManager factory = new ScriptEngineManager();
-		engine = factory.getEngineByName("groovy");
-		if (engine == null) {
-			throw new ScriptException("groovy engine not setup in ExtensionPointService.  Need to run gradle eclipse?");
+	/**
+	 * An extension point as last loaded. The script is null unless the extension point is active and compiled.
+	 */
+	private static final class LoadedExtension {
+		private final UUID		persistentId;
+		private final String	scriptText;
+		private final Script	script;
+
+		private LoadedExtension(UUID persistentId, String scriptText, Script script) {
+			this.persistentId = persistentId;
+			this.scriptText = scriptText;
+			this.script = script;
 		}
 	}
 
 	/**
-	 * Record that the extension point is valid and active or throw
+	 * Marks the tenant's engines stale on every committed ExtensionPoint change.
 	 */
-	private void activateExtensionPoint(ExtensionPoint ep) throws ScriptException {
-		ExtensionPointType extp = ep.getType();
-		this.activeExtensions.add(extp);
+	private static final class ChangeHandler implements TenantChangeSubscription.Handler {
+		@Override
+		public void tenantChanged(String tenantIdentifier, ObjectChangeBatch batch) {
+			markStale(tenantIdentifier);
+		}
 	}
 
-	private void inactivateExtensionPoint(ExtensionPoint ep) throws ScriptException {
-		LOGGER.info("Inactivating extension point " + ep.getType());
-		ExtensionPointType extp = ep.getType();
-		this.activeExtensions.remove(extp);
-		//TODO may consider building a noop version for each type that can be evaluated into the engine
+	public ExtensionPointEngine(Facility facility) throws ScriptException {
+		this.shell = new GroovyShell(ExtensionPointEngine.class.getClassLoader());
+		this.tenantIdentifier = TenantPersistenceService.getInstance().getCurrentTenantIdentifier();
+		this.facility = facility;
+		loadAllExtensionPoints(facility);
 	}
 
 	public boolean hasActiveExtensionPoint(ExtensionPointType extp) {
-		return this.activeExtensions.contains(extp);
+		LoadedExtension loaded = this.extensions.get(extp);
+		return loaded != null && loaded.script != null;
 	}
 
-	private List<ExtensionPoint> loadAllExtensionPoints(Facility facility) throws ScriptException {
+	/**
+	 * Reads the facility's extension points and compiles the active ones whose script is new or changed.
+	 */
+	private synchronized List<ExtensionPoint> loadAllExtensionPoints(Facility facility) {
+		this.stale = false;
 		List<ExtensionPoint> eps = ExtensionPoint.staticGetDao().findByParent(facility);
-		this.activeExtensions.clear();
-		failedExtensions.clear();
+		Map<ExtensionPointType, LoadedExtension> previous = this.extensions;
+		Map<ExtensionPointType, LoadedExtension> loaded = new EnumMap<ExtensionPointType, LoadedExtension>(ExtensionPointType.class);
+		ArrayList<String> failed = Lists.newArrayList();
 		for (ExtensionPoint ep : eps) {
+			if (loaded.containsKey(ep.getType())) {
+				LOGGER.warn("Found more than one extension point for type {} in facility {}", ep.getType(), facility);
+				continue;
+			}
+			Script script = null;
 			try {
 				if (ep.isActive()) {
 					try {
-						loadExtensionPoint(ep);
-						this.activateExtensionPoint(ep);
+						script = reuseOrCompile(ep, previous.get(ep.getType()));
 					} catch (ScriptException e) {
-						failedExtensions.add(ep + " " + e);
+						failed.add(ep + " " + e);
 						Throwable cause = e.getCause();
 						if (cause instanceof GroovyRuntimeException) {
 							LOGGER.warn("Inactivating invalid extension " + ep.getDomainId(), e);
@@ -103,62 +138,97 @@ public class ExtensionPointEngine {
 			} catch (Exception e) {
 				LOGGER.error("Extension point {} for facility {} could not be loaded skipping", ep.getType(), facility);
 			}
+			loaded.put(ep.getType(), new LoadedExtension(ep.getPersistentId(), ep.getScript(), script));
 		}
+		this.failedExtensions = failed;
+		this.extensions = ImmutableMap.copyOf(loaded);
 		return eps;
 	}
 
-	private void loadExtensionPoint(ExtensionPoint ep) throws ScriptException {
+	private Script reuseOrCompile(ExtensionPoint ep, LoadedExtension previous) throws ScriptException {
+		if (previous != null && previous.script != null && previous.persistentId.equals(ep.getPersistentId())
+				&& previous.scriptText.equals(ep.getScript())) {
+			return previous.script;
+		}
+		return compile(ep);
+	}
+
+	/**
+	 * Compiles the script into its own class and runs its body once, as evaluating it in a script engine did.
+	 */
+	private Script compile(ExtensionPoint ep) throws ScriptException {
 		LOGGER.info("Loading extension point " + ep.getType());
-		engine.eval(ep.getScript());
+		try {
+			Script script = shell.parse(ep.getScript());
+			script.run();
+			return script;
+		} catch (Exception e) {
+			throw new ScriptException(e);
+		}
 	}
 
 	public Object eval(ExtensionPointType ext, Object[] params) throws ScriptException {
-		if (!this.activeExtensions.contains(ext)) {
+		LoadedExtension loaded = this.extensions.get(ext);
+		if (loaded == null || loaded.script == null) {
 			throw new ScriptException("Script type " + ext + " is not active");
 		}
-		Invocable inv = (Invocable) engine;
-		Object result = null;
 		String functionName = ext.name();
 		try {
-			result = inv.invokeFunction(functionName, params);
-		} catch (NoSuchMethodException e) {
-			throw new ScriptException("Script type " + ext + " does not contain method name " + functionName
-					+ " or encountered parameter mismatch.\n" + e.getMessage());
+			return loaded.script.invokeMethod(functionName, params);
+		} catch (MissingMethodException e) {
+			if (functionName.equals(e.getMethod()) && loaded.script.getClass().equals(e.getType())) {
+				throw new ScriptException("Script type " + ext + " does not contain method name " + functionName
+						+ " or encountered parameter mismatch.\n" + e.getMessage());
+			}
+			throw new ScriptException(e);
+		} catch (RuntimeException e) {
+			throw new ScriptException(e);
 		}
-		return result;
 	}
 
+	/**
+	 * Must be called in a transaction. Only the first use of a facility, and the first use after its extension points
+	 * changed, read the database.
+	 */
 	public static ExtensionPointEngine getInstance(Facility facility) throws ScriptException {
-		synchronized (facilityEngines) {
-			ExtensionPointEngine engine = facilityEngines.get(facility.getPersistentId());
-			if (engine == null) {
-				engine = new ExtensionPointEngine(facility);
-				facilityEngines.put(facility.getPersistentId(), engine);
+		subscription.listen();
+		UUID facilityId = facility.getPersistentId();
+		ExtensionPointEngine engine = facilityEngines.get(facilityId);
+		if (engine == null) {
+			synchronized (facilityEngines) {
+				engine = facilityEngines.get(facilityId);
+				if (engine == null) {
+					engine = new ExtensionPointEngine(facility);
+					facilityEngines.put(facilityId, engine);
+				}
+			}
+		} else if (engine.stale) {
+			engine.loadAllExtensionPoints(facility);
+		}
+		return engine;
+	}
+
+	static void markStale(String tenantIdentifier) {
+		for (ExtensionPointEngine engine : facilityEngines.values()) {
+			if (engine.tenantIdentifier.equals(tenantIdentifier)) {
+				engine.stale = true;
 			}
-			return engine;
 		}
 	}
 
 	// Methods to get the parameter beans	
 	//+++++++++++++++++++++++++++++++++++++++
 
+	/**
+	 * From the loaded extension points, so no query. The entity itself usually comes from the second level cache.
+	 */
 	public Optional<ExtensionPoint> getExtensionPoint(ExtensionPointType type) {
-		@SuppressWarnings("unchecked")
-		List<ExtensionPoint> eps = ExtensionPoint.staticGetDao()
-			.createCriteria()
-			.add(Restrictions.eq("type", type))
-			.add(Restrictions.eq("parent.persistentId", facility.getPersistentId()))
-			.list();
-		if (eps.size() > 1) {
-			LOGGER.warn("Found {} extension points for type {} in facility {}", eps.size(), type, facility);
-		} // no extension point is fine. Means we should use the default
-
-		if (eps.size() >= 1) {
-			return Optional.of(eps.get(0));
-		} else {
+		LoadedExtension loaded = this.extensions.get(type);
+		if (loaded == null) {
+			// no extension point is fine. Means we should use the default
 			return Optional.absent();
 		}
-
+		return Optional.fromNullable(ExtensionPoint.staticGetDao().findByPersistentId(loaded.persistentId));
 	}
 
 	public Optional<ExtensionPoint> getDataQuantityHealthCheckExtensionPoint() {
@@ -228,12 +298,7 @@ public class ExtensionPointEngine {
 	}
 
 	public List<ExtensionPoint> getAllExtensions() {
-		@SuppressWarnings("unchecked")
-		List<ExtensionPoint> eps = ExtensionPoint.staticGetDao()
-			.createCriteria()
-			.add(Restrictions.eq("parent.persistentId", facility.getPersistentId()))
-			.list();
-		return eps;
+		return ExtensionPoint.staticGetDao().findByParent(facility);
 	}
 
 	public ExtensionPoint findById(UUID extensionPointId) {
@@ -259,17 +324,60 @@ public class ExtensionPointEngine {
 
 	public void delete(ExtensionPoint point) {
 		ExtensionPoint.staticGetDao().delete(point);
+		synchronized (this) {
+			Map<ExtensionPointType, LoadedExtension> loaded = new EnumMap<ExtensionPointType, LoadedExtension>(ExtensionPointType.class);
+			loaded.putAll(this.extensions);
+			LoadedExtension current = loaded.get(point.getType());
+			if (current != null && current.persistentId.equals(point.getPersistentId())) {
+				loaded.remove(point.getType());
+			}
+			this.extensions = ImmutableMap.copyOf(loaded);
+		}
+		reloadAfterTransaction();
 	}
 
 	private ExtensionPoint store(ExtensionPoint point) throws ScriptException {
-		loadExtensionPoint(point);
+		// throws for a bad script, active or not
+		Script script = compile(point);
+		ExtensionPoint.staticGetDao().store(point);
 		if (point.isActive()) {
-			this.activateExtensionPoint(point);
+			LOGGER.info("Activating extension point " + point.getType());
 		} else {
-			this.inactivateExtensionPoint(point);
+			LOGGER.info("Inactivating extension point " + point.getType());
 		}
-		ExtensionPoint.staticGetDao().store(point);
+		synchronized (this) {
+			Map<ExtensionPointType, LoadedExtension> loaded = new EnumMap<ExtensionPointType, LoadedExtension>(ExtensionPointType.class);
+			loaded.putAll(this.extensions);
+			loaded.put(point.getType(), new LoadedExtension(point.getPersistentId(),
+				point.getScript(),
+				point.isActive() ? script : null));
+			this.extensions = ImmutableMap.copyOf(loaded);
+		}
+		reloadAfterTransaction();
 		return point;
 	}
 
+	/**
+	 * Changes made through the engine apply at once in this transaction. Whether it commits or not, reload from the
+	 * database on next use.
+	 */
+	private void reloadAfterTransaction() {
+		Session session = TenantPersistenceService.getInstance().getSession();
+		Transaction transaction = (session == null) ? null : session.getTransaction();
+		if (transaction == null || !transaction.isActive()) {
+			this.stale = true;
+			return;
+		}
+		transaction.registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				stale = true;
+			}
+		});
+	}
+
 }
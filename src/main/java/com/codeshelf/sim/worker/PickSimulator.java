@@ -18,6 +18,7 @@ import com.codeshelf.device.CsDeviceManager;
 import com.codeshelf.device.PosControllerInstr;
 import com.codeshelf.flyweight.command.CommandControlCreateButton;
 import com.codeshelf.flyweight.command.CommandControlCreateScan;
+import com.codeshelf.flyweight.command.ICommand;
 import com.codeshelf.flyweight.command.NetEndpoint;
 import com.codeshelf.flyweight.command.NetGuid;
 import com.codeshelf.model.WorkInstructionStatusEnum;
@@ -36,6 +37,7 @@ public class PickSimulator {
 
 	private static final Logger	LOGGER				= LoggerFactory.getLogger(PickSimulator.class);
 
+	// the longest to wait for the device to act on a command sent by radio
 	private final int			RADIO_SEND_DELAY	= 500;
 
 	public PickSimulator(CsDeviceManager deviceManager, String cheGuid) {
@@ -79,9 +81,10 @@ public class PickSimulator {
 		scanUser(pickerId);
 		waitForCheStates(states(CheStateEnum.SETUP_SUMMARY, CheStateEnum.REMOTE), getWaitTime());
 		if (getCurrentCheState() == CheStateEnum.REMOTE) {
+			long stateChangeCount = cheDeviceLogic.getStateChangeCount();
 			scanCommand("CANCEL");
-			//Since we are going from state REMOTE to REMOTE, give CHE a bit of time to enter a transactional state
-			ThreadUtils.sleep(500);
+			//Since we are going from state REMOTE to REMOTE, wait until the CHE has set the state again
+			waitForStateChange(stateChangeCount, 500);
 			waitForCheState(CheStateEnum.REMOTE, getWaitTime());
 			scanCommand("CANCEL");
 			waitForCheState(CheStateEnum.SETUP_SUMMARY, getWaitTime());
@@ -269,8 +272,7 @@ public class PickSimulator {
 		try {
 			if (useRadio) {
 				CommandControlCreateScan command = new CommandControlCreateScan(NetEndpoint.PRIMARY_ENDPOINT, scan);
-				cheDeviceLogic.sendRadioControllerCommand(command, true);
-				ThreadUtils.sleep(RADIO_SEND_DELAY);
+				sendByRadio(command);
 			} else {
 				cheDeviceLogic.scanCommandReceived(scan);
 			}
@@ -286,8 +288,7 @@ public class PickSimulator {
 				CommandControlCreateButton command = new CommandControlCreateButton(NetEndpoint.PRIMARY_ENDPOINT,
 					(byte) inPosition,
 					(byte) inQuantity);
-				cheDeviceLogic.sendRadioControllerCommand(command, true);
-				ThreadUtils.sleep(RADIO_SEND_DELAY);
+				sendByRadio(command);
 			} else {
 				cheDeviceLogic.simulateButtonPress(inPosition, inQuantity);
 			}
@@ -296,6 +297,28 @@ public class PickSimulator {
 		}
 	}
 
+	/**
+	 * The command comes back to the device through the radio. Returns once the device has changed state for it, or after
+	 * RADIO_SEND_DELAY if it does not.
+	 */
+	private void sendByRadio(ICommand inCommand) {
+		long stateChangeCount = cheDeviceLogic.getStateChangeCount();
+		cheDeviceLogic.sendRadioControllerCommand(inCommand, true);
+		waitForStateChange(stateChangeCount, RADIO_SEND_DELAY);
+	}
+
+	/**
+	 * Returns once setState() has finished on this CHE since the count was taken, or after the timeout if it does not.
+	 */
+	private void waitForStateChange(long stateChangeCount, int timeoutInMillis) {
+		try {
+			cheDeviceLogic.awaitStateChange(stateChangeCount, timeoutInMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(getCheDeviceLogic().getGuid() + ": interrupted waiting for a state change", e);
+		}
+	}
+
 	public void buttonPress(int inPosition) {
 		buttonPress(inPosition, getLastSentPositionControllerDisplayValue(inPosition));
 	}
@@ -496,19 +519,19 @@ public class PickSimulator {
 	 * Method used for script testing, where a Che may transition to one of several states, and we'd like to wait for transition to finish before proceeding
 	 */
 	private CheStateEnum waitForDeviceStates(CheDeviceLogic device, ArrayList<CheStateEnum> states, int timeoutInMillis) {
-		long start = System.currentTimeMillis();
 		CheStateEnum currentState = null;
-		while (System.currentTimeMillis() - start < timeoutInMillis) {
-			// retry every 100ms
-			ThreadUtils.sleep(100);
-			currentState = device.getCheStateEnum();
+		try {
 			// we are waiting for the expected CheStateEnum, AND the indicator that we are out of the setState() routine.
 			// Typically, the state is set first, then some side effects are called that depend on the state.  The picker is usually checking on
-			// some of the side effects after this call.
-			if (states.contains(currentState) && !device.inSetState()) {
-				// expected state found - all good
-				return currentState;
-			}
+			// some of the side effects after this call. The device wakes us each time setState() finishes.
+			currentState = device.awaitCheStates(states, timeoutInMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(getCheDeviceLogic().getGuid() + ": interrupted waiting for " + states, e);
+		}
+		if (states.contains(currentState) && !device.inSetState()) {
+			// expected state found - all good
+			return currentState;
 		}
 		//Exception code below
 		StringBuilder statesStr = new StringBuilder();
@@ -0,0 +1,184 @@
+package com.codeshelf.util;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtilsBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cached getters for building UI property maps from domain objects.
+ *
+ * Getters are resolved once per runtime class (Hibernate proxies included) and property or method name,
+ * and kept as MethodHandles. Names that do not resolve are cached too, so asking every object in a list
+ * for a property that its class does not have costs a map lookup instead of a thrown NoSuchMethodException.
+ * Nested names ("parent.domainId") are resolved segment by segment against the runtime class of each value.
+ * Indexed and mapped names fall back to commons-beanutils.
+ */
+public final class PropertyAccessorCache {
+
+	private static final Logger									LOGGER				= LoggerFactory.getLogger(PropertyAccessorCache.class);
+
+	/** Returned by getProperty() when the bean has no readable property of that name. */
+	public static final Object									NO_SUCH_PROPERTY	= new Object();
+
+	private static final MethodType								GETTER_TYPE			= MethodType.methodType(Object.class, Object.class);
+
+	private static final Accessor								MISSING				= new Accessor(null);
+
+	private static final ConcurrentMap<Class<?>, ClassAccessors>	classAccessors		= new ConcurrentHashMap<Class<?>, ClassAccessors>();
+
+	private static final PropertyUtilsBean						fallbackUtils		= new PropertyUtilsBean();
+
+	private PropertyAccessorCache() {
+	}
+
+	public static final class Accessor {
+		private final MethodHandle	handle;
+
+		private Accessor(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		public Object get(Object bean) throws InvocationTargetException {
+			try {
+				return (Object) handle.invokeExact(bean);
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+
+	private static final class ClassAccessors {
+		final ConcurrentMap<String, Accessor>	properties	= new ConcurrentHashMap<String, Accessor>();
+		final ConcurrentMap<String, Accessor>	methods		= new ConcurrentHashMap<String, Accessor>();
+
+		ClassAccessors(Class<?> beanClass) {
+			try {
+				for (PropertyDescriptor descriptor : Introspector.getBeanInfo(beanClass).getPropertyDescriptors()) {
+					Method readMethod = descriptor.getReadMethod();
+					if (readMethod != null) {
+						Accessor accessor = toAccessor(beanClass, readMethod);
+						if (accessor != null) {
+							properties.put(descriptor.getName(), accessor);
+						}
+					}
+				}
+			} catch (IntrospectionException e) {
+				LOGGER.warn("unable to introspect {}", beanClass, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the value of a simple or nested property, or NO_SUCH_PROPERTY if the bean (or a nested value) does not have it
+	 */
+	public static Object getProperty(Object bean, String propertyName) throws InvocationTargetException {
+		if (propertyName.indexOf('[') >= 0 || propertyName.indexOf('(') >= 0) {
+			return getFallbackProperty(bean, propertyName);
+		}
+		Object value = bean;
+		int start = 0;
+		while (value != null) {
+			int end = propertyName.indexOf('.', start);
+			String segment = (end < 0) ? propertyName.substring(start) : propertyName.substring(start, end);
+			Accessor accessor = propertyAccessor(value.getClass(), segment);
+			if (accessor == null) {
+				return NO_SUCH_PROPERTY;
+			}
+			value = accessor.get(value);
+			if (end < 0) {
+				return value;
+			}
+			start = end + 1;
+		}
+		// a nested value along the path was null
+		return null;
+	}
+
+	/**
+	 * @return the getter for a simple property name, or null if the class has no readable property of that name
+	 */
+	public static Accessor propertyAccessor(Class<?> beanClass, String propertyName) {
+		ClassAccessors accessors = forClass(beanClass);
+		Accessor accessor = accessors.properties.get(propertyName);
+		if (accessor == null) {
+			accessors.properties.putIfAbsent(propertyName, MISSING);
+			return null;
+		}
+		return (accessor == MISSING) ? null : accessor;
+	}
+
+	/**
+	 * @return the public no-argument method of that name, or null if there is none
+	 */
+	public static Accessor methodAccessor(Class<?> beanClass, String methodName) {
+		ClassAccessors accessors = forClass(beanClass);
+		Accessor accessor = accessors.methods.get(methodName);
+		if (accessor == null) {
+			Method method = MethodUtils.getAccessibleMethod(beanClass, methodName, new Class<?>[0]);
+			if (method != null) {
+				accessor = toAccessor(beanClass, method);
+			}
+			if (accessor == null) {
+				accessor = MISSING;
+			}
+			Accessor existing = accessors.methods.putIfAbsent(methodName, accessor);
+			if (existing != null) {
+				accessor = existing;
+			}
+		}
+		return (accessor == MISSING) ? null : accessor;
+	}
+
+	private static ClassAccessors forClass(Class<?> beanClass) {
+		ClassAccessors accessors = classAccessors.get(beanClass);
+		if (accessors == null) {
+			accessors = new ClassAccessors(beanClass);
+			ClassAccessors existing = classAccessors.putIfAbsent(beanClass, accessors);
+			if (existing != null) {
+				accessors = existing;
+			}
+		}
+		return accessors;
+	}
+
+	private static Accessor toAccessor(Class<?> beanClass, Method method) {
+		if (method.getParameterTypes().length != 0 || method.getReturnType() == void.class) {
+			return null;
+		}
+		// the declaring class may not be public even if the method is, find it on a public type
+		Method accessible = MethodUtils.getAccessibleMethod(beanClass, method);
+		if (accessible == null) {
+			return null;
+		}
+		try {
+			return new Accessor(MethodHandles.publicLookup().unreflect(accessible).asType(GETTER_TYPE));
+		} catch (IllegalAccessException e) {
+			LOGGER.warn("unable to access {} on {}", method.getName(), beanClass, e);
+			return null;
+		}
+	}
+
+	private static Object getFallbackProperty(Object bean, String propertyName) throws InvocationTargetException {
+		try {
+			return fallbackUtils.getProperty(bean, propertyName);
+		} catch (NoSuchMethodException e) {
+			return NO_SUCH_PROPERTY;
+		} catch (IllegalAccessException e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.codeshelf.ws.client;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -9,6 +10,7 @@ import java.util.concurrent.TimeUnit;
 import javax.websocket.ClientEndpoint;
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.DecodeException;
 import javax.websocket.DeploymentException;
 import javax.websocket.EncodeException;
 import javax.websocket.OnClose;
@@ -30,6 +32,9 @@ import com.codeshelf.metrics.IMetricsService;
 import com.codeshelf.metrics.MetricsGroup;
 import com.codeshelf.metrics.MetricsService;
 import com.codeshelf.util.ThreadUtils;
+import com.codeshelf.ws.io.BinaryJsonFrame;
+import com.codeshelf.ws.io.JsonBinaryDecoder;
+import com.codeshelf.ws.io.JsonBinaryEncoder;
 import com.codeshelf.ws.io.JsonDecoder;
 import com.codeshelf.ws.io.JsonEncoder;
 import com.codeshelf.ws.protocol.message.IMessageProcessor;
@@ -49,13 +54,16 @@ import com.codeshelf.ws.protocol.response.TapeLocationDecodingResponse;
 import com.codeshelf.ws.protocol.response.VerifyBadgeResponse;
 import com.google.inject.Inject;
 
-@ClientEndpoint(encoders = { JsonEncoder.class }, decoders = { JsonDecoder.class })
+@ClientEndpoint(subprotocols = { BinaryJsonFrame.BINARY_SUBPROTOCOL }, encoders = { JsonEncoder.class }, decoders = { JsonDecoder.class })
 public class CsClientEndpoint {
 
 	private static final Logger		LOGGER				= LoggerFactory.getLogger(CsClientEndpoint.class);
 
 	private static final int		DEFAULT_RECONNECT_DELAY_MS	= 30000;
 
+	private static final JsonBinaryEncoder	binaryEncoder	= new JsonBinaryEncoder();
+	private static final JsonBinaryDecoder	binaryDecoder	= new JsonBinaryDecoder();
+
 	private Counter					messageCounter		= null;
 	private Counter					sessionStartCounter	= null;
 	private Counter					sessionEndCounter	= null;
@@ -181,6 +189,18 @@ public class CsClientEndpoint {
 		}
 	}
 
+	@OnMessage(maxMessageSize = JsonEncoder.WEBSOCKET_MAX_MESSAGE_SIZE)
+	public void onBinaryMessage(Session session, ByteBuffer frame) throws IOException, EncodeException {
+		MessageABC message;
+		try {
+			message = binaryDecoder.decode(frame);
+		} catch (DecodeException e) {
+			// already logged by decoder
+			return;
+		}
+		onMessage(session, message);
+	}
+
 	@OnMessage(maxMessageSize = JsonEncoder.WEBSOCKET_MAX_MESSAGE_SIZE)
 	public void onMessage(Session session, MessageABC message) throws IOException, EncodeException {
 		try {
@@ -339,7 +359,11 @@ public class CsClientEndpoint {
 				}
 			}
 			requestTimes.put(message.getMessageId(), System.currentTimeMillis());
-			session.getBasicRemote().sendObject(message);
+			if (BinaryJsonFrame.isBinaryNegotiated(session)) {
+				session.getBasicRemote().sendBinary(binaryEncoder.encode(message));
+			} else {
+				session.getBasicRemote().sendObject(message);
+			}
 			this.messageSent();
 			return true;
 		} catch (Exception e) {
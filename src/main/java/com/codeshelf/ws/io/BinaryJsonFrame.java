@@ -0,0 +1,155 @@
+package com.codeshelf.ws.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.websocket.Session;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+import com.codeshelf.ws.protocol.message.MessageABC;
+
+/* binary frame layout:
+ *
+ * byte 0 = format (FORMAT_PLAIN or FORMAT_LZ4)
+ * FORMAT_PLAIN: byte 1-n = UTF-8 json
+ * FORMAT_LZ4:   byte 1-4 = uncompressed size (most significant byte first), byte 5-n = LZ4 block
+ *
+ * Binary frames are only used when both ends negotiated BINARY_SUBPROTOCOL during the handshake.
+ * Browser clients never ask for it, so they keep receiving plain text frames.
+ * */
+
+public final class BinaryJsonFrame {
+	public static final String							BINARY_SUBPROTOCOL		= "codeshelf-json-lz4";
+
+	public static final byte							FORMAT_PLAIN			= 0;
+	public static final byte							FORMAT_LZ4				= 1;
+
+	public static final int								PLAIN_HEADER_LENGTH		= 1;
+	public static final int								LZ4_HEADER_LENGTH		= 5;
+
+	// below this size the LZ4 block overhead and CPU are not worth it
+	public static final int								COMPRESS_THRESHOLD		= Integer.getInteger("websocket.compress.threshold", 4096);
+
+	// scratch buffers larger than this are dropped after use instead of being kept by the thread
+	private static final int							MAX_RETAINED_BUFFER		= 1024 * 1024;
+
+	private static final LZ4Factory						lz4Factory				= LZ4Factory.safeInstance();
+
+	private static final ThreadLocal<ScratchStream>		jsonScratch				= new ThreadLocal<ScratchStream>() {
+																					@Override
+																					protected ScratchStream initialValue() {
+																						return new ScratchStream(8192);
+																					}
+																				};
+
+	private static final ThreadLocal<byte[]>			lz4Scratch				= new ThreadLocal<byte[]>();
+
+	private BinaryJsonFrame() {
+	}
+
+	public static boolean isBinaryNegotiated(Session session) {
+		return session != null && BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+	}
+
+	/**
+	 * Serialize the message straight into a per-thread scratch buffer and return a frame sized exactly to the payload.
+	 * The returned buffer is owned by the caller and may be handed to an asynchronous send.
+	 */
+	public static ByteBuffer encode(MessageABC message) throws IOException {
+		ScratchStream json = jsonScratch.get();
+		json.reset();
+		json.write(FORMAT_PLAIN);
+		JsonCodec.writeMessage(message, json);
+
+		try {
+			int jsonLength = json.size() - PLAIN_HEADER_LENGTH;
+			if (jsonLength < COMPRESS_THRESHOLD) {
+				return ByteBuffer.wrap(json.toByteArray());
+			}
+
+			LZ4Compressor compressor = lz4Factory.fastCompressor();
+			int maxLength = compressor.maxCompressedLength(jsonLength) + LZ4_HEADER_LENGTH;
+			byte[] lz4 = lz4Scratch.get();
+			if (lz4 == null || lz4.length < maxLength) {
+				lz4 = new byte[maxLength];
+			}
+			lz4[0] = FORMAT_LZ4;
+			lz4[1] = (byte) (jsonLength >> 24);
+			lz4[2] = (byte) ((jsonLength >> 16) & 0xff);
+			lz4[3] = (byte) ((jsonLength >> 8) & 0xff);
+			lz4[4] = (byte) (jsonLength & 0xff);
+			int compressedLength = compressor.compress(json.getBuffer(),
+				PLAIN_HEADER_LENGTH,
+				jsonLength,
+				lz4,
+				LZ4_HEADER_LENGTH,
+				maxLength - LZ4_HEADER_LENGTH);
+
+			byte[] frame = new byte[compressedLength + LZ4_HEADER_LENGTH];
+			System.arraycopy(lz4, 0, frame, 0, frame.length);
+			if (lz4.length <= MAX_RETAINED_BUFFER) {
+				lz4Scratch.set(lz4);
+			} else {
+				lz4Scratch.remove();
+			}
+			return ByteBuffer.wrap(frame);
+		} finally {
+			if (json.getBuffer().length > MAX_RETAINED_BUFFER) {
+				jsonScratch.remove();
+			}
+		}
+	}
+
+	public static MessageABC decode(ByteBuffer frame) throws IOException {
+		byte[] bytes;
+		int offset;
+		int length = frame.remaining();
+		if (frame.hasArray()) {
+			bytes = frame.array();
+			offset = frame.arrayOffset() + frame.position();
+		} else {
+			bytes = new byte[length];
+			frame.duplicate().get(bytes);
+			offset = 0;
+		}
+		if (length < PLAIN_HEADER_LENGTH) {
+			throw new IOException("Empty binary frame");
+		}
+
+		byte format = bytes[offset];
+		if (format == FORMAT_PLAIN) {
+			return JsonCodec.readMessage(bytes, offset + PLAIN_HEADER_LENGTH, length - PLAIN_HEADER_LENGTH);
+		} else if (format == FORMAT_LZ4) {
+			if (length < LZ4_HEADER_LENGTH) {
+				throw new IOException("Truncated LZ4 frame header");
+			}
+			int uncompressedLength = ((bytes[offset + 1] & 0xff) << 24) + ((bytes[offset + 2] & 0xff) << 16)
+					+ ((bytes[offset + 3] & 0xff) << 8) + (bytes[offset + 4] & 0xff);
+			if ((uncompressedLength < 0) || (uncompressedLength > CompressedJsonMessage.JSON_COMPRESS_MAXIMUM)) {
+				throw new IOException("Invalid uncompressed length " + uncompressedLength);
+			}
+			byte[] json = new byte[uncompressedLength];
+			int inputRead = lz4Factory.fastDecompressor().decompress(bytes, offset + LZ4_HEADER_LENGTH, json, 0, uncompressedLength);
+			if (inputRead != length - LZ4_HEADER_LENGTH) {
+				throw new IOException("Input read length did not match, expected " + (length - LZ4_HEADER_LENGTH) + " got "
+						+ inputRead);
+			}
+			return JsonCodec.readMessage(json, 0, uncompressedLength);
+		} else {
+			throw new IOException("Unknown binary frame format " + format);
+		}
+	}
+
+	private static final class ScratchStream extends ByteArrayOutputStream {
+		ScratchStream(int size) {
+			super(size);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
+}
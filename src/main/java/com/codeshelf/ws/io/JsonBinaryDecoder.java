@@ -0,0 +1,41 @@
+package com.codeshelf.ws.io;
+
+import java.nio.ByteBuffer;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EndpointConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.ws.protocol.message.MessageABC;
+
+public class JsonBinaryDecoder implements Decoder.Binary<MessageABC> {
+
+	private static final Logger	LOGGER = LoggerFactory.getLogger(JsonBinaryDecoder.class);
+
+	@Override
+	public void destroy() {
+	}
+
+	@Override
+	public void init(EndpointConfig ec) {
+	}
+
+	@Override
+	public MessageABC decode(ByteBuffer frame) throws DecodeException {
+		try {
+			return BinaryJsonFrame.decode(frame);
+		}
+		catch (Exception e) {
+			LOGGER.error("Failed to decode {} byte binary frame", frame.remaining(), e);
+			throw new DecodeException(frame, "Failed to decode request", e);
+		}
+	}
+
+	@Override
+	public boolean willDecode(ByteBuffer frame) {
+		return frame.remaining() > 0;
+	}
+}
@@ -0,0 +1,38 @@
+package com.codeshelf.ws.io;
+
+import java.nio.ByteBuffer;
+
+import javax.websocket.EncodeException;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.ws.protocol.message.MessageABC;
+
+public class JsonBinaryEncoder implements Encoder.Binary<MessageABC> {
+
+	private static final Logger	LOGGER = LoggerFactory.getLogger(JsonBinaryEncoder.class);
+
+	@Override
+	public void init(EndpointConfig ec) {
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	@Override
+	public ByteBuffer encode(MessageABC message) throws EncodeException {
+		try {
+			ByteBuffer frame = BinaryJsonFrame.encode(message);
+			LOGGER.debug("Encoded {} into {} byte binary frame", message.getClass().getSimpleName(), frame.remaining());
+			return frame;
+		} 
+		catch (Exception e) {
+			LOGGER.error("Failed to encode response", e);
+			throw new EncodeException(message,"Failed to encode response",e);
+		} 
+	}
+}
@@ -0,0 +1,111 @@
+package com.codeshelf.ws.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.atteo.classindex.ClassIndex;
+
+import com.codahale.metrics.Timer;
+import com.codeshelf.metrics.MetricsGroup;
+import com.codeshelf.metrics.MetricsService;
+import com.codeshelf.model.domain.Point;
+import com.codeshelf.model.domain.Vertex;
+import com.codeshelf.ws.protocol.message.MessageABC;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Shared Jackson configuration for the websocket encoders and decoders.
+ *
+ * The mapper is configured once at class load. ObjectWriter and ObjectReader are immutable and thread-safe,
+ * so all endpoints share the same instances instead of bootstrapping a new ObjectMapper per message.
+ * Encode and decode times are recorded per message class in the WSS metrics group.
+ */
+public final class JsonCodec {
+
+	private static final ObjectMapper						MAPPER			= createMapper();
+	private static final ObjectWriter						WRITER			= MAPPER.writer();
+	private static final ObjectReader						READER			= MAPPER.reader(MessageABC.class);
+
+	private static final ConcurrentMap<Class<?>, Timer>	encodeTimers	= new ConcurrentHashMap<Class<?>, Timer>();
+	private static final ConcurrentMap<Class<?>, Timer>	decodeTimers	= new ConcurrentHashMap<Class<?>, Timer>();
+
+	private JsonCodec() {
+	}
+
+	private static ObjectMapper createMapper() {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
+		// register classes
+		Iterable<Class<? extends MessageABC>> messageClasses = ClassIndex.getSubclasses(MessageABC.class);
+		for (Class<? extends MessageABC> messageType : messageClasses) {
+			mapper.registerSubtypes(messageType);
+		}
+		mapper.registerSubtypes(Point.class);
+		mapper.registerSubtypes(Vertex.class);
+		return mapper;
+	}
+
+	public static ObjectWriter getWriter() {
+		return WRITER;
+	}
+
+	public static ObjectReader getReader() {
+		return READER;
+	}
+
+	public static String writeMessage(MessageABC message) throws IOException {
+		long start = System.nanoTime();
+		String json = WRITER.writeValueAsString(message);
+		recordTime(encodeTimers, "encode.", message.getClass(), start);
+		return json;
+	}
+
+	public static void writeMessage(MessageABC message, OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		WRITER.writeValue(out, message);
+		recordTime(encodeTimers, "encode.", message.getClass(), start);
+	}
+
+	public static MessageABC readMessage(String json) throws IOException {
+		long start = System.nanoTime();
+		MessageABC message = READER.readValue(json);
+		if (message != null) {
+			recordTime(decodeTimers, "decode.", message.getClass(), start);
+		}
+		return message;
+	}
+
+	public static MessageABC readMessage(byte[] utf8Json, int offset, int length) throws IOException {
+		long start = System.nanoTime();
+		MessageABC message = READER.readValue(utf8Json, offset, length);
+		if (message != null) {
+			recordTime(decodeTimers, "decode.", message.getClass(), start);
+		}
+		return message;
+	}
+
+	private static void recordTime(ConcurrentMap<Class<?>, Timer> timers, String prefix, Class<?> messageClass, long startNanos) {
+		Timer timer = timers.get(messageClass);
+		if (timer == null) {
+			if (!MetricsService.exists()) {
+				return;
+			}
+			timer = MetricsService.getInstance().createTimer(MetricsGroup.WSS, prefix + messageClass.getSimpleName());
+			if (timer == null) {
+				return;
+			}
+			Timer existing = timers.putIfAbsent(messageClass, timer);
+			if (existing != null) {
+				timer = existing;
+			}
+		}
+		timer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+}
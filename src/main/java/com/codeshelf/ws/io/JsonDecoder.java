@@ -4,15 +4,10 @@ import javax.websocket.DecodeException;
 import javax.websocket.Decoder;
 import javax.websocket.EndpointConfig;
 
-import org.atteo.classindex.ClassIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.codeshelf.model.domain.Point;
-import com.codeshelf.model.domain.Vertex;
 import com.codeshelf.ws.protocol.message.MessageABC;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class JsonDecoder implements Decoder.Text<MessageABC> {
 
@@ -34,19 +29,11 @@ public class JsonDecoder implements Decoder.Text<MessageABC> {
 		String decompressedMessage = new CompressedJsonMessage(rawMessage,true).getUncompressed();
 
 		try {
-			LOGGER.debug("Decoding message: "+decompressedMessage);
-			ObjectMapper mapper = new ObjectMapper(); // TODO: should reuse and share globally per jackson documentation -ic
-			mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-
-			// register classes
-			Iterable<Class<? extends MessageABC>> requestClasses = ClassIndex.getSubclasses(MessageABC.class);
-			for (Class<? extends MessageABC> requestType : requestClasses) {
-				mapper.registerSubtypes(requestType);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Decoding message: "+decompressedMessage);
 			}
-			mapper.registerSubtypes(Point.class);
-			mapper.registerSubtypes(Vertex.class);
-			// decode message
-			MessageABC message = mapper.readValue(decompressedMessage, MessageABC.class);
+			// decode message with the shared, pre-configured reader
+			MessageABC message = JsonCodec.readMessage(decompressedMessage);
 			return message;
 		}
 		catch (Exception e) {
@@ -8,8 +8,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codeshelf.ws.protocol.message.MessageABC;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class JsonEncoder implements Encoder.Text<MessageABC> {
 	final public static int WEBSOCKET_MAX_MESSAGE_SIZE = Integer.MAX_VALUE; /// tested as long type with extremely large value (50,000,000,000) , did not cause out-of-memory
@@ -28,12 +26,11 @@ public class JsonEncoder implements Encoder.Text<MessageABC> {
 	@Override
 	public String encode(MessageABC message) throws EncodeException {
 		try {
-			String jsonString = null;
-			ObjectMapper mapper = new ObjectMapper(); // TODO: should reuse and share globally per jackson documentation -ic
-			mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-			jsonString = mapper.writeValueAsString(message);
+			String jsonString = JsonCodec.writeMessage(message);
 			
-			LOGGER.debug("Encoding message: "+jsonString);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Encoding message: "+jsonString);
+			}
 			
 			if(jsonString.length() >= JSON_COMPRESS_THRESHOLD ) {
 				// Note: When triggered, compression will momentarily use ~3x the size of the message in RAM, 
@@ -11,6 +11,7 @@ import com.codeshelf.model.dao.ITypedDao;
 import com.codeshelf.model.domain.IDomainObject;
 import com.codeshelf.model.domain.Organization;
 import com.codeshelf.persistence.TenantPersistenceService;
+import com.codeshelf.util.PropertyAccessorCache;
 import com.codeshelf.ws.protocol.request.ObjectGetRequest;
 import com.codeshelf.ws.protocol.response.ObjectGetResponse;
 import com.codeshelf.ws.protocol.response.ResponseABC;
@@ -59,21 +60,19 @@ public class ObjectGetCommand extends CommandABC<ObjectGetRequest> {
 		return response;
 	}
 
-	private ResponseABC doGetCommand(Object parentObject, String getterMethodName) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+	private ResponseABC doGetCommand(Object parentObject, String getterMethodName) throws InvocationTargetException {
 		ObjectGetResponse response = new ObjectGetResponse();
 		// Execute the "get" method against the parent to return the children.
 		// (The method *must* start with "get" to ensure other methods don't get called.)
 		if (getterMethodName.startsWith("get")) {
-			Object results = null;
-			try {
-				java.lang.reflect.Method method = parentObject.getClass().getMethod(getterMethodName, (Class<?>[]) null);
-				results = method.invoke(parentObject, (Object[]) null);
+			PropertyAccessorCache.Accessor getter = PropertyAccessorCache.methodAccessor(parentObject.getClass(), getterMethodName);
+			if (getter != null) {
+				Object results = getter.get(parentObject);
 				response.setResults(results);
 				response.setStatus(ResponseStatus.Success);
 				return response;
-			} catch (NoSuchMethodException e) {
-				LOGGER.error("Method not found", e);
 			}
+			LOGGER.error("Method not found: {} on {}", getterMethodName, parentObject.getClass().getSimpleName());
 			response.setStatus(ResponseStatus.Fail);
 			response.setStatusMessage("Method not found");
 			return response;
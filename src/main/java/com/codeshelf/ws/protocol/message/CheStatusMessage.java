@@ -7,6 +7,7 @@ import lombok.Getter;
 
 import com.codeshelf.model.domain.Che;
 import com.codeshelf.model.domain.ContainerUse;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
  * 	This is only about the cart setup (orders/containers vs. position). It is not a general purpose CHE updater.
@@ -17,7 +18,7 @@ import com.codeshelf.model.domain.ContainerUse;
  * 	- Change the CHE process mode
  * 
  */
-public class CheStatusMessage extends DeviceMessageABC {
+public class CheStatusMessage extends DeviceMessageABC implements ICoalescableMessage {
 
 	@Getter
 	HashMap<String, Integer>	containerPositions;
@@ -36,4 +37,10 @@ public class CheStatusMessage extends DeviceMessageABC {
 			}
 		}
 	}
+
+	@Override
+	@JsonIgnore
+	public String getCoalescingKey() {
+		return "CheStatus-" + getNetGuidStr();
+	}
 }
@@ -0,0 +1,9 @@
+package com.codeshelf.ws.protocol.message;
+
+/**
+ * A message whose content fully supersedes any earlier, still unsent message with the same key.
+ * Outbound queues may replace the queued message instead of sending both.
+ */
+public interface ICoalescableMessage {
+	String getCoalescingKey();
+}
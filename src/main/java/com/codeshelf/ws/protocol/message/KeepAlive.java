@@ -1,10 +1,18 @@
 package com.codeshelf.ws.protocol.message;
 
-public class KeepAlive extends MessageABC {
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+public class KeepAlive extends MessageABC implements ICoalescableMessage {
 
 	@Override
 	public String getDeviceIdentifier() {
 		return null;
 	}
 
+	@Override
+	@JsonIgnore
+	public String getCoalescingKey() {
+		return "KeepAlive";
+	}
+
 }
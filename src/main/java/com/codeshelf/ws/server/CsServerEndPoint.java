@@ -1,5 +1,6 @@
 package com.codeshelf.ws.server;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -10,6 +11,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
@@ -28,6 +30,8 @@ import com.codeshelf.metrics.MetricsService;
 import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.security.CodeshelfSecurityManager;
 import com.codeshelf.security.UserContext;
+import com.codeshelf.ws.io.BinaryJsonFrame;
+import com.codeshelf.ws.io.JsonBinaryDecoder;
 import com.codeshelf.ws.io.JsonDecoder;
 import com.codeshelf.ws.io.JsonEncoder;
 import com.codeshelf.ws.protocol.message.IMessageProcessor;
@@ -41,7 +45,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import lombok.Getter;
 
-@ServerEndpoint(value = "/", encoders = { JsonEncoder.class }, decoders = { JsonDecoder.class }, configurator = WebSocketConfigurator.class)
+@ServerEndpoint(value = "/", subprotocols = { BinaryJsonFrame.BINARY_SUBPROTOCOL }, encoders = { JsonEncoder.class }, decoders = { JsonDecoder.class }, configurator = WebSocketConfigurator.class)
 public class CsServerEndPoint {
 
 	public class AuthenticationException extends Exception {
@@ -57,6 +61,8 @@ public class CsServerEndPoint {
 
 	private static Counter					messageCounter;
 
+	private static final JsonBinaryDecoder	binaryDecoder	= new JsonBinaryDecoder();
+
 	//These are singletons injected at startup.
 	//  This allows us to avoid trying to hook Guice into the object creation  process of javax.websocket/Jetty
 	//     but allow Guice to control object creation for these singletons
@@ -96,6 +102,18 @@ public class CsServerEndPoint {
 		webSocketManagerService.sessionStarted(session); // this will create WebSocketConnection for session
 	}
 
+	@OnMessage(maxMessageSize = JsonEncoder.WEBSOCKET_MAX_MESSAGE_SIZE)
+	public void onBinaryMessage(Session session, ByteBuffer frame) {
+		MessageABC message;
+		try {
+			message = binaryDecoder.decode(frame);
+		} catch (DecodeException e) {
+			// already logged by decoder
+			return;
+		}
+		onMessage(session, message);
+	}
+
 	@OnMessage(maxMessageSize = JsonEncoder.WEBSOCKET_MAX_MESSAGE_SIZE)
 	public void onMessage(Session session, final MessageABC message) {
 		messageCounter.inc();
@@ -0,0 +1,234 @@
+package com.codeshelf.ws.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.codeshelf.ws.io.BinaryJsonFrame;
+import com.codeshelf.ws.protocol.message.ICoalescableMessage;
+import com.codeshelf.ws.protocol.message.MessageABC;
+
+/**
+ * Bounded, non-blocking send pipeline for one websocket connection.
+ *
+ * Callers enqueue and return immediately. At most one message is in flight on the session's async remote;
+ * the completion handler starts the next one, or hands it back to the sending loop if it completed within the send. A queued message that implements ICoalescableMessage is replaced
+ * in place by a newer message with the same key. When a consumer falls behind by more than maxDepth messages,
+ * the overflow policy either drops the oldest queued message or disconnects the consumer.
+ */
+public class OutboundMessageQueue {
+	public enum OverflowPolicy {
+		DROP_OLDEST,
+		DISCONNECT
+	};
+
+	private static final Logger			LOGGER	= LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+	private final WebSocketConnection	connection;
+	private final Session				session;
+
+	@Getter
+	private final int					maxDepth;
+
+	@Getter
+	private final OverflowPolicy		overflowPolicy;
+
+	private final Deque<QueuedMessage>	pending	= new ArrayDeque<QueuedMessage>();
+	private boolean						inFlight	= false;
+	private boolean						closed		= false;
+
+	@Setter
+	private Timer						sendLatencyTimer;
+	@Setter
+	private Histogram					queueDepthHistogram;
+	@Setter
+	private Counter						droppedCounter;
+	@Setter
+	private Counter						coalescedCounter;
+
+	private static class QueuedMessage {
+		MessageABC	message;
+		long		enqueuedNanos;
+
+		QueuedMessage(MessageABC message) {
+			this.message = message;
+			this.enqueuedNanos = System.nanoTime();
+		}
+	}
+
+	public OutboundMessageQueue(WebSocketConnection connection, Session session, int maxDepth, OverflowPolicy overflowPolicy) {
+		this.connection = connection;
+		this.session = session;
+		this.maxDepth = maxDepth;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @return false if the message was rejected because the queue is closed or overflowed under the DISCONNECT policy
+	 */
+	public boolean enqueue(MessageABC message) {
+		QueuedMessage toSend = null;
+		boolean overflow = false;
+		synchronized (this) {
+			if (closed) {
+				return false;
+			}
+			if (!coalesce(message)) {
+				if (pending.size() >= maxDepth) {
+					if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+						overflow = true;
+					} else {
+						QueuedMessage dropped = pending.pollFirst();
+						LOGGER.warn("Outbound queue full on session {}, dropped {}",
+							connection.getSessionId(),
+							dropped.message.getClass().getSimpleName());
+						if (droppedCounter != null) {
+							droppedCounter.inc();
+						}
+					}
+				}
+				if (!overflow) {
+					pending.addLast(new QueuedMessage(message));
+				}
+			}
+			if (queueDepthHistogram != null) {
+				queueDepthHistogram.update(pending.size());
+			}
+			if (!overflow && !inFlight) {
+				toSend = pending.pollFirst();
+				inFlight = (toSend != null);
+			}
+		}
+
+		if (overflow) {
+			LOGGER.warn("Outbound queue on session {} exceeded {} messages, disconnecting slow consumer",
+				connection.getSessionId(),
+				maxDepth);
+			close();
+			connection.disconnect(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Outbound queue overflow"));
+			return false;
+		}
+		if (toSend != null) {
+			drain(toSend);
+		}
+		return true;
+	}
+
+	public synchronized int getDepth() {
+		return pending.size() + (inFlight ? 1 : 0);
+	}
+
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			pending.clear();
+		}
+	}
+
+	// must hold lock
+	private boolean coalesce(MessageABC message) {
+		if (!(message instanceof ICoalescableMessage)) {
+			return false;
+		}
+		String key = ((ICoalescableMessage) message).getCoalescingKey();
+		if (key == null) {
+			return false;
+		}
+		Iterator<QueuedMessage> iterator = pending.iterator();
+		while (iterator.hasNext()) {
+			QueuedMessage queued = iterator.next();
+			if (queued.message instanceof ICoalescableMessage
+					&& key.equals(((ICoalescableMessage) queued.message).getCoalescingKey())) {
+				// newer content replaces the queued message but keeps its place in line and its age
+				queued.message = message;
+				if (coalescedCounter != null) {
+					coalescedCounter.inc();
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Send messages until one is still in flight when its send returns. Its completion handler then carries on.
+	 * A handler that completes inside the send call only hands back to this loop, so a backlog of sends that complete
+	 * immediately does not grow the stack.
+	 */
+	private void drain(QueuedMessage first) {
+		QueuedMessage queued = first;
+		while (queued != null) {
+			if (!send(queued)) {
+				return;
+			}
+			queued = pollNext();
+		}
+	}
+
+	/**
+	 * @return true if the send already completed, and the caller goes on with the next message
+	 */
+	private boolean send(final QueuedMessage queued) {
+		// taken by whichever of the send call and the completion handler is done second, which then goes on
+		final AtomicBoolean handOff = new AtomicBoolean(false);
+		SendHandler handler = new SendHandler() {
+			@Override
+			public void onResult(SendResult result) {
+				if (!result.isOK()) {
+					LOGGER.warn("Failed to send {} message on session {}",
+						queued.message.getClass().getSimpleName(),
+						connection.getSessionId(),
+						result.getException());
+				} else {
+					connection.messageSent();
+				}
+				if (sendLatencyTimer != null) {
+					sendLatencyTimer.update(System.nanoTime() - queued.enqueuedNanos, TimeUnit.NANOSECONDS);
+				}
+				if (!handOff.compareAndSet(false, true)) {
+					drain(pollNext());
+				}
+			}
+		};
+
+		try {
+			Async remote = session.getAsyncRemote();
+			if (BinaryJsonFrame.isBinaryNegotiated(session)) {
+				remote.sendBinary(BinaryJsonFrame.encode(queued.message), handler);
+			} else {
+				remote.sendObject(queued.message, handler);
+			}
+		} catch (Exception e) {
+			LOGGER.error("Unexpected exception encoding/sending {} message", queued.message.getClass().getSimpleName(), e);
+			return true;
+		}
+		return !handOff.compareAndSet(false, true);
+	}
+
+	private QueuedMessage pollNext() {
+		QueuedMessage next;
+		synchronized (this) {
+			next = closed ? null : pending.pollFirst();
+			inFlight = (next != null);
+		}
+		return next;
+	}
+}
@@ -29,6 +29,7 @@ import com.codeshelf.manager.Tenant;
 import com.codeshelf.metrics.MetricsGroup;
 import com.codeshelf.metrics.MetricsService;
 import com.codeshelf.model.dao.IDaoListener;
+import com.codeshelf.model.dao.ObjectChangeBatch;
 import com.codeshelf.model.dao.ObjectChangeBroadcaster;
 import com.codeshelf.model.domain.Che;
 import com.codeshelf.model.domain.CodeshelfNetwork;
@@ -38,6 +39,8 @@ import com.codeshelf.model.domain.SiteController;
 import com.codeshelf.persistence.TenantPersistenceService;
 import com.codeshelf.security.CodeshelfSecurityManager;
 import com.codeshelf.security.UserContext;
+import com.codeshelf.ws.io.BinaryJsonFrame;
+import com.codeshelf.ws.io.JsonBinaryEncoder;
 import com.codeshelf.ws.protocol.message.CheStatusMessage;
 import com.codeshelf.ws.protocol.message.MessageABC;
 import com.google.common.util.concurrent.Service;
@@ -117,6 +120,9 @@ public class WebSocketConnection implements IDaoListener {
 
 	private Timer										pingTimer						= null;
 
+	// null when sending synchronously on the basic remote
+	private volatile OutboundMessageQueue				outboundQueue					= null;
+
 	private ConcurrentMap<String, ObjectEventListener>	eventListeners					= new ConcurrentHashMap<String, ObjectEventListener>();
 
 	private ExecutorService								executorService;
@@ -128,6 +134,8 @@ public class WebSocketConnection implements IDaoListener {
 
 	private static final int							NUM_FUTURES_CLEANUP_THRESHOLD	= 5;
 
+	private static final JsonBinaryEncoder				binaryEncoder					= new JsonBinaryEncoder();
+
 	public WebSocketConnection(Session session, ExecutorService sharedExecutor, WorkBehavior workService) {
 		this.wsSession = session;
 		this.workService = workService;
@@ -140,11 +148,33 @@ public class WebSocketConnection implements IDaoListener {
 		return this.currentTenant.getTenantIdentifier();
 	}
 
+	public void enableAsyncSend(int maxQueueDepth, OutboundMessageQueue.OverflowPolicy overflowPolicy) {
+		if (this.wsSession != null) {
+			this.outboundQueue = new OutboundMessageQueue(this, this.wsSession, maxQueueDepth, overflowPolicy);
+			this.outboundQueue.setDroppedCounter(MetricsService.getInstance().createCounter(MetricsGroup.WSS, "messages.send-dropped"));
+			this.outboundQueue.setCoalescedCounter(MetricsService.getInstance().createCounter(MetricsGroup.WSS, "messages.send-coalesced"));
+		}
+	}
+
+	public int getOutboundQueueDepth() {
+		OutboundMessageQueue queue = this.outboundQueue;
+		return (queue == null) ? 0 : queue.getDepth();
+	}
+
 	public boolean sendMessage(final MessageABC message) {
+		OutboundMessageQueue queue = this.outboundQueue;
+		if (queue != null) {
+			// non-blocking: the queue sends on the async remote and updates lastMessageSent on completion
+			return queue.enqueue(message);
+		}
 		boolean sent = false;
 		try {
 			if (this.wsSession != null) {
-				this.wsSession.getBasicRemote().sendObject(message);
+				if (BinaryJsonFrame.isBinaryNegotiated(this.wsSession)) {
+					this.wsSession.getBasicRemote().sendBinary(binaryEncoder.encode(message));
+				} else {
+					this.wsSession.getBasicRemote().sendObject(message);
+				}
 				this.messageSent();
 				sent = true;
 			}
@@ -332,6 +362,57 @@ public class WebSocketConnection implements IDaoListener {
 		}
 	}
 
+	/**
+	 * One task and one transaction for all changes to a class from one committed transaction,
+	 * instead of one per changed object.
+	 */
+	@Override
+	public void objectsChanged(final ObjectChangeBatch batch) {
+		if (executorService.isShutdown()) {
+			LOGGER.warn("objectsChanged called after executorService shutdown: {} {}", batch, this.getSessionId());
+			return;
+		}
+		this.cleanupFuturesList();
+		Tenant tenant = CodeshelfSecurityManager.getCurrentTenant();
+		if (tenant == null) {
+			LOGGER.error("null tenant context trying to notify on changed objects {}", batch);
+		} else if (!tenant.equals(this.currentTenant)) {
+			LOGGER.error("inconsistent tenant context {} (expected {}) trying to notify on changed objects {}",
+				tenant,
+				this.currentTenant,
+				batch);
+		} else {
+			Future<?> future = this.executorService.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					CodeshelfSecurityManager.removeContextIfPresent();
+					CodeshelfSecurityManager.setContext(CodeshelfSecurityManager.getUserContextSYSTEM(), currentTenant);
+					try {
+						TenantPersistenceService.getInstance().beginTransaction();
+						List<MessageABC> responses = new ArrayList<MessageABC>();
+						synchronized (eventListeners) {
+							Collection<ObjectEventListener> listeners = eventListeners.values();
+							for (ObjectEventListener listener : listeners) {
+								responses.addAll(listener.processObjectsChanged(batch));
+							}
+						}
+						for (MessageABC response : responses) {
+							sendMessage(response);
+						}
+						TenantPersistenceService.getInstance().commitTransaction();
+					} catch (Exception e) {
+						TenantPersistenceService.getInstance().rollbackTransaction();
+						LOGGER.error("Unable to handle object change batch", e);
+					} finally {
+						CodeshelfSecurityManager.removeContext();
+					}
+				}
+			});
+			this.pendingFutures.add(future);
+		}
+	}
+
 	public void registerObjectEventListener(ObjectEventListener listener) {
 		if (executorService.isShutdown()) {
 			LOGGER.warn("registerObjectEventListener called after executorService shutdown");
@@ -374,6 +455,9 @@ public class WebSocketConnection implements IDaoListener {
 		// wait for all listener threads to stop
 		this.eventListeners.clear();
 		this.cancelFutures();
+		if (this.outboundQueue != null) {
+			this.outboundQueue.close();
+		}
 		this.lastState = State.CLOSED;
 		this.currentUserContext = null;
 		this.currentTenant = null;
@@ -430,6 +514,12 @@ public class WebSocketConnection implements IDaoListener {
 		if (user.isSiteController()) {
 			pingTimer = MetricsService.getInstance().createTimer(MetricsGroup.WSS, "ping-" + user.getUsername());
 		}
+		if (this.outboundQueue != null) {
+			this.outboundQueue.setSendLatencyTimer(MetricsService.getInstance().createTimer(MetricsGroup.WSS,
+				"send-latency-" + user.getUsername()));
+			this.outboundQueue.setQueueDepthHistogram(MetricsService.getInstance().createHistogram(MetricsGroup.WSS,
+				"send-queue-depth-" + user.getUsername()));
+		}
 		// set target time for initial che update
 		this.nextCheRefresh = System.currentTimeMillis() + initialUpdateDelay;
 		this.nextPutWallRefresh = System.currentTimeMillis() + initialUpdateDelay;
@@ -78,6 +78,18 @@ public class WebSocketManagerService extends AbstractCodeshelfScheduledService {
 	@Setter
 	int													pingInterval			= 60 * 1000;
 
+	@Getter
+	@Setter
+	boolean												asyncSend				= false;
+
+	@Getter
+	@Setter
+	int													sendQueueLimit			= 1000;
+
+	@Getter
+	@Setter
+	OutboundMessageQueue.OverflowPolicy					sendOverflowPolicy		= OutboundMessageQueue.OverflowPolicy.DISCONNECT;
+
 	private ConcurrentMap<String, WebSocketConnection>	activeConnections;
 	private ExecutorService								sharedExecutor;
 
@@ -126,6 +138,9 @@ public class WebSocketManagerService extends AbstractCodeshelfScheduledService {
 		if (wsConnection == null) {
 			wsConnection = new WebSocketConnection(session, sharedExecutor, this.workService);
 			wsConnection.setSessionId(sessionId); // apparently just used for logging in context of connection	
+			if (asyncSend) {
+				wsConnection.enableAsyncSend(sendQueueLimit, sendOverflowPolicy);
+			}
 			activeConnections.put(sessionId, wsConnection);
 			LOGGER.info("Session " + session.getId() + " started");
 			updateCounters();
@@ -362,6 +377,16 @@ public class WebSocketManagerService extends AbstractCodeshelfScheduledService {
 
 		suppressKeepAlive = Boolean.getBoolean("websocket.idle.suppresskeepalive");
 		killIdle = Boolean.getBoolean("websocket.idle.kill");
+		asyncSend = Boolean.getBoolean("websocket.send.async");
+		sendQueueLimit = Integer.getInteger("websocket.send.queuelimit", sendQueueLimit);
+		String overflowPolicy = System.getProperty("websocket.send.overflow");
+		if (overflowPolicy != null) {
+			try {
+				sendOverflowPolicy = OutboundMessageQueue.OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				LOGGER.error("Unknown websocket.send.overflow policy {}, using {}", overflowPolicy, sendOverflowPolicy);
+			}
+		}
 	}
 
 	@Override
@@ -0,0 +1,65 @@
+package com.codeshelf.api.pickscript;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.testframework.MinimalTest;
+import com.codeshelf.ws.protocol.message.ScriptMessage;
+
+public class ScriptSiteCallPoolTest extends MinimalTest {
+
+	@Test
+	public void responseBeforeWaitIsKept() throws InterruptedException {
+		UUID id = UUID.randomUUID();
+		ScriptMessage response = new ScriptMessage(id, Collections.<String> emptyList());
+		ScriptSiteCallPool.expectSiteResponse(id);
+		ScriptSiteCallPool.registerSiteResponse(response);
+		Assert.assertSame(response, ScriptSiteCallPool.waitForSiteResponse(id, 1));
+	}
+
+	@Test
+	public void waitEndsWhenResponseArrives() throws InterruptedException {
+		final UUID id = UUID.randomUUID();
+		final ScriptMessage response = new ScriptMessage(id, Collections.<String> emptyList());
+		ScriptSiteCallPool.expectSiteResponse(id);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				ScriptSiteCallPool.registerSiteResponse(response);
+			}
+		}).start();
+
+		long start = System.currentTimeMillis();
+		Assert.assertSame(response, ScriptSiteCallPool.waitForSiteResponse(id, 1));
+		// used to be checked every two seconds
+		Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+	}
+
+	@Test
+	public void unexpectedResponseIsDropped() throws InterruptedException {
+		UUID id = UUID.randomUUID();
+		ScriptSiteCallPool.registerSiteResponse(new ScriptMessage(id, Collections.<String> emptyList()));
+		ScriptSiteCallPool.expectSiteResponse(id);
+		ScriptSiteCallPool.registerSiteResponse(new ScriptMessage(id, Collections.<String> singletonList("second")));
+		Assert.assertEquals(Collections.singletonList("second"), ScriptSiteCallPool.waitForSiteResponse(id, 1).getLines());
+	}
+
+	@Test
+	public void cancelledCallDropsLateResponse() throws InterruptedException {
+		UUID id = UUID.randomUUID();
+		ScriptSiteCallPool.expectSiteResponse(id);
+		ScriptSiteCallPool.cancel(id);
+		// arrives after the call failed to send, and is not kept for a later call with the id
+		ScriptSiteCallPool.registerSiteResponse(new ScriptMessage(id, Collections.<String> emptyList()));
+		ScriptSiteCallPool.expectSiteResponse(id);
+		ScriptSiteCallPool.registerSiteResponse(new ScriptMessage(id, Collections.<String> singletonList("second")));
+		Assert.assertEquals(Collections.singletonList("second"), ScriptSiteCallPool.waitForSiteResponse(id, 1).getLines());
+	}
+}
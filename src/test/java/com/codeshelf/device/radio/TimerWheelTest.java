@@ -0,0 +1,58 @@
+package com.codeshelf.device.radio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.testframework.MinimalTest;
+
+public class TimerWheelTest extends MinimalTest {
+
+	@Test
+	public final void expiresInDeadlineOrder() {
+		TimerWheel<String> wheel = new TimerWheel<String>(8, 100);
+		TimerWheel.Timeout<String> che1 = new TimerWheel.Timeout<String>("CHE1");
+		TimerWheel.Timeout<String> che2 = new TimerWheel.Timeout<String>("CHE2");
+		TimerWheel.Timeout<String> poscon = new TimerWheel.Timeout<String>("POSCON");
+		wheel.schedule(che1, 105);
+		wheel.schedule(poscon, 130); // beyond one turn of the wheel
+		wheel.schedule(che2, 113);
+		Assert.assertEquals(105, wheel.nextDeadline());
+
+		List<String> expired = new ArrayList<String>();
+		Assert.assertEquals(0, wheel.expire(104, expired));
+		Assert.assertEquals(1, wheel.expire(105, expired));
+		Assert.assertEquals(113, wheel.nextDeadline());
+		Assert.assertEquals(1, wheel.expire(125, expired));
+		Assert.assertEquals(1, wheel.expire(130, expired));
+		Assert.assertEquals("[CHE1, CHE2, POSCON]", expired.toString());
+		Assert.assertEquals(0, wheel.size());
+		Assert.assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+	}
+
+	@Test
+	public final void cancelAndReschedule() {
+		TimerWheel<String> wheel = new TimerWheel<String>(16, 0);
+		TimerWheel.Timeout<String> resend = new TimerWheel.Timeout<String>("CHE1");
+		TimerWheel.Timeout<String> other = new TimerWheel.Timeout<String>("CHE2");
+		wheel.schedule(resend, 100);
+		wheel.schedule(other, 100);
+		Assert.assertTrue(wheel.cancel(resend));
+		Assert.assertFalse(wheel.cancel(resend));
+		Assert.assertFalse(resend.isScheduled());
+		Assert.assertEquals(1, wheel.size());
+
+		// moving an entry earlier, and a deadline already gone by
+		wheel.schedule(other, 10);
+		wheel.schedule(resend, -5);
+		Assert.assertEquals(0, wheel.nextDeadline());
+		List<String> expired = new ArrayList<String>();
+		wheel.expire(0, expired);
+		Assert.assertEquals("[CHE1]", expired.toString());
+		wheel.expire(5000, expired);
+		Assert.assertEquals("[CHE1, CHE2]", expired.toString());
+		Assert.assertEquals(0, wheel.size());
+	}
+}
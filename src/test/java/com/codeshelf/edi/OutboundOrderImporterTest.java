@@ -8,6 +8,7 @@ package com.codeshelf.edi;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -158,6 +159,115 @@ public class OutboundOrderImporterTest extends ServerTest {
 		commitTransaction();
 	}
 
+	/**
+	 * Lines of order 123 are split by other orders, and every order fills a batch of its own.
+	 * The out of sequence lines must still end up on their order, with none of its earlier lines deactivated.
+	 */
+	@Test
+	public final void testOrderLinesOutOfSequenceAcrossBatches() throws IOException {
+		beginTransaction();
+		Facility facility = Facility.staticGetDao().findByPersistentId(this.facilityId);
+
+		String csvString = "orderGroupId,shipmentId,customerId,preAssignedContainerId,orderId,itemId,description,quantity,uom,orderDate,dueDate,workSequence"
+				+ "\r\n1,USF314,COSTCO,123,123,10700589,Stuffed Olives,1,each,2012-09-26 11:31:01,2012-09-26 11:31:03,0"
+				+ "\r\n1,USF314,COSTCO,123,123,10706952,Basil Pesto,1,each,2012-09-26 11:31:01,2012-09-26 11:31:03,0"
+				+ "\r\n1,USF314,COSTCO,456,456,10711111,Stuffed Olives,1,each,2012-09-26 11:31:01,2012-09-26 11:31:02,0"
+				+ "\r\n1,USF314,COSTCO,456,456,10722222,Basil Pesto,1,each,2012-09-26 11:31:01,2012-09-26 11:31:02,0"
+				+ "\r\n1,USF314,COSTCO,789,789,10100250,Red Bell Peppers,1,each,2012-09-26 11:31:01,2012-09-26 11:31:02,0"
+				+ "\r\n1,USF314,COSTCO,789,789,10706961,Tomato Pesto,1,each,2012-09-26 11:31:01,2012-09-26 11:31:02,0"
+				+ "\r\n1,USF314,COSTCO,123,123,10706962,Authentic Pizza Sauces,1,each,2012-09-26 11:31:01,2012-09-26 11:31:03,0";
+		OutboundOrderPrefetchCsvImporter importer = (OutboundOrderPrefetchCsvImporter) createOrderImporter();
+		importer.setMaxOrderLines(1);
+		BatchResult<Object> result = importer.importOrdersFromCsvStream(new StringReader(csvString), facility, new Timestamp(System.currentTimeMillis()));
+		commitTransaction();
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(3, result.getOrdersProcessed());
+		Assert.assertEquals(7, result.getLinesProcessed());
+
+		beginTransaction();
+		facility = facility.reload();
+		OrderHeader order = OrderHeader.staticGetDao().findByDomainId(facility, "123");
+		Assert.assertNotNull(order);
+		Assert.assertEquals(3, order.getOrderDetails().size());
+		for (OrderDetail detail : order.getOrderDetails()) {
+			Assert.assertTrue(detail.getActive());
+		}
+		Assert.assertEquals(2, OrderHeader.staticGetDao().findByDomainId(facility, "456").getOrderDetails().size());
+		commitTransaction();
+	}
+
+	/**
+	 * Every order is its own batch and all of them name the same new item and uom, imported by several workers at once.
+	 * The shared masters must be made once, ahead of the workers.
+	 */
+	@Test
+	public final void testParallelBatchesShareNewMasters() throws IOException {
+		beginTransaction();
+		Facility facility = Facility.staticGetDao().findByPersistentId(this.facilityId);
+
+		StringBuilder csv = new StringBuilder("orderId,itemId,description,quantity,uom");
+		for (int order = 1; order <= 12; order++) {
+			csv.append("\r\nORD" + order + ",SHARED-SKU,Shared Item,1,box");
+			csv.append("\r\nORD" + order + ",SKU" + order + ",Own Item,1,box");
+		}
+		OutboundOrderPrefetchCsvImporter importer = (OutboundOrderPrefetchCsvImporter) createOrderImporter();
+		importer.setMaxOrderLines(1);
+		importer.setNumWorkerThreads(3);
+		BatchResult<Object> result = importer.importOrdersFromCsvStream(new StringReader(csv.toString()), facility, new Timestamp(System.currentTimeMillis()));
+		commitTransaction();
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(12, result.getOrdersProcessed());
+
+		beginTransaction();
+		facility = facility.reload();
+		Assert.assertNotNull(ItemMaster.staticGetDao().findByDomainId(facility, "SHARED-SKU"));
+		Assert.assertNotNull(facility.getUomMaster("box"));
+		for (int order = 1; order <= 12; order++) {
+			OrderHeader header = OrderHeader.staticGetDao().findByDomainId(facility, "ORD" + order);
+			Assert.assertNotNull(header);
+			Assert.assertEquals(2, header.getOrderDetails().size());
+		}
+		commitTransaction();
+	}
+
+	/**
+	 * Every order is its own batch and all of them name the same new item with a gtin. Those masters are left to the workers,
+	 * so parallel batches race to create them. The batches that lose must retry rather than drop their orders.
+	 */
+	@Test
+	public final void testParallelBatchesShareNewGtinItem() throws IOException {
+		beginTransaction();
+		Facility facility = Facility.staticGetDao().findByPersistentId(this.facilityId);
+
+		StringBuilder csv = new StringBuilder("orderId,itemId,description,quantity,uom,gtin");
+		for (int order = 1; order <= 12; order++) {
+			csv.append("\r\nORD" + order + ",GTIN-SKU,Shared Item,1,each,GTIN-SHARED");
+		}
+		OutboundOrderPrefetchCsvImporter importer = (OutboundOrderPrefetchCsvImporter) createOrderImporter();
+		importer.setMaxOrderLines(0);
+		importer.setNumWorkerThreads(3);
+		BatchResult<Object> result = importer.importOrdersFromCsvStream(new StringReader(csv.toString()), facility, new Timestamp(System.currentTimeMillis()));
+		commitTransaction();
+
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(12, result.getOrdersProcessed());
+
+		beginTransaction();
+		facility = facility.reload();
+		ItemMaster itemMaster = ItemMaster.staticGetDao().findByDomainId(facility, "GTIN-SKU");
+		Assert.assertNotNull(itemMaster);
+		Assert.assertEquals(1, itemMaster.getGtins().size());
+		Assert.assertEquals("GTIN-SHARED", itemMaster.getGtinForUom(facility.getUomMaster("each")).getDomainId());
+		for (int order = 1; order <= 12; order++) {
+			OrderHeader header = OrderHeader.staticGetDao().findByDomainId(facility, "ORD" + order);
+			Assert.assertNotNull(header);
+			Assert.assertEquals(1, header.getOrderDetails().size());
+		}
+		commitTransaction();
+	}
+
 	@Test
 	public final void testOrderImporterWithLocationsFromCsvStream() throws IOException {
 		beginTransaction();
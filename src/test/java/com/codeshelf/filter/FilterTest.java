@@ -0,0 +1,115 @@
+package com.codeshelf.filter;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codeshelf.model.dao.ITypedDao;
+import com.codeshelf.model.dao.ObjectChangeBatch;
+import com.codeshelf.model.domain.Che;
+import com.codeshelf.testframework.MinimalTest;
+import com.codeshelf.ws.protocol.message.MessageABC;
+import com.codeshelf.ws.protocol.response.ObjectChangeResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class FilterTest extends MinimalTest {
+
+	private ITypedDao<Che>	dao;
+	private Filter			filter;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void createFilter() {
+		dao = mock(ITypedDao.class);
+		filter = new Filter(dao, Che.class, "filter1");
+		filter.setCriteriaName("cheByFacility");
+		filter.setParams(new HashMap<String, Object>());
+		filter.setPropertyNames(Collections.<String> emptyList());
+	}
+
+	@Test
+	public void batchIsEvaluatedWithOneQuery() {
+		Che matchingAddChe = new Che();
+		Che stillMatchingChe = new Che();
+		UUID matchingAdd = matchingAddChe.getPersistentId();
+		UUID stillMatching = stillMatchingChe.getPersistentId();
+		UUID otherAdd = UUID.randomUUID();
+		UUID noLongerMatching = UUID.randomUUID();
+		filter.getMatchSet().add(stillMatching);
+		filter.getMatchSet().add(noLongerMatching);
+
+		when(dao.findByFilter(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(UUID.class)))
+			.thenReturn(ImmutableList.of(matchingAddChe, stillMatchingChe));
+
+		ObjectChangeBatch batch = mockBatch(ImmutableSet.of(matchingAdd, otherAdd), ImmutableSet.of(stillMatching, noLongerMatching));
+		List<MessageABC> responses = filter.processObjectsChanged(batch);
+
+		verify(dao, times(1)).findByFilter(eq("cheByFacility"),
+			anyMapOf(String.class, Object.class),
+			anyCollectionOf(UUID.class));
+		verify(dao, never()).matchesFilter(anyString(), anyMapOf(String.class, Object.class), eq(matchingAdd));
+		verify(dao, never()).findByFilter(anyString(), anyMapOf(String.class, Object.class));
+
+		Assert.assertEquals(1, responses.size());
+		List<Map<String, Object>> results = ((ObjectChangeResponse) responses.get(0)).getResults();
+		Assert.assertEquals(3, results.size());
+		Assert.assertEquals(EventType.Create.toString(), opFor(results, matchingAdd));
+		Assert.assertEquals(EventType.Update.toString(), opFor(results, stillMatching));
+		Assert.assertEquals(EventType.Delete.toString(), opFor(results, noLongerMatching));
+		Assert.assertNull(opFor(results, otherAdd));
+
+		Assert.assertEquals(ImmutableSet.of(matchingAdd, stillMatching), filter.getMatchSet());
+	}
+
+	@Test
+	public void unmatchedChangesProduceNoResponse() {
+		when(dao.findByFilter(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(UUID.class)))
+			.thenReturn(Collections.<Che> emptyList());
+
+		ObjectChangeBatch batch = mockBatch(ImmutableSet.of(UUID.randomUUID()), Collections.<UUID> emptySet());
+		Assert.assertTrue(filter.processObjectsChanged(batch).isEmpty());
+		Assert.assertTrue(filter.getMatchSet().isEmpty());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private ObjectChangeBatch mockBatch(Set<UUID> added, Set<UUID> updated) {
+		ObjectChangeBatch batch = mock(ObjectChangeBatch.class);
+		when(batch.getDomainClass()).thenReturn((Class) Che.class);
+		when(batch.getAdded()).thenReturn(added);
+		ImmutableMap.Builder<UUID, Set<String>> updates = ImmutableMap.builder();
+		for (UUID id : updated) {
+			updates.put(id, Collections.<String> emptySet());
+		}
+		when(batch.getUpdated()).thenReturn(updates.build());
+		when(batch.getDeleted()).thenReturn(ImmutableMap.<UUID, ObjectChangeBatch.DeletedObject> of());
+		return batch;
+	}
+
+	private String opFor(List<Map<String, Object>> results, UUID persistentId) {
+		for (Map<String, Object> result : results) {
+			if (persistentId.equals(result.get("persistentId"))) {
+				return (String) result.get("op");
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,186 @@
+package com.codeshelf.flyweight.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codeshelf.flyweight.bitfields.BitFieldOutputStream;
+import com.codeshelf.flyweight.command.CommandControlDisplayMessage;
+import com.codeshelf.flyweight.command.IPacket;
+import com.codeshelf.flyweight.command.NetAddress;
+import com.codeshelf.flyweight.command.NetEndpoint;
+import com.codeshelf.flyweight.command.NetworkId;
+import com.codeshelf.flyweight.command.PacketV1;
+import com.codeshelf.testframework.MinimalTest;
+
+/**
+ * Two plain sockets stand in for gateways connected to the TCP interface.
+ */
+public class TcpServerInterfaceTest extends MinimalTest {
+	private static final NetworkId	NETWORK_ID	= new NetworkId((byte) 1);
+	private static final byte		LQI			= 0x55;
+	private static final long		WAIT_MILLIS	= 5000;
+
+	private TcpServerInterface		server;
+	private Socket					gateway1;
+	private Socket					gateway2;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new TcpServerInterface(0);
+		server.startInterface(IPacket.PACKET_VERSION_1);
+		Assert.assertTrue(server.isStarted());
+
+		InetAddress localhost = InetAddress.getLoopbackAddress();
+		gateway1 = new Socket(localhost, server.getLocalPort());
+		gateway2 = new Socket(localhost, server.getLocalPort());
+		gateway1.setSoTimeout((int) WAIT_MILLIS);
+		gateway2.setSoTimeout((int) WAIT_MILLIS);
+		long giveUp = System.currentTimeMillis() + WAIT_MILLIS;
+		while (server.getClientCount() < 2 && System.currentTimeMillis() < giveUp) {
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(2, server.getClientCount());
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.stopInterface();
+		gateway1.close();
+		gateway2.close();
+	}
+
+	@Test
+	public void receivesFramesFromEveryGateway() throws Exception {
+		// 0xC0 and 0xDB as ack ids need escaping inside the frame
+		IPacket fromGateway1 = makePacket(1, IGatewayInterface.END);
+		IPacket fromGateway2 = makePacket(2, IGatewayInterface.ESC);
+
+		byte[] frame1 = gatewayFrame(fromGateway1);
+		byte[] frame2 = gatewayFrame(fromGateway2);
+		OutputStream out1 = gateway1.getOutputStream();
+		OutputStream out2 = gateway2.getOutputStream();
+
+		// the first frame arrives in two pieces, with the second gateway's whole frame in between
+		int split = frame1.length / 2;
+		out1.write(frame1, 0, split);
+		out1.flush();
+		out2.write(frame2);
+		out2.flush();
+		Thread.sleep(20);
+		out1.write(frame1, split, frame1.length - split);
+		out1.flush();
+
+		// the frames are handed up in the order they complete
+		IPacket received2 = server.receivePacket(NETWORK_ID, PacketV1.BROADCAST_NETWORK_ID, PacketV1.ZERO_NETWORK_ID);
+		IPacket received1 = server.receivePacket(NETWORK_ID, PacketV1.BROADCAST_NETWORK_ID, PacketV1.ZERO_NETWORK_ID);
+		Assert.assertNotNull(received1);
+		Assert.assertNotNull(received2);
+		if (received2.getAckId() == IGatewayInterface.END) {
+			IPacket swap = received1;
+			received1 = received2;
+			received2 = swap;
+		}
+		Assert.assertEquals(IGatewayInterface.END, received1.getAckId());
+		Assert.assertEquals(IGatewayInterface.ESC, received2.getAckId());
+		Assert.assertEquals(fromGateway1.getCommand().toString(), received1.getCommand().toString());
+		Assert.assertEquals(fromGateway2.getCommand().toString(), received2.getCommand().toString());
+		Assert.assertEquals(LQI, received1.getLQI());
+	}
+
+	@Test
+	public void sendsFramesToEveryGateway() throws Exception {
+		IPacket packet = makePacket(3, IGatewayInterface.END);
+		ByteBuffer expected = new PacketCodec().encodeFrame(packet, IPacket.MAX_PACKET_BYTES - 1, true);
+		byte[] expectedFrame = Arrays.copyOf(expected.array(), expected.limit());
+
+		server.sendPacket(packet);
+		server.sendPacket(packet);
+
+		for (Socket gateway : new Socket[] { gateway1, gateway2 }) {
+			DataInputStream in = new DataInputStream(gateway.getInputStream());
+			byte[] frame = new byte[expectedFrame.length];
+			// the END bytes sent when the interface starts come before any client connects, so only the frames arrive
+			in.readFully(frame);
+			Assert.assertArrayEquals(expectedFrame, frame);
+			in.readFully(frame);
+			Assert.assertArrayEquals(expectedFrame, frame);
+		}
+	}
+
+	@Test
+	public void dropsClosedGateway() throws Exception {
+		gateway1.close();
+		long giveUp = System.currentTimeMillis() + WAIT_MILLIS;
+		while (server.getClientCount() > 1 && System.currentTimeMillis() < giveUp) {
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(1, server.getClientCount());
+
+		IPacket packet = makePacket(4, (byte) 7);
+		byte[] frame = gatewayFrame(packet);
+		gateway2.getOutputStream().write(frame);
+		IPacket received = server.receivePacket(NETWORK_ID, PacketV1.BROADCAST_NETWORK_ID, PacketV1.ZERO_NETWORK_ID);
+		Assert.assertNotNull(received);
+		Assert.assertEquals(7, received.getAckId());
+	}
+
+	@Test
+	public void keepsServingAfterFailedWrite() throws Exception {
+		// reset rather than close, so writes to it fail on the sending thread
+		gateway1.setSoLinger(true, 0);
+		gateway1.close();
+
+		IPacket packet = makePacket(5, (byte) 8);
+		long giveUp = System.currentTimeMillis() + WAIT_MILLIS;
+		while (server.getClientCount() > 1 && System.currentTimeMillis() < giveUp) {
+			server.sendPacket(packet);
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(1, server.getClientCount());
+
+		// the selector thread is still reading and writing for the other gateway
+		gateway2.getOutputStream().write(gatewayFrame(packet));
+		IPacket received = server.receivePacket(NETWORK_ID, PacketV1.BROADCAST_NETWORK_ID, PacketV1.ZERO_NETWORK_ID);
+		Assert.assertNotNull(received);
+		Assert.assertEquals(8, received.getAckId());
+	}
+
+	private IPacket makePacket(int inDevice, byte inAckId) {
+		CommandControlDisplayMessage command = new CommandControlDisplayMessage(NetEndpoint.PRIMARY_ENDPOINT,
+			"PICK " + inDevice,
+			"D-" + inDevice,
+			"QTY 1",
+			"CHE" + inDevice);
+		NetAddress srcAddr = new NetAddress((short) inDevice, PacketV1.ADDRESS_BITS);
+		NetAddress dstAddr = new NetAddress((short) 0, PacketV1.ADDRESS_BITS);
+		IPacket packet = new PacketV1(command, NETWORK_ID, srcAddr, dstAddr, false);
+		packet.setAckId(inAckId);
+		return packet;
+	}
+
+	/**
+	 * What a gateway sends for a packet it heard: the packet bytes and the LQI, escaped, then END.
+	 */
+	private byte[] gatewayFrame(IPacket inPacket) {
+		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
+		inPacket.toStream(new BitFieldOutputStream(byteArrayStream));
+		byteArrayStream.write(LQI);
+		byte[] bytes = byteArrayStream.toByteArray();
+
+		ByteBuffer frame = ByteBuffer.allocate(IGatewayInterface.MAX_FRAME_BYTES);
+		PacketCodec.slipEncode(bytes, bytes.length, frame);
+		frame.put(IGatewayInterface.END);
+		return Arrays.copyOf(frame.array(), frame.position());
+	}
+}
@@ -0,0 +1,94 @@
+package com.codeshelf.model.dao;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.Gtin;
+import com.codeshelf.model.domain.ItemMaster;
+import com.codeshelf.model.domain.UomMaster;
+import com.codeshelf.testframework.HibernateTest;
+
+public class GtinIndexTest extends HibernateTest {
+
+	@Test
+	public final void findsTruncatedGtinsAcrossTransactions() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = this.createFacility();
+		UomMaster uomMaster = new UomMaster();
+		uomMaster.setUomMasterId("EA");
+		uomMaster.setParent(facility);
+		UomMaster.staticGetDao().store(uomMaster);
+		facility.addUomMaster(uomMaster);
+		ItemMaster itemMaster = new ItemMaster(facility, "SKU1", uomMaster);
+		ItemMaster.staticGetDao().store(itemMaster);
+		Gtin full = itemMaster.createGtin("00012345678905", uomMaster);
+		Gtin.staticGetDao().store(full);
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		// leading part, trailing part, the whole gtin
+		Assert.assertEquals(Collections.singleton(full.getPersistentId()), find(facility, "0001234"));
+		Assert.assertEquals(Collections.singleton(full.getPersistentId()), find(facility, "12345678905"));
+		Assert.assertEquals(Collections.singleton(full.getPersistentId()), find(facility, "00012345678905"));
+		Assert.assertTrue(find(facility, "3456789").isEmpty());
+		this.getTenantPersistenceService().commitTransaction();
+
+		// a new gtin and a changed one, committed after the index was built
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		itemMaster = ItemMaster.staticGetDao().reload(itemMaster);
+		uomMaster = UomMaster.staticGetDao().reload(uomMaster);
+		Gtin other = itemMaster.createGtin("00012340000011", uomMaster);
+		Gtin.staticGetDao().store(other);
+		full = Gtin.staticGetDao().reload(full);
+		full.setDomainId("99912345678905");
+		Gtin.staticGetDao().store(full);
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertEquals(Collections.singleton(other.getPersistentId()), find(facility, "0001234"));
+		Assert.assertEquals(Collections.singleton(full.getPersistentId()), find(facility, "12345678905"));
+		Assert.assertEquals(2, GtinIndex.findStartingOrEndingWith(facility, Arrays.asList("0001234", "9991234")).size());
+		this.getTenantPersistenceService().commitTransaction();
+	}
+
+	@Test
+	public final void rolledBackGtinIsNotFound() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = this.createFacility();
+		UomMaster uomMaster = new UomMaster();
+		uomMaster.setUomMasterId("EA");
+		uomMaster.setParent(facility);
+		UomMaster.staticGetDao().store(uomMaster);
+		facility.addUomMaster(uomMaster);
+		ItemMaster itemMaster = new ItemMaster(facility, "SKU1", uomMaster);
+		ItemMaster.staticGetDao().store(itemMaster);
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		itemMaster = ItemMaster.staticGetDao().reload(itemMaster);
+		uomMaster = UomMaster.staticGetDao().reload(uomMaster);
+		Gtin.staticGetDao().store(itemMaster.createGtin("00055555000001", uomMaster));
+		// built in this transaction, so it sees the new gtin
+		Assert.assertEquals(1, find(facility, "0005555").size());
+		this.getTenantPersistenceService().rollbackTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertTrue(find(facility, "0005555").isEmpty());
+		this.getTenantPersistenceService().commitTransaction();
+	}
+
+	private Set<UUID> find(Facility facility, String gtinId) {
+		return GtinIndex.findStartingOrEndingWith(facility, Collections.singleton(gtinId));
+	}
+}
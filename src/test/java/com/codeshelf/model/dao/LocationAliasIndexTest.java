@@ -0,0 +1,118 @@
+package com.codeshelf.model.dao;
+
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.model.domain.Aisle;
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.Location;
+import com.codeshelf.model.domain.LocationAlias;
+import com.codeshelf.testframework.HibernateTest;
+
+public class LocationAliasIndexTest extends HibernateTest {
+
+	@Test
+	public final void aliasesResolveAcrossTransactions() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = getFacility();
+		Aisle aisle1 = getDefaultAisle(facility, "A1");
+		Aisle aisle2 = getDefaultAisle(facility, "A2");
+		importLocationAliasesData(facility, "mappedLocationId,locationAlias\r\nA1,AisleX\r\n");
+		// created by this transaction, not committed yet
+		Assert.assertEquals(aisle1, facility.findSubLocationById("AisleX"));
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertEquals(aisle1, facility.findSubLocationById("AisleX"));
+		Assert.assertEquals(aisle1, facility.findSubLocationById("AisleX"));
+		// not an alias, found as a child
+		Assert.assertEquals(aisle2, facility.findSubLocationById("A2"));
+		Assert.assertNull(LocationAliasIndex.findByDomainId(facility, "AisleY"));
+		this.getTenantPersistenceService().commitTransaction();
+
+		// remap one alias and add another
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		importLocationAliasesData(facility, "mappedLocationId,locationAlias\r\nA2,AisleX\r\nA1,AisleY\r\n");
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertEquals(aisle2, facility.findSubLocationById("AisleX"));
+		Assert.assertEquals(aisle1, facility.findSubLocationById("AisleY"));
+		LocationAlias aliasY = LocationAliasIndex.findByDomainId(facility, "AisleY");
+		Assert.assertNotNull(aliasY);
+		Assert.assertEquals(LocationAlias.staticGetDao().findByDomainId(facility, "AisleY"), aliasY);
+		this.getTenantPersistenceService().commitTransaction();
+	}
+
+	@Test
+	public final void rolledBackAliasIsNotFound() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = getFacility();
+		getDefaultAisle(facility, "A1");
+		// build the index before the alias exists
+		Assert.assertNull(facility.findSubLocationById("AisleZ"));
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		importLocationAliasesData(facility, "mappedLocationId,locationAlias\r\nA1,AisleZ\r\n");
+		Location inTransaction = facility.findSubLocationById("AisleZ");
+		Assert.assertNotNull(inTransaction);
+		this.getTenantPersistenceService().rollbackTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertNull(facility.findSubLocationById("AisleZ"));
+		this.getTenantPersistenceService().commitTransaction();
+	}
+
+	@Test
+	public final void aliasCreatedInTransactionIsFound() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = getFacility();
+		Aisle aisle1 = getDefaultAisle(facility, "A1");
+		// build the index before the alias exists
+		Assert.assertNull(LocationAliasIndex.findByDomainId(facility, "AisleQ"));
+		// creating the alias tells the index, so this transaction looks it up in the database
+		LocationAlias alias = new LocationAlias(facility, "AisleQ", aisle1);
+		LocationAlias.staticGetDao().store(alias);
+		Assert.assertEquals(alias, LocationAliasIndex.findByDomainId(facility, "AisleQ"));
+		this.getTenantPersistenceService().rollbackTransaction();
+	}
+
+	@Test
+	public final void nominalIdIssuesNoAliasQuery() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = getFacility();
+		Aisle aisle1 = getDefaultAisle(facility, "A1");
+		importLocationAliasesData(facility, "mappedLocationId,locationAlias\r\nA1,AisleX\r\n");
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		// the first lookup builds the index
+		Assert.assertEquals(aisle1, facility.findSubLocationById("A1"));
+		long aliasQueries = aliasQueryCount();
+		Assert.assertEquals(aisle1, facility.findSubLocationById("A1"));
+		Assert.assertEquals(aisle1, facility.findSubLocationById("AisleX"));
+		Assert.assertEquals(aliasQueries, aliasQueryCount());
+		this.getTenantPersistenceService().commitTransaction();
+	}
+
+	private long aliasQueryCount() {
+		Statistics statistics = this.getTenantPersistenceService().getStatistics();
+		long count = 0;
+		for (String query : statistics.getQueries()) {
+			if (query.contains("location_alias")) {
+				QueryStatistics queryStatistics = statistics.getQueryStatistics(query);
+				count += queryStatistics.getExecutionCount() + queryStatistics.getCacheHitCount();
+			}
+		}
+		return count;
+	}
+}
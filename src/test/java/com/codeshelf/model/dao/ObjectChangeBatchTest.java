@@ -0,0 +1,40 @@
+package com.codeshelf.model.dao;
+
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.testframework.MinimalTest;
+import com.google.common.collect.ImmutableSet;
+
+public class ObjectChangeBatchTest extends MinimalTest {
+
+	@Test
+	public void updatesToSameObjectAreMerged() {
+		ObjectChangeBatch batch = new ObjectChangeBatch(Facility.class);
+		UUID id = UUID.randomUUID();
+		batch.addUpdated(id, ImmutableSet.of("description"));
+		batch.addUpdated(id, ImmutableSet.of("domainId", "description"));
+		Assert.assertEquals(1, batch.size());
+		Assert.assertEquals(ImmutableSet.of("description", "domainId"), batch.getUpdated().get(id));
+	}
+
+	@Test
+	public void updateOfAddedOrDeletedObjectIsDropped() {
+		ObjectChangeBatch batch = new ObjectChangeBatch(Facility.class);
+		UUID added = UUID.randomUUID();
+		UUID deleted = UUID.randomUUID();
+		batch.addAdded(added);
+		batch.addUpdated(added, ImmutableSet.of("description"));
+		batch.addUpdated(deleted, ImmutableSet.of("description"));
+		batch.addDeleted(deleted, null, null);
+		batch.addUpdated(deleted, ImmutableSet.of("description"));
+
+		Assert.assertEquals(ImmutableSet.of(added), batch.getAdded());
+		Assert.assertTrue(batch.getUpdated().isEmpty());
+		Assert.assertEquals(ImmutableSet.of(deleted), batch.getDeleted().keySet());
+		Assert.assertTrue(batch.updatesOnly().isEmpty());
+	}
+}
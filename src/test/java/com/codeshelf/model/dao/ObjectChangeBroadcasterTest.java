@@ -9,6 +9,7 @@ import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +58,78 @@ public class ObjectChangeBroadcasterTest extends HibernateTest {
 		}
 	}
 
+	@Test
+	public final void testAddsBatchedPerTransaction() {
+		DaoTestListener l = new DaoTestListener();
+		ObjectChangeBroadcaster broadcaster = this.getTenantPersistenceService().getEventListenerIntegrator().getChangeBroadcaster();
+		broadcaster.registerDAOListener(getDefaultTenantId(),l, Facility.class);
+		try {
+			this.getTenantPersistenceService().beginTransaction();
+			for (int i = 0; i < 3; i++) {
+				Facility facility = new Facility();
+				facility.setDomainId("BATCH-TEST-" + i);
+				facility.setDescription("BATCH-TEST");
+				Facility.staticGetDao().store(facility);
+			}
+			this.getTenantPersistenceService().commitTransaction();
+
+			Assert.assertEquals(3, l.getObjectsAdded());
+			Assert.assertEquals(1, l.getBatches());
+		} finally {
+			broadcaster.unregisterDAOListener(getDefaultTenantId(),l);
+		}
+	}
+
+	@Test
+	public final void testRolledBackChangesNotDelivered() {
+		DaoTestListener l = new DaoTestListener();
+		ObjectChangeBroadcaster broadcaster = this.getTenantPersistenceService().getEventListenerIntegrator().getChangeBroadcaster();
+		broadcaster.registerDAOListener(getDefaultTenantId(),l, Facility.class);
+		try {
+			this.getTenantPersistenceService().beginTransaction();
+			Facility facility = new Facility();
+			facility.setDomainId("ROLLBACK-TEST");
+			Facility.staticGetDao().store(facility);
+			// changes are reported during the flush, before the outcome is known
+			this.getTenantPersistenceService().getSession().flush();
+			this.getTenantPersistenceService().rollbackTransaction();
+			Assert.assertEquals(0, l.getObjectsAdded());
+
+			this.getTenantPersistenceService().beginTransaction();
+			facility = new Facility();
+			facility.setDomainId("ROLLBACK-TEST");
+			Facility.staticGetDao().store(facility);
+			this.getTenantPersistenceService().commitTransaction();
+			Assert.assertEquals(1, l.getObjectsAdded());
+		} finally {
+			broadcaster.unregisterDAOListener(getDefaultTenantId(),l);
+		}
+	}
+
+	@Test
+	public final void testUnfinishedBatchDropped() {
+		DaoTestListener l = new DaoTestListener();
+		ObjectChangeBroadcaster broadcaster = this.getTenantPersistenceService().getEventListenerIntegrator().getChangeBroadcaster();
+		broadcaster.registerDAOListener(getDefaultTenantId(),l, Facility.class);
+		try {
+			// a transaction on this thread that never completes
+			Session abandoned = Mockito.mock(Session.class);
+			Mockito.when(abandoned.getTransaction()).thenReturn(Mockito.mock(Transaction.class));
+			broadcaster.openBatch(abandoned);
+			broadcaster.broadcastAdd(getDefaultTenantId(), Facility.class, UUID.randomUUID());
+
+			this.getTenantPersistenceService().beginTransaction();
+			Facility facility = new Facility();
+			facility.setDomainId("UNFINISHED-TEST");
+			Facility.staticGetDao().store(facility);
+			this.getTenantPersistenceService().commitTransaction();
+			Assert.assertEquals(1, l.getObjectsAdded());
+			Assert.assertEquals(1, l.getBatches());
+		} finally {
+			broadcaster.unregisterDAOListener(getDefaultTenantId(),l);
+		}
+	}
+
 	@Test
 	public final void testUpdateNotification() throws InterruptedException {
 		DaoTestListener l = new DaoTestListener();
@@ -166,6 +239,15 @@ public class ObjectChangeBroadcasterTest extends HibernateTest {
 		
 		@Getter
 		Set<String> lastObjectPropertiesUpdated = null;
+
+		@Getter
+		int batches = 0;
+
+		@Override
+		public void objectsChanged(ObjectChangeBatch batch) {
+			batches++;
+			IDaoListener.super.objectsChanged(batch);
+		}
 		
 		@Override
 		public void objectAdded(final Class<? extends IDomainObject> domainClass, final UUID domainPersistentId) {
@@ -0,0 +1,140 @@
+package com.codeshelf.model.dao;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.ItemMaster;
+import com.codeshelf.model.domain.UomMaster;
+import com.codeshelf.testframework.HibernateTest;
+
+public class SharedDomainIdCacheTest extends HibernateTest {
+
+	@Test
+	public final void idsOutliveTheTransactionAndFollowChanges() {
+		SharedDomainIdCache sharedIds = new SharedDomainIdCache("ItemMaster", 100, ItemMaster.class);
+
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = this.createFacility();
+		UomMaster uomMaster = new UomMaster();
+		uomMaster.setUomMasterId("EA");
+		uomMaster.setParent(facility);
+		UomMaster.staticGetDao().store(uomMaster);
+		facility.addUomMaster(uomMaster);
+		ItemMaster itemMaster = new ItemMaster(facility, "SKU1", uomMaster);
+		ItemMaster.staticGetDao().store(itemMaster);
+		this.getTenantPersistenceService().commitTransaction();
+
+		// nothing shared yet, found by query and shared on commit
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertEquals(1, load(sharedIds, facility, "SKU1").size());
+		this.getTenantPersistenceService().commitTransaction();
+		Assert.assertEquals(itemMaster.getPersistentId(), get(sharedIds, facility, "SKU1"));
+
+		// the next transaction finds it by id
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		long hits = sharedIds.stats().hitCount();
+		Assert.assertEquals(itemMaster.getPersistentId(), load(sharedIds, facility, "SKU1").get("SKU1").getPersistentId());
+		Assert.assertEquals(hits + 1, sharedIds.stats().hitCount());
+		this.getTenantPersistenceService().commitTransaction();
+
+		// a rename drops the old key
+		this.getTenantPersistenceService().beginTransaction();
+		itemMaster = ItemMaster.staticGetDao().reload(itemMaster);
+		itemMaster.setDomainId("SKU2");
+		ItemMaster.staticGetDao().store(itemMaster);
+		this.getTenantPersistenceService().commitTransaction();
+		Assert.assertNull(get(sharedIds, facility, "SKU1"));
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertEquals(0, load(sharedIds, facility, "SKU1").size());
+		Assert.assertEquals(1, load(sharedIds, facility, "SKU2").size());
+		this.getTenantPersistenceService().commitTransaction();
+		Assert.assertEquals(itemMaster.getPersistentId(), get(sharedIds, facility, "SKU2"));
+	}
+
+	@Test
+	public final void changeDropsOnlyTheChangedIds() {
+		SharedDomainIdCache sharedIds = new SharedDomainIdCache("ItemMaster", 100, ItemMaster.class);
+
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = this.createFacility();
+		UomMaster uomMaster = new UomMaster();
+		uomMaster.setUomMasterId("EA");
+		uomMaster.setParent(facility);
+		UomMaster.staticGetDao().store(uomMaster);
+		facility.addUomMaster(uomMaster);
+		ItemMaster itemMaster1 = new ItemMaster(facility, "SKU1", uomMaster);
+		ItemMaster.staticGetDao().store(itemMaster1);
+		ItemMaster itemMaster2 = new ItemMaster(facility, "SKU2", uomMaster);
+		ItemMaster.staticGetDao().store(itemMaster2);
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		Assert.assertEquals(1, load(sharedIds, facility, "SKU1").size());
+		Assert.assertEquals(1, load(sharedIds, facility, "SKU2").size());
+		this.getTenantPersistenceService().commitTransaction();
+		Assert.assertEquals(2, sharedIds.size());
+
+		this.getTenantPersistenceService().beginTransaction();
+		itemMaster1 = ItemMaster.staticGetDao().reload(itemMaster1);
+		itemMaster1.setDescription("changed");
+		ItemMaster.staticGetDao().store(itemMaster1);
+		this.getTenantPersistenceService().commitTransaction();
+
+		Assert.assertNull(get(sharedIds, facility, "SKU1"));
+		Assert.assertEquals(itemMaster2.getPersistentId(), get(sharedIds, facility, "SKU2"));
+	}
+
+	@Test
+	public final void rolledBackItemIsNotShared() {
+		SharedDomainIdCache sharedIds = new SharedDomainIdCache("ItemMaster", 100, ItemMaster.class);
+
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = this.createFacility();
+		UomMaster uomMaster = new UomMaster();
+		uomMaster.setUomMasterId("EA");
+		uomMaster.setParent(facility);
+		UomMaster.staticGetDao().store(uomMaster);
+		facility.addUomMaster(uomMaster);
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		uomMaster = UomMaster.staticGetDao().reload(uomMaster);
+		DomainObjectCache<ItemMaster> cache = new DomainObjectCache<ItemMaster>(ItemMaster.staticGetDao(), "ItemMaster", facility);
+		cache.setFetchOnMiss(false);
+		cache.setSharedIds(sharedIds);
+		cache.load(facility, Collections.singleton("SKU1"));
+		ItemMaster itemMaster = new ItemMaster(facility, "SKU1", uomMaster);
+		ItemMaster.staticGetDao().store(itemMaster);
+		cache.put(itemMaster);
+		this.getTenantPersistenceService().rollbackTransaction();
+
+		Assert.assertNull(get(sharedIds, facility, "SKU1"));
+	}
+
+	private DomainObjectCache<ItemMaster> load(SharedDomainIdCache sharedIds, Facility facility, String itemId) {
+		DomainObjectCache<ItemMaster> cache = new DomainObjectCache<ItemMaster>(ItemMaster.staticGetDao(), "ItemMaster", facility);
+		cache.setFetchOnMiss(false);
+		cache.setSharedIds(sharedIds);
+		cache.load(facility, Collections.singleton(itemId));
+		return cache;
+	}
+
+	private UUID get(SharedDomainIdCache sharedIds, Facility facility, String itemId) {
+		this.getTenantPersistenceService().beginTransaction();
+		try {
+			return sharedIds.get(facility, itemId);
+		} finally {
+			this.getTenantPersistenceService().commitTransaction();
+		}
+	}
+}
@@ -5,7 +5,9 @@
  *******************************************************************************/
 package com.codeshelf.model.domain;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -85,6 +87,48 @@ public class PathTest extends HibernateTest {
 		this.getTenantPersistenceService().commitTransaction();
 	}
 	
+	@Test
+	public final void recomputeDistancesOfOnePath() {
+		this.getTenantPersistenceService().beginTransaction();
+		Facility facility = createFacilityWithOutboundOrders();
+		Path path = facility.getPath(Path.DEFAULT_FACILITY_PATH_ID);
+		Path otherPath = createPathForTest(facility);
+		Assert.assertEquals(Integer.valueOf(Path.DISTANCES_VERSION), otherPath.getDistancesVersion());
+		// as if both were from before distances were versioned
+		path.setDistancesVersion(null);
+		Path.staticGetDao().store(path);
+		otherPath.setDistancesVersion(null);
+		Path.staticGetDao().store(otherPath);
+		// and their locations' distances lost
+		Map<String, Double> distances = new HashMap<String, Double>();
+		for (PathSegment segment : path.getSegments()) {
+			for (Location location : segment.getLocations()) {
+				Assert.assertNotNull(location.getPosAlongPath());
+				distances.put(location.getDomainId(), location.getPosAlongPath());
+				location.setPosAlongPath(-1.0);
+				location.getDao().store(location);
+			}
+		}
+		Assert.assertFalse(distances.isEmpty());
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		facility = facility.reload();
+		path = Path.staticGetDao().reload(path);
+		facility.recomputeLocationPathDistances(path);
+		this.getTenantPersistenceService().commitTransaction();
+
+		this.getTenantPersistenceService().beginTransaction();
+		Assert.assertEquals(Integer.valueOf(Path.DISTANCES_VERSION), Path.staticGetDao().reload(path).getDistancesVersion());
+		Assert.assertNull(Path.staticGetDao().reload(otherPath).getDistancesVersion());
+		facility = facility.reload();
+		for (Map.Entry<String, Double> distance : distances.entrySet()) {
+			Location location = facility.findSubLocationById(distance.getKey());
+			Assert.assertEquals(distance.getKey(), distance.getValue(), location.getPosAlongPath(), 0.0001);
+		}
+		this.getTenantPersistenceService().commitTransaction();
+	}
+
 	@Test
 	public final void testPathScript() {
 		this.getTenantPersistenceService().beginTransaction();
@@ -0,0 +1,143 @@
+package com.codeshelf.perf;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.device.LedCmdGroup;
+import com.codeshelf.device.LedCmdGroupSerializer;
+import com.codeshelf.device.LedSample;
+import com.codeshelf.flyweight.command.ColorEnum;
+import com.codeshelf.testframework.MinimalTest;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Serializes and reads back the LED commands of a full cart's work instructions, with the serializer and with a new
+ * Gson per call as it used to be done. Both have to give the same strings and groups. Each is also timed several
+ * times, alternating, and their best times are logged; the timings are not asserted, since they depend on the machine
+ * running the build.
+ */
+public class LedCmdGroupSerializerPerformanceTest extends MinimalTest {
+	private static final Logger	LOGGER			= LoggerFactory.getLogger(LedCmdGroupSerializerPerformanceTest.class);
+
+	// a cart of 12 orders with 40 lines each, picked from 60 slots lit 4 LEDs apiece
+	private static final int	CART_WIS		= 12 * 40;
+	private static final int	SLOTS			= 60;
+	private static final int	LEDS_PER_SLOT	= 4;
+	private static final int	ROUNDS			= 50;
+	private static final int	TRIALS			= 5;
+
+	@Test
+	public void testSerializerMatchesGson() {
+		for (List<LedCmdGroup> groups : makeCart()) {
+			String legacy = legacySerialize(groups);
+			String serialized = LedCmdGroupSerializer.serializeLedCmdString(groups);
+			Assert.assertEquals(legacy, serialized);
+
+			List<LedCmdGroup> deserialized = LedCmdGroupSerializer.deserializeLedCmdString(serialized);
+			Assert.assertEquals(legacy, legacySerialize(deserialized));
+			Assert.assertEquals(legacy, legacySerialize(legacyDeserialize(serialized)));
+		}
+	}
+
+	@Test
+	public void testDeserializedGroupsAreCopies() {
+		String serialized = LedCmdGroupSerializer.serializeLedCmdString(makeCart().get(0));
+		List<LedCmdGroup> first = LedCmdGroupSerializer.deserializeLedCmdString(serialized);
+		first.get(0).getLedSampleList().get(0).setRed(LedSample.OFF);
+		first.get(0).getLedSampleList().remove(1);
+
+		List<LedCmdGroup> second = LedCmdGroupSerializer.deserializeLedCmdString(serialized);
+		Assert.assertEquals(serialized, LedCmdGroupSerializer.serializeLedCmdString(second));
+	}
+
+	@Test
+	public void testSerializerSpeed() {
+		List<List<LedCmdGroup>> cart = makeCart();
+
+		// warm up both
+		runLegacy(cart, 5);
+		runSerializer(cart, 5);
+
+		long legacyNanos = Long.MAX_VALUE;
+		long serializerNanos = Long.MAX_VALUE;
+		for (int trial = 0; trial < TRIALS; trial++) {
+			long start = System.nanoTime();
+			long legacyChars = runLegacy(cart, ROUNDS);
+			legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			long serializerChars = runSerializer(cart, ROUNDS);
+			serializerNanos = Math.min(serializerNanos, System.nanoTime() - start);
+			Assert.assertEquals(legacyChars, serializerChars);
+		}
+
+		long legacyMs = legacyNanos / 1000000;
+		long serializerMs = serializerNanos / 1000000;
+		LOGGER.info("Serialized and read back LED commands for {} work instructions: new Gson each time {} ms, serializer {} ms",
+			CART_WIS * ROUNDS,
+			legacyMs,
+			serializerMs);
+	}
+
+	private long runLegacy(List<List<LedCmdGroup>> inCart, int inRounds) {
+		long chars = 0;
+		for (int round = 0; round < inRounds; round++) {
+			for (List<LedCmdGroup> groups : inCart) {
+				String serialized = legacySerialize(groups);
+				chars += serialized.length() + legacyDeserialize(serialized).size();
+			}
+		}
+		return chars;
+	}
+
+	private long runSerializer(List<List<LedCmdGroup>> inCart, int inRounds) {
+		long chars = 0;
+		for (int round = 0; round < inRounds; round++) {
+			for (List<LedCmdGroup> groups : inCart) {
+				String serialized = LedCmdGroupSerializer.serializeLedCmdString(groups);
+				chars += serialized.length() + LedCmdGroupSerializer.deserializeLedCmdString(serialized).size();
+			}
+		}
+		return chars;
+	}
+
+	/**
+	 * One LED command group list per work instruction, as WiFactory makes them. Many work instructions share a slot.
+	 */
+	private List<List<LedCmdGroup>> makeCart() {
+		List<List<LedCmdGroup>> cart = new ArrayList<List<LedCmdGroup>>(CART_WIS);
+		for (int wi = 0; wi < CART_WIS; wi++) {
+			int slot = (wi * 7) % SLOTS;
+			short firstLed = (short) (1 + slot * LEDS_PER_SLOT);
+			List<LedSample> samples = new ArrayList<LedSample>(LEDS_PER_SLOT);
+			for (short led = firstLed; led < firstLed + LEDS_PER_SLOT; led++) {
+				samples.add(new LedSample(led, ColorEnum.values()[wi % 4]));
+			}
+			List<LedCmdGroup> groups = new ArrayList<LedCmdGroup>(1);
+			groups.add(new LedCmdGroup("0x000000" + (10 + slot / 20), (short) 1, firstLed, samples));
+			cart.add(groups);
+		}
+		return cart;
+	}
+
+	private String legacySerialize(List<LedCmdGroup> inGroups) {
+		Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+		return gson.toJson(inGroups);
+	}
+
+	private List<LedCmdGroup> legacyDeserialize(String inCmdString) {
+		Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+		Type collectionType = new TypeToken<Collection<LedCmdGroup>>() {
+		}.getType();
+		return gson.fromJson(inCmdString, collectionType);
+	}
+}
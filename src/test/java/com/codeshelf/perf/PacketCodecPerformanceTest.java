@@ -0,0 +1,183 @@
+package com.codeshelf.perf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.flyweight.bitfields.BitFieldInputStream;
+import com.codeshelf.flyweight.bitfields.BitFieldOutputStream;
+import com.codeshelf.flyweight.command.CommandControlDisplayMessage;
+import com.codeshelf.flyweight.command.IPacket;
+import com.codeshelf.flyweight.command.NetAddress;
+import com.codeshelf.flyweight.command.NetEndpoint;
+import com.codeshelf.flyweight.command.NetworkId;
+import com.codeshelf.flyweight.command.PacketFactory;
+import com.codeshelf.flyweight.command.PacketV1;
+import com.codeshelf.flyweight.controller.IGatewayInterface;
+import com.codeshelf.flyweight.controller.PacketCodec;
+import com.codeshelf.testframework.MinimalTest;
+
+/**
+ * Frames and decodes radio packets with the PacketCodec the serial interface uses, and with the streams it used to
+ * build for every packet. Both have to give the same bytes and commands. Each is also timed several times, alternating,
+ * and their best times are logged; the timings are not asserted, since they depend on the machine running the build.
+ */
+public class PacketCodecPerformanceTest extends MinimalTest {
+	private static final Logger	LOGGER			= LoggerFactory.getLogger(PacketCodecPerformanceTest.class);
+
+	private static final int	PACKET_COUNT	= 512;
+	private static final int	ROUNDS			= 100;
+	private static final int	MAX_BYTES		= IPacket.MAX_PACKET_BYTES - 1;
+	private static final byte	LQI				= 0x55;
+	private static final int	TRIALS			= 5;
+
+	@Test
+	public void testCodecMatchesStreams() {
+		List<IPacket> packets = makePackets();
+		PacketCodec codec = new PacketCodec();
+
+		for (IPacket packet : packets) {
+			ByteBuffer frame = codec.encodeFrame(packet, MAX_BYTES, true);
+			byte[] codecFrame = Arrays.copyOf(frame.array(), frame.limit());
+			Assert.assertArrayEquals(legacyFrame(packet), codecFrame);
+
+			byte[] received = receivedFrame(packet);
+			IPacket legacyPacket = legacyDecode(received);
+			IPacket codecPacket = codec.decodePacket(IPacket.PACKET_VERSION_1, received, received.length, received.length - 1);
+			Assert.assertEquals(legacyPacket.getAckId(), codecPacket.getAckId());
+			Assert.assertEquals(legacyPacket.getDstAddr(), codecPacket.getDstAddr());
+			Assert.assertEquals(legacyPacket.getCommand().toString(), codecPacket.getCommand().toString());
+		}
+	}
+
+	@Test
+	public void testCodecSpeed() {
+		List<IPacket> packets = makePackets();
+		List<byte[]> received = new ArrayList<byte[]>(packets.size());
+		for (IPacket packet : packets) {
+			received.add(receivedFrame(packet));
+		}
+		PacketCodec codec = new PacketCodec();
+
+		// warm up both
+		runLegacy(packets, received, 10);
+		runCodec(codec, packets, received, 10);
+
+		long legacyNanos = Long.MAX_VALUE;
+		long codecNanos = Long.MAX_VALUE;
+		for (int trial = 0; trial < TRIALS; trial++) {
+			long start = System.nanoTime();
+			long legacyBytes = runLegacy(packets, received, ROUNDS);
+			legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			long codecBytes = runCodec(codec, packets, received, ROUNDS);
+			codecNanos = Math.min(codecNanos, System.nanoTime() - start);
+			Assert.assertEquals(legacyBytes, codecBytes);
+		}
+
+		long legacyMs = legacyNanos / 1000000;
+		long codecMs = codecNanos / 1000000;
+		LOGGER.info("Framed and decoded {} packets: streams {} ms, codec {} ms", PACKET_COUNT * ROUNDS, legacyMs, codecMs);
+	}
+
+	private long runLegacy(List<IPacket> inPackets, List<byte[]> inReceived, int inRounds) {
+		long bytes = 0;
+		for (int round = 0; round < inRounds; round++) {
+			for (int i = 0; i < inPackets.size(); i++) {
+				bytes += legacyFrame(inPackets.get(i)).length;
+				bytes += legacyDecode(inReceived.get(i)).getAckId();
+			}
+		}
+		return bytes;
+	}
+
+	private long runCodec(PacketCodec inCodec, List<IPacket> inPackets, List<byte[]> inReceived, int inRounds) {
+		long bytes = 0;
+		for (int round = 0; round < inRounds; round++) {
+			for (int i = 0; i < inPackets.size(); i++) {
+				bytes += inCodec.encodeFrame(inPackets.get(i), MAX_BYTES, true).limit();
+				byte[] frame = inReceived.get(i);
+				bytes += inCodec.decodePacket(IPacket.PACKET_VERSION_1, frame, frame.length, frame.length - 1).getAckId();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Every ack id, so that some headers need SLIP escapes.
+	 */
+	private List<IPacket> makePackets() {
+		NetAddress srcAddr = new NetAddress((short) 0, PacketV1.ADDRESS_BITS);
+		NetworkId networkId = new NetworkId((byte) 1);
+		List<IPacket> packets = new ArrayList<IPacket>(PACKET_COUNT);
+		for (int i = 0; i < PACKET_COUNT; i++) {
+			CommandControlDisplayMessage command = new CommandControlDisplayMessage(NetEndpoint.PRIMARY_ENDPOINT,
+				"PICK " + i,
+				"D-" + (i % 37),
+				"QTY " + (i % 12),
+				"CHE" + (i % 100));
+			NetAddress dstAddr = new NetAddress((short) (i + 1), PacketV1.ADDRESS_BITS);
+			IPacket packet = new PacketV1(command, networkId, srcAddr, dstAddr, true);
+			packet.setAckId((byte) i);
+			packets.add(packet);
+		}
+		return packets;
+	}
+
+	/**
+	 * What the gateway hands back for the packet: its bytes and the LQI.
+	 */
+	private byte[] receivedFrame(IPacket inPacket) {
+		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
+		inPacket.toStream(new BitFieldOutputStream(byteArrayStream));
+		byteArrayStream.write(LQI);
+		return byteArrayStream.toByteArray();
+	}
+
+	/**
+	 * How SerialInterfaceABC framed a packet before the codec.
+	 */
+	private byte[] legacyFrame(IPacket inPacket) {
+		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
+		BitFieldOutputStream bitFieldOutStream = new BitFieldOutputStream(byteArrayStream);
+		inPacket.toStream(bitFieldOutStream);
+		byte[] packetBytes = byteArrayStream.toByteArray();
+		byte[] buffer = new byte[IGatewayInterface.MAX_FRAME_BYTES];
+		int bufPos = 0;
+		int bytesToSend = Math.min(MAX_BYTES, packetBytes.length);
+		for (int i = 0; i < bytesToSend; i++) {
+			byte nextByte = packetBytes[i];
+			if (nextByte == IGatewayInterface.ESC) {
+				buffer[bufPos++] = IGatewayInterface.ESC;
+				buffer[bufPos++] = IGatewayInterface.ESC_ESC;
+			} else if (nextByte == IGatewayInterface.END) {
+				buffer[bufPos++] = IGatewayInterface.ESC;
+				buffer[bufPos++] = IGatewayInterface.ESC_END;
+			} else {
+				buffer[bufPos++] = nextByte;
+			}
+		}
+		buffer[bufPos++] = IGatewayInterface.END;
+		buffer[bufPos++] = IGatewayInterface.END;
+		return Arrays.copyOf(buffer, bufPos);
+	}
+
+	/**
+	 * How SerialInterfaceABC decoded a received frame before the codec.
+	 */
+	private IPacket legacyDecode(byte[] inFrame) {
+		BitFieldInputStream inputStream = new BitFieldInputStream(new ByteArrayInputStream(inFrame), true);
+		IPacket packet = new PacketFactory().getPacketForProtocol(IPacket.PACKET_VERSION_1);
+		packet.fromStream(inputStream, inFrame.length - 1);
+		return packet;
+	}
+}
@@ -0,0 +1,145 @@
+package com.codeshelf.perf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codeshelf.model.BayDistanceWorkInstructionSequencer;
+import com.codeshelf.model.WorkInstructionSequencerABC;
+import com.codeshelf.model.WorkSequenceWorkInstructionSequencer;
+import com.codeshelf.model.domain.Aisle;
+import com.codeshelf.model.domain.Bay;
+import com.codeshelf.model.domain.Facility;
+import com.codeshelf.model.domain.Location;
+import com.codeshelf.model.domain.Path;
+import com.codeshelf.model.domain.PathSegment;
+import com.codeshelf.model.domain.Slot;
+import com.codeshelf.model.domain.WorkInstruction;
+import com.codeshelf.testframework.ServerTest;
+
+/**
+ * Sequences a big cart worth of work instructions over a 10,000 slot facility, and checks the order against the walk
+ * of every location against every work instruction that the sequencers used to do. Sequencing is done for every cart
+ * setup, so the times are logged; they are not asserted, since they depend on the machine running the build.
+ */
+public class WorkInstructionSequencerPerformanceTest extends ServerTest {
+	private static final Logger	LOGGER			= LoggerFactory.getLogger(WorkInstructionSequencerPerformanceTest.class);
+
+	private static final int	AISLES			= 10;
+	private static final int	BAYS_PER_AISLE	= 25;
+	private static final int	TIERS_PER_BAY	= 4;
+	private static final int	SLOTS_PER_TIER	= 10;
+
+	private static final int	WI_COUNT		= 2500;
+
+	@Test
+	public void testSequenceTenThousandSlots() {
+		Facility facility = setUpBigFacility();
+
+		beginTransaction();
+		facility = facility.reload();
+		List<Slot> slots = facility.getActiveChildrenAtLevel(Slot.class);
+		Assert.assertEquals(AISLES * BAYS_PER_AISLE * TIERS_PER_BAY * SLOTS_PER_TIER, slots.size());
+
+		List<WorkInstruction> wis = makeWorkInstructions(slots, WI_COUNT, new Random(42));
+
+		long start = System.currentTimeMillis();
+		List<WorkInstruction> naiveResult = new NaiveBayDistanceSequencer().sort(facility, new ArrayList<>(wis));
+		long naiveMs = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		List<WorkInstruction> bayDistanceResult = new BayDistanceWorkInstructionSequencer().sort(facility, new ArrayList<>(wis));
+		long bayDistanceMs = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		List<WorkInstruction> workSequenceResult = new WorkSequenceWorkInstructionSequencer().sort(facility, new ArrayList<>(wis));
+		long workSequenceMs = System.currentTimeMillis() - start;
+
+		LOGGER.info("Sequenced {} WIs over {} slots: location walk {} ms, BayDistance {} ms, WorkSequence {} ms",
+			WI_COUNT,
+			slots.size(),
+			naiveMs,
+			bayDistanceMs,
+			workSequenceMs);
+		Assert.assertEquals(WI_COUNT, naiveResult.size());
+		Assert.assertEquals(naiveResult, bayDistanceResult);
+		Assert.assertEquals(WI_COUNT, workSequenceResult.size());
+		commitTransaction();
+	}
+
+	private Facility setUpBigFacility() {
+		StringBuilder csv = new StringBuilder("binType,nominalDomainId,lengthCm,slotsInTier,ledCountInTier,tierFloorCm,controllerLED,anchorX,anchorY,orientXorY,depthCm\r\n");
+		for (int aisle = 1; aisle <= AISLES; aisle++) {
+			csv.append("Aisle,A" + aisle + ",,,,,tierB1S1Side,12.85," + (10.0 + 5 * aisle) + ",X,120\r\n");
+			for (int bay = 1; bay <= BAYS_PER_AISLE; bay++) {
+				csv.append("Bay,B" + bay + ",115,,,,,\r\n");
+				for (int tier = 1; tier <= TIERS_PER_BAY; tier++) {
+					csv.append("Tier,T" + tier + ",," + SLOTS_PER_TIER + ",40," + (tier - 1) * 50 + ",,\r\n");
+				}
+			}
+		}
+		beginTransaction();
+		Facility facility = getFacility();
+		importAislesData(facility, csv.toString());
+		commitTransaction();
+
+		beginTransaction();
+		facility = facility.reload();
+		Path path = createPathForTest(facility);
+		for (int aisle = 1; aisle <= AISLES; aisle++) {
+			double y = 12.5 + 5 * aisle;
+			PathSegment segment = addPathSegmentForTest(path, aisle - 1, 45.0, y, 12.85, y);
+			Aisle.staticGetDao().findByDomainId(facility, "A" + aisle).associatePathSegment(segment.getPersistentId().toString());
+		}
+		commitTransaction();
+		return facility;
+	}
+
+	private List<WorkInstruction> makeWorkInstructions(List<Slot> slots, int count, Random random) {
+		List<WorkInstruction> wis = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Slot slot = slots.get(random.nextInt(slots.size()));
+			WorkInstruction wi = new WorkInstruction();
+			wi.setDomainId("WI" + i);
+			wi.setLocation(slot);
+			wi.setPosAlongPath(slot.getPosAlongPath());
+			wi.setPickInstruction(slot.getNominalLocationId());
+			wis.add(wi);
+		}
+		Collections.shuffle(wis, random);
+		return wis;
+	}
+
+	/**
+	 * The bay walk the sequencers used to do, scanning every work instruction at every location.
+	 */
+	private static class NaiveBayDistanceSequencer extends WorkInstructionSequencerABC {
+		@Override
+		public List<WorkInstruction> sort(Facility facility, List<WorkInstruction> wis) {
+			preSortByPosAlongPath(wis);
+			List<WorkInstruction> result = new ArrayList<>();
+			for (Path path : facility.getPaths()) {
+				for (Location bay : path.<Location> getLocationsByClass(Bay.class)) {
+					for (Location workLocation : bay.getSubLocationsInWorkingOrder()) {
+						Iterator<WorkInstruction> wiIterator = wis.iterator();
+						while (wiIterator.hasNext()) {
+							WorkInstruction wi = wiIterator.next();
+							if (wi.getLocation().equals(workLocation)) {
+								result.add(wi);
+								wiIterator.remove();
+							}
+						}
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
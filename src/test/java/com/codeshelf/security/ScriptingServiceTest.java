@@ -5,6 +5,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.UUID;
 
@@ -18,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codeshelf.behavior.PropertyBehavior;
 import com.codeshelf.edi.OutboundOrderCsvBean;
+import com.codeshelf.edi.OutboundOrderPrefetchCsvImporter;
 import com.codeshelf.metrics.DataQuantityHealthCheckParameters;
 import com.codeshelf.model.DataPurgeParameters;
 import com.codeshelf.model.FacilityPropertyType;
@@ -165,6 +168,38 @@ public class ScriptingServiceTest extends ServerTest {
 		commitTransaction();
 	}
 
+	@Test
+	public void scriptChangedOutsideEngineIsReloaded() throws ScriptException {
+		Facility facility = setUpSimpleNoSlotFacility();
+
+		beginTransaction();
+		String text = "def OrderImportBeanTransformation(orderBean) { orderBean.description == 'abc' }";
+		ExtensionPoint extension = createExtension(facility, ExtensionPointType.OrderImportBeanTransformation, text);
+		UUID persistentId = extension.getPersistentId();
+		commitTransaction();
+
+		beginTransaction();
+		ExtensionPointEngine ss = ExtensionPointEngine.getInstance(facility);
+		OutboundOrderCsvBean bean = new OutboundOrderCsvBean();
+		bean.setDescription("abc");
+		assertEval(ss, bean, true);
+		commitTransaction();
+
+		// stored directly, not through the engine
+		beginTransaction();
+		ExtensionPoint stored = ExtensionPoint.staticGetDao().findByPersistentId(persistentId);
+		stored.setScript("def OrderImportBeanTransformation(orderBean) { orderBean.description == 'def' }");
+		ExtensionPoint.staticGetDao().store(stored);
+		commitTransaction();
+
+		beginTransaction();
+		ExtensionPointEngine sameSS = ExtensionPointEngine.getInstance(facility);
+		Assert.assertSame(ss, sameSS);
+		assertEval(sameSS, bean, false);
+		Assert.assertEquals(persistentId, sameSS.getExtensionPoint(ExtensionPointType.OrderImportBeanTransformation).get().getPersistentId());
+		commitTransaction();
+	}
+
 	private void assertEval(ExtensionPointEngine ss, OutboundOrderCsvBean bean, boolean expected) throws ScriptException {
 		Object[] data1 = {bean};
 		Object result1 = ss.eval(ExtensionPointType.OrderImportBeanTransformation, data1);
@@ -700,6 +735,47 @@ public class ScriptingServiceTest extends ServerTest {
 		badGroovyErrorRuntimeTestHelper(ExtensionPointType.OrderImportLineTransformation);
 	}
 	
+	/**
+	 * A line transformation that fails part way through the file leaves the whole file unapplied,
+	 * even when batches before the failing line were already full.
+	 */
+	@Test
+	public void lineTransformationFailingMidFileImportsNothing() throws IOException, ScriptException{
+		Facility facility = setUpSimpleNoSlotFacility();
+
+		beginTransaction();
+		String script = 
+				"def OrderImportLineTransformation(orderLine) { \n" + 
+				"    if (orderLine.contains('BADLINE')) { fake() } \n" + 
+				"    return orderLine \n" + 
+				"}";
+		createExtension(facility, ExtensionPointType.OrderImportLineTransformation, script);
+		commitTransaction();
+
+		String csvString = "orderGroupId,shipmentId,customerId,preAssignedContainerId,orderId,itemId,description,quantity,uom,orderDate,dueDate,workSequence,needsScan"
+				+ "\r\n1,USF314,COSTCO,123,123,10700589,Napa Valley Bistro - Jalapeo Stuffed Olives,1,each,2012-09-26 11:31:01,2012-09-26 11:31:03,0,yes"
+				+ "\r\n1,USF314,COSTCO,124,124,10706952,Italian Homemade Style Basil Pesto,1,each,2012-09-26 11:31:01,2012-09-26 11:31:03,0,no"
+				+ "\r\n1,USF314,COSTCO,125,125,10706962,Authentic Pizza Sauces,1,case,2012-09-26 11:31:01,2012-09-26 11:31:03,0,"
+				+ "\r\n1,USF314,COSTCO,126,126,10706972,BADLINE,1,each,2012-09-26 11:31:01,2012-09-26 11:31:03,0,";
+
+		beginTransaction();
+		facility = facility.reload();
+		OutboundOrderPrefetchCsvImporter importer = (OutboundOrderPrefetchCsvImporter) createOrderImporter();
+		importer.setMaxOrderLines(1);
+		BatchResult<Object> result = importer.importOrdersFromCsvStream(new StringReader(csvString), facility, new Timestamp(System.currentTimeMillis()));
+		commitTransaction();
+
+		Assert.assertEquals(1, result.getViolations().size());
+		Assert.assertTrue(result.getViolations().get(0).getMessage().contains("fake()"));
+
+		beginTransaction();
+		facility = facility.reload();
+		Assert.assertNull(OrderHeader.staticGetDao().findByDomainId(facility, "123"));
+		Assert.assertNull(OrderHeader.staticGetDao().findByDomainId(facility, "124"));
+		Assert.assertNull(OrderHeader.staticGetDao().findByDomainId(facility, "125"));
+		commitTransaction();
+	}
+
 	private void badGroovyErrorRuntimeTestHelper(ExtensionPointType type) throws IOException, ScriptException{
 		Facility facility = setUpSimpleNoSlotFacility();
 
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codeshelf.security.TokenSession.Status;
 import com.codeshelf.testframework.MockDaoTest;
+import com.google.common.cache.CacheStats;
 
 public class TokenSessionServiceTest extends MockDaoTest {
 	static final Logger	LOGGER	= LoggerFactory.getLogger(TokenSessionServiceTest.class);
@@ -147,6 +148,56 @@ public class TokenSessionServiceTest extends MockDaoTest {
 		//Assert.assertFalse(auth.checkPassword(password+"!", hash));
 	}
 
+	@Test
+	public void verifiedTokenCacheTest() {
+		TokenSessionService auth = new TokenSessionService().initialize();
+		String token = auth.testCreateToken(0, 0);
+
+		// the first check is a miss, the second is served from the cache with a user of its own
+		CacheStats before = auth.getTokenCacheStats();
+		TokenSession first = auth.checkToken(token);
+		assertActive(first, 0);
+		assertCacheCounts(auth, before, 0, 1);
+		TokenSession second = auth.checkToken(token);
+		assertActive(second, 0);
+		assertCacheCounts(auth, before, 1, 1);
+		Assert.assertEquals(first, second);
+		Assert.assertNotSame(first.getUser(), second.getUser());
+		Assert.assertEquals(first.getUser().getUsername(), second.getUser().getUsername());
+		Assert.assertEquals(first.getTenant().getId(), second.getTenant().getId());
+		Assert.assertEquals(first.getSessionFlags().getPacked(), second.getSessionFlags().getPacked());
+
+		// another token for the same user is a miss of its own
+		String other = auth.testCreateToken(0, 0);
+		assertActive(auth.checkToken(other), 0);
+		assertCacheCounts(auth, before, 1, 2);
+
+		// logout, user change and tenant change each force the full check
+		auth.invalidateToken(token);
+		assertActive(auth.checkToken(token), 0);
+		assertCacheCounts(auth, before, 1, 3);
+		assertActive(auth.checkToken(token), 0);
+		assertCacheCounts(auth, before, 2, 3);
+
+		auth.invalidateUserTokens(0);
+		assertActive(auth.checkToken(token), 0);
+		assertCacheCounts(auth, before, 2, 4);
+
+		auth.invalidateTenantTokens(0);
+		assertActive(auth.checkToken(token), 0);
+		assertCacheCounts(auth, before, 2, 5);
+
+		auth.invalidateAllTokens();
+		assertActive(auth.checkToken(other), 0);
+		assertCacheCounts(auth, before, 2, 6);
+	}
+
+	private void assertCacheCounts(TokenSessionService auth, CacheStats before, long hits, long misses) {
+		CacheStats stats = auth.getTokenCacheStats().minus(before);
+		Assert.assertEquals(hits, stats.hitCount());
+		Assert.assertEquals(misses, stats.missCount());
+	}
+
 	private void assertActive(TokenSession resp, int userId) {
 		Assert.assertNotNull(resp);
 		Assert.assertEquals(Status.ACTIVE_SESSION, resp.getStatus());
@@ -175,6 +175,11 @@ public class MockDao<T extends IDomainObject> implements ITypedDao<T> {
 		return this.findByPersistentId(persistentId);
 	}
 
+	@Override
+	public List<T> findByFilter(String criteriaName, Map<String, Object> inFilterArgs, Collection<UUID> persistentIds) {
+		throw new NotImplementedException();
+	}
+
 	@Override
 	public boolean matchesFilter(String criteriaName, Map<String, Object> inFilterArgs, UUID persistentId) {
 		throw new NotImplementedException();
@@ -0,0 +1,80 @@
+package com.codeshelf.util;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.testframework.MinimalTest;
+
+public class PropertyAccessorCacheTest extends MinimalTest {
+
+	public static class Node {
+		private final String	name;
+		private final Node		parent;
+
+		public Node(String name, Node parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Node getParent() {
+			return parent;
+		}
+
+		public boolean isRoot() {
+			return parent == null;
+		}
+
+		public int getFailing() {
+			throw new IllegalStateException("failing getter");
+		}
+	}
+
+	@Test
+	public void simpleAndBooleanProperties() throws InvocationTargetException {
+		Node root = new Node("root", null);
+		Assert.assertEquals("root", PropertyAccessorCache.getProperty(root, "name"));
+		Assert.assertEquals(Boolean.TRUE, PropertyAccessorCache.getProperty(root, "root"));
+	}
+
+	@Test
+	public void nestedProperties() throws InvocationTargetException {
+		Node child = new Node("child", new Node("root", null));
+		Assert.assertEquals("root", PropertyAccessorCache.getProperty(child, "parent.name"));
+		// null along the path yields null rather than an exception
+		Assert.assertNull(PropertyAccessorCache.getProperty(child, "parent.parent.name"));
+	}
+
+	@Test
+	public void missingPropertyIsCachedNotThrown() throws InvocationTargetException {
+		Node root = new Node("root", null);
+		Assert.assertSame(PropertyAccessorCache.NO_SUCH_PROPERTY, PropertyAccessorCache.getProperty(root, "description"));
+		Assert.assertSame(PropertyAccessorCache.NO_SUCH_PROPERTY, PropertyAccessorCache.getProperty(root, "description"));
+		Assert.assertNull(PropertyAccessorCache.propertyAccessor(Node.class, "description"));
+		Assert.assertSame(PropertyAccessorCache.NO_SUCH_PROPERTY, PropertyAccessorCache.getProperty(root, "name.nothing"));
+	}
+
+	@Test
+	public void getterExceptionIsWrapped() {
+		try {
+			PropertyAccessorCache.getProperty(new Node("root", null), "failing");
+			Assert.fail("expected exception");
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void methodAccessor() throws InvocationTargetException {
+		Node child = new Node("child", new Node("root", null));
+		PropertyAccessorCache.Accessor getter = PropertyAccessorCache.methodAccessor(Node.class, "getParent");
+		Assert.assertNotNull(getter);
+		Assert.assertEquals("root", ((Node) getter.get(child)).getName());
+		Assert.assertNull(PropertyAccessorCache.methodAccessor(Node.class, "getNothing"));
+	}
+}
@@ -0,0 +1,53 @@
+package com.codeshelf.ws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codeshelf.testframework.MinimalTest;
+import com.codeshelf.ws.io.BinaryJsonFrame;
+import com.codeshelf.ws.protocol.message.MessageABC;
+import com.codeshelf.ws.protocol.request.LoginRequest;
+
+public class BinaryJsonFrameTest extends MinimalTest {
+
+	@Test
+	public void testSmallMessageIsNotCompressed() throws IOException {
+		LoginRequest request = new LoginRequest();
+		request.setUserId("a@example.com");
+		request.setPassword("testme");
+
+		ByteBuffer frame = BinaryJsonFrame.encode(request);
+		Assert.assertEquals(BinaryJsonFrame.FORMAT_PLAIN, frame.get(frame.position()));
+
+		MessageABC decoded = BinaryJsonFrame.decode(frame);
+		Assert.assertTrue(decoded instanceof LoginRequest);
+		Assert.assertEquals(request.getMessageId(), decoded.getMessageId());
+	}
+
+	@Test
+	public void testLargeMessageIsCompressed() throws IOException {
+		StringBuilder userId = new StringBuilder();
+		while (userId.length() < BinaryJsonFrame.COMPRESS_THRESHOLD * 4) {
+			userId.append("picker@example.com;");
+		}
+		LoginRequest request = new LoginRequest();
+		request.setUserId(userId.toString());
+		request.setPassword("testme");
+
+		ByteBuffer frame = BinaryJsonFrame.encode(request);
+		Assert.assertEquals(BinaryJsonFrame.FORMAT_LZ4, frame.get(frame.position()));
+		Assert.assertTrue(frame.remaining() < userId.length());
+
+		MessageABC decoded = BinaryJsonFrame.decode(frame);
+		Assert.assertTrue(decoded instanceof LoginRequest);
+		Assert.assertEquals(userId.toString(), ((LoginRequest) decoded).getUserId());
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownFormatRejected() throws IOException {
+		BinaryJsonFrame.decode(ByteBuffer.wrap(new byte[] { 9, '{', '}' }));
+	}
+}
@@ -3,6 +3,7 @@ package com.codeshelf.ws;
 import java.io.IOException;
 
 import javax.websocket.DecodeException;
+import javax.websocket.EncodeException;
 
 import org.hibernate.Hibernate;
 import org.junit.Assert;
@@ -16,6 +17,7 @@ import com.codeshelf.model.domain.PathSegment;
 import com.codeshelf.model.domain.Point;
 import com.codeshelf.testframework.MinimalTest;
 import com.codeshelf.ws.io.JsonDecoder;
+import com.codeshelf.ws.io.JsonEncoder;
 import com.codeshelf.ws.io.ObjectMixIn;
 import com.codeshelf.ws.protocol.message.MessageABC;
 import com.codeshelf.ws.protocol.request.LoginRequest;
@@ -44,6 +46,25 @@ public class JsonDecoderTest extends MinimalTest {
 		Assert.assertTrue(messageABC instanceof LoginRequest);
 	}
 	
+	/**
+	 * Encoder and decoder share one configured reader/writer; round trip several messages through them
+	 */
+	@Test
+	public void testSharedCodecRoundTrip() throws DecodeException, EncodeException {
+		JsonEncoder encoder = new JsonEncoder();
+		JsonDecoder decoder = new JsonDecoder();
+		for (int i = 0; i < 3; i++) {
+			LoginRequest request = new LoginRequest();
+			request.setUserId("user" + i + "@example.com");
+			request.setPassword("testme");
+			String rawMessage = encoder.encode(request);
+			MessageABC messageABC = decoder.decode(rawMessage);
+			Assert.assertTrue(messageABC instanceof LoginRequest);
+			Assert.assertEquals(request.getMessageId(), messageABC.getMessageId());
+			Assert.assertEquals(request.getUserId(), ((LoginRequest) messageABC).getUserId());
+		}
+	}
+
 	@Test
 	public void testJsonPojoSerDeser() throws DecodeException, JsonParseException, JsonMappingException, IOException {
 		JsonPojo pojo = new JsonPojo();
@@ -0,0 +1,116 @@
+package com.codeshelf.ws.server;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codeshelf.testframework.MinimalTest;
+import com.codeshelf.ws.protocol.message.KeepAlive;
+import com.codeshelf.ws.protocol.message.MessageABC;
+import com.codeshelf.ws.protocol.request.PingRequest;
+
+public class OutboundMessageQueueTest extends MinimalTest {
+	private Session				session;
+	private Async				remote;
+	private WebSocketConnection	connection;
+
+	@Before
+	public void setupSession() {
+		session = Mockito.mock(Session.class);
+		remote = Mockito.mock(Async.class);
+		Mockito.when(session.getAsyncRemote()).thenReturn(remote);
+		connection = Mockito.mock(WebSocketConnection.class);
+	}
+
+	@Test
+	public void onlyOneMessageInFlight() {
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, session, 10, OutboundMessageQueue.OverflowPolicy.DISCONNECT);
+		PingRequest first = new PingRequest();
+		PingRequest second = new PingRequest();
+		Assert.assertTrue(queue.enqueue(first));
+		Assert.assertTrue(queue.enqueue(second));
+		Assert.assertEquals(2, queue.getDepth());
+
+		ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+		Mockito.verify(remote, Mockito.times(1)).sendObject(Mockito.eq(first), handler.capture());
+		Mockito.verify(remote, Mockito.never()).sendObject(Mockito.eq(second), Mockito.any(SendHandler.class));
+
+		handler.getValue().onResult(new SendResult());
+		Mockito.verify(remote, Mockito.times(1)).sendObject(Mockito.eq(second), Mockito.any(SendHandler.class));
+		Assert.assertEquals(1, queue.getDepth());
+		Mockito.verify(connection, Mockito.times(1)).messageSent();
+	}
+
+	@Test
+	public void inlineCompletionsDoNotRecurse() {
+		int backlog = 10000;
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, session, backlog, OutboundMessageQueue.OverflowPolicy.DISCONNECT);
+		PingRequest first = new PingRequest();
+		queue.enqueue(first);
+		for (int i = 0; i < backlog; i++) {
+			queue.enqueue(new PingRequest());
+		}
+		ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+		Mockito.verify(remote).sendObject(Mockito.eq(first), handler.capture());
+
+		// from now on every send completes before it returns, as it may when the socket buffer has room
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				((SendHandler) invocation.getArguments()[1]).onResult(new SendResult());
+				return null;
+			}
+		}).when(remote).sendObject(Mockito.any(), Mockito.any(SendHandler.class));
+		handler.getValue().onResult(new SendResult());
+
+		Assert.assertEquals(0, queue.getDepth());
+		Mockito.verify(connection, Mockito.times(backlog + 1)).messageSent();
+	}
+
+	@Test
+	public void coalescesQueuedKeepAlives() {
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, session, 10, OutboundMessageQueue.OverflowPolicy.DISCONNECT);
+		queue.enqueue(new PingRequest()); // in flight
+		queue.enqueue(new KeepAlive());
+		queue.enqueue(new KeepAlive());
+		queue.enqueue(new KeepAlive());
+		Assert.assertEquals(2, queue.getDepth());
+	}
+
+	@Test
+	public void dropOldestWhenFull() {
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, session, 2, OutboundMessageQueue.OverflowPolicy.DROP_OLDEST);
+		MessageABC inFlight = new PingRequest();
+		MessageABC dropped = new PingRequest();
+		queue.enqueue(inFlight);
+		queue.enqueue(dropped);
+		queue.enqueue(new PingRequest());
+		Assert.assertTrue(queue.enqueue(new PingRequest()));
+		Assert.assertEquals(3, queue.getDepth());
+
+		ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+		Mockito.verify(remote).sendObject(Mockito.eq(inFlight), handler.capture());
+		handler.getValue().onResult(new SendResult());
+		Mockito.verify(remote, Mockito.never()).sendObject(Mockito.eq(dropped), Mockito.any(SendHandler.class));
+	}
+
+	@Test
+	public void disconnectWhenFull() {
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, session, 1, OutboundMessageQueue.OverflowPolicy.DISCONNECT);
+		Assert.assertTrue(queue.enqueue(new PingRequest()));
+		Assert.assertTrue(queue.enqueue(new PingRequest()));
+		Assert.assertFalse(queue.enqueue(new PingRequest()));
+		Mockito.verify(connection).disconnect(Mockito.any(CloseReason.class));
+		Assert.assertFalse(queue.enqueue(new PingRequest()));
+	}
+}